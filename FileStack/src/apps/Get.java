@@ -67,7 +67,8 @@ public class Get extends ClientApplication
             destination = new File(destination, source.path.last());
 
         // Get a stub for the naming server and lock the source file.
-        Service         naming_server = NamingStubs.service(source.hostname);
+        Service         naming_server =
+            NamingStubs.routedService(source.hostname);
 
         try
         {
@@ -1,8 +1,11 @@
 package apps;
 
+import java.io.*;
 import java.util.*;
 
+import common.*;
 import naming.*;
+import rmi.*;
 
 /** Lists files and directories.
 
@@ -13,6 +16,13 @@ import naming.*;
     arguments is equivalent to listing the current directory on the current host
     - that is, to giving it the single argument <code>:</code>.
 
+    <p>
+    If the first argument is <code>-R</code>, directories are listed
+    recursively: every file and directory under each directory is printed,
+    relative to that directory, with directories marked by a trailing slash.
+    The entries are obtained from the naming server a page at a time with
+    <code>Service.walk</code>.
+
     <p>
     Unlike the usual <code>ls</code> command, this application is not capable of
     printing file permissions, owner, group, or modification, access, or
@@ -20,6 +30,9 @@ import naming.*;
  */
 public class List extends ClientApplication
 {
+    /** Number of entries requested in each page of a listing. */
+    private static final int    PAGE = 4096;
+
     /** Application entry point. */
     public static void main(String[] arguments)
     {
@@ -33,6 +46,13 @@ public class List extends ClientApplication
     @Override
     public void coreLogic(String[] arguments) throws ApplicationFailure
     {
+        // Check for the recursive option.
+        boolean         recursive =
+            arguments.length > 0 && arguments[0].equals("-R");
+
+        if(recursive)
+            arguments = Arrays.copyOfRange(arguments, 1, arguments.length);
+
         // Check that there is exactly one argument on the command line.
         if(arguments.length == 0)
             arguments = new String[] {":"};
@@ -42,7 +62,7 @@ public class List extends ClientApplication
         {
             try
             {
-                list(remote_path, arguments.length > 1);
+                list(remote_path, arguments.length > 1, recursive);
                 report();
             }
             catch(ApplicationFailure e)
@@ -63,9 +83,12 @@ public class List extends ClientApplication
                          is more than one command line argument, and the output
                          resulting from listing different arguments needs to be
                          distinguished.
+        @param recursive Set to <code>true</code> if the entries under
+                         subdirectories should be listed as well.
         @throws ApplicationFailure If the path cannot be listed
      */
-    private void list(String remote_path, boolean show_path)
+    private void list(String remote_path, boolean show_path,
+                      boolean recursive)
         throws ApplicationFailure
     {
         // Parse the single argument.
@@ -85,7 +108,8 @@ public class List extends ClientApplication
 
         // If the path is remote, obtain a naming server stub. Lock the path on
         // the naming server and list it.
-        Service         naming_server = NamingStubs.service(object.hostname);
+        Service         naming_server =
+            NamingStubs.routedService(object.hostname);
 
         try
         {
@@ -99,10 +123,12 @@ public class List extends ClientApplication
 
         try
         {
-            if(naming_server.isDirectory(object.path))
-                components = naming_server.list(object.path);
-            else
+            if(!naming_server.isDirectory(object.path))
                 components = new String[] {object.path.last()};
+            else if(recursive)
+                components = walk(naming_server, object.path);
+            else
+                components = list(naming_server, object.path);
         }
         catch(Throwable t)
         {
@@ -122,9 +148,7 @@ public class List extends ClientApplication
             }
         }
 
-        // Sort the array of components that is returned by list and print it.
-        Arrays.sort(components);
-
+        // Print the components, which the naming server returns in order.
         if(show_path)
             System.out.println(remote_path + ":");
 
@@ -136,4 +160,66 @@ public class List extends ClientApplication
             System.out.println(components[index]);
         }
     }
+
+    /** Lists the contents of a remote directory a page at a time.
+
+        @param naming_server Naming server holding the directory.
+        @param directory Directory to be listed.
+        @return The names of the entries in the directory, in lexicographic
+                order.
+        @throws FileNotFoundException If the directory does not exist.
+        @throws RMIException If a call to the naming server fails.
+     */
+    private String[] list(Service naming_server, Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        ArrayList<String>   names = new ArrayList<String>();
+        String[]            page = naming_server.list(directory, null, PAGE);
+
+        while(page.length != 0)
+        {
+            names.addAll(Arrays.asList(page));
+            page = naming_server.list(directory, page[page.length - 1], PAGE);
+        }
+
+        return names.toArray(new String[names.size()]);
+    }
+
+    /** Lists every file and directory under a remote directory.
+
+        @param naming_server Naming server holding the directory.
+        @param directory Directory to be listed.
+        @return The entries under the directory, in the order given by the
+                naming server. Each entry is given relative to the directory,
+                and directories are followed by a slash.
+        @throws FileNotFoundException If the directory does not exist.
+        @throws RMIException If a call to the naming server fails.
+     */
+    private String[] walk(Service naming_server, Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        ArrayList<String>   entries = new ArrayList<String>();
+        int                 prefix =
+            directory.isRoot() ? 1 : directory.toString().length() + 1;
+        Path                cursor = null;
+
+        do
+        {
+            WalkPage        page =
+                naming_server.walk(directory, cursor, PAGE);
+
+            for(int index = 0; index < page.count(); ++index)
+            {
+                String      entry = page.path(index).toString();
+
+                entries.add(entry.substring(prefix) +
+                            (page.isDirectory(index) ? "/" : ""));
+            }
+
+            cursor = page.cursor();
+        }
+        while(cursor != null);
+
+        return entries.toArray(new String[entries.size()]);
+    }
 }
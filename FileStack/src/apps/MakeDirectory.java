@@ -77,7 +77,8 @@ public class MakeDirectory extends ClientApplication
         // the given naming server.
         Path            parent = directory.path.parent();
 
-        Service         naming_server = NamingStubs.service(directory.hostname);
+        Service         naming_server =
+            NamingStubs.routedService(directory.hostname);
 
         try
         {
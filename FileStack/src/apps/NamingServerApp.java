@@ -1,15 +1,49 @@
 package apps;
 
+import java.io.*;
+
 import rmi.*;
 
+import common.Path;
+import naming.MountTable;
 import naming.NamingServer;
+import naming.NamingStubs;
+import naming.PlacementPolicy;
 
 /** Naming server application.
 
     <p>
-    The naming server application does not take any arguments. It starts a
-    naming server listening on the default client and registration ports for
-    clients and storage servers, respectively.
+    The naming server application starts a naming server listening on the
+    default client and registration ports for clients and storage servers,
+    respectively. Its first optional argument is the name of the policy used
+    to place new files on storage servers: <code>round-robin</code> (the
+    default), <code>least-bytes</code>, <code>least-in-flight</code>,
+    <code>two-choices</code> or <code>consistent-hash</code>. The second is a
+    directory in which the naming server journals its namespace, and from
+    which it restores the namespace when it is started again.
+
+    <p>
+    The third and fourth arguments, given together, make the naming server
+    serve one partition of a partitioned namespace: they are a mount table
+    file and the mount point of the partition in it. The naming server then
+    listens on the ports the table gives for the partition. Naming servers
+    serving different partitions must be given different metadata
+    directories.
+
+    <p>
+    Given <code>follow</code> and the hostname of another naming server as
+    its arguments, the naming server is instead a read-only follower of that
+    leader, which must journal its namespace. The follower copies the
+    leader's namespace and answers reads from it. It listens on the default
+    ports, or on the client and registration ports given after the
+    hostname, so that it can run on the same host as its leader.
+
+    <p>
+    The naming server deletes in the background: a deleted file or directory
+    is removed from the namespace at once, and its storage is reclaimed from
+    the storage servers afterwards. It requires heartbeats from the storage
+    servers, and considers one that has not sent a heartbeat since it
+    registered to have failed.
  */
 public class NamingServerApp extends ServerApplication
 {
@@ -32,17 +66,157 @@ public class NamingServerApp extends ServerApplication
     /** Starts the naming server.
 
         @param arguments Command line arguments.
-        @throws BadUsageException If there are any command line arguments.
-        @throws RMIException If the naming server cannot be started.
+        @throws BadUsageException If there are three or more than four
+                                  command line arguments, if the placement
+                                  policy is not known, or if the mount table
+                                  has no partition at the mount point given.
+        @throws RMIException If the naming server cannot be started, if its
+                             journal or mount table cannot be read, or if a
+                             follower cannot load its leader's namespace.
      */
     @Override
     protected void startServer(String[] arguments)
         throws BadUsageException, RMIException
     {
-        if(arguments.length != 0)
-            throw new BadUsageException("usage: naming");
+        final String    usage = "usage: naming [round-robin | least-bytes | " +
+                                "least-in-flight | two-choices | " +
+                                "consistent-hash] [metadata_directory " +
+                                "[mount_table mount_point]]\n" +
+                                "       naming follow leader_hostname " +
+                                "[service_port registration_port]";
+
+        if(arguments.length >= 1 && arguments[0].equals("follow"))
+        {
+            startFollower(arguments, usage);
+            return;
+        }
+
+        if(arguments.length > 4 || arguments.length == 3)
+            throw new BadUsageException(usage);
+
+        PlacementPolicy placement = null;
+
+        if(arguments.length >= 1)
+        {
+            try
+            {
+                placement = PlacementPolicy.forName(arguments[0]);
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new BadUsageException(usage);
+            }
+        }
+
+        MountTable      table = null;
+        Path            prefix = null;
+        int             mount = -1;
+
+        if(arguments.length == 4)
+        {
+            try
+            {
+                table = MountTable.read(new File(arguments[2]));
+                prefix = new Path(arguments[3]);
+            }
+            catch(IOException e)
+            {
+                throw new RMIException("unable to read mount table " +
+                                       arguments[2], e);
+            }
+            catch(IllegalArgumentException e)
+            {
+                throw new BadUsageException(usage);
+            }
+
+            mount = table.find(prefix);
+
+            if(mount < 0)
+                throw new BadUsageException("no partition at " + prefix);
+        }
+
+        if(table == null)
+            server = new StoppingNamingServer();
+        else
+        {
+            server =
+                new StoppingNamingServer(table.mount(mount).service_port,
+                                         table.mount(mount).registration_port);
+        }
+
+        if(placement != null)
+            server.setPlacementPolicy(placement);
+
+        server.setBackgroundDeletion(true);
+        server.setHeartbeatsRequired(true);
+
+        if(arguments.length >= 2)
+        {
+            try
+            {
+                server.setMetadataDirectory(new File(arguments[1]));
+            }
+            catch(IOException e)
+            {
+                throw new RMIException("unable to open journal in " +
+                                       arguments[1], e);
+            }
+        }
+
+        if(table != null)
+            server.setPartition(table, prefix);
+
+        server.start();
+    }
+
+    /** Starts a follower of another naming server.
+
+        @param arguments Command line arguments, the first of which is
+                         <code>follow</code>.
+        @param usage Usage message.
+        @throws BadUsageException If the leader's hostname is missing, or the
+                                  ports are not both given as numbers.
+        @throws RMIException If the follower cannot be started, or if it
+                             cannot load the leader's namespace.
+     */
+    private void startFollower(String[] arguments, String usage)
+        throws BadUsageException, RMIException
+    {
+        if(arguments.length != 2 && arguments.length != 4)
+            throw new BadUsageException(usage);
+
+        if(arguments.length == 2)
+            server = new StoppingNamingServer();
+        else
+        {
+            try
+            {
+                server =
+                    new StoppingNamingServer(Integer.parseInt(arguments[2]),
+                                             Integer.parseInt(arguments[3]));
+            }
+            catch(NumberFormatException e)
+            {
+                throw new BadUsageException(usage);
+            }
+        }
+
+        server.setHeartbeatsRequired(true);
+
+        try
+        {
+            server.follow(NamingStubs.service(arguments[1]));
+        }
+        catch(IOException e)
+        {
+            throw new RMIException("unable to load the namespace of " +
+                                   arguments[1], e);
+        }
+        catch(IllegalStateException e)
+        {
+            throw new RMIException("unable to follow " + arguments[1], e);
+        }
 
-        server = new StoppingNamingServer();
         server.start();
     }
 
@@ -56,6 +230,17 @@ public class NamingServerApp extends ServerApplication
     /** Application naming server. */
     private class StoppingNamingServer extends NamingServer
     {
+        /** Creates a naming server listening on the default ports. */
+        StoppingNamingServer()
+        {
+        }
+
+        /** Creates a naming server listening on the given ports. */
+        StoppingNamingServer(int service_port, int registration_port)
+        {
+            super(service_port, registration_port);
+        }
+
         /** Schedules a timeout before attempting to stop the server
             gracefully. */
         @Override
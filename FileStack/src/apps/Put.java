@@ -77,7 +77,7 @@ public class Put extends ClientApplication
 
         // Obtain a stub for the remote naming server.
         Service         naming_server =
-            NamingStubs.service(destination.hostname);
+            NamingStubs.routedService(destination.hostname);
 
         // Lock the parent of the destination path on the remote server.
         try
@@ -101,32 +101,59 @@ public class Put extends ClientApplication
             // new file within that directory.
             Path            destination_path = destination.path;
 
-            // If the destination path refers to a directory, create a new path
-            // to point to a new file in that directory.
+            // Examine the destination path, and the path to a file with the
+            // source's name in it in case it is a directory, in a single call.
+            String          filename = source.getName();
+            Path            in_directory = null;
+
             try
             {
-                if(naming_server.isDirectory(destination.path))
+                in_directory = new Path(destination.path, filename);
+            }
+            catch(IllegalArgumentException e) { }
+
+            PathStat[]      stats =
+                naming_server.stat(in_directory == null ?
+                                   new Path[] {destination.path} :
+                                   new Path[] {destination.path,
+                                               in_directory});
+            PathStat        existing = stats[0];
+
+            // If the destination path refers to a directory, use the path to
+            // a new file in that directory.
+            if(existing.isDirectory())
+            {
+                if(filename.length() == 0)
+                    throw new ApplicationFailure("source filename empty");
+
+                if(in_directory == null)
                 {
-                    String  filename = source.getName();
-                    if(filename.length() == 0)
-                        throw new ApplicationFailure("source filename empty");
-
-                    destination_path = new Path(destination.path, filename);
-
-                    // If, after modifying the path, the path still refers to a
-                    // directory, then the application must terminate.
-                    if(naming_server.isDirectory(destination_path))
-                    {
-                        throw new ApplicationFailure(destination + " is a " +
-                                                     "directory");
-                    }
+                    throw new ApplicationFailure("source filename not " +
+                                                 "allowed: " + filename);
                 }
 
-                // If control has reached here, the destination path exists, and
-                // it is a regular file. Attempt to delete it.
-                naming_server.delete(destination_path);
+                destination_path = in_directory;
+                existing = stats[1];
+
+                // If, after modifying the path, the path still refers to a
+                // directory, then the application must terminate.
+                if(existing.isDirectory())
+                {
+                    throw new ApplicationFailure(destination + " is a " +
+                                                 "directory");
+                }
+            }
+
+            // If the destination path exists, it is a regular file. Attempt to
+            // delete it.
+            if(existing.exists())
+            {
+                try
+                {
+                    naming_server.delete(destination_path);
+                }
+                catch(FileNotFoundException e) { }
             }
-            catch(FileNotFoundException e) { }
 
             // Create a new file with the name of the destination file.
             naming_server.createFile(destination_path);
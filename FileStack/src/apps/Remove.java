@@ -73,7 +73,8 @@ public class Remove extends ClientApplication
         // the parent object for exclusive access.
         Path            parent = object.path.parent();
 
-        Service         naming_server = NamingStubs.service(object.hostname);
+        Service         naming_server =
+            NamingStubs.routedService(object.hostname);
 
         try
         {
@@ -84,7 +84,8 @@ public class StorageServerApp extends ServerApplication
         server = new StoppingStorageServer(local_root);
 
         // Start and register the storage server.
-        server.start(arguments[0], NamingStubs.registration(arguments[1]));
+        server.start(arguments[0],
+                     NamingStubs.routedRegistration(arguments[1]));
     }
 
     /** Stops the storage server. */
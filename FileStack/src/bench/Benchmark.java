@@ -0,0 +1,156 @@
+package bench;
+
+import java.io.*;
+import java.util.*;
+
+/** Base class of benchmarks.
+
+    <p>
+    Benchmarks are created by subclassing <code>Benchmark</code> and overriding
+    the <code>run</code> method, which performs the measurements and prints a
+    short report. Benchmarks may include a static field <code>notice</code>,
+    which is printed before the benchmark is run.
+
+    <p>
+    Most benchmarks drive a component from many threads at once. The
+    <code>concurrently</code> method runs a <code>Worker</code> on a given
+    number of threads for a fixed interval and collects the per-operation
+    counts reported by each thread.
+ */
+public abstract class Benchmark
+{
+    /** Runs the benchmark.
+
+        @param stream Stream to which the results are to be printed.
+        @throws Throwable If the benchmark cannot be completed. Benchmarks that
+                          detect incorrect behavior of the component under
+                          measurement should also throw.
+     */
+    public abstract void run(PrintStream stream) throws Throwable;
+
+    /** Work performed repeatedly by each benchmark thread. */
+    public interface Worker
+    {
+        /** Performs a single operation.
+
+            @param thread Index of the calling thread.
+            @param random Random number generator private to the calling
+                          thread.
+            @return Index of the kind of operation performed. This is used to
+                    keep separate counts for each kind of operation.
+            @throws Throwable If the operation fails. The failure is recorded
+                              and the thread continues.
+         */
+        int operation(int thread, Random random) throws Throwable;
+    }
+
+    /** Results of a concurrent run. */
+    public static class Counts
+    {
+        /** Number of completed operations of each kind. */
+        public final long[]     operations;
+        /** Number of failed operations. */
+        public long             failures;
+        /** First failure seen, or <code>null</code>. */
+        public Throwable        first_failure;
+        /** Length of the run, in nanoseconds. */
+        public long             elapsed;
+
+        /** Creates an empty set of counts for the given number of kinds of
+            operations. */
+        Counts(int kinds)
+        {
+            operations = new long[kinds];
+        }
+
+        /** Returns the total number of completed operations. */
+        public long total()
+        {
+            long    sum = 0;
+
+            for(long count : operations)
+                sum += count;
+
+            return sum;
+        }
+
+        /** Returns the throughput of the given number of operations, in
+            operations per second. */
+        public double rate(long count)
+        {
+            return count * 1e9 / elapsed;
+        }
+    }
+
+    /** Runs a worker on several threads for a fixed interval.
+
+        @param threads Number of threads to start.
+        @param milliseconds Length of the run.
+        @param kinds Number of kinds of operations the worker may report.
+        @param worker The worker.
+        @return The combined operation counts of all threads.
+        @throws InterruptedException If the calling thread is interrupted
+                                     while waiting for the threads to finish.
+     */
+    protected static Counts concurrently(int threads, long milliseconds,
+                                         final int kinds, final Worker worker)
+        throws InterruptedException
+    {
+        final Counts        counts = new Counts(kinds);
+        final long          deadline =
+            System.nanoTime() + milliseconds * 1000000L;
+        Thread[]            pool = new Thread[threads];
+
+        for(int index = 0; index < threads; ++index)
+        {
+            final int       thread = index;
+
+            pool[index] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    Random      random = new Random(thread);
+                    long[]      local = new long[kinds];
+                    long        failures = 0;
+                    Throwable   first = null;
+
+                    while(System.nanoTime() < deadline)
+                    {
+                        try
+                        {
+                            ++local[worker.operation(thread, random)];
+                        }
+                        catch(Throwable t)
+                        {
+                            ++failures;
+                            if(first == null)
+                                first = t;
+                        }
+                    }
+
+                    synchronized(counts)
+                    {
+                        for(int kind = 0; kind < kinds; ++kind)
+                            counts.operations[kind] += local[kind];
+
+                        counts.failures += failures;
+                        if(counts.first_failure == null)
+                            counts.first_failure = first;
+                    }
+                }
+            };
+        }
+
+        long                start = System.nanoTime();
+
+        for(Thread thread : pool)
+            thread.start();
+
+        for(Thread thread : pool)
+            thread.join();
+
+        counts.elapsed = System.nanoTime() - start;
+        return counts;
+    }
+}
@@ -0,0 +1,61 @@
+package bench;
+
+/** Runs all benchmarks of distributed filesystem components.
+
+    <p>
+    Benchmarks run are:
+    <ul>
+    <li>{@link naming.NamespaceBenchmark}</li>
+    <li>{@link naming.LockBenchmark}</li>
+    <li>{@link naming.HashRingBenchmark}</li>
+    <li>{@link naming.JournalBenchmark}</li>
+    <li>{@link naming.CheckpointBenchmark}</li>
+    <li>{@link naming.BulkLoadBenchmark}</li>
+    <li>{@link naming.PartitionBenchmark}</li>
+    </ul>
+ */
+public class Benchmarks
+{
+    /** Runs the benchmarks.
+
+        @param arguments Ignored.
+     */
+    public static void main(String[] arguments)
+    {
+        Class<?>[]      benchmarks =
+            new Class<?>[] {naming.NamespaceBenchmark.class,
+                            naming.LockBenchmark.class,
+                            naming.HashRingBenchmark.class,
+                            naming.JournalBenchmark.class,
+                            naming.CheckpointBenchmark.class,
+                            naming.BulkLoadBenchmark.class,
+                            naming.PartitionBenchmark.class};
+        boolean         successful = true;
+
+        for(Class<?> benchmark : benchmarks)
+        {
+            try
+            {
+                Object  notice = benchmark.getField("notice").get(null);
+                System.out.println(notice + "...");
+            }
+            catch(Exception e) { }
+
+            try
+            {
+                ((Benchmark)benchmark.getDeclaredConstructor().newInstance())
+                    .run(System.out);
+            }
+            catch(Throwable t)
+            {
+                System.out.println("benchmark failed: " + t);
+                t.printStackTrace(System.out);
+                successful = false;
+            }
+
+            System.out.println();
+        }
+
+        System.exit(successful ? 0 : 2);
+    }
+}
@@ -0,0 +1,136 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+import test.NullStorageServer;
+import common.*;
+
+/** Benchmark of the insertion of a registering storage server's files.
+
+    <p>
+    A storage server listing a few hundred thousand files, directory by
+    directory, is registered with a fresh in-process naming server in three
+    ways: by adding each path to the tree on its own, walking from the root
+    every time, as registration used to; by the sorted bulk loader on a single
+    thread; and by the bulk loader with directories linked in parallel on its
+    fork/join pool. The loaders are given the files in batches of
+    <code>BATCH</code> paths, as storage servers send them. Each method is
+    repeated several times, and the best throughput, in paths per second, is
+    reported. The benchmark fails if any method does not add every file.
+ */
+public class BulkLoadBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring naming server bulk insertion of registered files";
+
+    /** Number of top-level directories. */
+    private static final int    DIRECTORIES = 64;
+    /** Number of subdirectories of each top-level directory. */
+    private static final int    SUBDIRECTORIES = 32;
+    /** Number of files in each subdirectory. */
+    private static final int    FILES = 128;
+    /** Number of paths in each registration batch, as sent by storage
+        servers. */
+    private static final int    BATCH = 1024;
+    /** Number of times each method is run. */
+    private static final int    REPETITIONS = 3;
+
+    // Methods of insertion.
+    private static final int    LOOP = 0;
+    private static final int    SORTED = 1;
+    private static final int    PARALLEL = 2;
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        ArrayList<Path>     listed = new ArrayList<Path>();
+
+        for(int directory = 0; directory < DIRECTORIES; ++directory)
+        {
+            for(int sub = 0; sub < SUBDIRECTORIES; ++sub)
+            {
+                Path        parent =
+                    new Path("/data" + directory + "/part" + sub);
+
+                for(int file = 0; file < FILES; ++file)
+                    listed.add(new Path(parent, "file" + file));
+            }
+        }
+
+        Path[]              files = listed.toArray(new Path[0]);
+
+        stream.printf("paths: %d, processors: %d%n", files.length,
+                      Runtime.getRuntime().availableProcessors());
+        stream.printf("per-path loop:   %10.0f paths/s%n",
+                      best(files, LOOP));
+        stream.printf("sorted loader:   %10.0f paths/s%n",
+                      best(files, SORTED));
+        stream.printf("parallel loader: %10.0f paths/s%n",
+                      best(files, PARALLEL));
+    }
+
+    /** Inserts the files into fresh naming servers using the given method,
+        and returns the best throughput, in paths per second. */
+    private double best(Path[] files, int method) throws Throwable
+    {
+        long                best = Long.MAX_VALUE;
+
+        for(int repetition = 0; repetition < REPETITIONS; ++repetition)
+        {
+            NamingServer        server = new NamingServer();
+            NullStorageServer   storage = new NullStorageServer();
+
+            server.replication.shutdown();
+
+            long                registration =
+                server.beginRegistration(storage, storage);
+            int                 added = 0;
+            long                start = System.nanoTime();
+
+            if(method == LOOP)
+            {
+                for(Path file : files)
+                {
+                    if(server.addToTree(storage, file))
+                        ++added;
+                }
+            }
+            else
+            {
+                for(int from = 0; from < files.length; from += BATCH)
+                {
+                    Path[]      batch =
+                        Arrays.copyOfRange(files, from,
+                                           Math.min(from + BATCH,
+                                                    files.length));
+                    TreeLoader  loader =
+                        new TreeLoader(server, storage, batch);
+
+                    loader.load(method == PARALLEL);
+                    added += loader.added();
+                }
+            }
+
+            best = Math.min(best, System.nanoTime() - start);
+            server.endRegistration(registration);
+
+            if(added != files.length)
+            {
+                throw new IllegalStateException("added " + added + " of " +
+                                                files.length + " files");
+            }
+        }
+
+        return files.length * 1e9 / best;
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new BulkLoadBenchmark().run(System.out);
+    }
+}
@@ -0,0 +1,197 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import bench.*;
+import test.NullStorageServer;
+import common.*;
+
+/** Benchmark of namespace checkpoints.
+
+    <p>
+    The benchmark registers half a million files with a journaled naming
+    server, and measures how long restarting takes when the namespace is
+    restored by replaying the journal alone. It then writes a checkpoint and
+    measures restarting from the checkpoint. Each restart is measured three
+    times and the shortest time is reported, together with the sizes of the
+    journal and of the checkpoint. Finally it writes a second checkpoint
+    while eight threads keep creating files, and reports the time taken to
+    write it and the throughput of the concurrent creations. The benchmark
+    fails if any restart does not restore every file.
+ */
+public class CheckpointBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring namespace checkpoint size, write time and load time";
+
+    /** Number of files registered. */
+    private static final int    FILES = 500000;
+    /** Number of directories the files are spread over. */
+    private static final int    DIRECTORIES = 1000;
+    /** Number of threads creating files during the checkpoint. */
+    private static final int    THREADS = 8;
+    /** Number of times each kind of restart is measured. */
+    private static final int    REPETITIONS = 3;
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        File                    directory =
+            File.createTempFile("checkpoint", "");
+
+        if(!directory.delete() || !directory.mkdir())
+            throw new IOException("unable to create " + directory);
+
+        try
+        {
+            Path[]              files = new Path[FILES];
+
+            for(int index = 0; index < FILES; ++index)
+            {
+                files[index] = new Path("/d" + (index % DIRECTORIES) +
+                                        "/file-" + index);
+            }
+
+            final NamingServer  server = new NamingServer();
+
+            server.setMetadataDirectory(directory);
+
+            NullStorageServer   storage = new NullStorageServer();
+
+            server.register(storage, storage, files);
+            server.replication.shutdown();
+
+            long                journal_bytes = 0;
+
+            for(File segment : Journal.segments(directory))
+                journal_bytes += segment.length();
+
+            long                replay = restarts(directory, FILES);
+
+            server.checkpoint();
+
+            long                checkpoint_bytes =
+                Checkpoint.latest(directory).length();
+
+            long                load = restarts(directory, FILES);
+
+            stream.printf("%d files: journal %.1f bytes per entry, replay " +
+                          "%.0f ms; checkpoint %.1f bytes per entry, load " +
+                          "%.0f ms%n", FILES, (double)journal_bytes / FILES,
+                          replay / 1e6,
+                          (double)checkpoint_bytes / (FILES + DIRECTORIES),
+                          load / 1e6);
+
+            // Write a checkpoint while other threads create files.
+            final AtomicBoolean done = new AtomicBoolean(false);
+            final AtomicLong    created = new AtomicLong();
+            Thread[]            threads = new Thread[THREADS];
+
+            for(int index = 0; index < THREADS; ++index)
+            {
+                final int       thread = index;
+
+                threads[index] = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            for(int count = 0; !done.get(); ++count)
+                            {
+                                server.createFile(
+                                    new Path("/d" + (count % DIRECTORIES) +
+                                             "/new-" + thread + "-" + count));
+                                created.incrementAndGet();
+                            }
+                        }
+                        catch(Throwable t)
+                        {
+                            t.printStackTrace();
+                        }
+                    }
+                };
+
+                threads[index].start();
+            }
+
+            long                start = System.nanoTime();
+
+            server.checkpoint();
+
+            long                write = System.nanoTime() - start;
+
+            done.set(true);
+
+            for(Thread thread : threads)
+                thread.join();
+
+            server.journal.close();
+            restart(directory, FILES + created.get()).journal.close();
+
+            stream.printf("checkpoint written in %.0f ms with %.0f " +
+                          "concurrent creates/s%n", write / 1e6,
+                          created.get() * 1e9 / write);
+        }
+        finally
+        {
+            for(File file : directory.listFiles())
+                file.delete();
+
+            directory.delete();
+        }
+    }
+
+    /** Restarts a naming server on the metadata directory several times, and
+        returns the shortest time taken, in nanoseconds. */
+    private long restarts(File directory, long files) throws IOException
+    {
+        long                    best = Long.MAX_VALUE;
+
+        for(int repetition = 0; repetition < REPETITIONS; ++repetition)
+        {
+            long                start = System.nanoTime();
+            NamingServer        server = restart(directory, files);
+
+            best = Math.min(best, System.nanoTime() - start);
+            server.journal.close();
+        }
+
+        return best;
+    }
+
+    /** Opens a naming server on the metadata directory and checks that it
+        holds the given number of files. */
+    private NamingServer restart(File directory, long files)
+        throws IOException
+    {
+        NamingServer            server = new NamingServer();
+
+        server.setMetadataDirectory(directory);
+        server.replication.shutdown();
+
+        long                    found = 0;
+
+        for(int index = 0; index < DIRECTORIES; ++index)
+            found += server.list(new Path("/d" + index)).length;
+
+        if(found != files)
+        {
+            throw new IllegalStateException("restored " + found + " files, " +
+                                            "but " + files + " were created");
+        }
+
+        return server;
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new CheckpointBenchmark().run(System.out);
+    }
+}
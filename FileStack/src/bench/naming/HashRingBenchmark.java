@@ -0,0 +1,114 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+
+/** Benchmark of the consistent-hash ring.
+
+    <p>
+    For rings of 10, 100 and 1000 members, the benchmark measures the time to
+    build the ring, the cost of looking up the primary member and a
+    three-member preference list of a path, and the balance of one million
+    paths over the members. It then adds one member and reports the fraction
+    of paths whose primary changed, which should be close to the new member's
+    fair share. The benchmark fails if a path moves between two old members.
+ */
+public class HashRingBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring consistent-hash ring lookup cost and balance";
+
+    /** Ring sizes measured. */
+    private static final int[]  SIZES = new int[] {10, 100, 1000};
+    /** Number of paths placed on each ring. */
+    private static final int    PATHS = 1000000;
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        String[]                keys = new String[PATHS];
+
+        for(int index = 0; index < PATHS; ++index)
+            keys[index] = "/d" + (index % 1000) + "/f" + index;
+
+        stream.printf("%7s %9s %11s %11s %9s %9s %8s%n", "servers",
+                      "build ms", "primary ns", "3-list ns", "max/mean",
+                      "stddev", "moved");
+
+        for(int size : SIZES)
+        {
+            ConsistentHashRing<Integer> ring =
+                new ConsistentHashRing<Integer>();
+            long                        start = System.nanoTime();
+
+            for(int server = 0; server < size; ++server)
+                ring.add("storage-" + server, server);
+
+            long                        build = System.nanoTime() - start;
+
+            // Primary lookups, also counting each member's share.
+            int[]                       load = new int[size];
+            int[]                       primary = new int[PATHS];
+
+            start = System.nanoTime();
+            for(int index = 0; index < PATHS; ++index)
+            {
+                primary[index] = ring.primary(keys[index]);
+                ++load[primary[index]];
+            }
+            long                        lookup = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for(int index = 0; index < PATHS; ++index)
+                ring.preferenceList(keys[index], 3);
+            long                        list = System.nanoTime() - start;
+
+            double                      mean = (double)PATHS / size;
+            double                      squares = 0;
+            int                         most = 0;
+
+            for(int count : load)
+            {
+                squares += (count - mean) * (count - mean);
+                most = Math.max(most, count);
+            }
+
+            // Add one member and check that paths only move to it.
+            ring.add("storage-" + size, size);
+
+            int                         moved = 0;
+
+            for(int index = 0; index < PATHS; ++index)
+            {
+                int                     now = ring.primary(keys[index]);
+
+                if(now == primary[index])
+                    continue;
+
+                if(now != size)
+                {
+                    throw new IllegalStateException(keys[index] + " moved " +
+                                                    "between old servers");
+                }
+
+                ++moved;
+            }
+
+            stream.printf("%7d %9.1f %11.0f %11.0f %9.3f %8.1f%% %7.2f%%%n",
+                          size, build / 1e6, (double)lookup / PATHS,
+                          (double)list / PATHS, most / mean,
+                          100 * Math.sqrt(squares / size) / mean,
+                          100.0 * moved / PATHS);
+        }
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new HashRingBenchmark().run(System.out);
+    }
+}
@@ -0,0 +1,157 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+import test.NullStorageServer;
+import common.*;
+
+/** Benchmark of the cost of the naming server's journal.
+
+    <p>
+    With 1, 8 and 64 threads, the benchmark creates files in an in-process
+    naming server for a fixed interval, first without a journal and then with
+    one kept in a temporary directory. It reports the throughput of each run
+    and, for the journaled runs, the mean number of mutations made durable by
+    each <code>fsync</code>, which shows the effect of group commit. Finally,
+    it opens a new naming server on the journal and reports how long the
+    namespace takes to be restored. The benchmark fails if the restored
+    namespace does not hold every file that was created.
+ */
+public class JournalBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring naming server journal cost per mutation and replay time";
+
+    /** Numbers of threads measured. */
+    private static final int[]  THREADS = new int[] {1, 8, 64};
+    /** Number of directories the files are created in. */
+    private static final int    DIRECTORIES = 64;
+    /** Length of each run, in milliseconds. */
+    private static final long   DURATION = 2000;
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        File                    directory = File.createTempFile("journal", "");
+
+        if(!directory.delete() || !directory.mkdir())
+            throw new IOException("unable to create " + directory);
+
+        try
+        {
+            stream.printf("%7s %14s %14s %9s %12s%n", "threads",
+                          "memory ops/s", "journal ops/s", "overhead",
+                          "per fsync");
+
+            long                files = 0;
+
+            for(int threads : THREADS)
+            {
+                Counts          memory =
+                    create(new NamingServer(), threads, "m" + threads);
+                NamingServer    server = new NamingServer();
+
+                server.setMetadataDirectory(directory);
+
+                Counts          journaled =
+                    create(server, threads, "j" + threads);
+                Journal         journal = server.journal;
+
+                files += journaled.total();
+                journal.close();
+
+                stream.printf("%7d %14.0f %14.0f %8.1fx %12.1f%n", threads,
+                              memory.rate(memory.total()),
+                              journaled.rate(journaled.total()),
+                              memory.rate(memory.total()) /
+                                  journaled.rate(journaled.total()),
+                              (double)journal.records() / journal.syncs());
+            }
+
+            NamingServer        restored = new NamingServer();
+            long                start = System.nanoTime();
+
+            restored.setMetadataDirectory(directory);
+
+            long                replay = System.nanoTime() - start;
+            long                found = 0;
+
+            for(int index = 0; index < DIRECTORIES; ++index)
+            {
+                Path            parent = new Path("/d" + index);
+
+                if(restored.index.containsKey(parent))
+                    found += restored.list(parent).length;
+            }
+
+            restored.replication.shutdown();
+
+            if(found != files)
+            {
+                throw new IllegalStateException("replay restored " + found +
+                                                " files, but " + files +
+                                                " were created");
+            }
+
+            stream.printf("replayed %d files in %.1f ms (%.0f files/s)%n",
+                          found, replay / 1e6, found * 1e9 / replay);
+        }
+        finally
+        {
+            for(File file : Journal.segments(directory))
+                file.delete();
+
+            directory.delete();
+        }
+    }
+
+    /** Creates files on the given number of threads for the length of a
+        run, and returns the operation counts. */
+    private Counts create(final NamingServer server, int threads,
+                          final String prefix)
+        throws Throwable
+    {
+        NullStorageServer       storage = new NullStorageServer();
+
+        server.register(storage, storage, new Path[0]);
+
+        for(int index = 0; index < DIRECTORIES; ++index)
+            server.createDirectory(new Path("/d" + index));
+
+        final int[]             created = new int[threads];
+
+        Counts                  counts = concurrently(threads, DURATION, 1,
+                                                      new Worker()
+        {
+            @Override
+            public int operation(int thread, Random random) throws Throwable
+            {
+                Path            file =
+                    new Path("/d" + random.nextInt(DIRECTORIES) + "/" +
+                             prefix + "-" + thread + "-" + created[thread]++);
+
+                if(!server.createFile(file))
+                    throw new IllegalStateException(file + " not created");
+
+                return 0;
+            }
+        });
+
+        if(counts.failures != 0)
+            throw new IllegalStateException("createFile failed",
+                                            counts.first_failure);
+
+        server.replication.shutdown();
+        return counts;
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new JournalBenchmark().run(System.out);
+    }
+}
@@ -0,0 +1,138 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+import bench.*;
+import test.NullStorageServer;
+import common.*;
+
+/** Contention benchmark of the naming server lock.
+
+    <p>
+    The benchmark runs each of the sharing and exclusion scenarios of
+    <code>conformance.naming.LockTest</code> under load. In each scenario, half
+    of the threads repeatedly lock and unlock the first path of the scenario,
+    and the other half the second path. The benchmark reports the number of
+    lock and unlock pairs completed per second, and fails if two threads are
+    ever seen holding conflicting locks at the same time.
+ */
+public class LockBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring naming server lock under the lock test scenarios";
+
+    /** Number of threads in each scenario. */
+    private static final int    THREADS = 16;
+    /** Length of each scenario, in milliseconds. */
+    private static final long   DURATION = 1000;
+
+    private final Path          root = new Path("/");
+    private final Path          directory = new Path("/directory");
+    private final Path          file1 = new Path("/directory/file1");
+    private final Path          file2 = new Path("/directory/file2");
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   storage = new NullStorageServer();
+
+        server.register(storage, storage, new Path[] {file1, file2});
+
+        scenario(stream, server, root, false, root, false, false);
+        scenario(stream, server, file1, true, file2, true, false);
+        scenario(stream, server, file1, true, directory, false, false);
+
+        scenario(stream, server, root, false, root, true, true);
+        scenario(stream, server, root, true, root, false, true);
+        scenario(stream, server, root, true, root, true, true);
+        scenario(stream, server, root, true, directory, false, true);
+        scenario(stream, server, directory, false, root, true, true);
+        scenario(stream, server, directory, true, root, true, true);
+    }
+
+    /** Runs a single scenario.
+
+        @param stream Stream to which the result is printed.
+        @param server Naming server under measurement.
+        @param first_path Path locked by the first half of the threads.
+        @param first_exclusive Mode in which <code>first_path</code> is locked.
+        @param second_path Path locked by the second half of the threads.
+        @param second_exclusive Mode in which <code>second_path</code> is
+                                locked.
+        @param exclusion <code>true</code> if the two locks exclude each other.
+        @throws Throwable If the scenario fails.
+     */
+    private void scenario(PrintStream stream, final NamingServer server,
+                          Path first_path, boolean first_exclusive,
+                          Path second_path, boolean second_exclusive,
+                          final boolean exclusion)
+        throws Throwable
+    {
+        final Path[]            paths = new Path[] {first_path, second_path};
+        final boolean[]         modes =
+            new boolean[] {first_exclusive, second_exclusive};
+        final AtomicInteger[]   inside =
+            new AtomicInteger[] {new AtomicInteger(), new AtomicInteger()};
+
+        Counts                  counts = concurrently(THREADS, DURATION, 1,
+                                                      new Worker()
+        {
+            @Override
+            public int operation(int thread, Random random) throws Throwable
+            {
+                int     group = thread % 2;
+                int     other = 1 - group;
+
+                server.lock(paths[group], modes[group]);
+
+                try
+                {
+                    int holders = inside[group].incrementAndGet();
+
+                    if(modes[group] && holders > 1)
+                    {
+                        throw new IllegalStateException(paths[group] +
+                            " locked for exclusive access more than once");
+                    }
+
+                    if(exclusion && inside[other].get() != 0)
+                    {
+                        throw new IllegalStateException(paths[group] +
+                            " and " + paths[other] + " locked at once");
+                    }
+                }
+                finally
+                {
+                    inside[group].decrementAndGet();
+                    server.unlock(paths[group], modes[group]);
+                }
+
+                return 0;
+            }
+        });
+
+        stream.printf("%-9s %s %-17s %s %-17s %10.0f ops/s%n",
+                      exclusion ? "exclusion" : "sharing",
+                      first_exclusive ? "X" : "S", first_path,
+                      second_exclusive ? "X" : "S", second_path,
+                      counts.rate(counts.total()));
+
+        if(counts.failures != 0)
+        {
+            throw new IllegalStateException(counts.failures +
+                                            " operations failed",
+                                            counts.first_failure);
+        }
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new LockBenchmark().run(System.out);
+    }
+}
@@ -0,0 +1,150 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+import test.NullStorageServer;
+import common.*;
+
+/** Stress benchmark of the naming server directory tree.
+
+    <p>
+    Four storage servers are registered with an in-process naming server, and
+    a set of directories is populated with files. Sixty-four threads then issue
+    a mix of <code>createFile</code>, <code>list</code> and
+    <code>getStorage</code> calls against the shared tree for a fixed interval.
+    The benchmark reports the throughput of each kind of call, and fails if any
+    call throws or if the tree does not contain exactly the files that were
+    reported as created.
+ */
+public class NamespaceBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring naming server tree under mixed create, list and getStorage";
+
+    /** Number of threads issuing requests. */
+    private static final int    THREADS = 64;
+    /** Number of top-level directories. */
+    private static final int    DIRECTORIES = 64;
+    /** Number of files initially present in each directory. */
+    private static final int    FILES = 256;
+    /** Length of the run, in milliseconds. */
+    private static final long   DURATION = 5000;
+
+    // Kinds of operation counted separately.
+    private static final int    CREATE = 0;
+    private static final int    LIST = 1;
+    private static final int    GET_STORAGE = 2;
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        final NamingServer  server = new NamingServer();
+        ArrayList<Path>     initial = new ArrayList<Path>();
+
+        for(int directory = 0; directory < DIRECTORIES; ++directory)
+        {
+            for(int file = 0; file < FILES; ++file)
+                initial.add(new Path("/d" + directory + "/f" + file));
+        }
+
+        // Spread the initial files over four storage servers.
+        int                 share = initial.size() / 4;
+
+        for(int index = 0; index < 4; ++index)
+        {
+            NullStorageServer   storage = new NullStorageServer();
+            List<Path>          files =
+                initial.subList(index * share, (index + 1) * share);
+
+            server.register(storage, storage, files.toArray(new Path[0]));
+        }
+
+        final int[]         created = new int[THREADS];
+
+        Counts              counts = concurrently(THREADS, DURATION, 3,
+                                                  new Worker()
+        {
+            @Override
+            public int operation(int thread, Random random) throws Throwable
+            {
+                Path        directory =
+                    new Path("/d" + random.nextInt(DIRECTORIES));
+                int         choice = random.nextInt(10);
+
+                if(choice < 2)
+                {
+                    Path    file = new Path(directory, "t" + thread + "-" +
+                                                       created[thread]);
+
+                    if(!server.createFile(file))
+                        throw new IllegalStateException("unable to create " +
+                                                        file);
+
+                    ++created[thread];
+                    return CREATE;
+                }
+
+                if(choice < 6)
+                {
+                    if(server.list(directory).length < FILES)
+                        throw new IllegalStateException(directory +
+                                                        " lost entries");
+
+                    return LIST;
+                }
+
+                Path        file =
+                    new Path(directory, "f" + random.nextInt(FILES));
+
+                if(server.getStorage(file) == null)
+                    throw new IllegalStateException(file + " has no storage");
+
+                return GET_STORAGE;
+            }
+        });
+
+        stream.printf("threads: %d, elapsed: %.2f s%n", THREADS,
+                      counts.elapsed / 1e9);
+        stream.printf("createFile: %10.0f ops/s%n",
+                      counts.rate(counts.operations[CREATE]));
+        stream.printf("list:       %10.0f ops/s%n",
+                      counts.rate(counts.operations[LIST]));
+        stream.printf("getStorage: %10.0f ops/s%n",
+                      counts.rate(counts.operations[GET_STORAGE]));
+        stream.printf("total:      %10.0f ops/s%n", counts.rate(counts.total()));
+
+        if(counts.failures != 0)
+        {
+            throw new IllegalStateException(counts.failures +
+                                            " operations failed",
+                                            counts.first_failure);
+        }
+
+        // Every reported creation must be visible in the tree.
+        int                 entries = 0;
+
+        for(int directory = 0; directory < DIRECTORIES; ++directory)
+            entries += server.list(new Path("/d" + directory)).length;
+
+        int                 expected = DIRECTORIES * FILES;
+
+        for(int count : created)
+            expected += count;
+
+        if(entries != expected)
+        {
+            throw new IllegalStateException("tree holds " + entries +
+                                            " entries, expected " + expected);
+        }
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new NamespaceBenchmark().run(System.out);
+    }
+}
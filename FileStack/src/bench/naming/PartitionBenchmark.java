@@ -0,0 +1,190 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import bench.*;
+import test.NullStorageServer;
+import common.*;
+
+/** Benchmark of metadata throughput as the namespace is partitioned.
+
+    <p>
+    The namespace is split among one, two and four in-process naming servers,
+    mounted at <code>/</code>, <code>/d1</code>, <code>/d2</code> and
+    <code>/d3</code>, each journaling to its own metadata directory. A
+    storage server registers through <code>PartitionedRegistration</code>,
+    and sixty-four threads then create files through
+    <code>PartitionedService</code> in the four top-level directories for a
+    fixed interval. The benchmark reports the throughput for each number of
+    partitions and its ratio to the throughput of a single naming server, and
+    fails if any creation fails or if the partitions do not hold exactly the
+    files created.
+ */
+public class PartitionBenchmark extends Benchmark
+{
+    /** Benchmark notice. */
+    public static final String  notice =
+        "measuring metadata throughput across naming server partitions";
+
+    /** Number of threads creating files. */
+    private static final int    THREADS = 64;
+    /** Numbers of partitions. */
+    private static final int[]  PARTITIONS = new int[] {1, 2, 4};
+    /** Number of top-level directories. */
+    private static final int    DIRECTORIES = 4;
+    /** Length of each run, in milliseconds. */
+    private static final long   DURATION = 3000;
+
+    /** Runs the benchmark. */
+    @Override
+    public void run(PrintStream stream) throws Throwable
+    {
+        stream.printf("threads: %d, processors: %d%n", THREADS,
+                      Runtime.getRuntime().availableProcessors());
+        stream.printf("%10s %14s %9s%n", "partitions", "creates/s",
+                      "speedup");
+
+        double              single = 0;
+
+        for(int partitions : PARTITIONS)
+        {
+            double          rate = run(partitions);
+
+            if(partitions == 1)
+                single = rate;
+
+            stream.printf("%10d %14.0f %8.2fx%n", partitions, rate,
+                          rate / single);
+        }
+    }
+
+    /** Creates files in a namespace split into the given number of
+        partitions, and returns the throughput in creations per second. */
+    private double run(int count) throws Throwable
+    {
+        ArrayList<MountTable.Mount> mounts =
+            new ArrayList<MountTable.Mount>();
+
+        for(int index = 0; index < count; ++index)
+        {
+            Path            prefix =
+                index == 0 ? new Path("/") : new Path("/d" + index);
+
+            mounts.add(new MountTable.Mount(prefix, "localhost",
+                                            NamingStubs.SERVICE_PORT,
+                                            NamingStubs.REGISTRATION_PORT));
+        }
+
+        MountTable          table = new MountTable(mounts);
+        NamingServer[]      servers = new NamingServer[count];
+        File[]              directories = new File[count];
+
+        try
+        {
+            for(int index = 0; index < count; ++index)
+            {
+                directories[index] = File.createTempFile("partition", "");
+
+                if(!directories[index].delete() ||
+                   !directories[index].mkdir())
+                {
+                    throw new IOException("unable to create " +
+                                          directories[index]);
+                }
+
+                servers[index] = new NamingServer();
+                servers[index].setMetadataDirectory(directories[index]);
+                servers[index].setPartition(table, table.mount(index).prefix);
+            }
+
+            final Service       service =
+                new PartitionedService(table, servers);
+            NullStorageServer   storage = new NullStorageServer();
+
+            new PartitionedRegistration(table, servers)
+                .register(storage, storage, new Path[0]);
+
+            for(int directory = 0; directory < DIRECTORIES; ++directory)
+                service.createDirectory(new Path("/d" + directory));
+
+            final int[]     created = new int[THREADS];
+            Counts          counts = concurrently(THREADS, DURATION, 1,
+                                                  new Worker()
+            {
+                @Override
+                public int operation(int thread, Random random)
+                    throws Throwable
+                {
+                    Path    file =
+                        new Path("/d" + random.nextInt(DIRECTORIES) + "/t" +
+                                 thread + "-" + created[thread]);
+
+                    if(!service.createFile(file))
+                        throw new IllegalStateException("unable to create " +
+                                                        file);
+
+                    ++created[thread];
+                    return 0;
+                }
+            });
+
+            if(counts.failures != 0)
+            {
+                throw new IllegalStateException(counts.failures +
+                                                " operations failed",
+                                                counts.first_failure);
+            }
+
+            long            entries = 0;
+            long            expected = 0;
+
+            for(int directory = 0; directory < DIRECTORIES; ++directory)
+                entries += service.list(new Path("/d" + directory)).length;
+
+            for(int files : created)
+                expected += files;
+
+            if(entries != expected)
+            {
+                throw new IllegalStateException("partitions hold " + entries +
+                                                " files, expected " +
+                                                expected);
+            }
+
+            return counts.rate(counts.total());
+        }
+        finally
+        {
+            for(int index = 0; index < count; ++index)
+            {
+                if(servers[index] != null)
+                {
+                    servers[index].replication.shutdown();
+
+                    if(servers[index].journal != null)
+                        servers[index].journal.close();
+                }
+
+                if(directories[index] != null)
+                {
+                    File[]  files = directories[index].listFiles();
+
+                    if(files != null)
+                    {
+                        for(File file : files)
+                            file.delete();
+                    }
+
+                    directories[index].delete();
+                }
+            }
+        }
+    }
+
+    /** Runs the benchmark on its own. */
+    public static void main(String[] arguments) throws Throwable
+    {
+        new PartitionBenchmark().run(System.out);
+    }
+}
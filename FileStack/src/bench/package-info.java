@@ -0,0 +1,19 @@
+/** Benchmarks.
+
+    <p>
+    Benchmarks measure the throughput and scalability of filesystem components
+    under synthetic load. Like unit tests, each benchmark resides in the same
+    package as the code it is measuring, so that it can drive package-private
+    classes directly without going through RMI. Benchmarks are kept under the
+    <code>bench/</code> directory.
+
+    <p>
+    To create a new benchmark, create a <code>.java</code> file in a
+    subdirectory of <code>bench/</code>, and place in it a public class derived
+    from {@link bench.Benchmark}. Then add its class to the array of benchmarks
+    in the <code>main</code> method of <code>bench.Benchmarks</code>. To run all
+    benchmarks, execute <code>java -cp .:bench bench.Benchmarks</code> from the
+    command line. On a Windows system, execute
+    <code>java -cp ".;bench" bench.Benchmarks</code> instead.
+ */
+package bench;
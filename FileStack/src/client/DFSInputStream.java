@@ -2,6 +2,7 @@ package client;
 
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 import rmi.*;
 import common.*;
@@ -12,7 +13,9 @@ import storage.*;
 
     <p>
     Read calls on a <code>DFSInputStream</code> are directed to a storage server
-    hosting the given file. Each read call corresponds to one network request.
+    hosting the given file. If the file is replicated, each stream picks one of
+    the copies at random, and moves to another copy if the server it is using
+    cannot be contacted. Each read call corresponds to one network request.
     If this behavior is not desirable, the <code>DFSInputStream</code> should be
     wrapped in a <code>BufferedInputStream</code> or other class providing
     buffered input.
@@ -30,8 +33,10 @@ public class DFSInputStream extends InputStream
 {
     /** Path to the file. */
     private final Path      path;
-    /** Storage server hosting the file. */
-    private final Storage   storage_server;
+    /** Storage servers hosting the file. */
+    private final Storage[] storage_servers;
+    /** Index of the storage server currently read from. */
+    private int             current;
     /** Naming server used to find the storage server hosting the file. */
     private final Service   naming_server;
 
@@ -62,24 +67,35 @@ public class DFSInputStream extends InputStream
     public DFSInputStream(Service naming_server, Path file)
         throws FileNotFoundException, IOException
     {
-        // Retrieve a stub for the storage server hosting the file.
+        // Retrieve the storage servers hosting the file, and its length.
+        FileLocations   locations;
+
         try
         {
-            storage_server = naming_server.getStorage(file);
+            locations = naming_server.getLocations(file);
         }
         catch(RMIException e)
         {
             throw new IOException("could not contact naming server", e);
         }
 
-        // Retrieve the length of the file from the storage server.
-        try
-        {
-            length = storage_server.size(file);
-        }
-        catch(RMIException e)
+        storage_servers = locations.servers();
+        current = ThreadLocalRandom.current().nextInt(storage_servers.length);
+
+        // Retrieve the length of the file from the storage server if the naming
+        // server did not know it.
+        if(locations.size() >= 0)
+            length = locations.size();
+        else
         {
-            throw new IOException("could not contact storage server", e);
+            try
+            {
+                length = storage_servers[current].size(file);
+            }
+            catch(RMIException e)
+            {
+                throw new IOException("could not contact storage server", e);
+            }
         }
 
         path = file;
@@ -236,18 +252,31 @@ public class DFSInputStream extends InputStream
         // succeeds.
         byte[]      result;
 
-        try
-        {
-            result = storage_server.read(path, offset, read_length);
-            offset += read_length;
-        }
-        catch(FileNotFoundException e)
-        {
-            throw new IOException("file missing on storage server", e);
-        }
-        catch(RMIException e)
+        // If the storage server cannot be contacted, try each of the other
+        // copies once.
+        for(int attempt = 1; ; ++attempt)
         {
-            throw new IOException("unable to contact storage server", e);
+            try
+            {
+                result = storage_servers[current].read(path, offset,
+                                                       read_length);
+                offset += read_length;
+                break;
+            }
+            catch(FileNotFoundException e)
+            {
+                throw new IOException("file missing on storage server", e);
+            }
+            catch(RMIException e)
+            {
+                if(attempt == storage_servers.length)
+                {
+                    throw new IOException("unable to contact storage server",
+                                          e);
+                }
+
+                current = (current + 1) % storage_servers.length;
+            }
         }
 
         // Copy bytes from the buffer that was received over the network into
@@ -0,0 +1,87 @@
+package common;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/** Digest of the files a storage server holds under a directory.
+
+    <p>
+    The digest of a directory covers the name of each file directly in the
+    directory and the name and digest of each subdirectory under which files
+    can be found, so that the digests of a directory tree form a Merkle tree.
+    Two directory trees holding the same files have the same root digest, and
+    the directories where they differ can be found by descending only into
+    subdirectories whose digests differ.
+
+    <p>
+    The entries of a directory must be added in increasing order of name, so
+    that both the storage server and the naming server compute the same
+    digest. Directories under which there are no files are left out, so that
+    the empty directories a storage server has yet to prune do not make the
+    digests differ.
+ */
+public class DirectoryDigest
+{
+    /** Encoding of names. */
+    private static final Charset    UTF_8 = Charset.forName("UTF-8");
+
+    /** Hash of the entries added so far. */
+    private final MessageDigest     hash;
+    /** Set once an entry has been added. */
+    private boolean                 empty = true;
+
+    /** Creates the digest of an empty directory. */
+    public DirectoryDigest()
+    {
+        try
+        {
+            hash = MessageDigest.getInstance("SHA-1");
+        }
+        catch(NoSuchAlgorithmException e)
+        {
+            throw new Error("SHA-1 is not available", e);
+        }
+    }
+
+    /** Adds a file.
+
+        @param name Name of the file in the directory.
+     */
+    public void addFile(String name)
+    {
+        hash.update((byte)'F');
+        hash.update(name.getBytes(UTF_8));
+        hash.update((byte)0);
+        empty = false;
+    }
+
+    /** Adds a subdirectory.
+
+        @param name Name of the subdirectory.
+        @param digest Digest of the subdirectory. If this is <code>null</code>,
+                      there are no files under the subdirectory and it is
+                      left out.
+     */
+    public void addDirectory(String name, byte[] digest)
+    {
+        if(digest == null)
+            return;
+
+        hash.update((byte)'D');
+        hash.update(name.getBytes(UTF_8));
+        hash.update((byte)0);
+        hash.update(digest);
+        empty = false;
+    }
+
+    /** Completes the digest.
+
+        @return The digest, or <code>null</code> if no files were found in the
+                directory or under it.
+     */
+    public byte[] finish()
+    {
+        return empty ? null : hash.digest();
+    }
+}
@@ -19,7 +19,7 @@ import java.util.*;
     not permitted within path components. The forward slash is the delimeter,
     and the colon is reserved as a delimeter for application use.
  */
-public class Path implements Iterable<String>, Serializable
+public class Path implements Iterable<String>, Comparable<Path>, Serializable
 {
 	ArrayList<String> components;
 	
@@ -277,6 +277,35 @@ public class Path implements Iterable<String>, Serializable
 		return result;
     }
 
+    /** Compares two paths.
+
+        <p>
+        Paths are ordered component by component, each component being
+        compared as a string. A path is ordered before every path it is a
+        subpath of, so that when paths are sorted, the paths under each
+        directory follow the directory and are not interleaved with any other
+        paths.
+
+        @param other The other path.
+        @return A negative integer, zero or a positive integer as this path is
+                ordered before, equal to, or after the other path.
+     */
+    @Override
+    public int compareTo(Path other)
+    {
+    	int common = Math.min(components.size(), other.components.size());
+    	
+    	//The first differing component orders the paths; failing that, the
+    	//shorter path is a subpath of the longer and comes first
+    	for(int i = 0; i < common; ++i)
+    	{
+    		int order = components.get(i).compareTo(other.components.get(i));
+    		if(order != 0)
+    			return order;
+    	}
+    	return components.size() - other.components.size();
+    }
+
 	/** Converts the path to a string.
 
         <p>
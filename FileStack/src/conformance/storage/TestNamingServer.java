@@ -1,5 +1,7 @@
 package conformance.storage;
 
+import java.util.*;
+
 import test.*;
 import rmi.*;
 import common.*;
@@ -16,6 +18,10 @@ import naming.*;
         <code>null</code>.</li>
     <li>The correct file list has been sent.</li>
     </ul>
+
+    <p>
+    A storage server may also register in batches. The files received in all
+    batches are then checked together when the registration ends.
  */
 class TestNamingServer implements naming.Registration
 {
@@ -36,6 +42,11 @@ class TestNamingServer implements naming.Registration
     private int                 storage_servers = 0;
     /** Indicates that the skeleton has stopped. */
     private boolean             stopped = false;
+    /** Files received so far in the current batched registration, or
+        <code>null</code> if no batched registration is in progress. */
+    private ArrayList<Path>     received = null;
+    /** Identifier of the current batched registration. */
+    private long                registration = 0;
 
     /** Creates the test naming server.
 
@@ -110,16 +121,7 @@ class TestNamingServer implements naming.Registration
                                         "registration"));
         }
 
-        // If expect_files is not null, make sure that the files list received
-        // is the same as the files list expected.
-        if(expect_files != null)
-        {
-            if(!TestUtil.sameElements(files, expect_files))
-            {
-                test.failure(new TestFailed("received wrong file list during " +
-                                            "registration"));
-            }
-        }
+        checkFiles(files);
 
         // Set the stubs for the newly-registered server.
         this.client_stub = client_stub;
@@ -133,6 +135,148 @@ class TestNamingServer implements naming.Registration
             return new Path[0];
     }
 
+    // Detailed documentation in Registration.java.
+    @Override
+    public synchronized long beginRegistration(Storage client_stub,
+                                               Command command_stub)
+        throws RMIException
+    {
+        if(client_stub == null)
+        {
+            test.failure(new TestFailed("storage server client interface " +
+                                        "null during registration"));
+        }
+
+        if(command_stub == null)
+        {
+            test.failure(new TestFailed("storage server command interface " +
+                                        "null during registration"));
+        }
+
+        this.client_stub = client_stub;
+        this.command_stub = command_stub;
+
+        received = new ArrayList<Path>();
+        return ++registration;
+    }
+
+    // Detailed documentation in Registration.java.
+    @Override
+    public synchronized Path[] registerBatch(long registration, Path[] files)
+        throws RMIException
+    {
+        if(received == null || registration != this.registration)
+        {
+            test.failure(new TestFailed("batch sent outside registration"));
+            return new Path[0];
+        }
+
+        if(files == null)
+        {
+            test.failure(new TestFailed("files array null during " +
+                                        "registration"));
+            return new Path[0];
+        }
+
+        received.addAll(Arrays.asList(files));
+
+        // Return the files in this batch that are to be deleted.
+        ArrayList<Path>     delete = new ArrayList<Path>();
+
+        if(delete_files != null)
+        {
+            List<Path>      batch = Arrays.asList(files);
+
+            for(Path path : delete_files)
+            {
+                if(batch.contains(path))
+                    delete.add(path);
+            }
+        }
+
+        return delete.toArray(new Path[0]);
+    }
+
+    // Detailed documentation in Registration.java.
+    @Override
+    public synchronized void endRegistration(long registration)
+        throws RMIException
+    {
+        if(received == null || registration != this.registration)
+        {
+            test.failure(new TestFailed("registration ended before it " +
+                                        "began"));
+            return;
+        }
+
+        checkFiles(received.toArray(new Path[0]));
+        received = null;
+    }
+
+    /** Throws <code>IllegalStateException</code>: the test naming server
+        forgets each storage server once it has registered, so that every
+        storage server must register all its files. */
+    @Override
+    public long resumeRegistration(Storage client_stub, Command command_stub)
+        throws RMIException
+    {
+        throw new IllegalStateException("storage server not registered");
+    }
+
+    /** Throws <code>IllegalStateException</code>. */
+    @Override
+    public Path[] compareDigests(long registration, Path[] directories,
+                                 byte[][] digests)
+        throws RMIException
+    {
+        test.failure(new TestFailed("digests sent without resuming " +
+                                    "registration"));
+        throw new IllegalStateException();
+    }
+
+    /** Throws <code>IllegalStateException</code>. */
+    @Override
+    public Path[] syncDirectory(long registration, Path directory,
+                                Path[] files, Path[] directories)
+        throws RMIException
+    {
+        test.failure(new TestFailed("directory sent without resuming " +
+                                    "registration"));
+        throw new IllegalStateException();
+    }
+
+    /** Ignores the report. The storage server tests do not check file
+        attributes through the naming server. */
+    @Override
+    public void updateAttributes(Storage client_stub, Path[] files,
+                                 long[] sizes, long[] modified)
+        throws RMIException
+    {
+    }
+
+    /** Ignores the heartbeat. The storage server tests do not check
+        liveness. */
+    @Override
+    public void heartbeat(Storage client_stub, StorageLoad load)
+        throws RMIException
+    {
+    }
+
+    /** Checks that the files registered are those expected, if any. */
+    private void checkFiles(Path[] files)
+    {
+        // If expect_files is not null, make sure that the files list received
+        // is the same as the files list expected.
+        if(expect_files != null && files != null)
+        {
+            if(!TestUtil.sameElements(files, expect_files))
+            {
+                test.failure(new TestFailed("received wrong file list during " +
+                                            "registration"));
+            }
+        }
+    }
+
     /** Retrieves a registration stub for the test server.
 
         @return The stub.
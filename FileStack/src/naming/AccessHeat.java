@@ -0,0 +1,56 @@
+package naming;
+
+/** Exponentially decayed access count of a single file.
+
+    <p>
+    Each access adds one to the heat, and the heat halves every half-life
+    that passes without accesses. A file read at a steady rate of
+    <code>r</code> accesses per half-life therefore settles at a heat of
+    about <code>1.44 r</code>, while a burst of reads that is not repeated
+    fades away. The estimator keeps two numbers and is updated under its own
+    short monitor, so it can be maintained on every lock request.
+ */
+class AccessHeat
+{
+    /** Heat as of <code>stamp</code>. */
+    private double  heat = 0;
+    /** Time of the last update, in nanoseconds. */
+    private long    stamp = System.nanoTime();
+
+    /** Records an access.
+
+        @param now Current time, from <code>System.nanoTime</code>.
+        @param half_life Half-life of the heat, in nanoseconds.
+        @return The heat including the new access.
+     */
+    synchronized double record(long now, long half_life)
+    {
+        decay(now, half_life);
+        heat += 1;
+        return heat;
+    }
+
+    /** Returns the heat at the given time without recording an access. */
+    synchronized double current(long now, long half_life)
+    {
+        decay(now, half_life);
+        return heat;
+    }
+
+    /** Forgets all previous accesses. */
+    synchronized void reset(long now)
+    {
+        heat = 0;
+        stamp = now;
+    }
+
+    /** Brings the heat forward to the given time. */
+    private void decay(long now, long half_life)
+    {
+        if(now <= stamp)
+            return;
+
+        heat *= Math.pow(0.5, (double)(now - stamp) / half_life);
+        stamp = now;
+    }
+}
@@ -0,0 +1,793 @@
+package naming;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+import common.Path;
+import storage.Command;
+import storage.Storage;
+
+/** Binary image of the naming server's namespace.
+
+    <p>
+    A checkpoint holds a table of the registered storage servers, the
+    tombstones of deleted objects whose storage has not yet been reclaimed,
+    and one entry for every file and directory in the tree, in depth-first
+    order with the children of each directory sorted by name, so that the
+    paths are sorted. Each entry gives the number of leading path components
+    it shares with the previous entry, followed by its remaining components.
+    Each component is itself front-coded against the component at the same
+    depth in the previous entry. Directories give the number of children
+    they had when they were written. Files refer to their storage servers by
+    the small integers also used in the journal. Integers are written as
+    variable-length quantities, so that most entries take only a few bytes
+    beyond the differing suffix of their name.
+
+    <p>
+    The entries are split into sections of about <code>SECTION_BYTES</code>.
+    The first entry of each section is written in full, so that sections can
+    be decoded independently. A footer at the end of the image gives the
+    position and checksum of each section. When a checkpoint is loaded, the
+    sections are memory-mapped and decoded in parallel, each creating any
+    ancestor directories it needs that another section has not yet created.
+
+    <p>
+    A checkpoint is written while the naming server is serving requests, so
+    it is a fuzzy image: it reflects every mutation up to its sequence number,
+    and possibly some later ones. Every journal record has the same effect
+    whether or not it has already been applied, so the namespace is restored
+    exactly by loading the checkpoint and then replaying the journal from the
+    record after the checkpoint's sequence number.
+ */
+class Checkpoint
+{
+    /** Prefix of checkpoint file names. */
+    static final String             FILE_PREFIX = "checkpoint-";
+    /** Approximate size of a section. */
+    static final int                SECTION_BYTES = 1024 * 1024;
+
+    /** Identifies checkpoint files. */
+    private static final int        MAGIC = 0x46534350;
+    /** Format version. */
+    private static final int        VERSION = 1;
+
+    /** Entry flag set for files. */
+    private static final int        FILE = 1;
+    /** Entry flag set for files with a known primary storage server. */
+    private static final int        PRIMARY = 2;
+
+    /** Encoding of path component suffixes. */
+    private static final Charset    UTF_8 = Charset.forName("UTF-8");
+
+    /** Server whose namespace is written. */
+    private final NamingServer      server;
+    /** Stream to the checkpoint file. */
+    private final DataOutputStream  output;
+    /** Number of bytes written to the file. */
+    private long                    position = 0;
+
+    /** Section being encoded. */
+    private final ByteArrayOutputStream section = new ByteArrayOutputStream();
+    /** Number of entries in the section being encoded. */
+    private int                     section_entries = 0;
+    /** Footer, listing the sections written. */
+    private final ByteArrayOutputStream footer = new ByteArrayOutputStream();
+    /** Stream encoding the footer. */
+    private final DataOutputStream  footer_stream =
+        new DataOutputStream(footer);
+    /** Number of sections written. */
+    private int                     sections = 0;
+    /** Number of entries written. */
+    private long                    entries = 0;
+
+    /** Components of the path being visited. */
+    private String[]                current = new String[16];
+    /** Components of the previous entry in the current section. */
+    private String[]                previous = new String[16];
+    /** Number of components of the previous entry, or zero at the start of
+        a section. */
+    private int                     previous_length = 0;
+
+    /** Creates a writer of a checkpoint of the given server's namespace. */
+    private Checkpoint(NamingServer server, OutputStream output)
+    {
+        this.server = server;
+        this.output = new DataOutputStream(new BufferedOutputStream(output));
+    }
+
+    /** Writes a checkpoint of a naming server's namespace.
+
+        <p>
+        The checkpoint is first written to a temporary file and forced to
+        disk, and then renamed, so that a checkpoint file is always complete.
+
+        @param server The naming server.
+        @param directory Metadata directory in which the checkpoint is
+                         written.
+        @param sequence Sequence number of the last journal record whose
+                        effect is certainly present in the namespace.
+        @return The checkpoint file.
+        @throws IOException If the checkpoint cannot be written.
+     */
+    static File write(NamingServer server, File directory, long sequence)
+        throws IOException
+    {
+        File                temporary = new File(directory, "checkpoint.tmp");
+        FileOutputStream    file = new FileOutputStream(temporary);
+
+        try
+        {
+            write(server, file, sequence);
+            file.getChannel().force(true);
+        }
+        finally
+        {
+            file.close();
+        }
+
+        File                target = name(directory, sequence);
+
+        if(!temporary.renameTo(target))
+            throw new IOException("unable to rename checkpoint to " + target);
+
+        return target;
+    }
+
+    /** Writes a checkpoint of a naming server's namespace to a stream. The
+        image is the same as that of a checkpoint file, and can be loaded
+        once saved to a file.
+
+        @param server The naming server.
+        @param stream Stream to which the checkpoint is written. The stream
+                      is flushed but not closed.
+        @param sequence Sequence number of the last journal record whose
+                        effect is certainly present in the namespace.
+        @throws IOException If the checkpoint cannot be written.
+     */
+    static void write(NamingServer server, OutputStream stream, long sequence)
+        throws IOException
+    {
+        Checkpoint          checkpoint = new Checkpoint(server, stream);
+
+        checkpoint.writeHeader(sequence);
+        checkpoint.visit(server.root, 0);
+        checkpoint.endSection();
+        checkpoint.writeFooter();
+        checkpoint.output.flush();
+    }
+
+    /** Returns the most recent checkpoint in a directory, or
+        <code>null</code> if there is none. */
+    static File latest(File directory)
+    {
+        File[]              files = checkpoints(directory);
+
+        return files.length == 0 ? null : files[files.length - 1];
+    }
+
+    /** Removes checkpoints older than the given one. */
+    static void removeBefore(File directory, File checkpoint)
+        throws IOException
+    {
+        for(File file : checkpoints(directory))
+        {
+            if(file.getName().compareTo(checkpoint.getName()) >= 0)
+                break;
+
+            if(!file.delete())
+                throw new IOException("unable to remove " + file);
+        }
+    }
+
+    /** Returns the checkpoints in a directory, oldest first. */
+    static File[] checkpoints(File directory)
+    {
+        File[]              files = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File parent, String name)
+            {
+                return name.startsWith(FILE_PREFIX);
+            }
+        });
+
+        if(files == null)
+            return new File[0];
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    /** Returns the name of the checkpoint with the given sequence number. */
+    private static File name(File directory, long sequence)
+    {
+        return new File(directory,
+                        FILE_PREFIX + String.format("%016x", sequence));
+    }
+
+    /** Writes the header: the sequence number, the storage server table and
+        the tombstones of storage not yet reclaimed. */
+    private void writeHeader(long sequence) throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        DataOutputStream        header = new DataOutputStream(bytes);
+        ArrayList<JournalRecord> table = new ArrayList<JournalRecord>();
+
+        for(Map.Entry<Integer, Storage> entry :
+                server.storagesById.entrySet())
+        {
+            Command             command =
+                server.storecommandMap.get(entry.getValue());
+
+            if(command != null)
+            {
+                table.add(JournalRecord.register(entry.getKey(),
+                                                 entry.getValue(), command));
+            }
+        }
+
+        // Tombstones follow the storage servers they refer to. One whose
+        // record has not yet been appended is left to the journal.
+        for(GarbageCollector.Tombstone tombstone : server.garbage.tombstones())
+        {
+            if(tombstone.journaled)
+            {
+                table.add(JournalRecord.mutation(JournalRecord.TOMBSTONE,
+                    tombstone.path, server.storageId(tombstone.storage)));
+            }
+        }
+
+        header.writeLong(sequence);
+        header.writeInt(table.size());
+
+        for(JournalRecord record : table)
+            record.write(header);
+
+        header.flush();
+
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        writeBlock(bytes);
+    }
+
+    /** Writes the footer, listing the sections. */
+    private void writeFooter() throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        DataOutputStream        stream = new DataOutputStream(bytes);
+
+        stream.writeLong(entries);
+        stream.writeInt(sections);
+        footer_stream.flush();
+        footer.writeTo(stream);
+        stream.flush();
+
+        // The footer is found from the end of the file, so its length and
+        // checksum follow it.
+        bytes.writeTo(output);
+        output.writeInt(bytes.size());
+        output.writeInt(checksum(bytes.toByteArray()));
+        output.writeInt(MAGIC);
+    }
+
+    /** Writes a block preceded by its length and checksum. */
+    private void writeBlock(ByteArrayOutputStream bytes) throws IOException
+    {
+        output.writeInt(bytes.size());
+        output.writeInt(checksum(bytes.toByteArray()));
+        bytes.writeTo(output);
+        position += 16 + bytes.size();
+    }
+
+    /** Writes an entry for each descendant of a directory, in order. */
+    private void visit(Node directory, int depth) throws IOException
+    {
+        if(depth == current.length)
+            current = Arrays.copyOf(current, depth * 2);
+
+        // The children of a directory are kept in order of name.
+        for(Map.Entry<String, Node> entry : directory.children.entrySet())
+        {
+            Node            child = entry.getValue();
+
+            current[depth] = entry.getKey();
+            writeEntry(child, depth + 1);
+
+            if(!child.isFile)
+                visit(child, depth + 1);
+        }
+    }
+
+    /** Encodes an entry for a node whose path components are the first
+        <code>length</code> elements of <code>current</code>. */
+    private void writeEntry(Node node, int length) throws IOException
+    {
+        int                 shared = 0;
+
+        while(shared < previous_length && shared < length - 1 &&
+              previous[shared].equals(current[shared]))
+        {
+            ++shared;
+        }
+
+        writeNumber(shared);
+        writeNumber(length - shared);
+
+        for(int index = shared; index < length; ++index)
+        {
+            String          name = current[index];
+            int             prefix = 0;
+
+            if(index < previous_length)
+            {
+                String      other = previous[index];
+                int         limit = Math.min(name.length(), other.length());
+
+                while(prefix < limit &&
+                      name.charAt(prefix) == other.charAt(prefix))
+                {
+                    ++prefix;
+                }
+
+                // Never split a surrogate pair between prefix and suffix.
+                if(prefix > 0 &&
+                   Character.isHighSurrogate(name.charAt(prefix - 1)))
+                {
+                    --prefix;
+                }
+            }
+
+            byte[]          suffix = name.substring(prefix).getBytes(UTF_8);
+
+            writeNumber(prefix);
+            writeNumber(suffix.length);
+            section.write(suffix);
+        }
+
+        if(previous.length < current.length)
+            previous = new String[current.length];
+
+        System.arraycopy(current, 0, previous, 0, length);
+        previous_length = length;
+
+        if(node.isFile)
+        {
+            Storage         primary = node.storageStub;
+            int             id =
+                primary == null ? -1 : server.storageId(primary);
+            Set<Storage>    copies = server.replicas.get(node.myPath);
+            int[]           replica_ids = new int[copies == null ? 0 :
+                                                  copies.size()];
+            int             count = 0;
+
+            if(copies != null)
+            {
+                for(Storage copy : copies)
+                {
+                    int     replica = server.storageId(copy);
+
+                    if(replica >= 0 && count < replica_ids.length)
+                        replica_ids[count++] = replica;
+                }
+            }
+
+            section.write(id >= 0 ? FILE | PRIMARY : FILE);
+
+            if(id >= 0)
+                writeNumber(id);
+
+            writeNumber(count);
+
+            for(int index = 0; index < count; ++index)
+                writeNumber(replica_ids[index]);
+        }
+        else
+        {
+            section.write(0);
+            writeNumber(node.children.size());
+        }
+
+        ++section_entries;
+        ++entries;
+
+        if(section.size() >= SECTION_BYTES)
+            endSection();
+    }
+
+    /** Writes out the current section, if it holds any entries. */
+    private void endSection() throws IOException
+    {
+        if(section_entries == 0)
+            return;
+
+        byte[]              bytes = section.toByteArray();
+
+        footer_stream.writeLong(position);
+        footer_stream.writeInt(bytes.length);
+        footer_stream.writeInt(checksum(bytes));
+        footer_stream.writeInt(section_entries);
+
+        output.write(bytes);
+        position += bytes.length;
+
+        ++sections;
+        section.reset();
+        section_entries = 0;
+        previous_length = 0;
+    }
+
+    /** Encodes a non-negative integer into the current section, seven bits
+        at a time. */
+    private void writeNumber(int value)
+    {
+        while((value & ~0x7f) != 0)
+        {
+            section.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        section.write(value);
+    }
+
+    /** Returns the CRC-32 checksum of an array. */
+    private static int checksum(byte[] bytes)
+    {
+        CRC32               crc = new CRC32();
+
+        crc.update(bytes, 0, bytes.length);
+        return (int)crc.getValue();
+    }
+
+    /** Loads a checkpoint into a naming server whose namespace is empty.
+
+        <p>
+        The storage servers in the checkpoint are restored as if by their
+        journal registration records. The sections are then decoded in
+        parallel, on one thread per processor.
+
+        @param server The naming server.
+        @param file The checkpoint.
+        @return The sequence number of the checkpoint. The journal should be
+                replayed from the following record.
+        @throws IOException If the checkpoint cannot be read, or is
+                            damaged.
+     */
+    static long load(final NamingServer server, File file) throws IOException
+    {
+        RandomAccessFile    input = new RandomAccessFile(file, "r");
+
+        try
+        {
+            final FileChannel   channel = input.getChannel();
+            long                sequence = readHeader(server, input);
+
+            // The footer ends with its length, its checksum and the magic
+            // number.
+            long                length = input.length();
+
+            input.seek(length - 12);
+
+            int                 footer_length = input.readInt();
+            int                 footer_checksum = input.readInt();
+
+            if(input.readInt() != MAGIC || footer_length < 12 ||
+               footer_length > length - 12)
+            {
+                throw new IOException(file + " has no footer");
+            }
+
+            byte[]              bytes = new byte[footer_length];
+
+            input.seek(length - 12 - footer_length);
+            input.readFully(bytes);
+
+            if(checksum(bytes) != footer_checksum)
+                throw new IOException(file + " has a damaged footer");
+
+            DataInputStream     footer =
+                new DataInputStream(new ByteArrayInputStream(bytes));
+            long                expected = footer.readLong();
+            int                 count = footer.readInt();
+
+            server.presizeIndex(expected);
+
+            int                 threads =
+                Math.min(Math.max(count, 1),
+                         Runtime.getRuntime().availableProcessors());
+            ExecutorService     loaders = Executors.newFixedThreadPool(threads);
+            ArrayList<Future<Integer>> results =
+                new ArrayList<Future<Integer>>();
+
+            try
+            {
+                for(int index = 0; index < count; ++index)
+                {
+                    final long  offset = footer.readLong();
+                    final int   size = footer.readInt();
+                    final int   crc = footer.readInt();
+
+                    footer.readInt();
+
+                    results.add(loaders.submit(new Callable<Integer>()
+                    {
+                        @Override
+                        public Integer call() throws IOException
+                        {
+                            MappedByteBuffer buffer =
+                                channel.map(FileChannel.MapMode.READ_ONLY,
+                                            offset, size);
+
+                            return loadSection(server, buffer, crc);
+                        }
+                    }));
+                }
+
+                long            loaded = 0;
+
+                for(Future<Integer> result : results)
+                    loaded += result.get();
+
+                if(loaded != expected)
+                {
+                    throw new IOException(file + " holds " + loaded +
+                                          " entries, but " + expected +
+                                          " were written");
+                }
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while " +
+                                                 "loading " + file);
+            }
+            catch(ExecutionException e)
+            {
+                throw new IOException("unable to load " + file, e.getCause());
+            }
+            finally
+            {
+                loaders.shutdownNow();
+            }
+
+            return sequence;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /** Reads the header and restores the storage servers and tombstones it
+        lists. */
+    private static long readHeader(NamingServer server,
+                                   RandomAccessFile input)
+        throws IOException
+    {
+        if(input.readInt() != MAGIC)
+            throw new IOException("not a checkpoint");
+
+        if(input.readInt() != VERSION)
+            throw new IOException("unknown checkpoint version");
+
+        int                 length = input.readInt();
+        int                 crc = input.readInt();
+
+        if(length < 0 || length > input.length())
+            throw new IOException("damaged checkpoint header");
+
+        byte[]              bytes = new byte[length];
+
+        input.readFully(bytes);
+
+        if(checksum(bytes) != crc)
+            throw new IOException("damaged checkpoint header");
+
+        DataInputStream     header =
+            new DataInputStream(new ByteArrayInputStream(bytes));
+        long                sequence = header.readLong();
+        int                 count = header.readInt();
+
+        for(int index = 0; index < count; ++index)
+            server.applyRecord(JournalRecord.read(header));
+
+        return sequence;
+    }
+
+    /** Decodes a section and adds its entries to the tree.
+
+        @return The number of entries in the section.
+     */
+    private static int loadSection(NamingServer server, ByteBuffer buffer,
+                                   int expected)
+        throws IOException
+    {
+        // Check the whole section before changing the tree.
+        CRC32               crc = new CRC32();
+        ByteBuffer          check = buffer.duplicate();
+        byte[]              chunk = new byte[64 * 1024];
+
+        while(check.hasRemaining())
+        {
+            int             size = Math.min(chunk.length, check.remaining());
+
+            check.get(chunk, 0, size);
+            crc.update(chunk, 0, size);
+        }
+
+        if((int)crc.getValue() != expected)
+            throw new IOException("damaged checkpoint section");
+
+        String[]            names = new String[16];
+        Node[]              nodes = new Node[17];
+        byte[]              suffix = new byte[256];
+        int                 length = 0;
+        int                 count = 0;
+
+        nodes[0] = server.root;
+
+        try
+        {
+            while(buffer.hasRemaining())
+            {
+                int         shared = readNumber(buffer);
+                int         added = readNumber(buffer);
+
+                if(shared > length || added < 1)
+                    throw new IOException("damaged checkpoint entry");
+
+                if(shared + added > names.length)
+                {
+                    names = Arrays.copyOf(names, (shared + added) * 2);
+                    nodes = Arrays.copyOf(nodes, (shared + added) * 2 + 1);
+                }
+
+                for(int index = shared; index < shared + added; ++index)
+                {
+                    int     prefix = readNumber(buffer);
+                    int     bytes = readNumber(buffer);
+
+                    if(index >= length || prefix > names[index].length())
+                    {
+                        if(prefix != 0)
+                            throw new IOException("damaged checkpoint entry");
+                    }
+
+                    if(bytes > suffix.length)
+                        suffix = new byte[bytes * 2];
+
+                    buffer.get(suffix, 0, bytes);
+
+                    String  tail = new String(suffix, 0, bytes, UTF_8);
+
+                    names[index] = prefix == 0 ? tail :
+                        names[index].substring(0, prefix) + tail;
+
+                    // Ancestors of the entry are directories, which may have
+                    // been created by another section.
+                    if(index + 1 < shared + added)
+                    {
+                        nodes[index + 1] =
+                            directory(server, nodes[index], names[index]);
+                    }
+                }
+
+                length = shared + added;
+
+                int         flags = buffer.get();
+                Node        parent = nodes[length - 1];
+                String      name = names[length - 1];
+
+                if((flags & FILE) == 0)
+                {
+                    nodes[length] = directory(server, parent, name);
+
+                    // The number of children is not needed to restore the
+                    // directory.
+                    readNumber(buffer);
+                    ++count;
+                    continue;
+                }
+
+                Storage     primary = null;
+
+                if((flags & PRIMARY) != 0)
+                    primary = server.storagesById.get(readNumber(buffer));
+
+                int         copies = readNumber(buffer);
+                Set<Storage> replicas = new HashSet<Storage>();
+
+                for(int index = 0; index < copies; ++index)
+                {
+                    Storage copy = server.storagesById.get(readNumber(buffer));
+
+                    if(copy != null)
+                        replicas.add(copy);
+                }
+
+                ++count;
+
+                // A file on a storage server that registered after the
+                // checkpoint began is restored from the journal instead.
+                if(primary == null)
+                    continue;
+
+                Node        node = new Node(true, new Path(parent.myPath, name),
+                                            primary);
+
+                if(parent.children.putIfAbsent(name, node) != null)
+                    throw new IOException("duplicate checkpoint entry");
+
+                server.indexNode(parent, node);
+                server.countFile(primary, 1);
+
+                if(!replicas.isEmpty())
+                {
+                    server.replicas.put(node.myPath,
+                                        Collections.unmodifiableSet(replicas));
+
+                    for(Storage copy : replicas)
+                        server.countFile(copy, 1);
+                }
+            }
+        }
+        catch(java.nio.BufferUnderflowException e)
+        {
+            throw new IOException("truncated checkpoint section", e);
+        }
+
+        return count;
+    }
+
+    /** Returns the directory with the given name in a directory, creating it
+        if it does not exist. */
+    private static Node directory(NamingServer server, Node parent,
+                                  String name)
+        throws IOException
+    {
+        Node                child = parent.children.get(name);
+
+        if(child == null)
+        {
+            Node            created =
+                new Node(false, new Path(parent.myPath, name), null);
+
+            child = parent.children.putIfAbsent(name, created);
+
+            if(child == null)
+            {
+                server.indexNode(parent, created);
+                return created;
+            }
+        }
+
+        if(child.isFile)
+            throw new IOException("damaged checkpoint: " + child.myPath +
+                                  " is a file");
+
+        return child;
+    }
+
+    /** Decodes a non-negative integer written by <code>writeNumber</code>. */
+    private static int readNumber(ByteBuffer buffer) throws IOException
+    {
+        int                 value = 0;
+
+        for(int shift = 0; shift < 35; shift += 7)
+        {
+            int             next = buffer.get();
+
+            value |= (next & 0x7f) << shift;
+
+            if((next & 0x80) == 0)
+                return value;
+        }
+
+        throw new IOException("damaged checkpoint entry");
+    }
+}
@@ -0,0 +1,209 @@
+package naming;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Checkpoints written by a leader for its followers, and sent in chunks.
+
+    <p>
+    A follower that has fallen further behind than its leader keeps
+    mutations in memory is sent a checkpoint of the whole namespace. The
+    image of a large namespace can neither be held in memory nor sent in a
+    single call, so the leader writes it to a temporary file, and the
+    follower reads the file in chunks of at most <code>CHUNK</code> bytes,
+    writing them to a file of its own from which it loads the checkpoint.
+
+    <p>
+    The leader's file is deleted once its last chunk has been read. A
+    follower that gives up part way asks for a new checkpoint, so a file
+    that has not been read for <code>EXPIRY</code> milliseconds is deleted
+    the next time a checkpoint is written.
+ */
+class CheckpointTransfers
+{
+    /** Largest number of bytes sent in one chunk. */
+    static final int                    CHUNK = 1 << 20;
+    /** Time after which an unread checkpoint is deleted, in
+        milliseconds. */
+    static final long                   EXPIRY = 60000;
+
+    /** Identifier of the next checkpoint written. */
+    private final AtomicLong            next = new AtomicLong();
+    /** Checkpoints not yet read in full, by identifier. */
+    private final ConcurrentHashMap<Long, Transfer> transfers =
+        new ConcurrentHashMap<Long, Transfer>();
+
+    /** Checkpoint written for a follower. */
+    private static class Transfer
+    {
+        /** File holding the image. */
+        final File                      file;
+        /** Length of the image, in bytes. */
+        final long                      length;
+        /** Time at which the image was last read, in milliseconds. */
+        volatile long                   used = System.currentTimeMillis();
+
+        /** Creates a transfer of a written image. */
+        Transfer(File file)
+        {
+            this.file = file;
+            length = file.length();
+        }
+    }
+
+    /** Writes a checkpoint of a naming server's namespace.
+
+        @param server Naming server whose namespace is written.
+        @param sequence Sequence number of the last journal record whose
+                        effect is certainly present in the namespace.
+        @return The identifier by which the checkpoint is read.
+        @throws IOException If the checkpoint cannot be written.
+     */
+    long prepare(NamingServer server, long sequence) throws IOException
+    {
+        expire();
+
+        File                            file =
+            File.createTempFile("leader", ".checkpoint");
+
+        try
+        {
+            OutputStream                stream = new BufferedOutputStream(
+                new FileOutputStream(file));
+
+            try
+            {
+                Checkpoint.write(server, stream, sequence);
+            }
+            finally
+            {
+                stream.close();
+            }
+        }
+        catch(IOException e)
+        {
+            file.delete();
+            throw e;
+        }
+
+        long                            id = next.getAndIncrement();
+
+        transfers.put(id, new Transfer(file));
+        return id;
+    }
+
+    /** Returns the length of a checkpoint, in bytes.
+
+        @throws IllegalStateException If there is no such checkpoint.
+     */
+    long length(long id)
+    {
+        return transfer(id).length;
+    }
+
+    /** Reads a chunk of a checkpoint. The checkpoint is deleted once its
+        last chunk has been read.
+
+        @param id Identifier of the checkpoint.
+        @param offset Position of the first byte of the chunk.
+        @param length Largest number of bytes read.
+        @return The chunk, shorter than <code>length</code> only if it is
+                the last, or if <code>length</code> is larger than
+                <code>CHUNK</code>.
+        @throws IllegalArgumentException If the offset is negative, or the
+                                         length is not positive.
+        @throws IllegalStateException If there is no such checkpoint.
+        @throws IOException If the checkpoint cannot be read.
+     */
+    byte[] read(long id, long offset, int length) throws IOException
+    {
+        if(offset < 0 || length < 1)
+            throw new IllegalArgumentException("impossible chunk");
+
+        Transfer                        transfer = transfer(id);
+        long                            left =
+            Math.max(0, transfer.length - offset);
+        byte[]                          chunk =
+            new byte[(int)Math.min(left, Math.min(length, CHUNK))];
+
+        transfer.used = System.currentTimeMillis();
+
+        RandomAccessFile                file =
+            new RandomAccessFile(transfer.file, "r");
+
+        try
+        {
+            file.seek(offset);
+            file.readFully(chunk);
+        }
+        finally
+        {
+            file.close();
+        }
+
+        if(offset + chunk.length >= transfer.length)
+            remove(id);
+
+        return chunk;
+    }
+
+    /** Deletes every checkpoint. Called when the naming server stops. */
+    void clear()
+    {
+        for(Long id : transfers.keySet())
+            remove(id);
+    }
+
+    /** Returns the number of checkpoints not yet read in full. */
+    int size()
+    {
+        return transfers.size();
+    }
+
+    /** Returns a checkpoint.
+
+        @throws IllegalStateException If there is no such checkpoint.
+     */
+    private Transfer transfer(long id)
+    {
+        Transfer                        transfer = transfers.get(id);
+
+        if(transfer == null)
+            throw new IllegalStateException("no such checkpoint");
+
+        return transfer;
+    }
+
+    /** Deletes a checkpoint. */
+    private void remove(long id)
+    {
+        Transfer                        transfer = transfers.remove(id);
+
+        if(transfer != null)
+            transfer.file.delete();
+    }
+
+    /** Deletes the checkpoints that have not been read for
+        <code>EXPIRY</code> milliseconds. */
+    private void expire()
+    {
+        long                            now = System.currentTimeMillis();
+        Iterator<Long>                  ids = transfers.keySet().iterator();
+
+        while(ids.hasNext())
+        {
+            long                        id = ids.next();
+            Transfer                    transfer = transfers.get(id);
+
+            if(transfer != null && now - transfer.used > EXPIRY)
+                remove(id);
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package naming;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/** Consistent-hash ring mapping keys to ordered lists of members.
+
+    <p>
+    Each member is placed on a 64-bit ring at a number of pseudo-random
+    points, its <em>virtual nodes</em>, derived from its name. A key is hashed
+    onto the same ring, and its preference list is the sequence of distinct
+    members met walking clockwise from the key's position. When a member
+    joins, it takes over only the keys that now fall closest to its own
+    points; when it leaves, only its keys move, each to the next member in
+    its preference list. With many virtual nodes per member, each member owns
+    close to an equal share of the ring.
+
+    <p>
+    Lookups read an immutable snapshot of the ring and take no locks.
+    Membership changes build a new snapshot by merging or filtering the
+    current one, and are serialized by the ring's monitor.
+
+    @param <T> Type of the members.
+ */
+public class ConsistentHashRing<T>
+{
+    /** Default number of virtual nodes per member. */
+    public static final int             DEFAULT_VIRTUAL_NODES = 128;
+
+    /** Number of virtual nodes per member. */
+    private final int                   virtual_nodes;
+    /** Members by name, in order of joining. Guarded by the ring's
+        monitor. */
+    private final LinkedHashMap<String, T> members =
+        new LinkedHashMap<String, T>();
+    /** Current state of the ring. */
+    private volatile Snapshot<T>        snapshot =
+        new Snapshot<T>(new long[0], new Object[0]);
+
+    /** Sorted ring positions and the member owning each of them. */
+    private static class Snapshot<T>
+    {
+        final long[]    points;
+        final Object[]  owners;
+
+        Snapshot(long[] points, Object[] owners)
+        {
+            this.points = points;
+            this.owners = owners;
+        }
+
+        @SuppressWarnings("unchecked")
+        T owner(int index)
+        {
+            return (T)owners[index];
+        }
+    }
+
+    /** Creates an empty ring with the default number of virtual nodes. */
+    public ConsistentHashRing()
+    {
+        this(DEFAULT_VIRTUAL_NODES);
+    }
+
+    /** Creates an empty ring.
+
+        @param virtual_nodes Number of points each member occupies on the
+                             ring.
+        @throws IllegalArgumentException If <code>virtual_nodes</code> is not
+                                         positive.
+     */
+    public ConsistentHashRing(int virtual_nodes)
+    {
+        if(virtual_nodes <= 0)
+            throw new IllegalArgumentException("no virtual nodes");
+
+        this.virtual_nodes = virtual_nodes;
+    }
+
+    /** Adds a member to the ring. If a member of the same name is present,
+        it is replaced, keeping the same positions.
+
+        @param name Name from which the member's positions are derived.
+        @param member The member.
+     */
+    public synchronized void add(String name, T member)
+    {
+        T           previous = members.put(name, member);
+
+        if(previous != null)
+        {
+            replaceOwner(previous, member);
+            return;
+        }
+
+        // Sort the new member's points, then merge them into the ring.
+        long[]      added = new long[virtual_nodes];
+
+        for(int index = 0; index < virtual_nodes; ++index)
+            added[index] = hash(name + "#" + index);
+
+        Arrays.sort(added);
+
+        Snapshot<T> current = snapshot;
+        int         size = current.points.length + added.length;
+        long[]      points = new long[size];
+        Object[]    owners = new Object[size];
+        int         left = 0;
+        int         right = 0;
+
+        for(int index = 0; index < size; ++index)
+        {
+            if(right == added.length ||
+               (left < current.points.length &&
+                current.points[left] <= added[right]))
+            {
+                points[index] = current.points[left];
+                owners[index] = current.owners[left];
+                ++left;
+            }
+            else
+            {
+                points[index] = added[right];
+                owners[index] = member;
+                ++right;
+            }
+        }
+
+        snapshot = new Snapshot<T>(points, owners);
+    }
+
+    /** Removes a member from the ring.
+
+        @param name Name of the member.
+        @return <code>true</code> if the member was present.
+     */
+    public synchronized boolean remove(String name)
+    {
+        T           removed = members.remove(name);
+
+        if(removed == null)
+            return false;
+
+        replaceOwner(removed, null);
+        return true;
+    }
+
+    /** Returns the member of the given name, or <code>null</code> if there
+        is no such member on the ring. */
+    public synchronized T get(String name)
+    {
+        return members.get(name);
+    }
+
+    /** Returns the number of members. */
+    public synchronized int size()
+    {
+        return members.size();
+    }
+
+    /** Returns the first member in a key's preference list, or
+        <code>null</code> if the ring is empty. */
+    public T primary(String key)
+    {
+        Snapshot<T> current = snapshot;
+
+        if(current.points.length == 0)
+            return null;
+
+        return current.owner(start(current, hash(key)));
+    }
+
+    /** Returns the first members of a key's preference list.
+
+        @param key The key.
+        @param count Largest number of members to return.
+        @return Up to <code>count</code> distinct members, in order of
+                preference.
+     */
+    public List<T> preferenceList(String key, int count)
+    {
+        ArrayList<T>    result = new ArrayList<T>();
+        Iterator<T>     iterator = preferences(key);
+
+        while(result.size() < count && iterator.hasNext())
+            result.add(iterator.next());
+
+        return result;
+    }
+
+    /** Returns an iterator over a key's whole preference list. Each member
+        appears once. The iterator reads the ring as it was when the iterator
+        was created. */
+    public Iterator<T> preferences(String key)
+    {
+        final Snapshot<T>   current = snapshot;
+        final int           first = current.points.length == 0 ? 0 :
+                                    start(current, hash(key));
+
+        return new Iterator<T>()
+        {
+            private final ArrayList<T>  seen = new ArrayList<T>();
+            private int                 walked = 0;
+            private T                   next = advance();
+
+            private T advance()
+            {
+                int     length = current.points.length;
+
+                while(walked < length)
+                {
+                    T   owner = current.owner((first + walked) % length);
+
+                    ++walked;
+
+                    if(!seen.contains(owner))
+                    {
+                        seen.add(owner);
+                        return owner;
+                    }
+                }
+
+                return null;
+            }
+
+            @Override
+            public boolean hasNext()
+            {
+                return next != null;
+            }
+
+            @Override
+            public T next()
+            {
+                if(next == null)
+                    throw new NoSuchElementException();
+
+                T       result = next;
+
+                // Once every member has been seen, the walk can stop early.
+                next = seen.size() == current.owners.length / virtual_nodes ?
+                       null : advance();
+                return result;
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /** Hashes a string onto the ring.
+
+        <p>
+        The string is hashed with 64-bit FNV-1a, and the result is passed
+        through the MurmurHash3 finalizer, so that similar names and paths
+        land far apart.
+     */
+    static long hash(String string)
+    {
+        long    hash = 0xcbf29ce484222325L;
+
+        for(int index = 0; index < string.length(); ++index)
+        {
+            hash ^= string.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+
+    /** Returns the index of the first point at or after the given position,
+        wrapping around past the end of the ring. */
+    private static int start(Snapshot<?> current, long position)
+    {
+        int     index = Arrays.binarySearch(current.points, position);
+
+        if(index < 0)
+            index = -index - 1;
+
+        return index == current.points.length ? 0 : index;
+    }
+
+    /** Gives the points of one member to another, or drops them if the new
+        owner is <code>null</code>. */
+    private void replaceOwner(T previous, T member)
+    {
+        Snapshot<T> current = snapshot;
+        int         size = current.points.length;
+
+        if(member == null)
+            size -= virtual_nodes;
+
+        long[]      points = new long[size];
+        Object[]    owners = new Object[size];
+        int         kept = 0;
+
+        for(int index = 0; index < current.points.length; ++index)
+        {
+            Object  owner = current.owners[index];
+
+            if(owner == previous)
+            {
+                if(member == null)
+                    continue;
+
+                owner = member;
+            }
+
+            points[kept] = current.points[index];
+            owners[kept] = owner;
+            ++kept;
+        }
+
+        snapshot = new Snapshot<T>(points, owners);
+    }
+}
@@ -0,0 +1,69 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Space used under a directory, as returned by <code>Service.usage</code>.
+
+    <p>
+    A <code>DirectoryUsage</code> object counts the files and directories
+    under a directory, at any depth, and totals the sizes of the files. The
+    naming server computes it from the sizes it already knows, without asking
+    any storage server. Files whose size it does not know are counted
+    separately, and are not included in the total.
+ */
+public class DirectoryUsage implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Number of files. */
+    private final long          files;
+    /** Number of directories. */
+    private final long          directories;
+    /** Total size of the files whose size is known, in bytes. */
+    private final long          bytes;
+    /** Number of files whose size is not known. */
+    private final long          unknown;
+
+    /** Creates a <code>DirectoryUsage</code> object.
+
+        @param files Number of files under the directory.
+        @param directories Number of directories under the directory, not
+                           counting the directory itself.
+        @param bytes Total size of the files whose size is known.
+        @param unknown Number of files whose size is not known.
+     */
+    public DirectoryUsage(long files, long directories, long bytes,
+                          long unknown)
+    {
+        this.files = files;
+        this.directories = directories;
+        this.bytes = bytes;
+        this.unknown = unknown;
+    }
+
+    /** Returns the number of files under the directory. */
+    public long files()
+    {
+        return files;
+    }
+
+    /** Returns the number of directories under the directory, not counting
+        the directory itself. */
+    public long directories()
+    {
+        return directories;
+    }
+
+    /** Returns the total size of the files whose size is known, in bytes. */
+    public long bytes()
+    {
+        return bytes;
+    }
+
+    /** Returns the number of files whose size is not known, and which are
+        therefore not included in <code>bytes</code>. */
+    public long unknown()
+    {
+        return unknown;
+    }
+}
@@ -0,0 +1,120 @@
+package naming;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/** Sends one request to several storage servers at once.
+
+    <p>
+    A request such as the deletion of a directory may have to reach every
+    storage server that holds part of the directory. Sent one server after
+    another, the request takes as long as all of the servers together. This
+    class sends the request to all of the servers in parallel, so that it
+    takes about as long as the slowest server.
+
+    <p>
+    The requests of all callers of one instance share a bounded pool of
+    daemon threads. Requests beyond the size of the pool wait for a thread,
+    so a burst of large deletions cannot open an unbounded number of
+    connections. Idle threads exit after a while, so the pool needs no
+    shutdown.
+ */
+class FanOut
+{
+    /** Largest number of requests in progress at once. */
+    static final int                    THREADS = 16;
+    /** Time after which an idle thread exits, in seconds. */
+    private static final long           IDLE = 30;
+
+    /** Threads sending the requests. */
+    private final ThreadPoolExecutor    executor;
+
+    /** Creates the pool. No threads are started until they are needed.
+
+        @param name Name of the threads.
+     */
+    FanOut(final String name)
+    {
+        executor = new ThreadPoolExecutor(THREADS, THREADS, IDLE,
+                                          TimeUnit.SECONDS,
+                                          new LinkedBlockingQueue<Runnable>(),
+                                          new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread  thread = new Thread(runnable, name);
+
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Runs requests in parallel and waits for all of them to complete.
+
+        @param requests The requests.
+        @return The result of each request, in the order of the requests.
+                The result of a request that threw an exception is
+                <code>null</code>.
+        @throws InterruptedException If the calling thread is interrupted
+                                     while waiting. Requests still in
+                                     progress are cancelled.
+     */
+    <T> List<T> run(List<? extends Callable<T>> requests)
+        throws InterruptedException
+    {
+        ArrayList<T>        results = new ArrayList<T>(requests.size());
+
+        // A single request is sent by the calling thread.
+        if(requests.size() == 1)
+        {
+            try
+            {
+                results.add(requests.get(0).call());
+            }
+            catch(Exception e)
+            {
+                results.add(null);
+            }
+
+            return results;
+        }
+
+        List<Future<T>>     futures = executor.invokeAll(requests);
+
+        for(Future<T> future : futures)
+        {
+            try
+            {
+                results.add(future.get());
+            }
+            catch(ExecutionException e)
+            {
+                results.add(null);
+            }
+        }
+
+        return results;
+    }
+
+    /** Runs a request on one of the threads, without waiting for it.
+
+        @param request The request.
+        @throws RejectedExecutionException If the request cannot be run.
+     */
+    void execute(Runnable request)
+    {
+        executor.execute(request);
+    }
+}
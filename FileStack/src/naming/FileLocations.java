@@ -0,0 +1,67 @@
+package naming;
+
+import java.io.Serializable;
+
+import storage.Storage;
+
+/** Locations and metadata of a file, as returned by
+    <code>Service.getLocations</code>.
+
+    <p>
+    A <code>FileLocations</code> object lists every storage server holding an
+    up-to-date copy of a file, with the server hosting the primary copy first,
+    together with the file's size and version. The version changes each time
+    the file is locked for exclusive access, so a client that caches the
+    locations of a file can tell, by comparing versions, whether the copies
+    it knows about may have been invalidated.
+ */
+public class FileLocations implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Storage servers holding the file, primary first. */
+    private final Storage[]     servers;
+    /** Size of the file in bytes, or -1 if not known. */
+    private final long          size;
+    /** Version of the file. */
+    private final long          version;
+
+    /** Creates a <code>FileLocations</code> object.
+
+        @param servers Storage servers holding the file, primary first.
+        @param size Size of the file in bytes, or -1 if not known.
+        @param version Version of the file.
+     */
+    public FileLocations(Storage[] servers, long size, long version)
+    {
+        this.servers = servers.clone();
+        this.size = size;
+        this.version = version;
+    }
+
+    /** Returns the storage servers holding the file. The server hosting the
+        primary copy is first. */
+    public Storage[] servers()
+    {
+        return servers.clone();
+    }
+
+    /** Returns the server hosting the primary copy of the file. */
+    public Storage primary()
+    {
+        return servers[0];
+    }
+
+    /** Returns the size of the file in bytes, or -1 if the naming server
+        could not determine it. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns the version of the file. */
+    public long version()
+    {
+        return version;
+    }
+}
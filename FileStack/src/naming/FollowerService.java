@@ -0,0 +1,291 @@
+package naming;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.Path;
+import rmi.RMIException;
+import storage.Storage;
+
+/** Client service interface that sends reads to follower naming servers.
+
+    <p>
+    Locks and mutations are sent to the leader. The read-only methods,
+    <code>isDirectory</code>, <code>list</code>, <code>walk</code>,
+    <code>getStorage</code>, <code>getLocations</code>, <code>stat</code> and
+    <code>usage</code>, are spread over the followers in turn. A read is sent
+    to the leader instead if the follower cannot be reached, is too far
+    behind the leader, or does not find the path, since the path may have
+    been created after the follower last heard from the leader. Reads
+    answered by followers may therefore miss recent deletions and other
+    changes, up to the staleness each follower allows.
+ */
+public class FollowerService implements Service
+{
+    /** Client service interface of the leader. */
+    private final Service       leader;
+    /** Client service interfaces of the followers. */
+    private final Service[]     followers;
+    /** Number of the follower to which the next read is sent. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /** Creates a <code>FollowerService</code> object.
+
+        @param leader Client service interface of the leader.
+        @param followers Client service interfaces of the followers of the
+                         leader. If there are none, every request is sent to
+                         the leader.
+     */
+    public FollowerService(Service leader, Service[] followers)
+    {
+        if(leader == null || followers == null)
+            throw new NullPointerException();
+
+        this.leader = leader;
+        this.followers = followers.clone();
+    }
+
+    /** Returns the follower to which the next read is sent, or the leader if
+        there are no followers. */
+    private Service follower()
+    {
+        if(followers.length == 0)
+            return leader;
+
+        int             index = next.getAndIncrement() & Integer.MAX_VALUE;
+
+        return followers[index % followers.length];
+    }
+
+    /** Read request, sent to a follower or to the leader. */
+    private abstract class Read<T>
+    {
+        /** Sends the request to a naming server. */
+        abstract T send(Service server)
+            throws RMIException, FileNotFoundException;
+
+        /** Sends the request to a follower, and to the leader if the follower
+            cannot answer it. */
+        T run() throws RMIException, FileNotFoundException
+        {
+            Service     server = follower();
+
+            if(server != leader)
+            {
+                try
+                {
+                    return send(server);
+                }
+                catch(FileNotFoundException e) { }
+                catch(IllegalStateException e) { }
+                catch(RMIException e) { }
+            }
+
+            return send(leader);
+        }
+    }
+
+    @Override
+    public void lock(Path path, boolean exclusive)
+        throws RMIException, FileNotFoundException
+    {
+        leader.lock(path, exclusive);
+    }
+
+    @Override
+    public void unlock(Path path, boolean exclusive) throws RMIException
+    {
+        leader.unlock(path, exclusive);
+    }
+
+    @Override
+    public boolean isDirectory(final Path path)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<Boolean>()
+        {
+            @Override
+            Boolean send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.isDirectory(path);
+            }
+        }.run();
+    }
+
+    @Override
+    public String[] list(final Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<String[]>()
+        {
+            @Override
+            String[] send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.list(directory);
+            }
+        }.run();
+    }
+
+    @Override
+    public String[] list(final Path directory, final String after,
+                         final int limit)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<String[]>()
+        {
+            @Override
+            String[] send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.list(directory, after, limit);
+            }
+        }.run();
+    }
+
+    @Override
+    public WalkPage walk(final Path directory, final Path after,
+                         final int limit)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<WalkPage>()
+        {
+            @Override
+            WalkPage send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.walk(directory, after, limit);
+            }
+        }.run();
+    }
+
+    @Override
+    public boolean createFile(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return leader.createFile(file);
+    }
+
+    @Override
+    public boolean createDirectory(Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        return leader.createDirectory(directory);
+    }
+
+    @Override
+    public boolean delete(Path path) throws RMIException, FileNotFoundException
+    {
+        return leader.delete(path);
+    }
+
+    @Override
+    public Storage getStorage(final Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<Storage>()
+        {
+            @Override
+            Storage send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.getStorage(file);
+            }
+        }.run();
+    }
+
+    @Override
+    public FileLocations getLocations(final Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<FileLocations>()
+        {
+            @Override
+            FileLocations send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.getLocations(file);
+            }
+        }.run();
+    }
+
+    @Override
+    public PathStat[] stat(final Path[] paths) throws RMIException
+    {
+        try
+        {
+            return new Read<PathStat[]>()
+            {
+                @Override
+                PathStat[] send(Service server) throws RMIException
+                {
+                    return server.stat(paths);
+                }
+            }.run();
+        }
+        catch(FileNotFoundException e)
+        {
+            throw new IllegalStateException("stat cannot report a missing " +
+                                            "file", e);
+        }
+    }
+
+    @Override
+    public DirectoryUsage usage(final Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        return new Read<DirectoryUsage>()
+        {
+            @Override
+            DirectoryUsage send(Service server)
+                throws RMIException, FileNotFoundException
+            {
+                return server.usage(directory);
+            }
+        }.run();
+    }
+
+    @Override
+    public MountTable getMountTable() throws RMIException
+    {
+        return leader.getMountTable();
+    }
+
+    @Override
+    public MutationPage mutations(long after, int limit) throws RMIException
+    {
+        return leader.mutations(after, limit);
+    }
+
+    @Override
+    public byte[] checkpointChunk(long transfer, long offset, int length)
+        throws RMIException
+    {
+        return leader.checkpointChunk(transfer, offset, length);
+    }
+
+    /** Returns the largest lag of any of the followers. */
+    @Override
+    public long replicationLag() throws RMIException
+    {
+        long            lag = 0;
+
+        for(Service follower : followers)
+            lag = Math.max(lag, follower.replicationLag());
+
+        return lag;
+    }
+
+    /** Returns the largest staleness of any of the followers. */
+    @Override
+    public long staleness() throws RMIException
+    {
+        long            staleness = 0;
+
+        for(Service follower : followers)
+            staleness = Math.max(staleness, follower.staleness());
+
+        return staleness;
+    }
+}
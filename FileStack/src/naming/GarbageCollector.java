@@ -0,0 +1,448 @@
+package naming;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import common.Path;
+import rmi.RMIException;
+import storage.Command;
+import storage.Storage;
+
+/** Reclaims the storage of deleted files in the background.
+
+    <p>
+    When deletion is in the background, <code>NamingServer.delete</code>
+    unlinks the object from the namespace and leaves a tombstone for each
+    storage server that holds a copy of anything under it. The collector
+    runs periodically on the replication scheduler, and commands each server
+    to delete the path of its tombstone. Deletions are sent in parallel, on
+    threads that belong to the collector, so that clients deleting
+    synchronously do not wait behind them. No more than the configured
+    number are sent each second, so that a large deletion does not take over
+    the storage servers. A server that cannot be reached is tried again
+    later, at intervals that double from <code>FIRST_RETRY</code> up to
+    <code>LAST_RETRY</code>.
+
+    <p>
+    Tombstones are journaled, so deletions interrupted by a restart of the
+    naming server are resumed. A path must not be reused on a server while it
+    holds a tombstone for the path or for one of its ancestors or
+    descendants, or the collector could later delete the new file. Before a
+    file is placed on a server, <code>reclaim</code> therefore deletes the
+    tombstones in its way at once. Files that a registering storage server
+    still holds under one of its tombstones are not added to the namespace;
+    they are returned to the server as duplicates, to be deleted.
+ */
+class GarbageCollector
+{
+    /** Due time of a tombstone whose deletion is not yet durable. */
+    static final long                   HELD = Long.MAX_VALUE;
+    /** Interval between runs of the collector, in milliseconds. */
+    static final long                   INTERVAL = 100;
+    /** Delay before the first retry of a failed deletion, in milliseconds. */
+    static final long                   FIRST_RETRY = 1000;
+    /** Longest delay between retries, in milliseconds. */
+    static final long                   LAST_RETRY = 60000;
+
+    /** Naming server whose storage is reclaimed. */
+    private final NamingServer          server;
+    /** Threads sending the deletions. */
+    private final FanOut                deleters = new FanOut("collector");
+    /** Tombstones of each deleted path, by storage server. */
+    private final ConcurrentSkipListMap<Path,
+                                        ConcurrentHashMap<Storage, Tombstone>>
+                                        tombstones =
+        new ConcurrentSkipListMap<Path,
+                                  ConcurrentHashMap<Storage, Tombstone>>();
+
+    /** Largest number of deletions sent to storage servers each second. */
+    private volatile int                rate = 1000;
+    /** Number of deletions that may be sent at once, refilled at
+        <code>rate</code>. Only used by <code>collect</code>. */
+    private double                      tokens = 0;
+    /** Time at which the tokens were last refilled, in milliseconds. */
+    private long                        refilled = System.currentTimeMillis();
+
+    /** Copy of a deleted path remaining on one storage server. */
+    static class Tombstone
+    {
+        /** Deleted path. */
+        final Path                      path;
+        /** Storage server holding the copy. */
+        final Storage                   storage;
+        /** Time before which the copy is not deleted, in milliseconds. The
+            copy is not deleted at all while this is <code>HELD</code>.
+            Guarded by the tombstone's monitor. */
+        long                            due;
+        /** Set once the tombstone's journal record has been appended. Only
+            such tombstones are written to checkpoints. */
+        volatile boolean                journaled;
+        /** Number of failed attempts to delete the copy. */
+        int                             failures = 0;
+        /** Set once the copy has been deleted. Guarded by the tombstone's
+            monitor, which is held while the copy is being deleted. */
+        boolean                         reclaimed = false;
+
+        /** Creates a tombstone. */
+        Tombstone(Path path, Storage storage, long due)
+        {
+            this.path = path;
+            this.storage = storage;
+            this.due = due;
+            journaled = due != HELD;
+        }
+    }
+
+    /** Creates a collector for the given naming server. */
+    GarbageCollector(NamingServer server)
+    {
+        this.server = server;
+    }
+
+    /** Sets the largest number of deletions sent each second.
+
+        @throws IllegalArgumentException If the rate is not positive.
+     */
+    void setRate(int rate)
+    {
+        if(rate < 1)
+            throw new IllegalArgumentException("rate must be positive");
+
+        this.rate = rate;
+    }
+
+    /** Adds a tombstone. If the storage server already has a tombstone for
+        the path, that tombstone is kept.
+
+        @param path Deleted path.
+        @param storage Storage server holding a copy of the path.
+        @param held If <code>true</code>, the tombstone is not yet journaled,
+                    and the copy is not deleted until <code>release</code>
+                    is called, once the deletion is durable.
+        @return The tombstone of the path on the server.
+     */
+    Tombstone add(Path path, Storage storage, boolean held)
+    {
+        Tombstone               tombstone =
+            new Tombstone(path, storage,
+                          held ? HELD : System.currentTimeMillis());
+
+        while(true)
+        {
+            ConcurrentHashMap<Storage, Tombstone> servers =
+                tombstones.get(path);
+
+            if(servers == null)
+            {
+                ConcurrentHashMap<Storage, Tombstone> fresh =
+                    new ConcurrentHashMap<Storage, Tombstone>();
+
+                servers = tombstones.putIfAbsent(path, fresh);
+                if(servers == null)
+                    servers = fresh;
+            }
+
+            Tombstone           existing =
+                servers.putIfAbsent(storage, tombstone);
+
+            // The map may have been retired by remove while the tombstone
+            // was added to it.
+            if(tombstones.get(path) == servers)
+                return existing == null ? tombstone : existing;
+
+            servers.remove(storage, tombstone);
+        }
+    }
+
+    /** Allows the deletion of a copy held back when its tombstone was
+        added. */
+    void release(Tombstone tombstone)
+    {
+        synchronized(tombstone)
+        {
+            if(tombstone.due == HELD)
+                tombstone.due = System.currentTimeMillis();
+
+            tombstone.notifyAll();
+        }
+    }
+
+    /** Removes a tombstone, once the copy has been deleted. */
+    void remove(Path path, Storage storage)
+    {
+        ConcurrentHashMap<Storage, Tombstone> servers = tombstones.get(path);
+
+        if(servers == null)
+            return;
+
+        servers.remove(storage);
+
+        if(servers.isEmpty())
+            tombstones.remove(path, servers);
+    }
+
+    /** Removes every tombstone, before a follower reloads its namespace. */
+    void clear()
+    {
+        tombstones.clear();
+    }
+
+    /** Returns the number of copies not yet deleted. */
+    int size()
+    {
+        int                     count = 0;
+
+        for(Map<Storage, Tombstone> servers : tombstones.values())
+            count += servers.size();
+
+        return count;
+    }
+
+    /** Returns every tombstone. */
+    List<Tombstone> tombstones()
+    {
+        ArrayList<Tombstone>    result = new ArrayList<Tombstone>();
+
+        for(Map<Storage, Tombstone> servers : tombstones.values())
+            result.addAll(servers.values());
+
+        return result;
+    }
+
+    /** Deletes at once the copies a storage server holds in the way of a
+        path: those of the path, of its ancestors, and of its descendants.
+
+        @param path Path about to be used on the server.
+        @param storage The storage server.
+        @return <code>true</code> if the server holds no such copy any more,
+                <code>false</code> if one of them could not be deleted.
+     */
+    boolean reclaim(Path path, Storage storage)
+    {
+        if(tombstones.isEmpty())
+            return true;
+
+        ArrayList<Tombstone>    found = new ArrayList<Tombstone>();
+
+        for(Path ancestor = path; !ancestor.isRoot();
+            ancestor = ancestor.parent())
+        {
+            find(ancestor, storage, found);
+        }
+
+        for(Path deleted : tombstones.tailMap(path, false).keySet())
+        {
+            if(!deleted.isSubpath(path))
+                break;
+
+            find(deleted, storage, found);
+        }
+
+        for(Tombstone tombstone : found)
+        {
+            // The deletion must be durable before the copy is removed.
+            synchronized(tombstone)
+            {
+                try
+                {
+                    while(tombstone.due == HELD)
+                        tombstone.wait();
+                }
+                catch(InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+
+            if(!delete(tombstone))
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Returns the files among those a registering storage server holds that
+        are not under one of its tombstones, and adds the others to a list.
+
+        @param storage The registering storage server.
+        @param files Files the server holds.
+        @param garbage List to which the files under tombstones are added.
+        @return The remaining files.
+     */
+    Path[] filter(Storage storage, Path[] files, List<Path> garbage)
+    {
+        if(tombstones.isEmpty())
+            return files;
+
+        ArrayList<Path>         kept = new ArrayList<Path>(files.length);
+
+        for(Path file : files)
+        {
+            boolean             buried = false;
+
+            for(Path ancestor = file; !ancestor.isRoot() && !buried;
+                ancestor = ancestor.parent())
+            {
+                Map<Storage, Tombstone> servers = tombstones.get(ancestor);
+
+                buried = servers != null && servers.containsKey(storage);
+            }
+
+            if(buried)
+                garbage.add(file);
+            else
+                kept.add(file);
+        }
+
+        return kept.toArray(new Path[kept.size()]);
+    }
+
+    /** Sends the deletions that are due, as far as the rate allows. Called
+        periodically on the replication scheduler. */
+    void collect()
+    {
+        long                    now = System.currentTimeMillis();
+        int                     limit = rate;
+
+        tokens = Math.min(limit, tokens + (now - refilled) * limit / 1000.0);
+        refilled = now;
+
+        ArrayList<Callable<Boolean>> requests =
+            new ArrayList<Callable<Boolean>>();
+
+        for(Map<Storage, Tombstone> servers : tombstones.values())
+        {
+            if(tokens < 1)
+                break;
+
+            for(final Tombstone tombstone : servers.values())
+            {
+                if(tokens < 1)
+                    break;
+
+                synchronized(tombstone)
+                {
+                    if(tombstone.due > now)
+                        continue;
+
+                    // Not taken again while the deletion is in progress.
+                    tombstone.due = HELD - 1;
+                }
+
+                tokens -= 1;
+                requests.add(new Callable<Boolean>()
+                {
+                    @Override
+                    public Boolean call()
+                    {
+                        return delete(tombstone);
+                    }
+                });
+            }
+        }
+
+        if(requests.isEmpty())
+            return;
+
+        try
+        {
+            deleters.run(requests);
+        }
+        catch(InterruptedException e)
+        {
+            // The naming server is stopping. The tombstones remain.
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Commands a storage server to delete the copy of a tombstone. The
+        tombstone is removed if the server deletes the path or reports that
+        it does not hold it. If the server cannot be reached, the next
+        attempt is put off.
+
+        @return <code>true</code> if the tombstone has been removed.
+     */
+    private boolean delete(Tombstone tombstone)
+    {
+        synchronized(tombstone)
+        {
+            if(tombstone.reclaimed)
+                return true;
+
+            Command             command =
+                server.storecommandMap.get(tombstone.storage);
+            ServerStats         stats =
+                server.serverStats.get(tombstone.storage);
+
+            try
+            {
+                if(command == null)
+                    throw new RMIException("storage server not registered");
+
+                if(stats != null)
+                    stats.begin();
+
+                try
+                {
+                    command.delete(tombstone.path);
+                }
+                finally
+                {
+                    if(stats != null)
+                        stats.end();
+                }
+            }
+            catch(RMIException e)
+            {
+                retryLater(tombstone);
+                return false;
+            }
+            catch(RuntimeException e)
+            {
+                retryLater(tombstone);
+                throw e;
+            }
+
+            tombstone.reclaimed = true;
+            remove(tombstone.path, tombstone.storage);
+
+            // A lost record only causes the deletion to be sent again.
+            server.journalAppend(JournalRecord.mutation(
+                JournalRecord.RECLAIMED, tombstone.path,
+                server.storageId(tombstone.storage)));
+            return true;
+        }
+    }
+
+    /** Puts off the next attempt to delete the copy of a tombstone. Called
+        with the tombstone's monitor held. */
+    private static void retryLater(Tombstone tombstone)
+    {
+        long                    delay =
+            FIRST_RETRY << Math.min(tombstone.failures, 16);
+
+        ++tombstone.failures;
+        tombstone.due = System.currentTimeMillis() +
+                        Math.min(delay, LAST_RETRY);
+    }
+
+    /** Adds the tombstone of a path on a storage server to a list, if there
+        is one. */
+    private void find(Path path, Storage storage, List<Tombstone> found)
+    {
+        Map<Storage, Tombstone> servers = tombstones.get(path);
+
+        if(servers == null)
+            return;
+
+        Tombstone               tombstone = servers.get(storage);
+
+        if(tombstone != null)
+            found.add(tombstone);
+    }
+}
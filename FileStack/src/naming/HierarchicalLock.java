@@ -0,0 +1,205 @@
+package naming;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/** Lock on a single node of the directory tree.
+
+    <p>
+    The lock may be held in any of the modes of <code>LockMode</code> by any
+    number of users at once, as long as all the held modes are pairwise
+    compatible. Requests are served in first-come first-serve order: a request
+    is granted on arrival only if nobody is already waiting and its mode is
+    compatible with every mode currently held. Otherwise it joins the back of
+    the wait queue. This preserves the fairness guarantee of the
+    <code>Service.lock</code> contract: once an exclusive user is waiting,
+    later shared users wait behind it even if the lock is currently shared.
+
+    <p>
+    Each waiting request has its own monitor. When the lock is released, the
+    longest compatible run at the head of the queue is granted, and only the
+    threads owning those requests are woken. The lock's own monitor is held
+    only while its counters and queue are updated, never while a thread
+    sleeps.
+ */
+public class HierarchicalLock
+{
+    /** Number of users holding the lock in each mode, indexed by ordinal. */
+    private final int[]                     held =
+        new int[LockMode.values().length];
+    /** Requests waiting for the lock, in order of arrival. */
+    private final ArrayDeque<Request>       queue = new ArrayDeque<Request>();
+
+    /** A waiting request. The waiting thread sleeps on the request's own
+        monitor. */
+    private static class Request
+    {
+        /** Mode requested. */
+        final LockMode  mode;
+        /** Set, under the request's monitor, when the lock is granted. */
+        boolean         granted = false;
+
+        Request(LockMode mode)
+        {
+            this.mode = mode;
+        }
+    }
+
+    /** Acquires the lock in the given mode, waiting if necessary.
+
+        @param mode The mode in which the lock is to be taken.
+        @throws InterruptedException If the calling thread is interrupted
+                                     while waiting. The lock is then not held.
+     */
+    public void acquire(LockMode mode) throws InterruptedException
+    {
+        Request     request;
+
+        synchronized(this)
+        {
+            if(queue.isEmpty() && compatible(mode))
+            {
+                ++held[mode.ordinal()];
+                return;
+            }
+
+            request = new Request(mode);
+            queue.addLast(request);
+        }
+
+        synchronized(request)
+        {
+            try
+            {
+                while(!request.granted)
+                    request.wait();
+            }
+            catch(InterruptedException e)
+            {
+                cancel(request);
+                throw e;
+            }
+        }
+    }
+
+    /** Attempts to acquire the lock in the given mode without waiting.
+
+        @param mode The mode in which the lock is to be taken.
+        @return <code>true</code> if the lock has been taken, and
+                <code>false</code> if it would have had to wait.
+     */
+    public synchronized boolean tryAcquire(LockMode mode)
+    {
+        if(!queue.isEmpty() || !compatible(mode))
+            return false;
+
+        ++held[mode.ordinal()];
+        return true;
+    }
+
+    /** Releases the lock held in the given mode.
+
+        @param mode The mode in which the lock was taken.
+        @throws IllegalStateException If the lock is not held in that mode.
+     */
+    public void release(LockMode mode)
+    {
+        ArrayList<Request>  granted;
+
+        synchronized(this)
+        {
+            if(held[mode.ordinal()] == 0)
+                throw new IllegalStateException("lock not held as " + mode);
+
+            --held[mode.ordinal()];
+            granted = grantWaiting();
+        }
+
+        wake(granted);
+    }
+
+    /** Returns the number of users holding the lock in the given mode. */
+    public synchronized int holders(LockMode mode)
+    {
+        return held[mode.ordinal()];
+    }
+
+    /** Returns the number of requests waiting for the lock. */
+    public synchronized int waiting()
+    {
+        return queue.size();
+    }
+
+    /** Withdraws a request whose thread has been interrupted. If the request
+        was granted in the meantime, the grant is undone. In both cases,
+        requests behind it may now be grantable. */
+    private void cancel(Request request)
+    {
+        ArrayList<Request>  granted;
+
+        synchronized(this)
+        {
+            if(!queue.remove(request))
+                --held[request.mode.ordinal()];
+
+            granted = grantWaiting();
+        }
+
+        wake(granted);
+    }
+
+    /** Determines whether the given mode is compatible with every mode in
+        which the lock is currently held. Must be called with the lock's
+        monitor held. */
+    private boolean compatible(LockMode mode)
+    {
+        for(LockMode other : LockMode.values())
+        {
+            if(held[other.ordinal()] != 0 && !mode.compatibleWith(other))
+                return false;
+        }
+
+        return true;
+    }
+
+    /** Grants the compatible requests at the head of the queue. Must be called
+        with the lock's monitor held.
+
+        @return The granted requests, whose threads must be woken once the
+                monitor is released, or <code>null</code> if there are none.
+     */
+    private ArrayList<Request> grantWaiting()
+    {
+        ArrayList<Request>  granted = null;
+
+        while(!queue.isEmpty() && compatible(queue.peekFirst().mode))
+        {
+            Request         request = queue.pollFirst();
+
+            ++held[request.mode.ordinal()];
+
+            if(granted == null)
+                granted = new ArrayList<Request>();
+
+            granted.add(request);
+        }
+
+        return granted;
+    }
+
+    /** Wakes the threads owning the given granted requests. */
+    private static void wake(ArrayList<Request> granted)
+    {
+        if(granted == null)
+            return;
+
+        for(Request request : granted)
+        {
+            synchronized(request)
+            {
+                request.granted = true;
+                request.notify();
+            }
+        }
+    }
+}
@@ -0,0 +1,520 @@
+package naming;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/** Append-only journal of namespace mutations.
+
+    <p>
+    The journal is a sequence of segment files in the naming server's
+    metadata directory. Each segment is named after the sequence number of
+    its first record, so that sorting the names sorts the segments. A segment
+    is closed and a new one started once it grows past
+    <code>SEGMENT_BYTES</code>. Each record is framed by its length and a
+    CRC-32 checksum, so that a record torn by a crash is recognized and
+    discarded on replay.
+
+    <p>
+    Appending a record only encodes it into an in-memory batch. A mutation
+    becomes durable when <code>sync</code> returns for its sequence number.
+    Writes and <code>fsync</code> calls are group-committed: the first thread
+    to call <code>sync</code> while no write is in progress writes out every
+    record appended so far, with a single <code>fsync</code>. Threads calling
+    <code>sync</code> meanwhile wait for that write, and the next of them
+    writes out everything appended in the meantime. Under load, each
+    <code>fsync</code> therefore covers many mutations, without any added
+    delay when the server is idle.
+
+    <p>
+    The most recent <code>RETAINED_RECORDS</code> records are also kept in
+    memory, so that follower naming servers can be sent the mutations they
+    have not yet applied without reading the segments back.
+
+    <p>
+    If a write fails, the journal is marked failed. Every later
+    <code>sync</code> call throws, so the naming server stops acknowledging
+    mutations that could not be made durable.
+ */
+class Journal
+{
+    /** Size past which a segment is closed and a new one started. */
+    static final long               SEGMENT_BYTES = 64L * 1024 * 1024;
+    /** Prefix of segment file names. */
+    static final String             SEGMENT_PREFIX = "journal-";
+    /** Number of recent records kept in memory for followers. */
+    static final int                RETAINED_RECORDS = 65536;
+
+    /** Directory holding the segments. */
+    private final File              directory;
+
+    /** Segment currently written. Only used by the thread writing a batch. */
+    private FileOutputStream        segment;
+    /** Number of bytes in the current segment. */
+    private long                    segment_size;
+    /** Set to force the next batch to start a new segment. Guarded by the
+        journal's monitor. */
+    private boolean                 rotate = false;
+
+    /** Records appended but not yet handed to a writer. Guarded by the
+        journal's monitor. */
+    private final ByteArrayOutputStream batch = new ByteArrayOutputStream();
+    /** Stream encoding records into <code>batch</code>. */
+    private final DataOutputStream  batch_stream = new DataOutputStream(batch);
+    /** Buffer in which each record is encoded before it is framed. */
+    private final ByteArrayOutputStream record_bytes =
+        new ByteArrayOutputStream();
+    /** Stream encoding a single record into <code>record_bytes</code>. */
+    private final DataOutputStream  record_stream =
+        new DataOutputStream(record_bytes);
+    /** Checksum of the record being framed. */
+    private final CRC32             checksum = new CRC32();
+
+    /** Encodings of the most recent records, indexed by sequence number
+        modulo <code>RETAINED_RECORDS</code>. Guarded by the journal's
+        monitor. */
+    private final byte[][]          retained = new byte[RETAINED_RECORDS][];
+    /** Sequence number of the first record appended since the journal was
+        opened. */
+    private final long              first_sequence;
+
+    /** Sequence number of the next record appended. */
+    private long                    next_sequence;
+    /** Highest sequence number that is durable. */
+    private long                    durable;
+    /** Set while a thread is writing a batch. */
+    private boolean                 writing = false;
+    /** Failure of an earlier write, if any. */
+    private IOException             failure = null;
+
+    /** Number of records appended. */
+    private long                    records = 0;
+    /** Number of batches written and forced to disk. */
+    private long                    syncs = 0;
+
+    /** Callback receiving records read from the journal. */
+    interface Replayer
+    {
+        /** Applies a single record. */
+        void apply(JournalRecord record);
+    }
+
+    /** Opens a journal for appending. A new segment is started with the
+        given sequence number; existing segments are left as they are.
+
+        @param directory Directory holding the segments.
+        @param next_sequence Sequence number of the first record to be
+                             appended.
+        @throws IOException If the segment cannot be created.
+     */
+    Journal(File directory, long next_sequence) throws IOException
+    {
+        this.directory = directory;
+        this.next_sequence = next_sequence;
+        first_sequence = next_sequence;
+        durable = next_sequence - 1;
+        openSegment(next_sequence);
+    }
+
+    /** Appends a record to the current batch and assigns its sequence
+        number. The record is not durable until <code>sync</code> has
+        returned for its sequence number.
+
+        @param record The record.
+        @return The record's sequence number.
+        @throws IOException If the record cannot be encoded, or if the journal
+                            has failed.
+     */
+    synchronized long append(JournalRecord record) throws IOException
+    {
+        if(failure != null)
+            throw new IOException("journal has failed", failure);
+
+        record.sequence = next_sequence;
+
+        record_bytes.reset();
+        record.write(record_stream);
+        record_stream.flush();
+
+        byte[]          encoded = record_bytes.toByteArray();
+
+        checksum.reset();
+        checksum.update(encoded, 0, encoded.length);
+
+        batch_stream.writeInt(encoded.length);
+        batch_stream.writeInt((int)checksum.getValue());
+        batch_stream.write(encoded);
+        retained[(int)(next_sequence % RETAINED_RECORDS)] = encoded;
+
+        ++records;
+        return next_sequence++;
+    }
+
+    /** Appends a record and waits until it is durable.
+
+        @param record The record.
+        @throws IOException If the record cannot be written.
+     */
+    void log(JournalRecord record) throws IOException
+    {
+        sync(append(record));
+    }
+
+    /** Waits until every record up to the given sequence number is durable,
+        writing out the current batch if no other thread is doing so.
+
+        @param sequence Sequence number of the last record that must be
+                        durable.
+        @throws IOException If the records cannot be written.
+     */
+    void sync(long sequence) throws IOException
+    {
+        write(sequence, false);
+    }
+
+    /** Writes out the current batch and starts a new segment, which will
+        hold every record appended from now on.
+
+        @throws IOException If the batch cannot be written, or the new segment
+                            cannot be created.
+     */
+    void rotate() throws IOException
+    {
+        long            last;
+
+        synchronized(this)
+        {
+            rotate = true;
+            last = next_sequence - 1;
+        }
+
+        write(last, true);
+    }
+
+    /** Waits until every record up to the given sequence number is durable
+        and, if <code>rotation</code> is set, until a new segment has been
+        started, writing out the current batch if no other thread is doing
+        so. */
+    private void write(long sequence, boolean rotation) throws IOException
+    {
+        while(true)
+        {
+            byte[]      bytes;
+            long        last;
+            boolean     start_segment;
+
+            synchronized(this)
+            {
+                boolean interrupted = false;
+
+                // A thread waiting for durability cannot give up early: its
+                // mutation has already been applied in memory.
+                while(writing && (durable < sequence || rotation && rotate) &&
+                      failure == null)
+                {
+                    try
+                    {
+                        wait();
+                    }
+                    catch(InterruptedException e)
+                    {
+                        interrupted = true;
+                    }
+                }
+
+                if(interrupted)
+                    Thread.currentThread().interrupt();
+
+                if(failure != null)
+                    throw new IOException("journal has failed", failure);
+
+                if(durable >= sequence && !(rotation && rotate))
+                    return;
+
+                writing = true;
+                bytes = batch.toByteArray();
+                batch.reset();
+                last = next_sequence - 1;
+                start_segment = rotate;
+                rotate = false;
+            }
+
+            try
+            {
+                if(start_segment || segment_size >= SEGMENT_BYTES)
+                {
+                    segment.close();
+                    openSegment(durable + 1);
+                }
+
+                segment.write(bytes);
+                segment.getChannel().force(false);
+                segment_size += bytes.length;
+            }
+            catch(IOException e)
+            {
+                synchronized(this)
+                {
+                    failure = e;
+                    writing = false;
+                    notifyAll();
+                }
+
+                throw e;
+            }
+
+            synchronized(this)
+            {
+                durable = last;
+                writing = false;
+                ++syncs;
+                notifyAll();
+            }
+        }
+    }
+
+    /** Returns the durable records following a sequence number, in order.
+
+        @param after Sequence number of the last record not wanted.
+        @param limit Largest number of records returned.
+        @return The encodings of the records, as written by
+                <code>JournalRecord.write</code>, or <code>null</code> if the
+                record following <code>after</code> is no longer, or was
+                never, kept in memory.
+     */
+    synchronized byte[][] recordsAfter(long after, int limit)
+    {
+        long            oldest = Math.max(first_sequence,
+                                          next_sequence - RETAINED_RECORDS);
+
+        if(after + 1 < oldest)
+            return null;
+
+        int             count = (int)Math.max(0, Math.min(limit,
+                                                          durable - after));
+        byte[][]        records = new byte[count][];
+
+        for(int index = 0; index < count; ++index)
+        {
+            records[index] =
+                retained[(int)((after + 1 + index) % RETAINED_RECORDS)];
+        }
+
+        return records;
+    }
+
+    /** Returns the highest sequence number that is durable. */
+    synchronized long durableSequence()
+    {
+        return durable;
+    }
+
+    /** Returns the sequence number the next record will be given. */
+    synchronized long nextSequence()
+    {
+        return next_sequence;
+    }
+
+    /** Returns the number of records appended since the journal was
+        opened. */
+    synchronized long records()
+    {
+        return records;
+    }
+
+    /** Returns the number of batches forced to disk since the journal was
+        opened. */
+    synchronized long syncs()
+    {
+        return syncs;
+    }
+
+    /** Writes out any appended records and closes the current segment. */
+    void close() throws IOException
+    {
+        long        last;
+
+        synchronized(this)
+        {
+            last = next_sequence - 1;
+        }
+
+        sync(last);
+        segment.close();
+    }
+
+    /** Reads every record in a journal directory, in order.
+
+        <p>
+        Reading stops at the first record that is incomplete or fails its
+        checksum, which is taken to have been torn by a crash. The segment is
+        truncated just before that record, and any later segments are
+        removed, so that the journal can be appended to again.
+
+        @param directory Directory holding the segments.
+        @param after Records with this sequence number or lower are skipped.
+        @param replayer Callback receiving each record read.
+        @return The highest sequence number read, or <code>after</code> if no
+                later record was read.
+        @throws IOException If the segments cannot be read.
+     */
+    static long replay(File directory, long after, Replayer replayer)
+        throws IOException
+    {
+        File[]          segments = segments(directory);
+        long            last = after;
+        boolean         torn = false;
+
+        for(File file : segments)
+        {
+            if(torn)
+            {
+                if(!file.delete())
+                    throw new IOException("unable to remove " + file);
+
+                continue;
+            }
+
+            long        valid = 0;
+            DataInputStream stream = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)));
+
+            try
+            {
+                CRC32   checksum = new CRC32();
+
+                while(true)
+                {
+                    int     length;
+                    int     expected;
+                    byte[]  body;
+
+                    try
+                    {
+                        length = stream.readInt();
+                        expected = stream.readInt();
+
+                        if(length <= 0 || length > SEGMENT_BYTES)
+                            throw new EOFException();
+
+                        body = new byte[length];
+                        stream.readFully(body);
+                    }
+                    catch(EOFException e)
+                    {
+                        torn = valid != file.length();
+                        break;
+                    }
+
+                    checksum.reset();
+                    checksum.update(body, 0, length);
+
+                    if((int)checksum.getValue() != expected)
+                    {
+                        torn = true;
+                        break;
+                    }
+
+                    JournalRecord   record = JournalRecord.read(
+                        new DataInputStream(new ByteArrayInputStream(body)));
+
+                    valid += 8 + length;
+
+                    if(record.sequence <= after)
+                        continue;
+
+                    replayer.apply(record);
+                    last = record.sequence;
+                }
+            }
+            finally
+            {
+                stream.close();
+            }
+
+            if(torn)
+                truncate(file, valid);
+        }
+
+        return last;
+    }
+
+    /** Removes segments holding only records older than the given sequence
+        number.
+
+        @param directory Directory holding the segments.
+        @param before Sequence number of the first record that must be kept.
+        @throws IOException If a segment cannot be removed.
+     */
+    static void removeSegmentsBefore(File directory, long before)
+        throws IOException
+    {
+        File[]      segments = segments(directory);
+
+        // A segment can be removed if the next one starts at or before the
+        // first record to be kept.
+        for(int index = 0; index + 1 < segments.length; ++index)
+        {
+            if(firstSequence(segments[index + 1]) > before)
+                break;
+
+            if(!segments[index].delete())
+                throw new IOException("unable to remove " + segments[index]);
+        }
+    }
+
+    /** Returns the segments in a directory, oldest first. */
+    static File[] segments(File directory)
+    {
+        File[]      files = directory.listFiles(new FilenameFilter()
+        {
+            @Override
+            public boolean accept(File parent, String name)
+            {
+                return name.startsWith(SEGMENT_PREFIX);
+            }
+        });
+
+        if(files == null)
+            return new File[0];
+
+        Arrays.sort(files);
+        return files;
+    }
+
+    /** Returns the sequence number of the first record in a segment, as
+        given by its name. */
+    static long firstSequence(File segment)
+    {
+        String      name = segment.getName();
+
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length()), 16);
+    }
+
+    /** Starts a new segment whose first record has the given sequence
+        number. */
+    private void openSegment(long first) throws IOException
+    {
+        File        file =
+            new File(directory,
+                     SEGMENT_PREFIX + String.format("%016x", first));
+
+        segment = new FileOutputStream(file, true);
+        segment_size = segment.getChannel().size();
+    }
+
+    /** Cuts a segment short at the given length. */
+    private static void truncate(File file, long length) throws IOException
+    {
+        RandomAccessFile    output = new RandomAccessFile(file, "rw");
+
+        try
+        {
+            output.setLength(length);
+        }
+        finally
+        {
+            output.close();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package naming;
+
+import java.io.*;
+
+import common.Path;
+import storage.Command;
+import storage.Storage;
+
+/** Record of a single namespace mutation in the naming server journal.
+
+    <p>
+    Storage servers are identified in records by small integers assigned when
+    they first register. The registration record carries the serialized
+    stubs of the server, so that the naming server can contact the server
+    again after the journal has been replayed.
+
+    <p>
+    Every record carries a sequence number, assigned by the journal when the
+    record is appended. Sequence numbers increase by one with each record.
+ */
+class JournalRecord
+{
+    /** A storage server has registered. */
+    static final byte   REGISTER = 1;
+    /** A file has been created or registered. Missing parent directories are
+        created with it. */
+    static final byte   CREATE_FILE = 2;
+    /** An empty directory has been created. */
+    static final byte   CREATE_DIRECTORY = 3;
+    /** A file or directory has been deleted, with all its replicas. */
+    static final byte   DELETE = 4;
+    /** A replica of a file has been published. */
+    static final byte   ADD_REPLICA = 5;
+    /** A replica of a file has been unpublished. */
+    static final byte   REMOVE_REPLICA = 6;
+    /** A replica of a file has become its primary copy, in place of a copy
+        that has been lost. */
+    static final byte   SET_PRIMARY = 7;
+    /** A storage server still holds a copy of a deleted path, to be
+        reclaimed in the background. */
+    static final byte   TOMBSTONE = 8;
+    /** A storage server has deleted its copy of a deleted path. */
+    static final byte   RECLAIMED = 9;
+
+    /** Kind of mutation. */
+    final byte          type;
+    /** Path affected, or <code>null</code> for registrations. */
+    final Path          path;
+    /** Storage server affected, or -1 if none. */
+    final int           storage;
+    /** Client stub of a registering storage server. */
+    final Storage       client_stub;
+    /** Command stub of a registering storage server. */
+    final Command       command_stub;
+    /** Sequence number, assigned on append. */
+    long                sequence;
+
+    /** Creates a record. */
+    private JournalRecord(byte type, Path path, int storage,
+                          Storage client_stub, Command command_stub)
+    {
+        this.type = type;
+        this.path = path;
+        this.storage = storage;
+        this.client_stub = client_stub;
+        this.command_stub = command_stub;
+    }
+
+    /** Creates a registration record. */
+    static JournalRecord register(int storage, Storage client_stub,
+                                  Command command_stub)
+    {
+        return new JournalRecord(REGISTER, null, storage, client_stub,
+                                 command_stub);
+    }
+
+    /** Creates a record of a mutation of a path. */
+    static JournalRecord mutation(byte type, Path path, int storage)
+    {
+        return new JournalRecord(type, path, storage, null, null);
+    }
+
+    /** Writes the record.
+
+        @param stream Stream to which the record is written.
+        @throws IOException If the stubs of a registration record cannot be
+                            serialized.
+     */
+    void write(DataOutputStream stream) throws IOException
+    {
+        stream.writeLong(sequence);
+        stream.writeByte(type);
+        stream.writeInt(storage);
+
+        if(type == REGISTER)
+        {
+            writeObject(stream, client_stub);
+            writeObject(stream, command_stub);
+        }
+        else
+            stream.writeUTF(path.toString());
+    }
+
+    /** Reads a record written by <code>write</code>.
+
+        @param stream Stream from which the record is read.
+        @return The record.
+        @throws IOException If the record is malformed.
+     */
+    static JournalRecord read(DataInputStream stream) throws IOException
+    {
+        long            sequence = stream.readLong();
+        byte            type = stream.readByte();
+        int             storage = stream.readInt();
+        JournalRecord   record;
+
+        if(type == REGISTER)
+        {
+            record = register(storage,
+                              (Storage)readObject(stream),
+                              (Command)readObject(stream));
+        }
+        else if(type >= CREATE_FILE && type <= RECLAIMED)
+            record = mutation(type, new Path(stream.readUTF()), storage);
+        else
+            throw new IOException("unknown journal record type " + type);
+
+        record.sequence = sequence;
+        return record;
+    }
+
+    /** Writes a serialized object, preceded by its length. */
+    private static void writeObject(DataOutputStream stream, Object object)
+        throws IOException
+    {
+        ByteArrayOutputStream   bytes = new ByteArrayOutputStream();
+        ObjectOutputStream      output = new ObjectOutputStream(bytes);
+
+        output.writeObject(object);
+        output.close();
+
+        stream.writeInt(bytes.size());
+        bytes.writeTo(stream);
+    }
+
+    /** Reads an object written by <code>writeObject</code>. */
+    private static Object readObject(DataInputStream stream)
+        throws IOException
+    {
+        byte[]              bytes = new byte[stream.readInt()];
+
+        stream.readFully(bytes);
+
+        ObjectInputStream   input =
+            new ObjectInputStream(new ByteArrayInputStream(bytes));
+
+        try
+        {
+            return input.readObject();
+        }
+        catch(ClassNotFoundException e)
+        {
+            throw new IOException("unable to read storage server stub", e);
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+}
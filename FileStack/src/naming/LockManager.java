@@ -0,0 +1,127 @@
+package naming;
+
+/** Hierarchical lock manager for the naming server's directory tree.
+
+    <p>
+    An object is locked by taking an intention lock on each of its ancestors,
+    from the root down, and then the requested lock on the object itself.
+    Locks are released in the opposite order. Because every user acquires
+    node locks in the same top-down order, and each node serves its requests
+    in arrival order, the manager cannot deadlock and preserves the fairness
+    guarantee of <code>Service.lock</code>.
+
+    <p>
+    The <code>Service</code> interface requires that a file may be locked for
+    exclusive access while its parent directory is locked for shared access
+    by another user. The ancestors of an exclusively locked object therefore
+    take <code>INTENTION_SHARED</code> rather than
+    <code>INTENTION_EXCLUSIVE</code>: exclusive access to an object excludes
+    only users of the object itself and of its ancestors in
+    <code>EXCLUSIVE</code> mode.
+ */
+class LockManager
+{
+    /** Returns the mode taken on the ancestors of an object locked in the
+        given way. */
+    static LockMode ancestorMode(boolean exclusive)
+    {
+        return LockMode.INTENTION_SHARED;
+    }
+
+    /** Returns the mode taken on the object itself. */
+    static LockMode targetMode(boolean exclusive)
+    {
+        return exclusive ? LockMode.EXCLUSIVE : LockMode.SHARED;
+    }
+
+    /** Locks the last node of a chain running from the root down.
+
+        @param chain Nodes from the root to the object to be locked.
+        @param exclusive <code>true</code> for exclusive access.
+        @throws InterruptedException If the calling thread is interrupted while
+                                     waiting. No locks are then held.
+     */
+    void lock(Node[] chain, boolean exclusive) throws InterruptedException
+    {
+        int         last = chain.length - 1;
+        LockMode    ancestor = ancestorMode(exclusive);
+
+        for(int i = 0; i < last; ++i)
+        {
+            try
+            {
+                chain[i].lock.acquire(ancestor);
+            }
+            catch(InterruptedException e)
+            {
+                releaseAncestors(chain, i, ancestor);
+                throw e;
+            }
+        }
+
+        try
+        {
+            chain[last].lock.acquire(targetMode(exclusive));
+        }
+        catch(InterruptedException e)
+        {
+            releaseAncestors(chain, last, ancestor);
+            throw e;
+        }
+    }
+
+    /** Attempts to lock the last node of a chain without waiting.
+
+        @param chain Nodes from the root to the object to be locked.
+        @param exclusive <code>true</code> for exclusive access.
+        @return <code>true</code> if all locks were taken, and
+                <code>false</code> if any of them would have had to wait, in
+                which case none are held.
+     */
+    boolean tryLock(Node[] chain, boolean exclusive)
+    {
+        int         last = chain.length - 1;
+        LockMode    ancestor = ancestorMode(exclusive);
+
+        for(int i = 0; i < last; ++i)
+        {
+            if(!chain[i].lock.tryAcquire(ancestor))
+            {
+                releaseAncestors(chain, i, ancestor);
+                return false;
+            }
+        }
+
+        if(!chain[last].lock.tryAcquire(targetMode(exclusive)))
+        {
+            releaseAncestors(chain, last, ancestor);
+            return false;
+        }
+
+        return true;
+    }
+
+    /** Releases the locks taken by <code>lock</code> or a successful
+        <code>tryLock</code> on the same chain.
+
+        @param chain Nodes from the root to the locked object.
+        @param exclusive <code>true</code> if the object was locked for
+                         exclusive access.
+     */
+    void unlock(Node[] chain, boolean exclusive)
+    {
+        int         last = chain.length - 1;
+
+        chain[last].lock.release(targetMode(exclusive));
+        releaseAncestors(chain, last, ancestorMode(exclusive));
+    }
+
+    /** Releases the intention locks on the first <code>count</code> nodes of
+        a chain, from the bottom up. */
+    private static void releaseAncestors(Node[] chain, int count,
+                                         LockMode mode)
+    {
+        for(int i = count - 1; i >= 0; --i)
+            chain[i].lock.release(mode);
+    }
+}
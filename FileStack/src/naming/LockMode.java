@@ -0,0 +1,48 @@
+package naming;
+
+/** Modes in which a node of the directory tree can be locked.
+
+    <p>
+    The two <em>intention</em> modes are taken on the ancestors of an object
+    that is being locked, and announce that a lock is held somewhere below
+    them. <code>INTENTION_SHARED</code> conflicts only with
+    <code>EXCLUSIVE</code>, and <code>INTENTION_EXCLUSIVE</code> additionally
+    conflicts with <code>SHARED</code>. The usual compatibility matrix is:
+
+    <pre>
+              IS   IX   S    X
+         IS   yes  yes  yes  no
+         IX   yes  yes  no   no
+         S    yes  no   yes  no
+         X    no   no   no   no
+    </pre>
+ */
+enum LockMode
+{
+    /** Intention to lock a descendant for shared access (IS). */
+    INTENTION_SHARED,
+    /** Intention to lock a descendant for exclusive access (IX). */
+    INTENTION_EXCLUSIVE,
+    /** Shared access to the node and its subtree (S). */
+    SHARED,
+    /** Exclusive access to the node and its subtree (X). */
+    EXCLUSIVE;
+
+    /** Compatibility matrix, indexed by the ordinals of the two modes. */
+    private static final boolean[][]    COMPATIBLE =
+        new boolean[][] {{true,  true,  true,  false},
+                         {true,  true,  false, false},
+                         {true,  false, true,  false},
+                         {false, false, false, false}};
+
+    /** Determines whether a lock in this mode may be held at the same time as
+        a lock in another mode by a different user.
+
+        @param other The other mode.
+        @return <code>true</code> if the two modes are compatible.
+     */
+    boolean compatibleWith(LockMode other)
+    {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+}
@@ -0,0 +1,212 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import common.Path;
+
+/** Table of the partitions of a partitioned namespace.
+
+    <p>
+    A namespace may be split into subtrees, each served by its own naming
+    server. Each subtree is rooted at a <em>mount point</em>, and holds every
+    path under the mount point that is not under a deeper mount point. A path
+    therefore belongs to the partition whose mount point is the longest
+    prefix of the path. There is always a partition mounted at the root
+    directory.
+
+    <p>
+    The table gives, for each mount point, the address of the client service
+    and registration interfaces of the naming server serving the partition.
+    Clients use it to send each request directly to the naming server owning
+    the path concerned. It can be read from a text file in which each line
+    gives a mount point, a hostname, a service port and a registration port,
+    separated by white space. Blank lines and lines starting with
+    <code>#</code> are ignored.
+ */
+public class MountTable implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Partition of the namespace. */
+    public static class Mount implements Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Mount point. */
+        public final Path           prefix;
+        /** Hostname of the naming server serving the partition. */
+        public final String         hostname;
+        /** Port of the naming server's client service interface. */
+        public final int            service_port;
+        /** Port of the naming server's registration interface. */
+        public final int            registration_port;
+
+        /** Creates a <code>Mount</code> object.
+
+            @param prefix Mount point.
+            @param hostname Hostname of the naming server.
+            @param service_port Client service interface port.
+            @param registration_port Registration interface port.
+         */
+        public Mount(Path prefix, String hostname, int service_port,
+                     int registration_port)
+        {
+            if(prefix == null || hostname == null)
+                throw new NullPointerException();
+
+            this.prefix = prefix;
+            this.hostname = hostname;
+            this.service_port = service_port;
+            this.registration_port = registration_port;
+        }
+
+        /** Returns the mount point and address of the naming server. */
+        @Override
+        public String toString()
+        {
+            return prefix + " " + hostname + " " + service_port + " " +
+                   registration_port;
+        }
+    }
+
+    /** Partitions, in order of mount point. */
+    private final Mount[]       mounts;
+
+    /** Creates a mount table.
+
+        @param mounts Partitions of the namespace, in any order.
+        @throws IllegalArgumentException If no partition is mounted at the
+                                         root directory, or if two partitions
+                                         have the same mount point.
+     */
+    public MountTable(List<Mount> mounts)
+    {
+        this.mounts = mounts.toArray(new Mount[mounts.size()]);
+
+        Arrays.sort(this.mounts, new Comparator<Mount>()
+        {
+            @Override
+            public int compare(Mount first, Mount second)
+            {
+                return first.prefix.compareTo(second.prefix);
+            }
+        });
+
+        if(this.mounts.length == 0 || !this.mounts[0].prefix.isRoot())
+            throw new IllegalArgumentException("no partition mounted at /");
+
+        for(int index = 1; index < this.mounts.length; ++index)
+        {
+            if(this.mounts[index].prefix.equals(this.mounts[index - 1].prefix))
+            {
+                throw new IllegalArgumentException("two partitions mounted " +
+                                                   "at " +
+                                                   this.mounts[index].prefix);
+            }
+        }
+    }
+
+    /** Reads a mount table from a text file.
+
+        @param file The file.
+        @return The mount table.
+        @throws IOException If the file cannot be read, or is not a valid
+                            mount table.
+     */
+    public static MountTable read(File file) throws IOException
+    {
+        BufferedReader      reader = new BufferedReader(new FileReader(file));
+        ArrayList<Mount>    mounts = new ArrayList<Mount>();
+
+        try
+        {
+            String          line;
+
+            while((line = reader.readLine()) != null)
+            {
+                line = line.trim();
+
+                if(line.length() == 0 || line.startsWith("#"))
+                    continue;
+
+                String[]    fields = line.split("\\s+");
+
+                if(fields.length != 4)
+                    throw new IOException("bad mount table line: " + line);
+
+                mounts.add(new Mount(new Path(fields[0]), fields[1],
+                                     Integer.parseInt(fields[2]),
+                                     Integer.parseInt(fields[3])));
+            }
+
+            return new MountTable(mounts);
+        }
+        catch(IllegalArgumentException e)
+        {
+            throw new IOException("bad mount table " + file + ": " +
+                                  e.getMessage(), e);
+        }
+        finally
+        {
+            reader.close();
+        }
+    }
+
+    /** Returns the number of partitions. */
+    public int size()
+    {
+        return mounts.length;
+    }
+
+    /** Returns a partition. Partitions are numbered in order of mount
+        point, so the partition mounted at the root directory is first. */
+    public Mount mount(int index)
+    {
+        return mounts[index];
+    }
+
+    /** Returns the number of the partition with the given mount point, or
+        -1 if there is none. */
+    public int find(Path prefix)
+    {
+        for(int index = 0; index < mounts.length; ++index)
+        {
+            if(mounts[index].prefix.equals(prefix))
+                return index;
+        }
+
+        return -1;
+    }
+
+    /** Returns the number of the partition owning a path. This is the
+        partition whose mount point is the longest prefix of the path. */
+    public int owner(Path path)
+    {
+        // Mount points are sorted, so the last one that is a prefix of the
+        // path is the longest.
+        int                 owner = 0;
+
+        for(int index = 1; index < mounts.length; ++index)
+        {
+            if(path.isSubpath(mounts[index].prefix))
+                owner = index;
+        }
+
+        return owner;
+    }
+
+    /** Returns <code>true</code> if a path is a mount point or has a mount
+        point under it. Such a path cannot be deleted without cutting a
+        partition off from the namespace. */
+    public boolean covers(Path path)
+    {
+        for(Mount mount : mounts)
+        {
+            if(mount.prefix.isSubpath(path))
+                return true;
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,107 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Page of the mutation log of a naming server, as returned by
+    <code>Service.mutations</code>.
+
+    <p>
+    A page holds the journal records that follow the sequence number a
+    follower naming server has applied, up to the last record the leader has
+    made durable. If the leader no longer holds the records the follower
+    needs, the page instead identifies a checkpoint of the leader's whole
+    namespace, which the follower reads in chunks with
+    <code>Service.checkpointChunk</code>, and after which it continues from
+    the checkpoint's sequence number. The contents are opaque to clients;
+    they are used by <code>NamingServer.follow</code>.
+ */
+public class MutationPage implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Encoded journal records, in order. */
+    private final byte[][]      records;
+    /** Identifier of the checkpoint on the leader, or -1 if the page holds
+        records. */
+    private final long          transfer;
+    /** Length of the checkpoint image, in bytes, or -1 if the page holds
+        records. */
+    private final long          checkpoint_length;
+    /** Sequence number of the last record reflected in the checkpoint, or -1
+        if the page holds records. */
+    private final long          checkpoint_sequence;
+    /** Sequence number of the last durable record on the leader. */
+    private final long          latest;
+
+    /** Creates a page of records.
+
+        @param records Encoded journal records, in order.
+        @param latest Sequence number of the last durable record on the
+                      leader.
+     */
+    MutationPage(byte[][] records, long latest)
+    {
+        this.records = records;
+        this.transfer = -1;
+        this.checkpoint_length = -1;
+        this.checkpoint_sequence = -1;
+        this.latest = latest;
+    }
+
+    /** Creates a page identifying a checkpoint.
+
+        @param transfer Identifier of the checkpoint on the leader.
+        @param length Length of the checkpoint image, in bytes.
+        @param sequence Sequence number of the last record certainly
+                        reflected in the checkpoint.
+        @param latest Sequence number of the last durable record on the
+                      leader.
+     */
+    MutationPage(long transfer, long length, long sequence, long latest)
+    {
+        this.records = new byte[0][];
+        this.transfer = transfer;
+        this.checkpoint_length = length;
+        this.checkpoint_sequence = sequence;
+        this.latest = latest;
+    }
+
+    /** Returns the encoded journal records. */
+    byte[][] records()
+    {
+        return records;
+    }
+
+    /** Returns <code>true</code> if the page identifies a checkpoint rather
+        than holding records. */
+    boolean hasCheckpoint()
+    {
+        return transfer >= 0;
+    }
+
+    /** Returns the identifier of the checkpoint on the leader. */
+    long transfer()
+    {
+        return transfer;
+    }
+
+    /** Returns the length of the checkpoint image, in bytes. */
+    long checkpointLength()
+    {
+        return checkpoint_length;
+    }
+
+    /** Returns the sequence number of the last record reflected in the
+        checkpoint. */
+    long checkpointSequence()
+    {
+        return checkpoint_sequence;
+    }
+
+    /** Returns the sequence number of the last durable record on the
+        leader. */
+    long latest()
+    {
+        return latest;
+    }
+}
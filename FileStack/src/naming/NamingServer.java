@@ -3,11 +3,22 @@ package naming;
 import java.io.*;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rmi.*;
 import common.*;
@@ -40,31 +51,217 @@ public class NamingServer implements Service, Registration
 {
 	
 	
-	Node root;
+	//Root of the tree. Replaced, together with the index, when a follower
+	//reloads its namespace from its leader.
+	volatile Node root;
 	
 	//A hashmap between the Storage and Command for each file
-	HashMap<Storage, Command> storecommandMap;
+	ConcurrentHashMap<Storage, Command> storecommandMap;
 	Skeleton<Service> servSkeleton;
 	Skeleton<Registration> regSkeleton;
 	
+	//Index from the full path of every node in the tree to the node, so that
+	//operations on a single object do not have to walk the tree from the root.
+	//The tree remains authoritative: a path missing from the index is looked
+	//up in the tree before it is reported as not found.
+	volatile ConcurrentHashMap<Path, Node> index;
+	
 	//replicas contains the paths of replicated files and a set
-	//of their respective storage servers.
-	ConcurrentHashMap<Path, Set<Storage>> replicas;
+	//of their respective storage servers. The map is sorted by path, so the
+	//replicated files under a directory are found without scanning it all.
+	ConcurrentSkipListMap<Path, Set<Storage>> replicas;
 	
 	//List of all storages
-	ArrayList<Storage> Stores = new ArrayList<Storage>();
+	CopyOnWriteArrayList<Storage> Stores = new CopyOnWriteArrayList<Storage>();
+	
+	//Live statistics of each registered storage server
+	ConcurrentHashMap<Storage, ServerStats> serverStats =
+			new ConcurrentHashMap<Storage, ServerStats>();
+	
+	//Chooses the storage servers for new files and replicas
+	private volatile PlacementPolicy placement = new PlacementPolicy.RoundRobin();
+	
+	//Chooses the copy of a file that getStorage directs readers to
+	private volatile ReadRouting routing = new ReadRouting.RoundRobin();
+	
+	//Time without a heartbeat after which a storage server is given no new
+	//files, and after which readers are no longer sent to it, in milliseconds
+	private volatile long suspectTimeout = 3000;
+	private volatile long deadTimeout = 10000;
+	
+	//Whether storage servers that have never sent a heartbeat are judged by
+	//the time since they registered, or always trusted
+	private volatile boolean heartbeatsRequired;
+	
+	//Journal of namespace mutations, or null if the namespace is kept only
+	//in memory
+	volatile Journal journal;
+	
+	//Directory holding the journal and checkpoints
+	private File metadata;
+	
+	//Periodic checkpoint task, and the interval between checkpoints
+	private ScheduledFuture<?> checkpoints;
+	private long checkpoint_interval = 300000;
+	
+	//Held while a checkpoint is written, so that only one is written at once
+	private final Object checkpointing = new Object();
+	
+	//Small integers identifying storage servers in the journal
+	ConcurrentHashMap<Storage, Integer> storageIds =
+			new ConcurrentHashMap<Storage, Integer>();
+	ConcurrentHashMap<Integer, Storage> storagesById =
+			new ConcurrentHashMap<Integer, Storage>();
+	private final AtomicInteger nextStorageId = new AtomicInteger();
+	
+	//Registrations in progress, by identifier
+	private final ConcurrentHashMap<Long, Storage> registrations =
+			new ConcurrentHashMap<Long, Storage>();
+	private final AtomicLong nextRegistration = new AtomicLong(1);
+	
+	//Digests of the directories of each storage server resuming its
+	//registration, as the naming server saw them when the registration resumed
+	private final ConcurrentHashMap<Long, Map<Path, byte[]>> resumed =
+			new ConcurrentHashMap<Long, Map<Path, byte[]>>();
+	
+	//Storage servers restored from the journal that have not registered
+	//again since the naming server started
+	Set<Storage> restoredStores =
+			Collections.newSetFromMap(new ConcurrentHashMap<Storage, Boolean>());
+	
+	//Decides how many replicas each file should have from its access heat
+	final ReplicationPolicy policy = new ReplicationPolicy();
+	
+	//Periodic sweep that drops the replicas of files that have gone cold
+	private ScheduledFuture<?> sweep;
+	
+	//Takes the intention and object locks for lock and unlock
+	final LockManager locks = new LockManager();
+	
+	//Copies and invalidates replicas in the background
+	final ReplicationScheduler replication = new ReplicationScheduler();
+	
+	//Sends deletions to the storage servers holding a path in parallel
+	final FanOut fanout = new FanOut("fan-out");
+	
+	//Reclaims the storage of objects deleted in the background, and the
+	//periodic task running it
+	final GarbageCollector garbage = new GarbageCollector(this);
+	private ScheduledFuture<?> collection;
+	
+	//Restores the copies of files lost with a dead storage server, and the
+	//periodic task watching the storage servers and running it
+	final Rereplicator recovery = new Rereplicator(this);
+	private ScheduledFuture<?> monitoring;
+	
+	//Moves files from full storage servers to empty ones, and the periodic
+	//task running it
+	final Rebalancer rebalancer = new Rebalancer(this);
+	private ScheduledFuture<?> rebalancing;
+	
+	//Set when delete returns before storage servers have deleted the object
+	private volatile boolean backgroundDeletion = false;
+	
+	//Largest number of entries returned in one page of a listing or a walk
+	static final int MAX_PAGE = 4096;
+	
+	//Mount table of the partitioned namespace, or null if this server holds
+	//the whole namespace
+	private volatile MountTable mounts;
+	
+	//Leader whose mutations this server applies, or null if this server is
+	//not a follower
+	private volatile Service leader;
+	
+	//Sequence number of the last mutation applied from the leader, and of
+	//the last durable mutation the leader has reported
+	private volatile long applied = -1;
+	private volatile long leaderLatest = -1;
+	
+	//Time at which the follower last had every mutation the leader reported
+	//durable, and the longest time after which it still answers reads
+	private volatile long caughtUp;
+	private volatile long maxStaleness = 5000;
+	
+	//Set while the follower reloads its namespace, after falling behind the
+	//mutations the leader keeps
+	private volatile boolean outOfSync = false;
+	
+	//Periodic poll of the leader, and the interval between polls
+	private ScheduledFuture<?> following;
+	private long followInterval = 100;
+	
+	//Held while mutations from the leader are applied
+	private final Object polling = new Object();
+	
+	//Checkpoints written for followers that have fallen behind the journal,
+	//and the largest chunk of one a follower asks for. Tests lower the chunk
+	//so that a small checkpoint is sent in several.
+	final CheckpointTransfers transfers = new CheckpointTransfers();
+	int transferChunk = CheckpointTransfers.CHUNK;
     /** Creates the naming server object.
 
         <p>
         The naming server is not started.
      */
     public NamingServer()
+    {
+    	this(NamingStubs.SERVICE_PORT, NamingStubs.REGISTRATION_PORT);
+    }
+
+    /** Creates a naming server object listening on the given ports.
+
+        <p>
+        Several naming servers serving the partitions of a namespace may run
+        on one host, each on its own pair of ports. The naming server is not
+        started.
+
+        @param service_port Client service interface port.
+        @param registration_port Registration interface port.
+     */
+    public NamingServer(int service_port, int registration_port)
     {
     	root = new Node(false, new Path("/"),null);
-    	storecommandMap = new HashMap<Storage, Command>();
-    	servSkeleton = new Skeleton<Service>(Service.class,this,new InetSocketAddress(NamingStubs.SERVICE_PORT));
-        regSkeleton = new Skeleton<Registration>(Registration.class,this,new InetSocketAddress(NamingStubs.REGISTRATION_PORT));
-        replicas = new ConcurrentHashMap<Path, Set<Storage>>();
+    	index = new ConcurrentHashMap<Path, Node>();
+    	index.put(root.myPath, root);
+    	storecommandMap = new ConcurrentHashMap<Storage, Command>();
+    	servSkeleton = new Skeleton<Service>(Service.class,this,new InetSocketAddress(service_port));
+        regSkeleton = new Skeleton<Registration>(Registration.class,this,new InetSocketAddress(registration_port));
+        replicas = new ConcurrentSkipListMap<Path, Set<Storage>>();
+        scheduleSweep();
+        collection = replication.schedulePeriodic(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                //A follower learns of reclaimed storage from its leader
+                if(leader == null)
+                    garbage.collect();
+            }
+        }, GarbageCollector.INTERVAL);
+        monitoring = replication.schedulePeriodic(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                //A follower receives no heartbeats
+                if(leader == null)
+                {
+                    checkLiveness();
+                    recovery.schedule();
+                }
+            }
+        }, Rereplicator.INTERVAL);
+        rebalancing = replication.schedulePeriodic(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                //A follower learns of moved files from its leader
+                if(leader == null)
+                    rebalancer.schedule();
+            }
+        }, Rebalancer.INTERVAL);
     }
 
     /** Starts the naming server.
@@ -97,6 +294,18 @@ public class NamingServer implements Service, Registration
     {
         regSkeleton.stop();
         servSkeleton.stop();
+        replication.shutdown();
+        rebalancer.stop();
+        transfers.clear();
+        Journal j = journal;
+        if(j != null)
+        {
+        	try
+        	{
+        		j.close();
+        	}
+        	catch(IOException e) {e.printStackTrace();}
+        }
         stopped(null);
     }
 
@@ -113,452 +322,2581 @@ public class NamingServer implements Service, Registration
     {
     }
 
-    // The following methods are documented in Service.java.
-    @Override
-    public boolean isDirectory(Path path) throws FileNotFoundException, NullPointerException
+    /** Keeps the namespace in the given directory.
+
+        <p>
+        Every change to the directory tree, to the set of registered storage
+        servers, and to the replicas of files is recorded in a journal in
+        this directory before it is acknowledged. If the directory already
+        holds a journal, the namespace is first restored from it, so that
+        clients can use the restored files at once. Storage servers restored
+        in this way may register again when they restart; the files they
+        report that the namespace already assigns to them are not treated as
+        duplicates.
+
+        <p>
+        This method must be called before the naming server is started and
+        before any storage server registers.
+
+        <p>
+        The naming server also writes a checkpoint of the whole namespace to
+        this directory periodically, after which the journal records it
+        covers are removed. On startup, the most recent checkpoint is loaded
+        and only the journal records written after it are replayed.
+
+        @param directory Directory holding the journal and checkpoints. It is
+                         created if it does not exist.
+        @throws IOException If the checkpoint or the journal cannot be read,
+                            or the journal cannot be created.
+        @throws IllegalStateException If the metadata directory has already
+                                      been set.
+     */
+    public synchronized void setMetadataDirectory(File directory)
+        throws IOException
     {
-    	if(path == null)
-    		throw new NullPointerException();
-		return !root.getPathNode(path).isFile;
+        if(journal != null)
+            throw new IllegalStateException("metadata directory already set");
+
+        if(!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("unable to create " + directory);
+
+        File checkpoint = Checkpoint.latest(directory);
+        long after = checkpoint == null ? 0 : Checkpoint.load(this, checkpoint);
+
+        long last = Journal.replay(directory, after, new Journal.Replayer()
+        {
+            @Override
+            public void apply(JournalRecord record)
+            {
+                applyRecord(record);
+            }
+        });
+
+        journal = new Journal(directory, last + 1);
+        metadata = directory;
+        scheduleCheckpoints();
     }
 
-    // The following methods are documented in Service.java.
-    @Override
-    public String[] list(Path directory) throws FileNotFoundException
+    /** Writes a checkpoint of the namespace to the metadata directory, and
+        removes the journal records and the checkpoints it replaces.
+
+        <p>
+        The checkpoint is written while the naming server continues to serve
+        requests. It is made current only once every journal record
+        appended before it was complete is durable.
+
+        @throws IOException If the checkpoint cannot be written.
+        @throws IllegalStateException If no metadata directory has been set.
+     */
+    public void checkpoint() throws IOException
     {
-        Node pathNode = root.getPathNode(directory);
-        
-        if(pathNode.isFile)
-        	throw new FileNotFoundException();
-        ArrayList<String> contents = new ArrayList<String>();
+        Journal j = journal;
+        if(j == null)
+            throw new IllegalStateException("no metadata directory");
         
-        for(String component : pathNode.children.keySet())
-        	contents.add(component);
-        String[] dummyCast = new String[0];
-        return contents.toArray(dummyCast);
+        synchronized(checkpointing)
+        {
+            //Every record up to this one has been applied to the tree, since
+            //records are appended only after their mutation is made. Later
+            //records go to a new segment, so the older ones can be removed.
+            long sequence = j.nextSequence() - 1;
+            j.rotate();
+            
+            File written = Checkpoint.write(this, metadata, sequence);
+            
+            //The checkpoint may reflect later mutations, which must not
+            //become visible after a restart unless they are durable
+            j.sync(j.nextSequence() - 1);
+            
+            Checkpoint.removeBefore(metadata, written);
+            Journal.removeSegmentsBefore(metadata, sequence + 1);
+        }
     }
 
-    // The following methods are documented in Service.java.
-    @Override
-    public boolean createFile(Path file)
-        throws RMIException, FileNotFoundException
-    {
-    	if(file == null)
-    		throw new NullPointerException();
-    	if(storecommandMap.isEmpty())
-    		return false;
+    /** Sets how often a checkpoint of the namespace is written when a
+        metadata directory has been set. The default is every five minutes.
 
-    	Storage nextstore = storecommandMap.keySet().iterator().next();
-    	
-    	if(!insertNode(nextstore, file))
-    		return false;
-    	Command command = storecommandMap.get(nextstore);
-    	try
-    	{
-    		command.create(file);
-    	}
-    	catch(RMIException e)
-    	{
-    		return false;
-    	}
-    	
-    	return true;
-    }
-    
-    //Auxiliary function that helps createFile function add a path to the tree
-    public boolean insertNode(Storage s, Path p) throws FileNotFoundException
+        @param milliseconds Interval between checkpoints.
+        @throws IllegalArgumentException If the interval is not positive.
+     */
+    public synchronized void setCheckpointInterval(long milliseconds)
     {
-    	if(p.isRoot())
-    		return false;
-    	Path parentPath = p.parent();
-    	Node parentNode = null;
-    	
-        try
-        {
-        	parentNode = root.getPathNode(parentPath);
-        }
-        catch(FileNotFoundException fnfe)
+        if(milliseconds <= 0)
+            throw new IllegalArgumentException("interval must be positive");
+
+        checkpoint_interval = milliseconds;
+        if(checkpoints != null)
         {
-        	throw fnfe;
+            checkpoints.cancel(false);
+            scheduleCheckpoints();
         }
-       
-        if(parentNode == null || parentNode.isFile)
-        	throw new FileNotFoundException();
-        	
-    	if(parentNode.children.containsKey(p.last()))
-    		return false;
-    	
-    	Node newFile = new Node(true, p, s);
-        parentNode.children.put(p.last(), newFile);
-        
-        return true;
     }
 
-    // The following methods are documented in Service.java.
-    @Override
-    public boolean createDirectory(Path directory) throws FileNotFoundException
+    //Starts writing checkpoints periodically at the current interval
+    private synchronized void scheduleCheckpoints()
     {
-        if(directory == null)
-        	throw new NullPointerException();
-        if(directory.isRoot())
-        	return false;
-        Node parentNode = null;
-        parentNode = root.getPathNode(directory.parent());
-        if(parentNode == null || parentNode.isFile)
-        	throw new FileNotFoundException();
-        //false if directory already exists
-        if(parentNode.children.get(directory.last()) != null)
-        	return false;
-        Node newFile = new Node(false, directory, null);
-    	parentNode.children.put(directory.last(), newFile);
-    	return true;
-        
-        
+        checkpoints = replication.schedulePeriodic(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    checkpoint();
+                }
+                catch(IOException e) {e.printStackTrace();}
+            }
+        }, checkpoint_interval);
     }
 
-    // The following methods are documented in Service.java.
-    @Override
-    public boolean delete(Path path) throws FileNotFoundException
+    /** Sets the policy that chooses the storage servers on which new files
+        and replicas are placed. The default is round-robin.
+
+        @param policy The placement policy.
+        @throws NullPointerException If <code>policy</code> is
+                                     <code>null</code>.
+     */
+    public void setPlacementPolicy(PlacementPolicy policy)
     {
-    	if(path == null)
-    		throw new NullPointerException();
-    	
-        boolean success = true;
-        ArrayList<Path> allPathNodes = new ArrayList<Path>();
-        
-        if(path.isRoot())
-        	return false;
-        
-        Node parent = root.getPathNode(path.parent());
-        if(parent == null)
-        	throw new FileNotFoundException();
-        
-        Node pn = root.getPathNode(path);
-        if(pn==null)
-			throw new FileNotFoundException();
-        
-        if(parent.children.containsKey(path.last()))
-        {
-        	if(isDirectory(path))           //If file to be deleted is Directory
-        	{
-        		Set<Storage> storagesToDeleteFrom = Collections.newSetFromMap
-        				(new ConcurrentHashMap<Storage, Boolean>());
-        		allPathNodes = pn.getFilesUnder();
-        		
-        		/*	If a directory is deleted, the files under it will also be deleted
-        			This block checks in all storage servers whether and such files exists
-        			of which the deleting directory may be a parent directory
-        		*/
-    			for(Path subpath : replicas.keySet())
-        			if(subpath.isSubpath(path))
-        				allPathNodes.add(subpath);
-    			
-    			if(!replicas.isEmpty())        //If the global list that contains replicas is not empty
-    			{
-    				for(Path p : allPathNodes)
-            		{
-            			storagesToDeleteFrom.addAll(replicas.get(p));
-            		}
-            		for(Storage s : storagesToDeleteFrom) {
-            			Command c = storecommandMap.get(s);
-            			Command cOriginal = storecommandMap.get(pn.storageStub);
-            			try 
-            			{
-    							success = cOriginal.delete(path) && c.delete(path);
-    					}
-            			catch (RMIException e) 
-    					{
-    						return false;
-    					}
-                		replicas.remove(path);
-            		}
-            		parent.children.remove(path.last());
-            		return success;
-    			}
-    			else                  // If no replicas exist for any file just delete original file
-    			{
-    				Command cOriginal = storecommandMap.get(pn.storageStub);
-    				try 
-        			{
-						if(!cOriginal.delete(path))
-							success = false;
-					}
-        			catch (RMIException e) 
-					{
-						return false;
-					}
-    				parent.children.remove(path.last());
-    				return success;	
-    			}
-        		
-        	}
-        	else          //If the Path being deleted is a file
-        	{
-        		parent.children.remove(path.last());
-        		if(!replicas.isEmpty())                     //If the global list that contains replicas is not empty
-        		{
-        			Set<Storage> backupstores = replicas.get(path);
-            		if(backupstores.isEmpty())
-            			return true;
-            		
-            		for(Storage s : backupstores)
-            		{
-            			Command c = storecommandMap.get(s);
-            			Command cOriginal = storecommandMap.get(pn.storageStub);
-            			try
-            			{
-            				success = c.delete(path) && cOriginal.delete(path);
-            			}
-            			catch(RMIException e)
-            			{
-            				return false;
-            			}
-            			replicas.remove(path);
-            		}
-        		}
-        		else                                        // If no replicas exist for any file just delete original file
-        		{
-        			Command cOriginal = storecommandMap.get(pn.storageStub);
-        			try
-        			{
-        				success = cOriginal.delete(path);
-        			}
-        			catch(RMIException e)
-        			{
-        				return false;
-        			}
-        		}
-        	}
-        }
-        else
-    		throw new FileNotFoundException();
-		return success;
+        if(policy == null)
+            throw new NullPointerException();
+
+        placement = policy;
     }
-    
-    
-    // The following methods are documented in Service.java.
-    @Override
-    public Storage getStorage(Path file) throws FileNotFoundException
+
+    /** Sets the policy that chooses which copy of a replicated file
+        <code>getStorage</code> returns. The default is round-robin over the
+        primary and the published replicas.
+
+        @param routing The read routing policy.
+        @throws NullPointerException If <code>routing</code> is
+                                     <code>null</code>.
+     */
+    public void setReadRouting(ReadRouting routing)
     {
-        if(file == null)
-        	throw new NullPointerException();
-        if(!root.getPathNode(file).isFile)
-        	throw new FileNotFoundException();
-        return root.getPathNode(file).storageStub;
+        if(routing == null)
+            throw new NullPointerException();
+
+        this.routing = routing;
     }
 
-    // The method register is documented in Registration.java.
-    @Override
-    public Path[] register(Storage client_stub, Command command_stub,
-                           Path[] files)
+    /** Returns the statistics of every registered storage server, including
+        the number of reads directed to each. */
+    public List<ServerStats> serverStatistics()
     {
-    	
-    	if(client_stub == null || command_stub == null || files == null)
-    		throw new NullPointerException();
-    	
-    	if(storecommandMap.get(client_stub)!=null)
-    		throw new IllegalStateException();
-    	
-    	storecommandMap.put(client_stub, command_stub);
-        ArrayList<Path> duplicates = new ArrayList<Path>();
-        for(Path p : files)
+        ArrayList<ServerStats> result = new ArrayList<ServerStats>();
+
+        for(Storage s : Stores)
         {
-        	if(!p.isRoot())
-        	{
-        		try
-            	{
-            		if(!addToTree(client_stub, p))
-            			duplicates.add(p);
-            	}
-            	catch(Exception fnfe)
-            	{
-            		duplicates.add(p);
-            	} 
-        	}
-        	       	
+            ServerStats stats = serverStats.get(s);
+
+            if(stats != null)
+                result.add(stats);
         }
-        if(!Stores.contains(client_stub))
-        	Stores.add(client_stub);
-        Path[] dummyCast = new Path[0];
-        return duplicates.toArray(dummyCast);
+
+        return result;
     }
-    
-    //Auxiliary function that helps register function add a path to the tree 
-    public boolean addToTree(Storage s, Path p) throws FileNotFoundException
+
+    /** Sets the thresholds at which files are replicated.
+
+        <p>
+        Each shared lock on a file adds one to the file's heat, which decays
+        exponentially over time. A file is given one replica for every
+        <code>copy_heat</code> of heat beyond the first, and keeps each
+        replica while its heat stays above <code>retain_heat</code> per
+        replica. The defaults are 20 and 5.
+
+        @param copy_heat Heat per replica at which replicas are created.
+        @param retain_heat Heat per replica below which replicas are dropped.
+        @throws IllegalArgumentException If either threshold is not positive,
+                                         or if <code>retain_heat</code> is
+                                         greater than <code>copy_heat</code>.
+     */
+    public void setReplicationThresholds(double copy_heat, double retain_heat)
     {
-    	Node current = this.root;
-    	Iterator<String> itr = p.iterator();
-    	String component;
-    	while(itr.hasNext())
-    	{
-    		component = itr.next();
-    		if(current.children.containsKey(component) && !current.children.get(component).isFile)
-    			current = current.children.get(component);
-    		else
-    		{
-    			while(itr.hasNext())
-    			{
-    				current.children.put(component, new Node(false, new Path(current.myPath, component) , s));
-    				current = current.children.get(component);
-    				component = itr.next();
-    			}
-    			
-    			if(current.children.get(component) == null)
-    			{
-    				current.children.put(component, new Node(true, p, s));
-    				return true;
-    			}
-    		}
-    	}
-    	return false;
+        if(!(retain_heat > 0) || retain_heat > copy_heat)
+            throw new IllegalArgumentException("invalid replication thresholds");
+
+        policy.copy_heat = copy_heat;
+        policy.retain_heat = retain_heat;
     }
 
-	@Override
-	/**
-	<p>When a file has to be locked, the locker shared locks all the files down the
-	   tree until the given path's node and then lock it with an exclusive lock if
-	   requested of shared locks it otherwise.
+    /** Sets the half-life of file heat. The default is one minute.
 
-	@param Path path of the File or Directory to be locked.
-	@param boolean exclusive to indicate a write lock.
-	@return <code>void<Path></code>
-	@throws FileNotFoundException If the Path refers to a File or Directory Node.
-	@throws RMIException If an error occurs due to network issues.
- */
-	public void lock(Path path, boolean exclusive) throws RMIException,
-			FileNotFoundException 
-	{
-		if(path == null)
-			throw new NullPointerException();
-	
-		try
-		{
-			root.getPathNode(path);
-		}
-		catch(Exception e)
-		{
-			throw new FileNotFoundException();
-		}
-		Iterator<String> itr = path.iterator();
-		String nextComp;
-		Node current = root;
-		
-		if(path.isRoot())
-		{
-			if(exclusive)
-			{
-				try 
-				{
-					current.lock.getExclusive(this,current);
-				} catch (InterruptedException e) {e.printStackTrace();}
-			}	
-			else               //If not exclusive
-			{
-				try 
-				{
-					current.lock.getShared(this,current);
-				} catch (InterruptedException e) {e.printStackTrace();}
-			}		
-		} else                //If not root
-			try 
-			{
-				current.lock.getShared(this,null);
-			} catch (InterruptedException e1) {e1.printStackTrace();}
-		while(itr.hasNext())
-		{
-			nextComp = itr.next();
-			if(current.children.containsKey(nextComp))
-			{
-				current = current.children.get(nextComp);
-				if(current.myPath.equals(path))
-				{
-					if(exclusive)
-						try {
-							current.lock.getExclusive(this,current);
-						} catch (InterruptedException e) {e.printStackTrace();}
-					else
-						try 
-						{
-							current.lock.getShared(this, current);
-						} catch (InterruptedException e) {e.printStackTrace();}
-				} else              //If not path's Node
-					try 
-					{
-						current.lock.getShared(this,current);
-					} catch (InterruptedException e) {e.printStackTrace();}
-			}	
-			else                   //if children does not contain the next component
-			{
-				unlock(path, exclusive);
-				throw new FileNotFoundException();
-			}
-		}//end of while loop
-		return;	
-	}//end of lock function
+        @param milliseconds The half-life.
+        @throws IllegalArgumentException If the half-life is not positive.
+     */
+    public void setHeatHalfLife(long milliseconds)
+    {
+        if(milliseconds <= 0)
+            throw new IllegalArgumentException("half-life must be positive");
 
-	@Override
-	/**
-	<p>When a file has to be unlocked, the unlocker unlocks all the files down the
-	   tree including the given path's node.
+        policy.half_life = TimeUnit.MILLISECONDS.toNanos(milliseconds);
+    }
+
+    /** Sets the largest number of replicas of any file, not counting the
+        original. By default the number is limited only by the number of
+        storage servers.
+
+        @param count The limit. Zero disables replication.
+        @throws IllegalArgumentException If the limit is negative.
+     */
+    public void setMaxReplicas(int count)
+    {
+        if(count < 0)
+            throw new IllegalArgumentException("negative replica limit");
+
+        policy.max_replicas = count;
+    }
+
+    /** Sets how often the replicas of files that have gone cold are dropped.
+        The default is every ten seconds.
+
+        @param milliseconds Interval between sweeps.
+        @throws IllegalArgumentException If the interval is not positive.
+     */
+    public synchronized void setReplicationSweepInterval(long milliseconds)
+    {
+        if(milliseconds <= 0)
+            throw new IllegalArgumentException("interval must be positive");
+
+        policy.sweep_interval = milliseconds;
+        if(sweep != null)
+            sweep.cancel(false);
+        scheduleSweep();
+    }
+
+    /** Makes <code>delete</code> return before storage servers have deleted
+        the object.
+
+        <p>
+        When deletion is in the background, <code>delete</code> removes the
+        object from the namespace and leaves a tombstone for each storage
+        server holding a copy of a file under it. Both are journaled before
+        <code>delete</code> returns. The storage servers are then commanded
+        to delete their copies by a background collector, at the rate set by
+        <code>setDeletionRate</code>. A server that cannot be reached is
+        tried again later. By default, <code>delete</code> waits until every
+        storage server has deleted its copy.
+
+        @param background <code>true</code> to delete in the background.
+     */
+    public void setBackgroundDeletion(boolean background)
+    {
+        backgroundDeletion = background;
+    }
+
+    /** Sets the largest number of deletions the background collector sends
+        to storage servers each second. The default is 1000.
+
+        @param rate Largest number of deletions each second.
+        @throws IllegalArgumentException If the rate is not positive.
+     */
+    public void setDeletionRate(int rate)
+    {
+        garbage.setRate(rate);
+    }
+
+    /** Sets how long a storage server may go without a heartbeat before it is
+        suspected, and before it is considered dead.
+
+        <p>
+        A suspected server is given no new files or replicas, but readers are
+        still directed to it. Readers are directed to a dead server only if no
+        other copy of the file is left. A server is trusted again as soon as
+        it sends another heartbeat. A storage server that has never sent a
+        heartbeat is judged by the time since it registered, or since it was
+        restored from the journal. The defaults are three and ten seconds.
+
+        @param suspect Time after which a silent server is suspected, in
+                       milliseconds.
+        @param dead Time after which a silent server is considered dead, in
+                    milliseconds.
+        @throws IllegalArgumentException If <code>suspect</code> is not
+                                         positive, or <code>dead</code> is
+                                         less than <code>suspect</code>.
+     */
+    public void setHeartbeatTimeouts(long suspect, long dead)
+    {
+        if(suspect < 1 || dead < suspect)
+            throw new IllegalArgumentException("impossible timeouts");
+
+        suspectTimeout = suspect;
+        deadTimeout = dead;
+    }
+
+    /** Sets whether storage servers must send heartbeats.
+
+        <p>
+        By default, storage servers that have never sent a heartbeat are
+        always trusted, as not every storage server sends them. When
+        heartbeats are required, a storage server that never sends one is
+        suspected and then considered dead, like one that has stopped sending
+        them. Servers that have sent a heartbeat are judged by their
+        heartbeats either way.
+
+        @param required <code>true</code> to judge storage servers that have
+                        not sent a heartbeat by the time since they
+                        registered.
+     */
+    public void setHeartbeatsRequired(boolean required)
+    {
+        heartbeatsRequired = required;
+    }
+
+    /** Sets how many copies may be made at once to restore the files lost
+        with a dead storage server.
+
+        <p>
+        When a storage server is considered dead, each replicated file it
+        held is copied back to the number of copies it had, starting with the
+        files with the fewest copies left and, among those, the hottest. The
+        defaults are eight copies in total, and two per storage server, as
+        the source or the target of a copy.
+
+        @param total Largest number of copies made at once.
+        @param per_server Largest number of copies a single storage server
+                          takes part in at once.
+        @throws IllegalArgumentException If either limit is not positive.
+     */
+    public void setRecoveryLimits(int total, int per_server)
+    {
+        recovery.setLimits(total, per_server);
+    }
+
+    /** Sets how files are moved between storage servers to even out the
+        space they use.
+
+        <p>
+        Storage servers report the capacity and free space of their
+        filesystems in their heartbeats. Every few seconds, the files of any
+        server whose utilization is more than <code>threshold</code> above
+        the average are moved to the emptiest servers. The copies are paced
+        to <code>bandwidth</code> bytes a second on average; a file is
+        copied at once whatever its size, and the copies after a large file
+        wait until its size has been made up. The defaults are 16 MiB a
+        second, and a threshold of 0.1.
+
+        @param bandwidth Largest number of bytes copied each second.
+        @param threshold Utilization above the average, as a fraction of a
+                         server's capacity, at which its files are moved.
+        @throws IllegalArgumentException If the bandwidth is not positive, or
+                                         the threshold is not strictly
+                                         between zero and one.
+     */
+    public void setRebalancing(long bandwidth, double threshold)
+    {
+        rebalancer.setLimits(bandwidth, threshold);
+    }
+
+    //Starts the periodic sweep for cold replicas at the current interval
+    private synchronized void scheduleSweep()
+    {
+        sweep = replication.schedulePeriodic(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sweepColdReplicas();
+            }
+        }, policy.sweep_interval);
+    }
+
+    /** Makes this naming server serve one partition of a partitioned
+        namespace.
+
+        <p>
+        The server creates the directory at the partition's mount point and
+        the directories leading to it, and an empty directory at each mount
+        point whose parent belongs to the partition, so that the mount point
+        is listed in its parent. None of these directories can be deleted.
+        Clients are expected to send each request to the partition owning the
+        path concerned, as <code>PartitionedService</code> does; a request
+        for a path owned by another partition is served from this server's
+        own tree. Locks are taken only within the partition, so a lock on a
+        directory does not exclude clients from partitions mounted under it.
+
+        <p>
+        This method must be called before the naming server is started, and
+        after its metadata directory is set, if any.
+
+        @param table Mount table of the namespace.
+        @param prefix Mount point of the partition served by this server.
+        @throws IllegalArgumentException If the table has no partition
+                                         mounted at <code>prefix</code>.
+        @throws IllegalStateException If a file is in the way of one of the
+                                      directories.
+     */
+    public synchronized void setPartition(MountTable table, Path prefix)
+    {
+        int own = table.find(prefix);
+        if(own < 0)
+            throw new IllegalArgumentException("no partition mounted at " +
+                                               prefix);
+
+        ArrayList<Path> directories = new ArrayList<Path>();
+        directories.add(prefix);
+        for(int index = 0; index < table.size(); ++index)
+        {
+            Path mount = table.mount(index).prefix;
+            if(index != own && !mount.isRoot() &&
+               table.owner(mount.parent()) == own)
+                directories.add(mount);
+        }
+
+        for(Path directory : directories)
+        {
+            if(makeDirectories(null, directory) == null)
+                throw new IllegalStateException("file in the way of " +
+                                                directory);
+        }
+
+        mounts = table;
+    }
+
+    /** Makes this naming server a read-only follower of another.
+
+        <p>
+        The follower first loads a checkpoint of the leader's namespace, and
+        then polls the leader for the mutations that follow it, applying them
+        in order. It answers the read-only methods of <code>Service</code>
+        from its copy of the namespace: <code>isDirectory</code>,
+        <code>list</code>, <code>walk</code>, <code>getStorage</code>,
+        <code>getLocations</code>, <code>stat</code> and <code>usage</code>.
+        Locks, mutations and registrations must be sent to the leader; the
+        follower refuses them. The sizes of files are not sent to followers,
+        which ask storage servers for them when needed.
+
+        <p>
+        The copy of the namespace may lag behind the leader's. The follower
+        answers reads only while it has had every mutation the leader made
+        durable within the last <code>setMaxStaleness</code> milliseconds,
+        and refuses them otherwise, so that clients can turn to the leader.
+        A follower that falls so far behind that the leader no longer keeps
+        the mutations it needs empties its namespace and loads a new
+        checkpoint from the leader, refusing reads until it has done so.
+        Checkpoints are copied from a file on the leader to a file on the
+        follower in chunks, so neither holds a whole image in memory.
+
+        <p>
+        This method must be called before the naming server is started. The
+        leader must journal its namespace, and the follower must not.
+
+        @param leader Client service interface of the leader.
+        @throws IllegalStateException If this server journals its namespace
+                                      or already follows a leader, or if the
+                                      leader does not journal its namespace.
+        @throws IOException If the leader's checkpoint cannot be loaded.
+        @throws RMIException If the leader cannot be reached.
+     */
+    public synchronized void follow(Service leader)
+        throws IOException, RMIException
+    {
+        if(leader == null)
+            throw new NullPointerException();
+        if(journal != null)
+            throw new IllegalStateException("follower cannot be journaled");
+        if(this.leader != null)
+            throw new IllegalStateException("already following a leader");
+
+        //Replicas are dropped and storage reclaimed by the leader alone
+        sweep.cancel(false);
+        collection.cancel(false);
+        monitoring.cancel(false);
+        rebalancing.cancel(false);
+        rebalancer.stop();
+        this.leader = leader;
+        pollLeader();
+        scheduleFollowing();
+    }
+
+    /** Sets how often a follower polls its leader for new mutations. The
+        default is every 100 milliseconds.
+
+        @param milliseconds Interval between polls.
+        @throws IllegalArgumentException If the interval is not positive.
+     */
+    public synchronized void setFollowInterval(long milliseconds)
+    {
+        if(milliseconds <= 0)
+            throw new IllegalArgumentException("interval must be positive");
+
+        followInterval = milliseconds;
+        if(following != null)
+        {
+            following.cancel(false);
+            scheduleFollowing();
+        }
+    }
+
+    /** Sets how far a follower may lag behind its leader and still answer
+        reads. The default is five seconds.
+
+        @param milliseconds Largest time since the follower last had every
+                            mutation the leader made durable.
+        @throws IllegalArgumentException If the time is negative.
+     */
+    public void setMaxStaleness(long milliseconds)
+    {
+        if(milliseconds < 0)
+            throw new IllegalArgumentException("negative staleness");
+
+        maxStaleness = milliseconds;
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public long replicationLag()
+    {
+        if(leader == null)
+            return 0;
+        return Math.max(0, leaderLatest - applied);
+    }
+
+    @Override
+    public long staleness()
+    {
+        if(leader == null)
+            return 0;
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - caughtUp);
+    }
+
+    //Starts the periodic poll of the leader at the current interval
+    private synchronized void scheduleFollowing()
+    {
+        following = replication.schedulePeriodic(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    pollLeader();
+                }
+                catch(RMIException e)
+                {
+                    //The leader is unreachable; reads are refused once the
+                    //follower becomes too stale
+                }
+                catch(IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        }, followInterval);
+    }
+
+    //Applies the mutations the leader has made durable since the last poll.
+    //The first poll loads a checkpoint of the leader's namespace.
+    void pollLeader() throws IOException, RMIException
+    {
+    	synchronized(polling)
+    	{
+    		while(true)
+    		{
+    			MutationPage page = leader.mutations(applied, MAX_PAGE);
+    			if(page.hasCheckpoint())
+    			{
+    				//A checkpoint cannot be applied over a namespace that may
+    				//hold files it no longer has, so a follower that has
+    				//fallen behind starts again from an empty namespace
+    				if(applied >= 0)
+    				{
+    					outOfSync = true;
+    					clearNamespace();
+    					applied = -1;
+    				}
+    				try
+    				{
+    					loadCheckpoint(page);
+    				}
+    				catch(IOException e)
+    				{
+    					clearNamespace();
+    					throw e;
+    				}
+    				catch(RMIException e)
+    				{
+    					clearNamespace();
+    					throw e;
+    				}
+    				applied = page.checkpointSequence();
+    				outOfSync = false;
+    				continue;
+    			}
+    			
+    			for(byte[] encoded : page.records())
+    			{
+    				DataInputStream stream = new DataInputStream(
+    						new ByteArrayInputStream(encoded));
+    				JournalRecord record = JournalRecord.read(stream);
+    				applyRecord(record);
+    				applied = record.sequence;
+    			}
+    			leaderLatest = page.latest();
+    			if(applied >= leaderLatest)
+    			{
+    				caughtUp = System.nanoTime();
+    				outOfSync = false;
+    				return;
+    			}
+    			if(page.records().length == 0)
+    				return;
+    		}
+    	}
+    }
+    
+    //Empties the namespace of a follower, so that it can load a checkpoint
+    //from its leader afresh. The checkpoint registers the storage servers
+    //again; their statistics start anew.
+    private void clearNamespace()
+    {
+    	Node fresh = new Node(false, new Path("/"), null);
+    	ConcurrentHashMap<Path, Node> empty =
+    			new ConcurrentHashMap<Path, Node>();
+    	empty.put(fresh.myPath, fresh);
+    	index = empty;
+    	root = fresh;
+    	replicas.clear();
+    	serverStats.clear();
+    	garbage.clear();
+    }
+    
+    //Loads the checkpoint a page from the leader refers to. The image is
+    //copied chunk by chunk to a file, from which it is loaded.
+    private void loadCheckpoint(MutationPage page)
+    		throws IOException, RMIException
+    {
+    	File file = File.createTempFile("follower", ".checkpoint");
+    	try
+    	{
+    		OutputStream stream = new BufferedOutputStream(
+    				new FileOutputStream(file));
+    		try
+    		{
+    			long offset = 0;
+    			while(offset < page.checkpointLength())
+    			{
+    				byte[] chunk;
+    				try
+    				{
+    					chunk = leader.checkpointChunk(page.transfer(),
+    							offset, transferChunk);
+    				}
+    				catch(IllegalStateException e)
+    				{
+    					throw new IOException("checkpoint not sent", e);
+    				}
+    				if(chunk.length == 0)
+    					throw new IOException("checkpoint truncated");
+    				stream.write(chunk);
+    				offset += chunk.length;
+    			}
+    		}
+    		finally
+    		{
+    			stream.close();
+    		}
+    		Checkpoint.load(this, file);
+    	}
+    	finally
+    	{
+    		file.delete();
+    	}
+    }
+    
+    //Refuses a request that only the leader may serve, if this server is a
+    //follower
+    private void checkLeader()
+    {
+    	if(leader != null)
+    		throw new IllegalStateException("read-only follower");
+    }
+    
+    //Refuses a read if this server is a follower that may be too far behind
+    //its leader to answer it
+    private void checkFresh()
+    {
+    	if(leader != null && (outOfSync || staleness() > maxStaleness))
+    		throw new IllegalStateException("follower too far behind leader");
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public MountTable getMountTable()
+    {
+        return mounts;
+    }
+
+    @Override
+    public MutationPage mutations(long after, int limit)
+    {
+    	if(limit < 1)
+    		throw new IllegalArgumentException("limit must be positive");
+    	checkLeader();
+    	Journal j = journal;
+    	if(j == null)
+    		throw new IllegalStateException("namespace is not journaled");
+    	
+    	byte[][] records = j.recordsAfter(after, Math.min(limit, MAX_PAGE));
+    	if(records != null)
+    		return new MutationPage(records, j.durableSequence());
+    	return checkpointPage(j);
+    }
+    
+    //Writes a checkpoint of the whole namespace for a follower, which reads
+    //it with checkpointChunk. The image may reflect mutations after its
+    //sequence number, which must be durable before the follower can show
+    //them.
+    MutationPage checkpointPage(Journal j)
+    {
+    	try
+    	{
+    		long sequence = j.nextSequence() - 1;
+    		long transfer = transfers.prepare(this, sequence);
+    		j.sync(j.nextSequence() - 1);
+    		return new MutationPage(transfer, transfers.length(transfer),
+    				sequence, j.durableSequence());
+    	}
+    	catch(IOException e)
+    	{
+    		throw new IllegalStateException("unable to write checkpoint", e);
+    	}
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public byte[] checkpointChunk(long transfer, long offset, int length)
+    {
+    	checkLeader();
+    	try
+    	{
+    		return transfers.read(transfer, offset, length);
+    	}
+    	catch(IOException e)
+    	{
+    		throw new IllegalStateException("unable to read checkpoint", e);
+    	}
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public boolean isDirectory(Path path) throws FileNotFoundException, NullPointerException
+    {
+    	if(path == null)
+    		throw new NullPointerException();
+    	checkFresh();
+		return !lookup(path).isFile;
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public String[] list(Path directory) throws FileNotFoundException
+    {
+        checkFresh();
+        Node pathNode = lookup(directory);
+        
+        if(pathNode.isFile)
+        	throw new FileNotFoundException();
+        String[] dummyCast = new String[0];
+        return pathNode.children.keySet().toArray(dummyCast);
+    }
+    
+    @Override
+    public String[] list(Path directory, String after, int limit)
+    	throws FileNotFoundException
+    {
+    	if(directory == null)
+    		throw new NullPointerException();
+    	checkFresh();
+    	if(limit < 1)
+    		throw new IllegalArgumentException("limit must be positive");
+    	
+    	Node pathNode = lookup(directory);
+    	if(pathNode.isFile)
+    		throw new FileNotFoundException();
+    	
+    	//Children are ordered by name, so the page is found in logarithmic time
+    	Map<String, Node> rest = after == null ? pathNode.children :
+    			pathNode.children.tailMap(after, false);
+    	limit = Math.min(limit, MAX_PAGE);
+    	ArrayList<String> names = new ArrayList<String>();
+    	for(String name : rest.keySet())
+    	{
+    		if(names.size() == limit)
+    			break;
+    		names.add(name);
+    	}
+    	return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public WalkPage walk(Path directory, Path after, int limit)
+    	throws FileNotFoundException
+    {
+    	if(directory == null)
+    		throw new NullPointerException();
+    	checkFresh();
+    	if(limit < 1)
+    		throw new IllegalArgumentException("limit must be positive");
+    	if(after != null &&
+    			(after.equals(directory) || !after.isSubpath(directory)))
+    		throw new IllegalArgumentException(after + " not in " + directory);
+    	
+    	Node start = lookup(directory);
+    	if(start.isFile)
+    		throw new FileNotFoundException();
+    	
+    	//The components of the cursor below the directory
+    	String[] resume = null;
+    	if(after != null)
+    	{
+    		int skip = 0;
+    		for(Iterator<String> i = directory.iterator(); i.hasNext(); i.next())
+    			++skip;
+    		ArrayList<String> below = new ArrayList<String>();
+    		for(String component : after)
+    		{
+    			if(skip > 0)
+    				--skip;
+    			else
+    				below.add(component);
+    		}
+    		resume = below.toArray(new String[below.size()]);
+    	}
+    	
+    	ArrayList<Node> entries = new ArrayList<Node>();
+    	boolean complete = walk(start, resume, 0, entries,
+    			Math.min(limit, MAX_PAGE));
+    	
+    	Path[] paths = new Path[entries.size()];
+    	boolean[] directories = new boolean[entries.size()];
+    	long[] sizes = new long[entries.size()];
+    	for(int i = 0; i < paths.length; ++i)
+    	{
+    		Node n = entries.get(i);
+    		paths[i] = n.myPath;
+    		directories[i] = !n.isFile;
+    		sizes[i] = n.isFile ? n.size : -1;
+    	}
+    	return new WalkPage(paths, directories, sizes, complete);
+    }
+    
+    //Adds the entries under a directory to a page in order, starting after
+    //the entry named by the components of resume from the given depth on, if
+    //any. Returns false if the page filled up before the walk completed.
+    private boolean walk(Node directory, String[] resume, int depth,
+    		ArrayList<Node> entries, int limit)
+    {
+    	Map<String, Node> rest = directory.children;
+    	if(resume != null && depth < resume.length)
+    	{
+    		//The entry on the cursor's path has been listed, but some of the
+    		//entries under it may not have been
+    		Node child = directory.children.get(resume[depth]);
+    		if(child != null && !child.isFile)
+    		{
+    			String[] below = depth + 1 < resume.length ? resume : null;
+    			if(!walk(child, below, depth + 1, entries, limit))
+    				return false;
+    		}
+    		rest = directory.children.tailMap(resume[depth], false);
+    	}
+    	
+    	for(Node child : rest.values())
+    	{
+    		if(entries.size() == limit)
+    			return false;
+    		entries.add(child);
+    		if(!child.isFile && !walk(child, null, depth + 1, entries, limit))
+    			return false;
+    	}
+    	return true;
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public boolean createFile(Path file)
+        throws RMIException, FileNotFoundException
+    {
+    	if(file == null)
+    		throw new NullPointerException();
+    	checkLeader();
+    	if(storecommandMap.isEmpty())
+    		return false;
+
+    	List<ServerStats> eligible = candidates(null, null);
+    	if(eligible.isEmpty())
+    		return false;
+    	ServerStats chosen = placement.select(file, eligible);
+    	Storage nextstore = chosen.storage;
+    	
+    	Node n = insertNode(nextstore, file);
+    	if(n == null)
+    		return false;
+    	Command command = storecommandMap.get(nextstore);
+    	chosen.begin();
+    	try
+    	{
+    		//Copies of a deleted object in the way of the file are deleted
+    		//first, or the garbage collector could delete the new file later
+    		if(!garbage.reclaim(file, nextstore))
+    			throw new RMIException("unable to reclaim " + file);
+    		command.create(file);
+    	}
+    	catch(RMIException e)
+    	{
+    		//Unlink the node again so the name is not left pointing at a
+    		//storage server that never created the file
+    		unlink(lookup(file.parent()), n);
+    		return false;
+    	}
+    	finally
+    	{
+    		chosen.end();
+    	}
+    	
+    	//A file deleted while it was being created is not journaled
+    	journalSync(journalCreation(n, JournalRecord.CREATE_FILE,
+    			storageId(nextstore)));
+    	return true;
+    }
+    
+    //Auxiliary function that helps createFile function add a path to the
+    //tree. Returns the new node, or null if the name is taken.
+    public Node insertNode(Storage s, Path p) throws FileNotFoundException
+    {
+    	if(p.isRoot())
+    		return null;
+    	Path parentPath = p.parent();
+    	Node parentNode = null;
+    	
+        parentNode = lookup(parentPath);
+       
+        if(parentNode == null || parentNode.isFile)
+        	throw new FileNotFoundException();
+        	
+    	//putIfAbsent makes the existence check and the insertion one step, so
+    	//two concurrent creations of the same name cannot both succeed. The
+    	//file is created empty, which is known before the node is published.
+    	Node newFile = new Node(true, p, s);
+    	newFile.size = 0;
+        if(parentNode.children.putIfAbsent(p.last(), newFile) != null)
+        	return null;
+        countFile(s, 1);
+        if(!indexNode(parentNode, newFile))
+        	throw new FileNotFoundException();
+        return newFile;
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public boolean createDirectory(Path directory) throws FileNotFoundException
+    {
+        if(directory == null)
+        	throw new NullPointerException();
+        checkLeader();
+        if(directory.isRoot())
+        	return false;
+        Node parentNode = null;
+        parentNode = lookup(directory.parent());
+        if(parentNode == null || parentNode.isFile)
+        	throw new FileNotFoundException();
+        //false if directory already exists
+        Node newFile = new Node(false, directory, null);
+    	if(parentNode.children.putIfAbsent(directory.last(), newFile) != null)
+    		return false;
+    	if(!indexNode(parentNode, newFile))
+    		throw new FileNotFoundException();
+    	journalSync(journalCreation(newFile, JournalRecord.CREATE_DIRECTORY,
+    			-1));
+    	return true;
+    }
+    
+    //Appends the record of the creation of a node to the journal, unless a
+    //concurrent delete has already unlinked the node, and returns its
+    //sequence number, or -1 if no record was appended. The delete unlinks
+    //the node under its monitor before it journals the deletion, so a record
+    //appended under the monitor always comes before the deletion, and replay
+    //never brings back a deleted object.
+    long journalCreation(Node n, byte type, int storage)
+    {
+    	synchronized(n)
+    	{
+    		if(n.unlinked)
+    			return -1;
+    		return journalAppend(JournalRecord.mutation(type, n.myPath,
+    				storage));
+    	}
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public boolean delete(Path path) throws FileNotFoundException
+    {
+    	if(path == null)
+    		throw new NullPointerException();
+    	checkLeader();
+        
+        if(path.isRoot())
+        	return false;
+        
+        //Deleting a mount point or one of its ancestors would cut a partition
+        //off from the namespace
+        MountTable table = mounts;
+        if(table != null && table.covers(path))
+        {
+        	lookup(path);
+        	return false;
+        }
+        
+        Node parent = lookup(path.parent());
+        if(parent == null)
+        	throw new FileNotFoundException();
+        
+        Node pn = lookup(path);
+        if(pn==null)
+			throw new FileNotFoundException();
+        
+        if(backgroundDeletion)
+        	return deleteInBackground(parent, pn);
+        
+        //A concurrent delete may have unlinked the object since the lookup
+        if(!unlink(parent, pn))
+        	throw new FileNotFoundException();
+        
+        //Every storage server holding the primary copy or a replica of a file
+        //under the path is told to delete the path
+        Set<Storage> holders = dropReplicas(path);
+        addPrimaries(pn, holders);
+        journalLog(JournalRecord.DELETE, path, -1);
+        return deleteFrom(holders, path);
+    }
+    
+    //Unlinks an object, and leaves a tombstone for each storage server
+    //holding a copy of a file under it. The tombstones are added before the
+    //object is unlinked, so that the path cannot be reused on those servers
+    //before the old copies are gone. They are held until the deletion is
+    //durable, so that no copy is deleted while a restart could bring the
+    //object back.
+    private boolean deleteInBackground(Node parent, Node pn)
+    		throws FileNotFoundException
+    {
+    	Path path = pn.myPath;
+    	Set<Storage> holders = new HashSet<Storage>();
+    	addPrimaries(pn, holders);
+    	for(Map.Entry<Path, Set<Storage>> entry :
+    			replicas.tailMap(path, true).entrySet())
+    	{
+    		if(!entry.getKey().isSubpath(path))
+    			break;
+    		holders.addAll(entry.getValue());
+    	}
+    	
+    	ArrayList<GarbageCollector.Tombstone> held =
+    			new ArrayList<GarbageCollector.Tombstone>();
+    	try
+    	{
+    		for(Storage s : holders)
+    			held.add(garbage.add(path, s, true));
+    		
+    		//A concurrent delete may have unlinked the object since the lookup.
+    		//Its tombstones are then the same as ours.
+    		if(!unlink(parent, pn))
+    			throw new FileNotFoundException();
+    		
+    		//A replica may have been published since the holders were found
+    		for(Storage s : dropReplicas(path))
+    		{
+    			if(holders.add(s))
+    				held.add(garbage.add(path, s, true));
+    		}
+    		
+    		long sequence =
+    				journalAppend(JournalRecord.mutation(JournalRecord.DELETE,
+    						path, -1));
+    		for(GarbageCollector.Tombstone tombstone : held)
+    		{
+    			sequence = journalAppend(JournalRecord.mutation(
+    					JournalRecord.TOMBSTONE, path,
+    					storageId(tombstone.storage)));
+    			tombstone.journaled = true;
+    		}
+    		journalSync(sequence);
+    		return true;
+    	}
+    	finally
+    	{
+    		for(GarbageCollector.Tombstone tombstone : held)
+    			garbage.release(tombstone);
+    	}
+    }
+    
+    //Adds the primary storage server of a file, or of every file under a
+    //directory, to a set
+    private void addPrimaries(Node n, Set<Storage> holders)
+    {
+    	if(n.isFile)
+    	{
+    		if(n.storageStub != null)
+    			holders.add(n.storageStub);
+    		return;
+    	}
+    	for(Node child : n.children.values())
+    		addPrimaries(child, holders);
+    }
+    
+    //Removes the replica sets of a file, or of every file under a directory,
+    //and returns the storage servers that held the replicas. The paths under
+    //a directory follow it directly in the order of the replica map, so only
+    //the replica sets removed are visited.
+    Set<Storage> dropReplicas(Path path)
+    {
+    	Set<Storage> holders = new HashSet<Storage>();
+    	Iterator<Path> paths = replicas.tailMap(path, true).keySet().iterator();
+    	while(paths.hasNext())
+    	{
+    		Path p = paths.next();
+    		if(!p.isSubpath(path))
+    			break;
+    		Set<Storage> dropped = replicas.remove(p);
+    		if(dropped == null)
+    			continue;
+    		for(Storage store : dropped)
+    			countFile(store, -1);
+    		holders.addAll(dropped);
+    	}
+    	return holders;
+    }
+    
+    //Commands storage servers to delete a path, all at once, and waits for
+    //them. Returns true if every server deleted the path. A server that
+    //cannot be commanded is left a tombstone, so that the collector deletes
+    //its copy once it registers again.
+    private boolean deleteFrom(Set<Storage> holders, final Path path)
+    {
+    	ArrayList<Callable<Boolean>> requests =
+    			new ArrayList<Callable<Boolean>>();
+    	boolean deleted = true;
+    	for(Storage s : holders)
+    	{
+    		final Command c = storecommandMap.get(s);
+    		if(c == null)
+    		{
+    			garbage.add(path, s, false);
+    			journalLog(JournalRecord.TOMBSTONE, path, storageId(s));
+    			deleted = false;
+    			continue;
+    		}
+    		requests.add(new Callable<Boolean>()
+    		{
+    			@Override
+    			public Boolean call() throws RMIException
+    			{
+    				return c.delete(path);
+    			}
+    		});
+    	}
+    	
+    	List<Boolean> results;
+    	try
+    	{
+    		results = fanout.run(requests);
+    	}
+    	catch(InterruptedException e)
+    	{
+    		Thread.currentThread().interrupt();
+    		return false;
+    	}
+    	//A server that could not be reached has failed to delete the path
+    	for(Boolean result : results)
+    	{
+    		if(result == null || !result)
+    			deleted = false;
+    	}
+    	return deleted;
+    }
+    
+    
+    // The following methods are documented in Service.java.
+    @Override
+    public Storage getStorage(Path file) throws FileNotFoundException
+    {
+        if(file == null)
+        	throw new NullPointerException();
+        checkFresh();
+        Node fileNode = lookup(file);
+        if(!fileNode.isFile)
+        	throw new FileNotFoundException();
+        
+        //Replicas are unpublished as soon as the file is locked for exclusive
+        //access, so a writer always finds the primary alone
+        ServerStats primary = serverStats.get(fileNode.storageStub);
+        Set<Storage> copies = replicas.get(file);
+        if(primary == null)
+        	return fileNode.storageStub;
+        if(copies == null)
+        {
+        	primary.countRead();
+        	return fileNode.storageStub;
+        }
+        
+        //Readers are sent to a dead server only if no other copy is left
+        long now = System.nanoTime();
+        ArrayList<ServerStats> eligible = new ArrayList<ServerStats>();
+        if(reachable(primary, now))
+        	eligible.add(primary);
+        for(Storage s : copies)
+        {
+        	ServerStats stats = serverStats.get(s);
+        	if(stats != null && reachable(stats, now))
+        		eligible.add(stats);
+        }
+        if(eligible.isEmpty())
+        	eligible.add(primary);
+        ServerStats chosen = routing.select(file, eligible);
+        chosen.countRead();
+        return chosen.storage;
+    }
+
+    // The following methods are documented in Service.java.
+    @Override
+    public FileLocations getLocations(Path file) throws FileNotFoundException
+    {
+        if(file == null)
+        	throw new NullPointerException();
+        checkFresh();
+        Node fileNode = lookup(file);
+        if(!fileNode.isFile)
+        	throw new FileNotFoundException();
+        
+        Set<Storage> copies;
+        long version;
+        synchronized(fileNode)
+        {
+        	copies = replicas.get(file);
+        	version = fileNode.version;
+        }
+        
+        //Replicas on dead servers are left out. The primary is always listed
+        //first, so that writers can find it.
+        long now = System.nanoTime();
+        ArrayList<Storage> servers = new ArrayList<Storage>();
+        servers.add(fileNode.storageStub);
+        if(copies != null)
+        {
+        	for(Storage s : copies)
+        	{
+        		ServerStats stats = serverStats.get(s);
+        		if(stats == null || reachable(stats, now))
+        			servers.add(s);
+        	}
+        }
+        return new FileLocations(servers.toArray(new Storage[servers.size()]),
+        		cachedSize(fileNode), version);
+    }
+    
+    @Override
+    public PathStat[] stat(Path[] paths)
+    {
+    	if(paths == null)
+    		throw new NullPointerException();
+    	for(Path p : paths)
+    	{
+    		if(p == null)
+    			throw new NullPointerException();
+    	}
+    	
+    	checkFresh();
+    	
+    	PathStat[] stats = new PathStat[paths.length];
+    	for(int i = 0; i < paths.length; ++i)
+    	{
+    		Node n;
+    		try
+    		{
+    			n = lookup(paths[i]);
+    		}
+    		catch(FileNotFoundException e)
+    		{
+    			stats[i] = new PathStat();
+    			continue;
+    		}
+    		
+    		if(!n.isFile)
+    		{
+    			stats[i] = new PathStat(true, -1, -1, null, 0);
+    			continue;
+    		}
+    		
+    		Storage primary;
+    		Set<Storage> copies;
+    		synchronized(n)
+    		{
+    			primary = n.storageStub;
+    			copies = replicas.get(n.myPath);
+    		}
+    		stats[i] = new PathStat(false, cachedSize(n), n.modified, primary,
+    				copies == null ? 0 : copies.size());
+    	}
+    	return stats;
+    }
+    
+    @Override
+    public DirectoryUsage usage(Path directory) throws FileNotFoundException
+    {
+    	if(directory == null)
+    		throw new NullPointerException();
+    	checkFresh();
+    	Node n = lookup(directory);
+    	if(n.isFile)
+    		throw new FileNotFoundException();
+    	
+    	long[] totals = new long[4];
+    	addUsage(n, totals);
+    	return new DirectoryUsage(totals[0], totals[1], totals[2], totals[3]);
+    }
+    
+    //Adds the number of files, the number of directories, the total known
+    //size and the number of files of unknown size under a directory to the
+    //given totals. Only sizes the naming server already knows are used.
+    private void addUsage(Node directory, long[] totals)
+    {
+    	for(Node child : directory.children.values())
+    	{
+    		if(child.isFile)
+    		{
+    			long size = child.size;
+    			++totals[0];
+    			if(size >= 0)
+    				totals[2] += size;
+    			else
+    				++totals[3];
+    		}
+    		else
+    		{
+    			++totals[1];
+    			addUsage(child, totals);
+    		}
+    	}
+    }
+    
+    //Returns the size of a file, asking its primary storage server if the
+    //size is not cached. Returns -1 if the storage server cannot be reached.
+    long cachedSize(Node n)
+    {
+    	long size = n.size;
+    	if(size >= 0)
+    		return size;
+    	
+    	ServerStats stats = serverStats.get(n.storageStub);
+    	if(stats != null)
+    		stats.begin();
+    	try
+    	{
+    		size = n.storageStub.size(n.myPath);
+    	}
+    	catch(FileNotFoundException e)
+    	{
+    		return -1;
+    	}
+    	catch(RMIException e)
+    	{
+    		return -1;
+    	}
+    	finally
+    	{
+    		if(stats != null)
+    			stats.end();
+    	}
+    	n.size = size;
+    	return size;
+    }
+
+    // The methods register, beginRegistration, registerBatch and
+    // endRegistration are documented in Registration.java.
+    @Override
+    public Path[] register(Storage client_stub, Command command_stub,
+                           Path[] files)
+    {
+    	
+    	if(client_stub == null || command_stub == null || files == null)
+    		throw new NullPointerException();
+    	
+    	long registration = beginRegistration(client_stub, command_stub);
+    	Path[] duplicates = registerBatch(registration, files);
+    	endRegistration(registration);
+    	return duplicates;
+    }
+    
+    @Override
+    public long beginRegistration(Storage client_stub, Command command_stub)
+    {
+    	if(client_stub == null || command_stub == null)
+    		throw new NullPointerException();
+    	checkLeader();
+    	
+    	//A storage server restored from the journal may register once more
+    	if(restoredStores.remove(client_stub))
+    		storecommandMap.put(client_stub, command_stub);
+    	else if(storecommandMap.putIfAbsent(client_stub, command_stub) != null)
+    		throw new IllegalStateException();
+    	Integer id = storageIds.get(client_stub);
+    	if(id == null)
+    	{
+    		id = nextStorageId.getAndIncrement();
+    		storageIds.put(client_stub, id);
+    		storagesById.put(id, client_stub);
+    	}
+    	serverStats.putIfAbsent(client_stub, new ServerStats(client_stub, id));
+    	journalSync(journalAppend(
+    			JournalRecord.register(id, client_stub, command_stub)));
+    	
+    	long registration = nextRegistration.getAndIncrement();
+    	registrations.put(registration, client_stub);
+    	return registration;
+    }
+    
+    @Override
+    public Path[] registerBatch(long registration, Path[] files)
+    {
+    	if(files == null)
+    		throw new NullPointerException();
+    	
+    	Storage client_stub = registrations.get(registration);
+    	if(client_stub == null)
+    		throw new IllegalStateException("no such registration");
+    	return addFiles(client_stub, files);
+    }
+    
+    @Override
+    public long resumeRegistration(Storage client_stub, Command command_stub)
+    {
+    	if(client_stub == null || command_stub == null)
+    		throw new NullPointerException();
+    	checkLeader();
+    	if(!storecommandMap.containsKey(client_stub))
+    		throw new IllegalStateException("storage server not registered");
+    	
+    	//No new files are placed on the server until it has caught up
+    	Stores.remove(client_stub);
+    	restoredStores.remove(client_stub);
+    	storecommandMap.put(client_stub, command_stub);
+    	Integer id = storageIds.get(client_stub);
+    	if(id == null)
+    	{
+    		id = nextStorageId.getAndIncrement();
+    		storageIds.put(client_stub, id);
+    		storagesById.put(id, client_stub);
+    	}
+    	serverStats.putIfAbsent(client_stub, new ServerStats(client_stub, id));
+    	journalSync(journalAppend(
+    			JournalRecord.register(id, client_stub, command_stub)));
+    	
+    	HashMap<Path, byte[]> digests = new HashMap<Path, byte[]>();
+    	digest(root, client_stub, digests);
+    	
+    	long registration = nextRegistration.getAndIncrement();
+    	resumed.put(registration, digests);
+    	registrations.put(registration, client_stub);
+    	return registration;
+    }
+    
+    @Override
+    public Path[] compareDigests(long registration, Path[] directories,
+    		byte[][] digests)
+    {
+    	if(directories == null || digests == null)
+    		throw new NullPointerException();
+    	if(directories.length != digests.length)
+    		throw new IllegalArgumentException("one digest per directory");
+    	
+    	Map<Path, byte[]> known = resumed.get(registration);
+    	if(known == null)
+    		throw new IllegalStateException("no such resumed registration");
+    	
+    	ArrayList<Path> differing = new ArrayList<Path>();
+    	for(int i = 0; i < directories.length; ++i)
+    	{
+    		if(!Arrays.equals(known.get(directories[i]), digests[i]))
+    			differing.add(directories[i]);
+    	}
+    	return differing.toArray(new Path[differing.size()]);
+    }
+    
+    @Override
+    public Path[] syncDirectory(long registration, Path directory,
+    		Path[] files, Path[] directories)
+    {
+    	if(directory == null || files == null || directories == null)
+    		throw new NullPointerException();
+    	
+    	Storage client_stub = registrations.get(registration);
+    	Map<Path, byte[]> known = resumed.get(registration);
+    	if(client_stub == null || known == null)
+    		throw new IllegalStateException("no such resumed registration");
+    	
+    	HashSet<String> heldFiles = new HashSet<String>();
+    	HashSet<String> heldDirectories = new HashSet<String>();
+    	for(Path p : files)
+    	{
+    		if(p.isRoot() || !p.parent().equals(directory))
+    			throw new IllegalArgumentException(p + " not in " + directory);
+    		heldFiles.add(p.last());
+    	}
+    	for(Path p : directories)
+    	{
+    		if(p.isRoot() || !p.parent().equals(directory))
+    			throw new IllegalArgumentException(p + " not in " + directory);
+    		heldDirectories.add(p.last());
+    	}
+    	
+    	//Forget the copies the server no longer holds, in the directory and in
+    	//any subdirectory it no longer has files under
+    	Node dir = index.get(directory);
+    	if(dir != null && !dir.isFile)
+    	{
+    		for(Map.Entry<String, Node> entry : dir.children.entrySet())
+    		{
+    			Node child = entry.getValue();
+    			if(child.isFile && !heldFiles.contains(entry.getKey()))
+    				dropCopies(client_stub, child);
+    			else if(!child.isFile && known.containsKey(child.myPath) &&
+    					!heldDirectories.contains(entry.getKey()))
+    				dropCopies(client_stub, child);
+    		}
+    	}
+    	
+    	return addFiles(client_stub, files);
+    }
+    
+    //Adds the files a registering storage server holds to the tree, and
+    //returns those that are duplicates
+    private Path[] addFiles(Storage client_stub, Path[] files)
+    {
+    	//Files left under a tombstone of the server are deleted, not added
+    	ArrayList<Path> garbageFiles = new ArrayList<Path>();
+    	files = garbage.filter(client_stub, files, garbageFiles);
+    	
+    	TreeLoader loader = new TreeLoader(this, client_stub, files);
+    	long sequence = loader.load();
+    	countFile(client_stub, loader.added());
+    	journalSync(sequence);
+    	if(garbageFiles.isEmpty())
+    		return loader.duplicates();
+    	garbageFiles.addAll(Arrays.asList(loader.duplicates()));
+    	return garbageFiles.toArray(new Path[garbageFiles.size()]);
+    }
+    
+    @Override
+    public void updateAttributes(Storage client_stub, Path[] files,
+    		long[] sizes, long[] modified)
+    {
+    	if(client_stub == null || files == null || sizes == null ||
+    			modified == null)
+    		throw new NullPointerException();
+    	if(files.length != sizes.length || files.length != modified.length)
+    		throw new IllegalArgumentException("one size and time per file");
+    	checkLeader();
+    	
+    	for(int i = 0; i < files.length; ++i)
+    	{
+    		Node n = index.get(files[i]);
+    		//Replicas are never written, so only the primary is believed
+    		if(n == null || n.unlinked || !n.isFile ||
+    				!client_stub.equals(n.storageStub))
+    			continue;
+    		//Reports may arrive out of order; one older than the last is
+    		//stale
+    		synchronized(n)
+    		{
+    			if(modified[i] < n.modified)
+    				continue;
+    			n.size = sizes[i];
+    			n.modified = modified[i];
+    		}
+    	}
+    }
+    
+    @Override
+    public void heartbeat(Storage client_stub, StorageLoad load)
+    {
+    	if(client_stub == null || load == null)
+    		throw new NullPointerException();
+    	checkLeader();
+    	
+    	ServerStats stats = serverStats.get(client_stub);
+    	if(stats == null || !storecommandMap.containsKey(client_stub))
+    		throw new IllegalStateException("storage server not registered");
+    	stats.reportHeartbeat(load);
+    }
+    
+    @Override
+    public void endRegistration(long registration)
+    {
+    	Storage client_stub = registrations.remove(registration);
+    	if(client_stub == null)
+    		throw new IllegalStateException("no such registration");
+    	resumed.remove(registration);
+    	Stores.addIfAbsent(client_stub);
+    }
+    
+    //Auxiliary function that helps register function add a path to the tree 
+    public boolean addToTree(Storage s, Path p) throws FileNotFoundException
+    {
+    	Node parent = makeDirectories(s, p.parent());
+    	if(parent == null || linkFile(parent, s, p) == null)
+    		return false;
+    	countFile(s, 1);
+    	return true;
+    }
+    
+    //Walks from the root to a directory, creating the directories missing on
+    //the way. A directory created by a concurrent registration is used
+    //instead of our own copy. Returns null if a file is in the way.
+    Node makeDirectories(Storage s, Path directory)
+    {
+    	Node current = this.root;
+    	for(String component : directory)
+    	{
+    		current = makeDirectory(current, component, s);
+    		if(current == null)
+    			return null;
+    	}
+    	return current;
+    }
+    
+    //Returns the subdirectory of a directory with the given name, creating it
+    //if it is missing. Returns null if a file has the name, or if the
+    //directory was deleted while the subdirectory was created.
+    Node makeDirectory(Node parent, String component, Storage s)
+    {
+    	Node next = parent.children.get(component);
+    	if(next == null)
+    	{
+    		Node created =
+    				new Node(false, new Path(parent.myPath, component), s);
+    		next = parent.children.putIfAbsent(component, created);
+    		if(next == null)
+    		{
+    			next = created;
+    			if(!indexNode(parent, created))
+    				return null;
+    		}
+    	}
+    	return next.isFile ? null : next;
+    }
+    
+    //Links a new file into a directory, unless the name is already taken or
+    //the directory has been deleted, and returns its node, or null if it was
+    //not linked. The caller accounts for the file in the server's
+    //statistics.
+    Node linkFile(Node parent, Storage s, Path p)
+    {
+    	Node file = new Node(true, p, s);
+    	if(parent.children.putIfAbsent(p.last(), file) != null)
+    		return null;
+    	if(indexNode(parent, file))
+    		return file;
+    	//Unlinking the file discounted it, though the caller never counted it
+    	countFile(s, 1);
+    	return null;
+    }
+    
+    //Returns the node for a path. The path index answers in constant time;
+    //a miss falls back on a walk of the tree, which is authoritative, so that
+    //a node that has been linked but not yet indexed is still found.
+    Node lookup(Path p) throws FileNotFoundException
+    {
+    	Node n = index.get(p);
+    	if(n != null && !n.unlinked)
+    		return n;
+    	return root.getPathNode(p);
+    }
+    
+    //Replaces the path index by one sized for the given number of nodes.
+    //Only used while the namespace is restored, before the server starts.
+    void presizeIndex(long nodes)
+    {
+    	ConcurrentHashMap<Path, Node> sized = new ConcurrentHashMap<Path, Node>(
+    			(int)Math.min(nodes + index.size(), 1 << 30));
+    	sized.putAll(index);
+    	index = sized;
+    }
+    
+    //Adds a node that has just been linked into a directory to the path
+    //index. A concurrent delete of the directory may already have walked its
+    //children and missed the node, so the directory is checked again once
+    //the node is linked, and a node left in a deleted directory is unlinked
+    //with it. Returns false if the node has been unlinked.
+    boolean indexNode(Node parent, Node n)
+    {
+    	if(parent.unlinked)
+    	{
+    		unlink(parent, n);
+    		return false;
+    	}
+    	index.put(n.myPath, n);
+    	//A concurrent delete may have unlinked the node before it was indexed
+    	if(n.unlinked)
+    	{
+    		index.remove(n.myPath, n);
+    		return false;
+    	}
+    	return true;
+    }
+    
+    //Unlinks a node from its parent and drops it and all of its descendants
+    //from the path index
+    boolean unlink(Node parent, Node n)
+    {
+    	if(!parent.children.remove(n.myPath.last(), n))
+    		return false;
+    	unindex(n);
+    	return true;
+    }
+    
+    //Helper for unlink that recurses through the unlinked subtree
+    private void unindex(Node n)
+    {
+    	//Set under the node's monitor, so that a replica published by a
+    	//concurrent copy is either seen by the delete or never published
+    	synchronized(n)
+    	{
+    		//The delete of a directory and the creation of a node in it may
+    		//both unlink the node; only the first accounts for it
+    		if(n.unlinked)
+    			return;
+    		n.unlinked = true;
+    	}
+    	index.remove(n.myPath, n);
+    	if(n.isFile)
+    		countFile(n.storageStub, -1);
+    	for(Node child : n.children.values())
+    		unindex(child);
+    }
+    
+    //Determines whether the namespace already assigns a file to a storage
+    //server, as its primary or as a replica
+    boolean hosts(Storage s, Path p) throws FileNotFoundException
+    {
+    	return hosts(s, lookup(p));
+    }
+    
+    boolean hosts(Storage s, Node n)
+    {
+    	if(!n.isFile)
+    		return false;
+    	Set<Storage> copies = replicas.get(n.myPath);
+    	return s.equals(n.storageStub) || (copies != null && copies.contains(s));
+    }
+    
+    //Computes the digest of the files a storage server holds under a
+    //directory, recording the digest of every directory under which it holds
+    //files. Returns null if it holds no files under the directory.
+    private byte[] digest(Node directory, Storage s, Map<Path, byte[]> digests)
+    {
+    	//Children are kept in order of name, as the digest requires
+    	DirectoryDigest digest = new DirectoryDigest();
+    	for(Map.Entry<String, Node> entry : directory.children.entrySet())
+    	{
+    		String name = entry.getKey();
+    		Node child = entry.getValue();
+    		if(!child.isFile)
+    			digest.addDirectory(name, digest(child, s, digests));
+    		else if(hosts(s, child))
+    			digest.addFile(name);
+    	}
+    	
+    	byte[] result = digest.finish();
+    	if(result != null)
+    		digests.put(directory.myPath, result);
+    	return result;
+    }
+    
+    //Forgets every copy a storage server held of a file, or of the files
+    //under a directory, after the server has reported them lost
+    private void dropCopies(Storage s, Node n)
+    {
+    	if(!n.isFile)
+    	{
+    		for(Node child : n.children.values())
+    			dropCopies(s, child);
+    		return;
+    	}
+    	
+    	long sequence = -1;
+    	boolean unlink = false;
+    	synchronized(n)
+    	{
+    		if(n.unlinked)
+    			return;
+    		Set<Storage> copies = replicas.get(n.myPath);
+    		Set<Storage> newset = copies == null ? new HashSet<Storage>()
+    				: new HashSet<Storage>(copies);
+    		if(newset.remove(s))
+    		{
+    			sequence = journalAppend(JournalRecord.mutation(
+    					JournalRecord.REMOVE_REPLICA, n.myPath, storageId(s)));
+    		}
+    		else if(!s.equals(n.storageStub))
+    			return;
+    		else if(!newset.isEmpty())
+    		{
+    			//A replica takes the place of the lost primary copy. Copies in
+    			//progress from the lost copy are discarded.
+    			Storage promoted = newset.iterator().next();
+    			newset.remove(promoted);
+    			n.storageStub = promoted;
+    			n.modified = -1;
+    			++n.version;
+    			sequence = journalAppend(JournalRecord.mutation(
+    					JournalRecord.SET_PRIMARY, n.myPath, storageId(promoted)));
+    		}
+    		else
+    			unlink = true;
+    		
+    		if(newset.isEmpty())
+    			replicas.remove(n.myPath);
+    		else
+    			replicas.put(n.myPath, Collections.unmodifiableSet(newset));
+    	}
+    	
+    	if(unlink)
+    	{
+    		//The only copy of the file is gone
+    		try
+    		{
+    			if(unlink(lookup(n.myPath.parent()), n))
+    				journalLog(JournalRecord.DELETE, n.myPath, -1);
+    		}
+    		catch(FileNotFoundException e) { }
+    		return;
+    	}
+    	journalSync(sequence);
+    	countFile(s, -1);
+    }
+    
+    //Returns the journal identifier of a storage server, or -1 if it has none
+    int storageId(Storage s)
+    {
+    	Integer id = storageIds.get(s);
+    	return id == null ? -1 : id;
+    }
+    
+    //Appends a record to the journal and returns its sequence number, or
+    //returns -1 if the namespace is not journaled. A journal that cannot be
+    //written makes every later mutation fail, rather than be acknowledged
+    //without being durable.
+    long journalAppend(JournalRecord record)
+    {
+    	Journal j = journal;
+    	if(j == null)
+    		return -1;
+    	try
+    	{
+    		return j.append(record);
+    	}
+    	catch(IOException e)
+    	{
+    		throw new IllegalStateException("unable to write journal", e);
+    	}
+    }
+    
+    //Waits until the journal record with the given sequence number, and all
+    //before it, are durable
+    void journalSync(long sequence)
+    {
+    	Journal j = journal;
+    	if(j == null || sequence < 0)
+    		return;
+    	try
+    	{
+    		j.sync(sequence);
+    	}
+    	catch(IOException e)
+    	{
+    		throw new IllegalStateException("unable to write journal", e);
+    	}
+    }
+    
+    //Records a mutation of a path in the journal and waits until it is durable
+    void journalLog(byte type, Path path, int storage)
+    {
+    	journalSync(journalAppend(JournalRecord.mutation(type, path, storage)));
+    }
+    
+    //Applies a record read from the journal to the namespace. Records are
+    //applied in order, and applying one whose effect is already present
+    //changes nothing.
+    void applyRecord(JournalRecord record)
+    {
+    	try
+    	{
+    		switch(record.type)
+    		{
+    		case JournalRecord.REGISTER:
+    			restoreStorage(record.storage, record.client_stub,
+    					record.command_stub);
+    			break;
+    		case JournalRecord.CREATE_FILE:
+    			Storage s = storagesById.get(record.storage);
+    			if(s != null)
+    				addToTree(s, record.path);
+    			break;
+    		case JournalRecord.CREATE_DIRECTORY:
+    			restoreDirectory(record.path);
+    			break;
+    		case JournalRecord.DELETE:
+    			Node n = lookup(record.path);
+    			unlink(lookup(record.path.parent()), n);
+    			dropReplicas(record.path);
+    			break;
+    		case JournalRecord.ADD_REPLICA:
+    		case JournalRecord.REMOVE_REPLICA:
+    			restoreReplica(lookup(record.path), storagesById.get(record.storage),
+    					record.type == JournalRecord.ADD_REPLICA);
+    			break;
+    		case JournalRecord.SET_PRIMARY:
+    			restorePrimary(lookup(record.path), storagesById.get(record.storage));
+    			break;
+    		case JournalRecord.TOMBSTONE:
+    			Storage holder = storagesById.get(record.storage);
+    			if(holder != null)
+    				garbage.add(record.path, holder, false);
+    			break;
+    		case JournalRecord.RECLAIMED:
+    			Storage reclaimed = storagesById.get(record.storage);
+    			if(reclaimed != null)
+    				garbage.remove(record.path, reclaimed);
+    			break;
+    		}
+    	}
+    	catch(FileNotFoundException e)
+    	{
+    		//The object was deleted later in the journal than it was changed
+    	}
+    }
+    
+    //Registers a storage server read from the journal
+    private void restoreStorage(int id, Storage client_stub,
+    		Command command_stub)
+    {
+    	storecommandMap.put(client_stub, command_stub);
+    	serverStats.putIfAbsent(client_stub, new ServerStats(client_stub, id));
+    	Stores.addIfAbsent(client_stub);
+    	storageIds.put(client_stub, id);
+    	storagesById.put(id, client_stub);
+    	restoredStores.add(client_stub);
+    	while(true)
+    	{
+    		int next = nextStorageId.get();
+    		if(next > id || nextStorageId.compareAndSet(next, id + 1))
+    			break;
+    	}
+    }
+    
+    //Creates a directory read from the journal, with any missing parents
+    private void restoreDirectory(Path p) throws FileNotFoundException
+    {
+    	Node current = root;
+    	for(String component : p)
+    	{
+    		Node next = current.children.get(component);
+    		if(next == null)
+    		{
+    			next = new Node(false, new Path(current.myPath, component), null);
+    			current.children.put(component, next);
+    			indexNode(current, next);
+    		}
+    		if(next.isFile)
+    			throw new FileNotFoundException();
+    		current = next;
+    	}
+    }
+    
+    //Adds or removes a replica read from the journal
+    private void restoreReplica(Node n, Storage s, boolean add)
+    {
+    	if(s == null || !n.isFile)
+    		return;
+    	synchronized(n)
+    	{
+    		Set<Storage> old = replicas.get(n.myPath);
+    		Set<Storage> newset = old == null ? new HashSet<Storage>()
+    				: new HashSet<Storage>(old);
+    		if(add ? !newset.add(s) : !newset.remove(s))
+    			return;
+    		if(newset.isEmpty())
+    			replicas.remove(n.myPath);
+    		else
+    			replicas.put(n.myPath, Collections.unmodifiableSet(newset));
+    	}
+    	countFile(s, add ? 1 : -1);
+    }
+    
+    //Makes a replica read from the journal the primary copy of its file
+    private void restorePrimary(Node n, Storage s)
+    {
+    	Storage old;
+    	synchronized(n)
+    	{
+    		old = n.storageStub;
+    		if(s == null || !n.isFile || s.equals(old))
+    			return;
+    		n.storageStub = s;
+    		n.modified = -1;
+    		++n.version;
+    		Set<Storage> copies = replicas.get(n.myPath);
+    		if(copies != null && copies.contains(s))
+    		{
+    			Set<Storage> newset = new HashSet<Storage>(copies);
+    			newset.remove(s);
+    			if(newset.isEmpty())
+    				replicas.remove(n.myPath);
+    			else
+    				replicas.put(n.myPath, Collections.unmodifiableSet(newset));
+    		}
+    		else
+    			countFile(s, 1);
+    	}
+    	countFile(old, -1);
+    }
+    
+    //Adjusts the number of files a storage server is known to host
+    void countFile(Storage s, int delta)
+    {
+    	ServerStats stats = serverStats.get(s);
+    	if(stats != null)
+    		stats.addFiles(delta);
+    }
+    
+    //Returns the statistics of the registered storage servers that may host a
+    //file, excluding a primary server and the servers in a replica set
+    //(either may be null) and servers suspected of having failed, in
+    //registration order
+    List<ServerStats> candidates(Storage primary, Set<Storage> excluded)
+    {
+    	long now = System.nanoTime();
+    	ArrayList<ServerStats> result = new ArrayList<ServerStats>();
+    	for(Storage s : Stores)
+    	{
+    		if(s.equals(primary) || (excluded != null && excluded.contains(s)))
+    			continue;
+    		ServerStats stats = serverStats.get(s);
+    		if(stats != null && available(stats, now))
+    			result.add(stats);
+    	}
+    	return result;
+    }
+    
+    //Returns whether new files may be placed on a storage server: it has sent
+    //a heartbeat, or registered, within the suspect timeout
+    boolean available(ServerStats stats, long now)
+    {
+    	return silence(stats, now) < suspectTimeout;
+    }
+    
+    //Returns whether readers may be sent to a storage server: it has sent a
+    //heartbeat, or registered, within the dead timeout
+    boolean reachable(ServerStats stats, long now)
+    {
+    	return silence(stats, now) < deadTimeout;
+    }
+    
+    //Returns how long a storage server has been silent, in milliseconds. A
+    //server that has never sent a heartbeat is never silent when heartbeats
+    //are not required.
+    private long silence(ServerStats stats, long now)
+    {
+    	if(!heartbeatsRequired && !stats.beating())
+    		return 0;
+    	return stats.silence(now);
+    }
+    
+    //Gives up the copies held by storage servers that have just been found
+    //dead, and takes back those that have sent a heartbeat again
+    void checkLiveness()
+    {
+    	long now = System.nanoTime();
+    	for(ServerStats stats : serverStats.values())
+    	{
+    		boolean dead = !reachable(stats, now);
+    		if(stats.markLost(dead) && dead)
+    		{
+    			placement.serverLost(stats);
+    			serverLost(stats.storage);
+    		}
+    	}
+    }
+    
+    //Gives up the copies of replicated files held by a dead storage server,
+    //and queues the files to be copied back to the number of copies they had.
+    //Files held by the server alone are kept, in case it returns.
+    void serverLost(Storage s)
+    {
+    	long now = System.nanoTime();
+    	for(Map.Entry<Path, Set<Storage>> entry : replicas.entrySet())
+    	{
+    		Node n = index.get(entry.getKey());
+    		if(n != null && (entry.getValue().contains(s) ||
+    				s.equals(n.storageStub)))
+    			loseCopy(n, s, now);
+    	}
+    }
+    
+    //Gives up the copy of a replicated file held by a dead storage server. A
+    //replica is unpublished; a primary copy is replaced by a replica on a
+    //live server. The dead server's copy is left to the garbage collector,
+    //which deletes it if the server returns.
+    private void loseCopy(Node n, Storage s, long now)
+    {
+    	long sequence;
+    	int copies;
+    	synchronized(n)
+    	{
+    		Set<Storage> current = replicas.get(n.myPath);
+    		if(n.unlinked || current == null)
+    			return;
+    		Set<Storage> newset = new HashSet<Storage>(current);
+    		if(newset.remove(s))
+    		{
+    			sequence = journalAppend(JournalRecord.mutation(
+    					JournalRecord.REMOVE_REPLICA, n.myPath, storageId(s)));
+    		}
+    		else if(s.equals(n.storageStub))
+    		{
+    			Storage promoted = null;
+    			for(Storage r : newset)
+    			{
+    				ServerStats stats = serverStats.get(r);
+    				if(stats != null && reachable(stats, now))
+    				{
+    					promoted = r;
+    					break;
+    				}
+    			}
+    			if(promoted == null)
+    				return;
+    			//Copies in progress from the lost copy are discarded
+    			newset.remove(promoted);
+    			n.storageStub = promoted;
+    			n.modified = -1;
+    			++n.version;
+    			sequence = journalAppend(JournalRecord.mutation(
+    					JournalRecord.SET_PRIMARY, n.myPath, storageId(promoted)));
+    		}
+    		else
+    			return;
+    		
+    		if(newset.isEmpty())
+    			replicas.remove(n.myPath);
+    		else
+    			replicas.put(n.myPath, Collections.unmodifiableSet(newset));
+    		copies = 1 + newset.size();
+    	}
+    	journalSync(sequence);
+    	countFile(s, -1);
+    	
+    	//The tombstone is only added once the copy is no longer in the
+    	//namespace. A lost record only leaves the copy on the server.
+    	garbage.add(n.myPath, s, false);
+    	journalLog(JournalRecord.TOMBSTONE, n.myPath, storageId(s));
+    	
+    	recovery.add(n, copies + 1, copies,
+    			n.heat.current(now, policy.half_life));
+    }
+    
+    //Returns the nodes on the path from the root down to the object named by
+    //the path, in the order in which they are locked. The tree is walked once
+    //and the result is used both to check that the path exists and to lock.
+    Node[] lockChain(Path path) throws FileNotFoundException
+    {
+    	ArrayList<Node> chain = new ArrayList<Node>();
+    	Node current = root;
+    	chain.add(current);
+    	for(String component : path)
+    	{
+    		current = current.children.get(component);
+    		if(current == null)
+    			throw new FileNotFoundException();
+    		chain.add(current);
+    	}
+    	return chain.toArray(new Node[chain.size()]);
+    }
+
+	@Override
+	/**
+	<p>When a file has to be locked, the locker takes intention locks on all the
+	   directories down the tree until the given path's node and then locks it
+	   with an exclusive lock if requested or a shared lock otherwise. Taking a
+	   shared lock on a file counts towards its replication, and taking an
+	   exclusive lock invalidates its replicas.
+
+	@param Path path of the File or Directory to be locked.
+	@param boolean exclusive to indicate a write lock.
+	@return <code>void<Path></code>
+	@throws FileNotFoundException If the Path refers to a File or Directory Node.
+	@throws RMIException If an error occurs due to network issues, or if the
+	                     server is interrupted while waiting for the lock.
+ */
+	public void lock(Path path, boolean exclusive) throws RMIException,
+			FileNotFoundException 
+	{
+		if(path == null)
+			throw new NullPointerException();
+		checkLeader();
+	
+		Node[] chain = lockChain(path);
+		try
+		{
+			locks.lock(chain, exclusive);
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new RMIException("interrupted while waiting for lock", e);
+		}
+		
+		Node current = chain[chain.length - 1];
+		if(current.isFile)
+		{
+			if(exclusive)
+			{
+				current.size = -1;
+				invalidateReplicas(current);
+			}
+			else
+				recordRead(current);
+		}
+	}//end of lock function
+
+	@Override
+	/**
+	<p>When a file has to be unlocked, the unlocker unlocks the given path's node
+	   and then all the directories above it up to the root.
 
 	@param Path path of the File or Directory to be unlocked.
 	@param boolean exclusive to indicate an exclusive unlock or not.
 	@return <code>void<Path></code>
+	@throws IllegalArgumentException If the Path does not exist or is not locked
+	                                 in the given mode.
 	@throws RMIException If an error occurs due to network issues.
  */
 	public void unlock(Path path, boolean exclusive) throws RMIException 
 	{
 		if(path == null)
 			throw new NullPointerException();
+		checkLeader();
 		try
 		{
-			root.getPathNode(path);
+			//The size of a file written under an exclusive lock was forgotten
+			//when the lock was taken, and the primary storage server reports
+			//the new size as each write completes
+			Node[] chain = lockChain(path);
+			locks.unlock(chain, exclusive);
 		}
-		catch(Exception e)
+		catch(FileNotFoundException e)
 		{
 			throw new IllegalArgumentException();
 		}
+		catch(IllegalStateException e)
+		{
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}//end of unlock function
+	
+	//Counts a shared lock on a file. If the file's heat now calls for more
+	//replicas than it has or is already getting, a copy is scheduled. The
+	//count of pending copies is kept with the replica set, so concurrent
+	//readers never schedule more copies than the policy asks for.
+	void recordRead(final Node n)
+	{
+		double heat = n.heat.record(System.nanoTime(), policy.half_life);
+		int desired = Math.min(policy.replicasToCreate(heat), Stores.size() - 1);
+		if(desired <= 0)
+			return;
 		
-		Iterator<String> itr = path.iterator();
-		String nextComp;
-		Node current = root;
-		
-		if(path.isRoot())
+		final long version;
+		synchronized(n)
 		{
-			if(exclusive)
-				current.lock.releaseExclusive();
-			else
-				current.lock.releaseShared();
+			Set<Storage> existing = replicas.get(n.myPath);
+			int have = (existing == null ? 0 : existing.size()) + n.pendingCopies;
+			if(have >= desired)
+				return;
+			++n.pendingCopies;
+			version = n.version;
 		}
-		else                                   //If not root
-			current.lock.releaseShared();
-		while(itr.hasNext())
+		replication.submit(n.myPath, new Runnable()
 		{
-			nextComp = itr.next();
-			if(current.children.containsKey(nextComp))
+			@Override
+			public void run()
 			{
-				current = current.children.get(nextComp);
-				if(current.myPath.equals(path))
+				try
+				{
+					copyReplica(n, version);
+				}
+				finally
 				{
-					if(exclusive)
-						current.lock.releaseExclusive();
-					else                      //if not exclusive
-						current.lock.releaseShared();
+					synchronized(n)
+					{
+						--n.pendingCopies;
+					}
 				}
-				else                          //if it is an intermediate node
-					current.lock.releaseShared();
-			}	
-			else                              //if children does not contain the next component
+			}
+		});
+	}
+	
+	//Copies a file to a storage server chosen by the placement policy among
+	//those that do not yet hold it, and publishes the new replica. Runs on the replication scheduler. If the file
+	//was written or deleted while the copy was in progress, the copy is stale:
+	//it is not published and is deleted again.
+	void copyReplica(Node n, long version)
+	{
+		List<ServerStats> eligible = candidates(n.storageStub, replicas.get(n.myPath));
+		if(eligible.isEmpty())
+			return;
+		copyTo(n, version, place(n.myPath, eligible));
+	}
+	
+	//Copies a file from its primary to the given storage server, and publishes
+	//the new replica. Returns whether the replica was published.
+	boolean copyTo(Node n, long version, ServerStats chosen)
+	{
+		Storage target = chosen.storage;
+		
+		Command c = storecommandMap.get(target);
+		chosen.begin();
+		try 
+		{
+			//Copies of a deleted object in the way of the replica are deleted
+			//first
+			if(!garbage.reclaim(n.myPath, target) ||
+					!c.copy(n.myPath, n.storageStub))
+				return false;
+		} catch (FileNotFoundException e) {e.printStackTrace(); return false;} 
+		catch (RMIException e) {e.printStackTrace(); return false;}
+		catch (IOException e) {e.printStackTrace(); return false;}
+		finally
+		{
+			chosen.end();
+		}
+		
+		if(publishReplica(n, version, target))
+			return true;
+		deleteReplica(n.myPath, target);
+		return false;
+	}
+	
+	//Makes the replica of a file on a storage server its primary copy, in
+	//place of the copy on another server, which is then deleted. The file is
+	//locked for exclusive access while the primary changes, so that no reader
+	//is still using the old copy. Returns false if the file is locked, or has
+	//changed since the replica was published.
+	boolean movePrimary(Node n, Storage source, Storage target)
+	{
+		Node[] chain;
+		try
+		{
+			chain = lockChain(n.myPath);
+		}
+		catch(FileNotFoundException e)
+		{
+			return false;
+		}
+		if(chain[chain.length - 1] != n || !locks.tryLock(chain, true))
+			return false;
+		
+		long sequence;
+		try
+		{
+			synchronized(n)
+			{
+				Set<Storage> copies = replicas.get(n.myPath);
+				if(n.unlinked || !source.equals(n.storageStub) ||
+						copies == null || !copies.contains(target))
+					return false;
+				Set<Storage> newset = new HashSet<Storage>(copies);
+				newset.remove(target);
+				if(newset.isEmpty())
+					replicas.remove(n.myPath);
+				else
+					replicas.put(n.myPath, Collections.unmodifiableSet(newset));
+				//Copies in progress from the old copy are discarded
+				n.storageStub = target;
+				n.modified = -1;
+				++n.version;
+				sequence = journalAppend(JournalRecord.mutation(
+						JournalRecord.SET_PRIMARY, n.myPath, storageId(target)));
+			}
+			journalSync(sequence);
+		}
+		finally
+		{
+			locks.unlock(chain, true);
+		}
+		
+		countFile(source, -1);
+		deleteReplica(n.myPath, source);
+		return true;
+	}
+	
+	//Chooses the storage server for a new file or replica with the placement
+	//policy
+	ServerStats place(Path path, List<ServerStats> eligible)
+	{
+		return placement.select(path, eligible);
+	}
+	
+	//Adds a storage server to the replica set of a file, provided the file is
+	//still in the tree at the given version. The replica set is replaced as a
+	//whole, so readers of the map never see a set being modified.
+	boolean publishReplica(Node n, long version, Storage s)
+	{
+		long sequence;
+		synchronized(n)
+		{
+			if(n.unlinked || n.version != version)
+				return false;
+			
+			Set<Storage> old = replicas.get(n.myPath);
+			Set<Storage> newset = old == null ? new HashSet<Storage>() : new HashSet<Storage>(old);
+			newset.add(s);
+			replicas.put(n.myPath, Collections.unmodifiableSet(newset));
+			countFile(s, 1);
+			//Appended under the node's monitor, so that the journal orders the
+			//publication and any invalidation as they happened
+			sequence = journalAppend(JournalRecord.mutation(
+					JournalRecord.ADD_REPLICA, n.myPath, storageId(s)));
+		}
+		journalSync(sequence);
+		return true;
+	}
+	
+	//Invalidates every replica of a file. Called with the file locked for
+	//exclusive access. The replicas are unpublished at once, so that no reader
+	//can be directed to a stale copy, and copies in progress are made stale.
+	//The replicas themselves are deleted in the background.
+	void invalidateReplicas(Node n)
+	{
+		n.heat.reset(System.nanoTime());
+		Set<Storage> storeSet;
+		long sequence = -1;
+		synchronized(n)
+		{
+			++n.version;
+			storeSet = replicas.remove(n.myPath);
+			if(storeSet != null)
+			{
+				for(Storage store : storeSet)
+					sequence = journalAppend(JournalRecord.mutation(
+							JournalRecord.REMOVE_REPLICA, n.myPath, storageId(store)));
+			}
+		}
+		if(storeSet == null)
+			return;
+		
+		//The writer must not be granted the lock until the invalidation is
+		//durable, or a restart could direct readers to stale copies
+		journalSync(sequence);
+		for(Storage store : storeSet)
+		{
+			countFile(store, -1);
+			deleteReplica(n.myPath, store);
+		}
+	}
+	
+	//Schedules the deletion of a single replica.
+	void deleteReplica(final Path path, final Storage store)
+	{
+		replication.submit(path, new Runnable()
+		{
+			@Override
+			public void run()
 			{
+				Command c = storecommandMap.get(store);
+				ServerStats stats = serverStats.get(store);
+				if(c == null || stats == null)
+					return;
+				stats.begin();
 				try
 				{
-					lock(path, exclusive);
+					c.delete(path);
+				} catch (RMIException e) {e.printStackTrace();}
+				finally
+				{
+					stats.end();
 				}
-				catch(FileNotFoundException fnfe)
-				{}
 			}
-		}//end of while loop iterating through nodes
-		return;	
-	}//end of unlock function
+		});
+	}
+	
+	//Drops replicas of files whose heat no longer justifies them. A file is
+	//only trimmed if it can be locked for exclusive access at once, so no
+	//client can be reading from a replica when it is unpublished. The
+	//exclusive lock is taken directly, without invalidating the replicas that
+	//are kept.
+	void sweepColdReplicas()
+	{
+		//A follower learns of dropped replicas from its leader
+		if(leader != null)
+			return;
+		long now = System.nanoTime();
+		for(Path path : replicas.keySet())
+		{
+			Node[] chain;
+			try
+			{
+				chain = lockChain(path);
+			}
+			catch(FileNotFoundException e)
+			{
+				continue;
+			}
+			Node n = chain[chain.length - 1];
+			int keep = policy.replicasToKeep(n.heat.current(now, policy.half_life));
+			Set<Storage> current = replicas.get(path);
+			if(current == null || current.size() <= keep || !locks.tryLock(chain, true))
+				continue;
+			
+			ArrayList<Storage> dropped = new ArrayList<Storage>();
+			long sequence = -1;
+			try
+			{
+				synchronized(n)
+				{
+					current = replicas.get(path);
+					if(n.unlinked || current == null)
+						continue;
+					Set<Storage> newset = new HashSet<Storage>();
+					for(Storage s : current)
+					{
+						if(newset.size() < keep)
+							newset.add(s);
+						else
+							dropped.add(s);
+					}
+					if(newset.isEmpty())
+						replicas.remove(path);
+					else
+						replicas.put(path, Collections.unmodifiableSet(newset));
+					for(Storage s : dropped)
+						sequence = journalAppend(JournalRecord.mutation(
+								JournalRecord.REMOVE_REPLICA, path, storageId(s)));
+				}
+				journalSync(sequence);
+			}
+			finally
+			{
+				locks.unlock(chain, true);
+			}
+			
+			for(Storage s : dropped)
+			{
+				countFile(s, -1);
+				deleteReplica(path, s);
+			}
+		}
+	}
 }
 
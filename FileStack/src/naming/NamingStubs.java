@@ -58,4 +58,97 @@ public abstract class NamingStubs
     {
         return registration(hostname, REGISTRATION_PORT);
     }
+
+    /** Returns a client service interface for a partitioned namespace, which
+        sends each request to the naming server serving the partition owning
+        the path concerned.
+
+        @param table Mount table of the namespace.
+     */
+    public static Service service(MountTable table)
+    {
+        Service[]           partitions = new Service[table.size()];
+
+        for(int index = 0; index < partitions.length; ++index)
+        {
+            MountTable.Mount    mount = table.mount(index);
+            partitions[index] = service(mount.hostname, mount.service_port);
+        }
+
+        return new PartitionedService(table, partitions);
+    }
+
+    /** Returns a registration interface for a partitioned namespace, which
+        registers a storage server with every partition and reports each file
+        to the partition owning it.
+
+        @param table Mount table of the namespace.
+     */
+    public static Registration registration(MountTable table)
+    {
+        Registration[]      partitions = new Registration[table.size()];
+
+        for(int index = 0; index < partitions.length; ++index)
+        {
+            MountTable.Mount    mount = table.mount(index);
+            partitions[index] =
+                registration(mount.hostname, mount.registration_port);
+        }
+
+        return new PartitionedRegistration(table, partitions);
+    }
+
+    /** Returns a client service interface for the namespace served by a
+        naming server.
+
+        <p>
+        The naming server, at the default port, is asked for its mount table.
+        If the namespace is partitioned, the interface returned sends each
+        request directly to the naming server owning the path concerned.
+        Otherwise, or if the naming server cannot be reached, a stub for the
+        naming server itself is returned.
+
+        @param hostname Hostname of any of the naming servers.
+     */
+    public static Service routedService(String hostname)
+    {
+        Service             service = service(hostname);
+        MountTable          table = mountTable(service);
+
+        return table == null ? service : service(table);
+    }
+
+    /** Returns a registration interface for the namespace served by a naming
+        server.
+
+        <p>
+        The naming server, at the default client service port, is asked for
+        its mount table. If the namespace is partitioned, the interface
+        returned registers the storage server with every partition. Otherwise,
+        or if the naming server cannot be reached, a stub for the naming
+        server itself is returned.
+
+        @param hostname Hostname of any of the naming servers.
+     */
+    public static Registration routedRegistration(String hostname)
+    {
+        MountTable          table = mountTable(service(hostname));
+
+        return table == null ? registration(hostname) : registration(table);
+    }
+
+    /** Asks a naming server for its mount table. Returns <code>null</code> if
+        the namespace is not partitioned or the naming server cannot be
+        reached. */
+    private static MountTable mountTable(Service service)
+    {
+        try
+        {
+            return service.getMountTable();
+        }
+        catch(RMIException e)
+        {
+            return null;
+        }
+    }
 }
@@ -2,36 +2,66 @@ package naming;
 
 import java.io.FileNotFoundException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentSkipListMap;
 import storage.Storage;
 import common.Path;
 
+/** Node in the naming server's directory tree.
+
+    <p>
+    Each directory keeps its children in its own concurrent map, ordered by
+    name so that a directory can be listed a page at a time. Lookups walk
+    the tree without taking any locks, and structural changes (insertion and
+    removal of a child) are single atomic operations on the parent's map, so a
+    reader never blocks behind a writer and never observes a half-built node.
+ */
 public class Node {
-	
-	public HashMap<String, Node> children;
-	public boolean isFile;
-	public Path myPath;
-	public Storage storageStub;
-	public RWLock lock;
-	ArrayList<Path> result = new ArrayList<Path>();
 
-	
+	public final ConcurrentSkipListMap<String, Node> children;
+	public final boolean isFile;
+	public final Path myPath;
+	public volatile Storage storageStub;
+	public final HierarchicalLock lock;
+	//Decayed count of shared locks taken on this file since it was last
+	//locked for exclusive access
+	final AccessHeat heat = new AccessHeat();
+	//Number of copies of this file scheduled but not yet published or
+	//discarded. Guarded by the node's monitor.
+	int pendingCopies;
+	//Size of the file as last obtained from or reported by its primary
+	//storage server, or -1 if not known. Forgotten when the file is locked
+	//for exclusive access, and reported again as it is written.
+	volatile long size = -1;
+	//Time the file was last modified on its primary storage server, in
+	//milliseconds since the epoch, or -1 if not known. Reports of older
+	//times are ignored. Forgotten when the primary copy moves to another
+	//server, whose clock may differ.
+	volatile long modified = -1;
+	//Incremented whenever the file is locked for exclusive access. A replica
+	//copied at an older version is stale and is never published. Guarded by
+	//the node's monitor, together with the node's entry in the replica map.
+	long version;
+	//Set once the node has been removed from the tree, so that a stale entry
+	//in the naming server's path index is never mistaken for a live node
+	volatile boolean unlinked;
+
+
 	public Node(boolean isFile, Path myPath, Storage storageStub)
 	{
-		
-		children = new HashMap<String, Node>();
+
+		children = new ConcurrentSkipListMap<String, Node>();
 		this.isFile = isFile;
 		this.myPath = myPath;
 		this.storageStub = storageStub;
-		lock = new RWLock();
-		
+		lock = new HierarchicalLock();
+
 	}
-	
+
 	/**
-	 	
+
 		<p>Goes through the path components and uses them
-		to go through the tree and fine the object the 
+		to go through the tree and fine the object the
 		path is pointing to. Throws FileNotFoundException
 		if path points to a non-existent object.
 
@@ -44,18 +74,17 @@ public class Node {
 	{
 		Node nodeIter = this;
 		Iterator<String> strIter = p.iterator();
-		String nextComponent;
 		while(strIter.hasNext())
 		{
-			nextComponent = strIter.next();
-			if(nodeIter.children.containsKey(nextComponent))
-				nodeIter = nodeIter.children.get(nextComponent);
-			else
+			//A single get: the child may be unlinked between a containsKey
+			//and a get by a concurrent delete
+			nodeIter = nodeIter.children.get(strIter.next());
+			if(nodeIter == null)
 				throw new FileNotFoundException();
 		}
 		return nodeIter;
 	}
-	
+
 	/**
 		<p>Goes recursively into all the nodes and children nodes of the given path.
 		   Adds all these paths to the returning ArrayList.
@@ -68,31 +97,19 @@ public class Node {
 	 */
 	public ArrayList<Path> getFilesUnder() throws FileNotFoundException
 	{
-		if(isFile)
-		{
-			result.add(myPath);
-			return result;
-		}
-		else
-		{
-			aux(this);
-			return result;
-		}
+		ArrayList<Path> result = new ArrayList<Path>();
+		aux(this, result);
+		return result;
 	}
-	
+
 	//A helper function that helps the getFilesUnder() method to recurse
-	private void aux(Node n)
+	private static void aux(Node n, ArrayList<Path> result)
 	{
-		if(isFile)
-		{
-			result.add(myPath);
-			return;
-		}
-		else
+		result.add(n.myPath);
+		if(!n.isFile)
 		{
-			result.add(myPath);
 			for(Node nn : n.children.values())
-				aux(nn);
+				aux(nn, result);
 		}
-	}	
+	}
 }
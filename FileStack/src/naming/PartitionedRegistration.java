@@ -0,0 +1,350 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Path;
+import rmi.RMIException;
+import storage.*;
+
+/** Registration interface of a partitioned namespace.
+
+    <p>
+    A storage server registers with every partition, so that each naming
+    server may place new files on it, but each file it holds is reported
+    only to the partition owning the file. A registration begun through this
+    object is begun with every partition, and its identifier stands for the
+    identifiers given by all of them.
+
+    <p>
+    When a storage server resumes its registration, the digest of a
+    directory under which another partition is mounted covers files that the
+    partition owning the directory does not know of, so such a directory is
+    always reported as differing. The storage server then sends the contents
+    of the directories leading to each mount point, and only the digests of
+    directories within a single partition spare it from sending their
+    contents.
+ */
+public class PartitionedRegistration implements Registration
+{
+    /** Mount table of the namespace. */
+    private final MountTable                        table;
+    /** Registration interface of each partition, in the order of the
+        table. */
+    private final Registration[]                    partitions;
+    /** Identifiers given by each partition to each registration in
+        progress. */
+    private final ConcurrentHashMap<Long, long[]>   registrations =
+        new ConcurrentHashMap<Long, long[]>();
+    /** Identifier of the next registration. */
+    private final AtomicLong                        next_registration =
+        new AtomicLong(1);
+
+    /** Creates a <code>PartitionedRegistration</code> object.
+
+        @param table Mount table of the namespace.
+        @param partitions Registration interface of the naming server serving
+                          each partition of the table, in the order of the
+                          table.
+        @throws IllegalArgumentException If the number of interfaces is not
+                                         the number of partitions.
+     */
+    public PartitionedRegistration(MountTable table,
+                                   Registration[] partitions)
+    {
+        if(partitions.length != table.size())
+        {
+            throw new IllegalArgumentException("one registration interface " +
+                                               "per partition");
+        }
+
+        this.table = table;
+        this.partitions = partitions.clone();
+    }
+
+    /** Splits paths by the partition owning them. */
+    private Path[][] split(Path[] paths)
+    {
+        ArrayList<ArrayList<Path>>  owned = new ArrayList<ArrayList<Path>>();
+
+        for(int index = 0; index < partitions.length; ++index)
+            owned.add(new ArrayList<Path>());
+
+        for(Path path : paths)
+        {
+            if(path == null)
+                throw new NullPointerException();
+
+            owned.get(table.owner(path)).add(path);
+        }
+
+        Path[][]                    result = new Path[partitions.length][];
+
+        for(int index = 0; index < result.length; ++index)
+        {
+            ArrayList<Path>         list = owned.get(index);
+
+            result[index] = list.toArray(new Path[list.size()]);
+        }
+
+        return result;
+    }
+
+    /** Returns the identifiers given by each partition to a registration. */
+    private long[] identifiers(long registration)
+    {
+        long[]          identifiers = registrations.get(registration);
+
+        if(identifiers == null)
+            throw new IllegalStateException("no such registration");
+
+        return identifiers;
+    }
+
+    /** Records the identifiers given by each partition to a new registration,
+        and returns its identifier. */
+    private long record(long[] identifiers)
+    {
+        long            registration = next_registration.getAndIncrement();
+
+        registrations.put(registration, identifiers);
+        return registration;
+    }
+
+    @Override
+    public Path[] register(Storage client_stub, Command command_stub,
+                           Path[] files) throws RMIException
+    {
+        if(client_stub == null || command_stub == null || files == null)
+            throw new NullPointerException();
+
+        Path[][]            owned = split(files);
+        ArrayList<Path>     duplicates = new ArrayList<Path>();
+
+        for(int index = 0; index < partitions.length; ++index)
+        {
+            duplicates.addAll(Arrays.asList(
+                partitions[index].register(client_stub, command_stub,
+                                           owned[index])));
+        }
+
+        return duplicates.toArray(new Path[duplicates.size()]);
+    }
+
+    @Override
+    public long beginRegistration(Storage client_stub, Command command_stub)
+        throws RMIException
+    {
+        long[]              identifiers = new long[partitions.length];
+
+        for(int index = 0; index < partitions.length; ++index)
+        {
+            identifiers[index] =
+                partitions[index].beginRegistration(client_stub,
+                                                    command_stub);
+        }
+
+        return record(identifiers);
+    }
+
+    @Override
+    public Path[] registerBatch(long registration, Path[] files)
+        throws RMIException
+    {
+        if(files == null)
+            throw new NullPointerException();
+
+        long[]              identifiers = identifiers(registration);
+        Path[][]            owned = split(files);
+        ArrayList<Path>     duplicates = new ArrayList<Path>();
+
+        for(int index = 0; index < partitions.length; ++index)
+        {
+            if(owned[index].length == 0)
+                continue;
+
+            duplicates.addAll(Arrays.asList(
+                partitions[index].registerBatch(identifiers[index],
+                                                owned[index])));
+        }
+
+        return duplicates.toArray(new Path[duplicates.size()]);
+    }
+
+    @Override
+    public void endRegistration(long registration) throws RMIException
+    {
+        long[]              identifiers = registrations.remove(registration);
+
+        if(identifiers == null)
+            throw new IllegalStateException("no such registration");
+
+        for(int index = 0; index < partitions.length; ++index)
+            partitions[index].endRegistration(identifiers[index]);
+    }
+
+    /** Resumes the registration with every partition.
+
+        @throws IllegalStateException If any partition does not know of the
+                                      storage server. The registrations
+                                      resumed with the other partitions are
+                                      ended.
+     */
+    @Override
+    public long resumeRegistration(Storage client_stub, Command command_stub)
+        throws RMIException
+    {
+        long[]              identifiers = new long[partitions.length];
+        int                 resumed = 0;
+
+        try
+        {
+            for(; resumed < partitions.length; ++resumed)
+            {
+                identifiers[resumed] =
+                    partitions[resumed].resumeRegistration(client_stub,
+                                                           command_stub);
+            }
+        }
+        finally
+        {
+            if(resumed < partitions.length)
+            {
+                for(int index = 0; index < resumed; ++index)
+                    partitions[index].endRegistration(identifiers[index]);
+            }
+        }
+
+        return record(identifiers);
+    }
+
+    @Override
+    public Path[] compareDigests(long registration, Path[] directories,
+                                 byte[][] digests) throws RMIException
+    {
+        if(directories == null || digests == null)
+            throw new NullPointerException();
+        if(directories.length != digests.length)
+            throw new IllegalArgumentException("one digest per directory");
+
+        long[]              identifiers = identifiers(registration);
+        ArrayList<Path>     differing = new ArrayList<Path>();
+
+        for(int index = 0; index < directories.length; ++index)
+        {
+            Path            directory = directories[index];
+
+            if(directory == null)
+                throw new NullPointerException();
+
+            // The digest of a directory with a partition mounted under it
+            // covers files of several partitions.
+            int             owner = nested(directory);
+
+            if(owner < 0)
+            {
+                differing.add(directory);
+                continue;
+            }
+
+            Path[]          result =
+                partitions[owner].compareDigests(identifiers[owner],
+                                                 new Path[] {directory},
+                                                 new byte[][] {digests[index]});
+
+            differing.addAll(Arrays.asList(result));
+        }
+
+        return differing.toArray(new Path[differing.size()]);
+    }
+
+    /** Returns the number of the partition owning a directory if no other
+        partition is mounted under it, or -1 otherwise. */
+    private int nested(Path directory)
+    {
+        int                 owner = table.owner(directory);
+
+        for(int index = 0; index < table.size(); ++index)
+        {
+            Path            mount = table.mount(index).prefix;
+
+            if(index != owner && mount.isSubpath(directory))
+                return -1;
+        }
+
+        return owner;
+    }
+
+    @Override
+    public Path[] syncDirectory(long registration, Path directory,
+                                Path[] files, Path[] directories)
+        throws RMIException
+    {
+        if(directory == null)
+            throw new NullPointerException();
+
+        long[]              identifiers = identifiers(registration);
+        int                 owner = table.owner(directory);
+
+        return partitions[owner].syncDirectory(identifiers[owner], directory,
+                                               files, directories);
+    }
+
+    @Override
+    public void updateAttributes(Storage client_stub, Path[] files,
+                                 long[] sizes, long[] modified)
+        throws RMIException
+    {
+        if(client_stub == null || files == null || sizes == null ||
+           modified == null)
+        {
+            throw new NullPointerException();
+        }
+
+        if(files.length != sizes.length || files.length != modified.length)
+            throw new IllegalArgumentException("one size and time per file");
+
+        for(int partition = 0; partition < partitions.length; ++partition)
+        {
+            ArrayList<Integer>  indices = new ArrayList<Integer>();
+
+            for(int index = 0; index < files.length; ++index)
+            {
+                if(table.owner(files[index]) == partition)
+                    indices.add(index);
+            }
+
+            if(indices.isEmpty())
+                continue;
+
+            Path[]              owned_files = new Path[indices.size()];
+            long[]              owned_sizes = new long[indices.size()];
+            long[]              owned_modified = new long[indices.size()];
+
+            for(int index = 0; index < owned_files.length; ++index)
+            {
+                owned_files[index] = files[indices.get(index)];
+                owned_sizes[index] = sizes[indices.get(index)];
+                owned_modified[index] = modified[indices.get(index)];
+            }
+
+            partitions[partition].updateAttributes(client_stub, owned_files,
+                                                   owned_sizes,
+                                                   owned_modified);
+        }
+    }
+
+    /** Sends the heartbeat to every partition, since the storage server is
+        registered with all of them. */
+    @Override
+    public void heartbeat(Storage client_stub, StorageLoad load)
+        throws RMIException
+    {
+        if(client_stub == null || load == null)
+            throw new NullPointerException();
+
+        for(Registration partition : partitions)
+            partition.heartbeat(client_stub, load);
+    }
+}
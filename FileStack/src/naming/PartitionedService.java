@@ -0,0 +1,368 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import common.Path;
+import rmi.RMIException;
+import storage.Storage;
+
+/** Client service interface of a partitioned namespace.
+
+    <p>
+    Each request is sent directly to the naming server serving the partition
+    that owns the path concerned, as given by the mount table. Requests that
+    span partitions are split: <code>stat</code> asks each partition about its
+    own paths, while <code>walk</code> and <code>usage</code> combine the
+    results of the partitions mounted under the directory with those of the
+    partition owning it. A mount point is listed in its parent directory,
+    because the naming server owning the parent keeps an empty directory
+    there.
+
+    <p>
+    Locks are taken within one partition. Locking a directory does not lock
+    the partitions mounted under it, and locking a path does not lock the
+    directories leading to the partition's mount point in the partitions
+    above it. Mount points cannot be deleted, so such a path is never removed
+    while it is locked.
+ */
+public class PartitionedService implements Service
+{
+    /** Mount table of the namespace. */
+    private final MountTable    table;
+    /** Client service interface of each partition, in the order of the
+        table. */
+    private final Service[]     partitions;
+
+    /** Creates a <code>PartitionedService</code> object.
+
+        @param table Mount table of the namespace.
+        @param partitions Client service interface of the naming server
+                          serving each partition of the table, in the order
+                          of the table.
+        @throws IllegalArgumentException If the number of interfaces is not
+                                         the number of partitions.
+     */
+    public PartitionedService(MountTable table, Service[] partitions)
+    {
+        if(partitions.length != table.size())
+            throw new IllegalArgumentException("one service per partition");
+
+        this.table = table;
+        this.partitions = partitions.clone();
+    }
+
+    /** Returns the client service interface of the partition owning a
+        path. */
+    private Service owner(Path path)
+    {
+        if(path == null)
+            throw new NullPointerException();
+
+        return partitions[table.owner(path)];
+    }
+
+    @Override
+    public void lock(Path path, boolean exclusive)
+        throws RMIException, FileNotFoundException
+    {
+        owner(path).lock(path, exclusive);
+    }
+
+    @Override
+    public void unlock(Path path, boolean exclusive) throws RMIException
+    {
+        owner(path).unlock(path, exclusive);
+    }
+
+    @Override
+    public boolean isDirectory(Path path)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(path).isDirectory(path);
+    }
+
+    @Override
+    public String[] list(Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(directory).list(directory);
+    }
+
+    @Override
+    public String[] list(Path directory, String after, int limit)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(directory).list(directory, after, limit);
+    }
+
+    /** Walks the entries under a directory across partitions.
+
+        <p>
+        Entries are listed in the order of their paths, so the walk of a
+        partition mounted under the directory is a contiguous run of the
+        combined walk, starting just after its mount point. A page is taken
+        from the partition owning the directory and from each partition
+        mounted under it whose entries have not all been listed, and the
+        pages are merged. Entries past the end of the shortest incomplete
+        page are dropped, since entries of other partitions may precede
+        them.
+     */
+    @Override
+    public WalkPage walk(Path directory, Path after, int limit)
+        throws RMIException, FileNotFoundException
+    {
+        Service                 service = owner(directory);
+
+        if(limit < 1)
+            throw new IllegalArgumentException("limit must be positive");
+        if(after != null &&
+           (after.equals(directory) || !after.isSubpath(directory)))
+        {
+            throw new IllegalArgumentException(after + " not in " +
+                                               directory);
+        }
+
+        ArrayList<WalkPage>     pages = new ArrayList<WalkPage>();
+
+        pages.add(service.walk(directory, after, limit));
+
+        for(int index = 0; index < table.size(); ++index)
+        {
+            Path                mount = table.mount(index).prefix;
+
+            if(mount.equals(directory) || !mount.isSubpath(directory))
+                continue;
+
+            // The entries under the mount point all follow the mount point,
+            // and precede any path after the mount point that is not under
+            // it.
+            Path                resume = after;
+
+            if(after != null && after.compareTo(mount) <= 0)
+                resume = null;
+            else if(after != null && !after.isSubpath(mount))
+                continue;
+
+            pages.add(partitions[index].walk(mount, resume, limit));
+        }
+
+        // Find the last path that is known to precede every entry not yet
+        // received.
+        Path                    bound = null;
+
+        for(WalkPage page : pages)
+        {
+            if(!page.complete() &&
+               (bound == null || page.cursor().compareTo(bound) < 0))
+            {
+                bound = page.cursor();
+            }
+        }
+
+        ArrayList<Object[]>     entries = new ArrayList<Object[]>();
+
+        for(WalkPage page : pages)
+        {
+            for(int entry = 0; entry < page.count(); ++entry)
+            {
+                Path            path = page.path(entry);
+
+                if(bound == null || path.compareTo(bound) <= 0)
+                {
+                    entries.add(new Object[] {path, page.isDirectory(entry),
+                                              page.size(entry)});
+                }
+            }
+        }
+
+        Collections.sort(entries, new Comparator<Object[]>()
+        {
+            @Override
+            public int compare(Object[] first, Object[] second)
+            {
+                return ((Path)first[0]).compareTo((Path)second[0]);
+            }
+        });
+
+        int                     count = Math.min(entries.size(), limit);
+        Path[]                  paths = new Path[count];
+        boolean[]               directories = new boolean[count];
+        long[]                  sizes = new long[count];
+
+        for(int entry = 0; entry < count; ++entry)
+        {
+            paths[entry] = (Path)entries.get(entry)[0];
+            directories[entry] = (Boolean)entries.get(entry)[1];
+            sizes[entry] = (Long)entries.get(entry)[2];
+        }
+
+        return new WalkPage(paths, directories, sizes,
+                            bound == null && count == entries.size());
+    }
+
+    @Override
+    public boolean createFile(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(file).createFile(file);
+    }
+
+    @Override
+    public boolean createDirectory(Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(directory).createDirectory(directory);
+    }
+
+    @Override
+    public boolean delete(Path path) throws RMIException, FileNotFoundException
+    {
+        return owner(path).delete(path);
+    }
+
+    @Override
+    public Storage getStorage(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(file).getStorage(file);
+    }
+
+    @Override
+    public FileLocations getLocations(Path file)
+        throws RMIException, FileNotFoundException
+    {
+        return owner(file).getLocations(file);
+    }
+
+    /** Examines paths across partitions. Each partition is sent one request
+        for all the paths it owns. */
+    @Override
+    public PathStat[] stat(Path[] paths) throws RMIException
+    {
+        if(paths == null)
+            throw new NullPointerException();
+
+        // Indices of the paths owned by each partition.
+        ArrayList<ArrayList<Integer>>   owned =
+            new ArrayList<ArrayList<Integer>>();
+
+        for(int index = 0; index < partitions.length; ++index)
+            owned.add(new ArrayList<Integer>());
+
+        for(int index = 0; index < paths.length; ++index)
+        {
+            if(paths[index] == null)
+                throw new NullPointerException();
+
+            owned.get(table.owner(paths[index])).add(index);
+        }
+
+        PathStat[]              stats = new PathStat[paths.length];
+
+        for(int partition = 0; partition < partitions.length; ++partition)
+        {
+            ArrayList<Integer>  indices = owned.get(partition);
+
+            if(indices.isEmpty())
+                continue;
+
+            Path[]              batch = new Path[indices.size()];
+
+            for(int index = 0; index < batch.length; ++index)
+                batch[index] = paths[indices.get(index)];
+
+            PathStat[]          results = partitions[partition].stat(batch);
+
+            for(int index = 0; index < batch.length; ++index)
+                stats[indices.get(index)] = results[index];
+        }
+
+        return stats;
+    }
+
+    /** Adds the usage of each partition mounted under the directory to the
+        usage of the directory in the partition owning it. The empty
+        directory at a mount point is counted once, by the partition owning
+        its parent. */
+    @Override
+    public DirectoryUsage usage(Path directory)
+        throws RMIException, FileNotFoundException
+    {
+        DirectoryUsage          usage = owner(directory).usage(directory);
+        long                    files = usage.files();
+        long                    directories = usage.directories();
+        long                    bytes = usage.bytes();
+        long                    unknown = usage.unknown();
+
+        for(int index = 0; index < table.size(); ++index)
+        {
+            Path                mount = table.mount(index).prefix;
+
+            if(mount.equals(directory) || !mount.isSubpath(directory))
+                continue;
+
+            DirectoryUsage      nested = partitions[index].usage(mount);
+
+            files += nested.files();
+            directories += nested.directories();
+            bytes += nested.bytes();
+            unknown += nested.unknown();
+        }
+
+        return new DirectoryUsage(files, directories, bytes, unknown);
+    }
+
+    @Override
+    public MountTable getMountTable()
+    {
+        return table;
+    }
+
+    /** Refuses the request: each partition has its own mutation log, so a
+        follower follows the naming server serving one partition directly.
+
+        @throws IllegalStateException Always.
+     */
+    @Override
+    public MutationPage mutations(long after, int limit)
+    {
+        throw new IllegalStateException("each partition has its own log");
+    }
+
+    /** Refuses the request: checkpoints are written by the naming server
+        serving one partition, and read from it directly.
+
+        @throws IllegalStateException Always.
+     */
+    @Override
+    public byte[] checkpointChunk(long transfer, long offset, int length)
+    {
+        throw new IllegalStateException("each partition has its own log");
+    }
+
+    /** Returns the largest lag of the naming servers of the partitions. */
+    @Override
+    public long replicationLag() throws RMIException
+    {
+        long                lag = 0;
+
+        for(Service partition : partitions)
+            lag = Math.max(lag, partition.replicationLag());
+
+        return lag;
+    }
+
+    /** Returns the largest staleness of the naming servers of the
+        partitions. */
+    @Override
+    public long staleness() throws RMIException
+    {
+        long                staleness = 0;
+
+        for(Service partition : partitions)
+            staleness = Math.max(staleness, partition.staleness());
+
+        return staleness;
+    }
+}
@@ -0,0 +1,108 @@
+package naming;
+
+import java.io.Serializable;
+
+import storage.Storage;
+
+/** Metadata of a path, as returned by <code>Service.stat</code>.
+
+    <p>
+    A <code>PathStat</code> object tells whether a path exists and whether it
+    is a file or a directory. For a file, it also gives the file's size and
+    modification time, the storage server hosting the primary copy, and the
+    number of replicas on other storage servers.
+ */
+public class PathStat implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Whether the path exists. */
+    private final boolean       exists;
+    /** Whether the path is a directory. */
+    private final boolean       directory;
+    /** Size of the file in bytes, or -1 if not known. */
+    private final long          size;
+    /** Modification time of the file, or -1 if not known. */
+    private final long          modified;
+    /** Storage server hosting the primary copy of the file. */
+    private final Storage       primary;
+    /** Number of replicas of the file. */
+    private final int           replicas;
+
+    /** Creates a <code>PathStat</code> object for a path that does not
+        exist. */
+    public PathStat()
+    {
+        exists = false;
+        directory = false;
+        size = -1;
+        modified = -1;
+        primary = null;
+        replicas = 0;
+    }
+
+    /** Creates a <code>PathStat</code> object for an existing path.
+
+        @param directory <code>true</code> if the path is a directory.
+        @param size Size of the file in bytes, or -1 if not known or if the
+                    path is a directory.
+        @param modified Time the file was last modified, in milliseconds
+                        since the epoch, or -1 if not known or if the path is
+                        a directory.
+        @param primary Storage server hosting the primary copy of the file, or
+                       <code>null</code> if the path is a directory.
+        @param replicas Number of replicas of the file on storage servers
+                        other than <code>primary</code>.
+     */
+    public PathStat(boolean directory, long size, long modified,
+                    Storage primary, int replicas)
+    {
+        exists = true;
+        this.directory = directory;
+        this.size = size;
+        this.modified = modified;
+        this.primary = primary;
+        this.replicas = replicas;
+    }
+
+    /** Returns <code>true</code> if the path exists. */
+    public boolean exists()
+    {
+        return exists;
+    }
+
+    /** Returns <code>true</code> if the path exists and is a directory. */
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    /** Returns the size of the file in bytes, or -1 if the path is not a file
+        or the naming server could not determine its size. */
+    public long size()
+    {
+        return size;
+    }
+
+    /** Returns the time the file was last modified, in milliseconds since
+        the epoch, or -1 if the path is not a file or the naming server does
+        not know the time. */
+    public long modified()
+    {
+        return modified;
+    }
+
+    /** Returns the storage server hosting the primary copy of the file, or
+        <code>null</code> if the path is not a file. */
+    public Storage primary()
+    {
+        return primary;
+    }
+
+    /** Returns the number of replicas of the file on storage servers other
+        than the one hosting the primary copy. */
+    public int replicas()
+    {
+        return replicas;
+    }
+}
@@ -0,0 +1,270 @@
+package naming;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.Path;
+
+/** Chooses the storage server on which a new file is placed.
+
+    <p>
+    The naming server consults its placement policy whenever it creates a
+    file and whenever it chooses a server to receive a replica. Policies are
+    called concurrently and must be thread-safe.
+
+    <p>
+    Five policies are provided, and may be obtained by name through
+    <code>forName</code>:
+    <ul>
+    <li><code>round-robin</code> cycles through the candidates.</li>
+    <li><code>least-bytes</code> picks the candidate with the least space in
+        use, as reported in its heartbeats. Until every candidate has
+        reported its usage, the number of hosted files is compared
+        instead.</li>
+    <li><code>least-in-flight</code> picks the candidate with the fewest
+        outstanding commands from the naming server.</li>
+    <li><code>two-choices</code> samples two candidates at random and picks
+        the less loaded of the two, which spreads load almost as evenly as
+        a full scan at constant cost.</li>
+    <li><code>consistent-hash</code> places each file on the first eligible
+        server in the file's preference list on a consistent-hash ring, so
+        that adding or removing a server changes the placement of only a
+        small fraction of paths.</li>
+    </ul>
+ */
+public abstract class PlacementPolicy
+{
+    /** Chooses a storage server.
+
+        @param file Path of the file to be placed.
+        @param candidates Statistics of the servers eligible to host the file.
+                          The list is never empty.
+        @return The chosen server, which must be one of the candidates.
+     */
+    public abstract ServerStats select(Path file,
+                                       List<ServerStats> candidates);
+
+    /** Informs the policy that a storage server is considered dead. The
+        server is not a candidate again until it sends a heartbeat. The
+        default implementation does nothing.
+
+        @param stats Statistics of the server.
+     */
+    public void serverLost(ServerStats stats)
+    {
+    }
+
+    /** Cycles through the candidates. */
+    public static class RoundRobin extends PlacementPolicy
+    {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public ServerStats select(Path file, List<ServerStats> candidates)
+        {
+            int     index = next.getAndIncrement() & Integer.MAX_VALUE;
+
+            return candidates.get(index % candidates.size());
+        }
+    }
+
+    /** Picks the candidate with the least space in use. */
+    public static class LeastBytes extends PlacementPolicy
+    {
+        @Override
+        public ServerStats select(Path file, List<ServerStats> candidates)
+        {
+            boolean     reported = true;
+
+            for(ServerStats stats : candidates)
+            {
+                if(stats.bytesUsed() < 0)
+                    reported = false;
+            }
+
+            ServerStats best = null;
+            long        least = Long.MAX_VALUE;
+
+            for(ServerStats stats : candidates)
+            {
+                long    used = reported ? stats.bytesUsed() : stats.files();
+
+                if(used < least)
+                {
+                    best = stats;
+                    least = used;
+                }
+            }
+
+            return best;
+        }
+    }
+
+    /** Picks the candidate with the fewest outstanding commands. */
+    public static class LeastInFlight extends PlacementPolicy
+    {
+        @Override
+        public ServerStats select(Path file, List<ServerStats> candidates)
+        {
+            ServerStats best = null;
+
+            for(ServerStats stats : candidates)
+            {
+                if(best == null || lessLoaded(stats, best))
+                    best = stats;
+            }
+
+            return best;
+        }
+    }
+
+    /** Picks the less loaded of two random candidates. */
+    public static class TwoChoices extends PlacementPolicy
+    {
+        @Override
+        public ServerStats select(Path file, List<ServerStats> candidates)
+        {
+            int                 count = candidates.size();
+
+            if(count == 1)
+                return candidates.get(0);
+
+            ThreadLocalRandom   random = ThreadLocalRandom.current();
+            int                 first = random.nextInt(count);
+            int                 second = random.nextInt(count - 1);
+
+            if(second >= first)
+                ++second;
+
+            ServerStats         a = candidates.get(first);
+            ServerStats         b = candidates.get(second);
+
+            return lessLoaded(b, a) ? b : a;
+        }
+    }
+
+    /** Places files by their position on a consistent-hash ring.
+
+        <p>
+        Servers join the ring the first time they appear among the
+        candidates, under the identifier assigned to them when they first
+        registered, so that a server keeps its positions when the naming
+        server restarts. A server considered dead leaves the ring, and its
+        files' preference lists move on to the servers that follow it; it
+        joins again at the same positions once it is a candidate again. A
+        server that is not a candidate, because it already holds the file or
+        is not available, is skipped, so the replicas of a file go to the
+        servers that follow its primary in the file's preference list.
+     */
+    public static class ConsistentHash extends PlacementPolicy
+    {
+        private final ConsistentHashRing<ServerStats>   ring;
+
+        /** Creates the policy with the default number of virtual nodes. */
+        public ConsistentHash()
+        {
+            this(ConsistentHashRing.DEFAULT_VIRTUAL_NODES);
+        }
+
+        /** Creates the policy.
+
+            @param virtual_nodes Number of ring positions of each server.
+         */
+        public ConsistentHash(int virtual_nodes)
+        {
+            ring = new ConsistentHashRing<ServerStats>(virtual_nodes);
+        }
+
+        /** Returns the ring on which servers are placed. */
+        public ConsistentHashRing<ServerStats> ring()
+        {
+            return ring;
+        }
+
+        @Override
+        public ServerStats select(Path file, List<ServerStats> candidates)
+        {
+            HashSet<ServerStats>    eligible =
+                new HashSet<ServerStats>(candidates);
+
+            for(ServerStats stats : candidates)
+            {
+                String  name = name(stats);
+
+                if(ring.get(name) != stats)
+                    ring.add(name, stats);
+            }
+
+            Iterator<ServerStats>   preferences =
+                ring.preferences(file.toString());
+
+            while(preferences.hasNext())
+            {
+                ServerStats         stats = preferences.next();
+
+                if(eligible.contains(stats))
+                    return stats;
+            }
+
+            // Only reached if a candidate was removed from the ring by a
+            // concurrent call to serverLost.
+            return candidates.get(0);
+        }
+
+        @Override
+        public void serverLost(ServerStats stats)
+        {
+            String  name = name(stats);
+
+            synchronized(ring)
+            {
+                if(ring.get(name) == stats)
+                    ring.remove(name);
+            }
+        }
+
+        /** Returns the name of a server on the ring. */
+        private static String name(ServerStats stats)
+        {
+            return "storage-" + stats.id;
+        }
+    }
+
+    /** Returns the policy with the given name.
+
+        @param name One of <code>round-robin</code>, <code>least-bytes</code>,
+                    <code>least-in-flight</code>, <code>two-choices</code> and
+                    <code>consistent-hash</code>.
+        @return A new instance of the policy.
+        @throws IllegalArgumentException If there is no policy with the given
+                                         name.
+     */
+    public static PlacementPolicy forName(String name)
+    {
+        if(name.equals("round-robin"))
+            return new RoundRobin();
+        if(name.equals("least-bytes"))
+            return new LeastBytes();
+        if(name.equals("least-in-flight"))
+            return new LeastInFlight();
+        if(name.equals("two-choices"))
+            return new TwoChoices();
+        if(name.equals("consistent-hash"))
+            return new ConsistentHash();
+
+        throw new IllegalArgumentException("unknown placement policy " + name);
+    }
+
+    /** Determines whether one server is less loaded than another: it has
+        fewer commands outstanding, or as many and fewer files. */
+    static boolean lessLoaded(ServerStats a, ServerStats b)
+    {
+        if(a.inFlight() != b.inFlight())
+            return a.inFlight() < b.inFlight();
+
+        return a.files() < b.files();
+    }
+}
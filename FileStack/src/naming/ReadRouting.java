@@ -0,0 +1,114 @@
+package naming;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.Path;
+
+/** Chooses which copy of a file a reader is directed to.
+
+    <p>
+    When a file has replicas, <code>getStorage</code> may return the primary
+    storage server or any server holding a published replica. The naming
+    server passes the statistics of all of these servers, primary first, to
+    its read routing policy. Policies are called concurrently and must be
+    thread-safe.
+
+    <p>
+    Three policies are provided:
+    <ul>
+    <li><code>primary</code> always returns the primary, as the naming server
+        did before replicas took read load.</li>
+    <li><code>round-robin</code> cycles through the copies.</li>
+    <li><code>least-loaded</code> returns the copy on the server that has
+        been sent the fewest reads recently, breaking ties by the number of
+        commands the naming server has outstanding on each server. The
+        naming server does not see reads complete, so the recent read rate
+        stands in for the number of outstanding reads.</li>
+    </ul>
+ */
+public abstract class ReadRouting
+{
+    /** Chooses a server to read a file from.
+
+        @param file Path of the file to be read.
+        @param copies Statistics of the servers holding the file, primary
+                      first. The list is never empty.
+        @return The chosen server, which must be one of the copies.
+     */
+    public abstract ServerStats select(Path file, List<ServerStats> copies);
+
+    /** Always returns the primary. */
+    public static class Primary extends ReadRouting
+    {
+        @Override
+        public ServerStats select(Path file, List<ServerStats> copies)
+        {
+            return copies.get(0);
+        }
+    }
+
+    /** Cycles through the copies. */
+    public static class RoundRobin extends ReadRouting
+    {
+        private final AtomicInteger next = new AtomicInteger();
+
+        @Override
+        public ServerStats select(Path file, List<ServerStats> copies)
+        {
+            if(copies.size() == 1)
+                return copies.get(0);
+
+            int     index = next.getAndIncrement() & Integer.MAX_VALUE;
+
+            return copies.get(index % copies.size());
+        }
+    }
+
+    /** Returns the copy on the server with the lowest recent read rate. */
+    public static class LeastLoaded extends ReadRouting
+    {
+        @Override
+        public ServerStats select(Path file, List<ServerStats> copies)
+        {
+            ServerStats best = copies.get(0);
+            long        now = System.nanoTime();
+            double      lowest = best.recentReads(now);
+
+            for(int index = 1; index < copies.size(); ++index)
+            {
+                ServerStats stats = copies.get(index);
+                double      reads = stats.recentReads(now);
+
+                if(reads < lowest ||
+                   (reads == lowest && stats.inFlight() < best.inFlight()))
+                {
+                    best = stats;
+                    lowest = reads;
+                }
+            }
+
+            return best;
+        }
+    }
+
+    /** Returns the policy with the given name.
+
+        @param name One of <code>primary</code>, <code>round-robin</code> and
+                    <code>least-loaded</code>.
+        @return A new instance of the policy.
+        @throws IllegalArgumentException If there is no policy with the given
+                                         name.
+     */
+    public static ReadRouting forName(String name)
+    {
+        if(name.equals("primary"))
+            return new Primary();
+        if(name.equals("round-robin"))
+            return new RoundRobin();
+        if(name.equals("least-loaded"))
+            return new LeastLoaded();
+
+        throw new IllegalArgumentException("unknown read routing " + name);
+    }
+}
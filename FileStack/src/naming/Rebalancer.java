@@ -0,0 +1,400 @@
+package naming;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import storage.Storage;
+
+/** Moves files from full storage servers to empty ones in the background.
+
+    <p>
+    Placement policies choose where new files go, but cannot foresee how
+    large the files will grow, and servers added later start out empty. The
+    rebalancer compares the space in use on each storage server, as reported
+    in its heartbeats, with the average utilization of all of them. A server
+    using more than <code>threshold</code> above the average is a source,
+    and its files are moved to the servers furthest below the average, as
+    long as they do not rise above it. Servers that have not reported their
+    space, or that are suspected of having failed, are left alone.
+
+    <p>
+    A file is moved by copying it to the target as a replica, making the
+    replica the primary copy, and then deleting the copy on the source. The
+    primary is switched with the file locked for exclusive access, so that
+    no reader is still using the old copy when it is deleted. Files being
+    written are never moved, and a file written during its copy is not
+    switched.
+
+    <p>
+    The copies are paced by a token bucket filled at <code>bandwidth</code>
+    bytes a second, and holding at most one second of it, so that the moves
+    leave the storage servers enough capacity for their clients. Each copy
+    waits until the bucket holds the size of the file, and takes it. A file
+    larger than the bucket waits for a full bucket and leaves it in debt, so
+    that the copies after it wait for the excess. Rounds run on a thread of
+    their own, as they may wait for a long time.
+ */
+class Rebalancer
+{
+    /** Interval at which rounds are started, in milliseconds, unless the
+        last is still in progress. Longer than the heartbeat interval of the
+        storage servers, so that each round sees the space freed and used by
+        the last. */
+    static final long                   INTERVAL = 5000;
+    /** Longest time a copy waits before the bucket is looked at again, in
+        milliseconds, so that new limits take effect promptly. */
+    private static final long           TICK = 100;
+    /** Time after which the idle thread exits, in seconds. */
+    private static final long           IDLE = 30;
+
+    /** Naming server whose files are moved. */
+    private final NamingServer          server;
+    /** Thread running the rounds. */
+    private final ThreadPoolExecutor    mover;
+    /** Set while a round is waiting for the thread or in progress. */
+    private final AtomicBoolean         busy = new AtomicBoolean();
+
+    /** Largest number of bytes copied each second. */
+    private volatile long               bandwidth = 16L << 20;
+    /** Utilization above the average at which a server becomes a source. */
+    private volatile double             threshold = 0.1;
+    /** Number of bytes that may still be copied, refilled at
+        <code>bandwidth</code>. May fall below zero after a large file.
+        Guarded by the rebalancer's monitor, as are <code>refilled</code>
+        and <code>filled</code>. */
+    private double                      tokens;
+    /** Time at which the tokens were last refilled, in milliseconds. */
+    private long                        refilled;
+    /** Set once the bucket has been filled for the first copy. */
+    private boolean                     filled;
+
+    /** Space of a storage server, as planned during a round. */
+    private static class Share
+    {
+        /** Statistics of the server. */
+        final ServerStats               stats;
+        /** Total space, in bytes. */
+        final long                      capacity;
+        /** Space in use, counting the moves made this round. */
+        long                            used;
+
+        /** Creates a share from the load last reported by a server. */
+        Share(ServerStats stats, StorageLoad load)
+        {
+            this.stats = stats;
+            capacity = load.capacity();
+            used = load.used();
+        }
+
+        /** Returns the fraction of the space in use after adding a number
+            of bytes. */
+        double utilization(long added)
+        {
+            return (double)(used + added) / capacity;
+        }
+    }
+
+    /** Creates a rebalancer for the given naming server. */
+    Rebalancer(NamingServer server)
+    {
+        this.server = server;
+
+        mover = new ThreadPoolExecutor(1, 1, IDLE, TimeUnit.SECONDS,
+                                       new LinkedBlockingQueue<Runnable>(),
+                                       new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread  thread = new Thread(runnable, "rebalancer");
+
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        mover.allowCoreThreadTimeOut(true);
+    }
+
+    /** Sets the largest number of bytes copied each second, and the
+        utilization above the average at which a server's files are moved.
+
+        @throws IllegalArgumentException If the bandwidth is not positive, or
+                                         the threshold is not between zero
+                                         and one.
+     */
+    void setLimits(long bandwidth, double threshold)
+    {
+        if(bandwidth < 1 || !(threshold > 0 && threshold < 1))
+            throw new IllegalArgumentException("impossible limits");
+
+        this.bandwidth = bandwidth;
+        this.threshold = threshold;
+    }
+
+    /** Starts a round on the rebalancer's thread, unless the last round is
+        still in progress. Called periodically on the replication scheduler.
+     */
+    void schedule()
+    {
+        if(!busy.compareAndSet(false, true))
+            return;
+
+        try
+        {
+            mover.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        Rebalancer.this.run();
+                    }
+                    finally
+                    {
+                        busy.set(false);
+                    }
+                }
+            });
+        }
+        catch(RejectedExecutionException e)
+        {
+            // The rebalancer has been stopped.
+            busy.set(false);
+        }
+    }
+
+    /** Stops the rebalancer. A round in progress makes no further moves,
+        and no new round is started. */
+    void stop()
+    {
+        mover.shutdownNow();
+    }
+
+    /** Makes one round of moves, waiting for the bandwidth each needs.
+
+        @return The number of files moved.
+     */
+    synchronized int run()
+    {
+        List<Share>             shares = shares();
+        long                    capacity = 0;
+        long                    used = 0;
+
+        if(shares.size() < 2)
+            return 0;
+
+        for(Share share : shares)
+        {
+            capacity += share.capacity;
+            used += share.used;
+        }
+
+        double                  average = (double)used / capacity;
+        double                  ceiling = average + threshold;
+        HashMap<Storage, List<Node>> files =
+            new HashMap<Storage, List<Node>>();
+
+        for(Share share : shares)
+        {
+            if(share.utilization(0) > ceiling)
+                files.put(share.stats.storage, new ArrayList<Node>());
+        }
+
+        if(files.isEmpty())
+            return 0;
+
+        for(Node n : server.index.values())
+        {
+            List<Node>          held = n.isFile ? files.get(n.storageStub)
+                                                : null;
+
+            if(held != null)
+                held.add(n);
+        }
+
+        int                     moved = 0;
+
+        for(Share source : shares)
+        {
+            List<Node>          held = files.get(source.stats.storage);
+
+            if(held == null)
+                continue;
+
+            for(Node n : held)
+            {
+                if(source.utilization(0) <= ceiling)
+                    break;
+
+                long            size = n.size;
+
+                // Files of unknown size are left where they are.
+                if(size <= 0)
+                    continue;
+
+                Share           target =
+                    target(shares, source, server.replicas.get(n.myPath),
+                           size, average);
+
+                if(target == null)
+                    continue;
+
+                if(!pace(size))
+                    return moved;
+
+                if(move(n, source.stats.storage, target.stats))
+                {
+                    source.used -= size;
+                    target.used += size;
+                    ++moved;
+                }
+            }
+        }
+
+        return moved;
+    }
+
+    /** Waits until the bucket holds the tokens to copy a file, and takes
+        them. A file larger than the bucket waits for a full bucket.
+
+        @return <code>false</code> if the thread has been interrupted, and
+                the round is to end.
+     */
+    private boolean pace(long size)
+    {
+        while(true)
+        {
+            long                now = System.currentTimeMillis();
+            long                limit = bandwidth;
+
+            if(!filled)
+            {
+                tokens = limit;
+                filled = true;
+            }
+            else
+            {
+                tokens = Math.min(limit,
+                                  tokens + (now - refilled) * limit / 1000.0);
+            }
+
+            refilled = now;
+
+            double              needed = Math.min(size, limit);
+
+            if(tokens >= needed)
+            {
+                tokens -= size;
+                return true;
+            }
+
+            long                delay =
+                (long)Math.ceil((needed - tokens) * 1000 / limit);
+
+            try
+            {
+                Thread.sleep(Math.max(1, Math.min(delay, TICK)));
+            }
+            catch(InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    /** Returns the shares of the servers that have reported their space and
+        are not suspected of having failed, fullest first. */
+    private List<Share> shares()
+    {
+        long                    now = System.nanoTime();
+        ArrayList<Share>        shares = new ArrayList<Share>();
+
+        for(ServerStats stats : server.serverStatistics())
+        {
+            StorageLoad         load = stats.load();
+
+            if(load != null && load.capacity() > 0 &&
+               server.available(stats, now))
+            {
+                shares.add(new Share(stats, load));
+            }
+        }
+
+        Collections.sort(shares, new Comparator<Share>()
+        {
+            @Override
+            public int compare(Share first, Share second)
+            {
+                return Double.compare(second.utilization(0),
+                                      first.utilization(0));
+            }
+        });
+
+        return shares;
+    }
+
+    /** Returns the emptiest server that can take a file without rising
+        above the average, other than the source and the servers already
+        holding a replica, or <code>null</code> if there is none. */
+    private static Share target(List<Share> shares, Share source,
+                                Set<Storage> holders, long size,
+                                double average)
+    {
+        Share                   best = null;
+
+        for(Share share : shares)
+        {
+            if(share == source ||
+               (holders != null && holders.contains(share.stats.storage)) ||
+               share.utilization(size) > average)
+            {
+                continue;
+            }
+
+            if(best == null || share.utilization(0) < best.utilization(0))
+                best = share;
+        }
+
+        return best;
+    }
+
+    /** Moves a file from its primary storage server to another.
+
+        @return <code>true</code> if the file has been moved.
+     */
+    private boolean move(Node n, Storage source, ServerStats target)
+    {
+        long                    version;
+
+        synchronized(n)
+        {
+            if(n.unlinked || !source.equals(n.storageStub) ||
+               n.lock.holders(LockMode.EXCLUSIVE) > 0)
+            {
+                return false;
+            }
+
+            version = n.version;
+        }
+
+        // A writer locking the file during the copy makes the copy stale,
+        // and it is not published.
+        if(!server.copyTo(n, version, target))
+            return false;
+
+        return server.movePrimary(n, source, target.storage);
+    }
+}
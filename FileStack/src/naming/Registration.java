@@ -7,7 +7,15 @@ import rmi.RMIException;
 /** Naming server registration interface.
 
     <p>
-    This interface is used once, on startup, by each storage server.
+    This interface is used on startup by each storage server, and afterwards
+    to report the size of each file it writes and to send periodic
+    heartbeats. A storage server with few files may register them all in a
+    single call to <code>register</code>. A storage server with many files
+    should instead begin a registration with <code>beginRegistration</code>,
+    send its files in batches to <code>registerBatch</code> as it finds
+    them, deleting the duplicates returned for each batch, and finally call
+    <code>endRegistration</code>. Neither side then needs to hold the whole
+    file list in memory at once.
  */
 public interface Registration
 {
@@ -47,4 +55,188 @@ public interface Registration
      */
     public Path[] register(Storage client_stub, Command command_stub,
                            Path[] files) throws RMIException;
+
+    /** Begins the registration of a storage server whose files are sent in
+        batches.
+
+        <p>
+        The storage server is registered when this method returns, so that
+        the files in each batch are added to the directory tree as soon as
+        the batch is received. New files are not placed on the storage server
+        until its registration has ended.
+
+        @param client_stub Storage server client service stub.
+        @param command_stub Storage server command service stub.
+        @return An identifier for the registration, to be given to
+                <code>registerBatch</code> and <code>endRegistration</code>.
+        @throws IllegalStateException If the storage server is already
+                                      registered.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public long beginRegistration(Storage client_stub, Command command_stub)
+        throws RMIException;
+
+    /** Sends a batch of the files stored on a registering storage server.
+
+        <p>
+        The files are merged with the directory tree as in
+        <code>register</code>. Files are added most efficiently when the files
+        in each directory are listed together.
+
+        @param registration Identifier returned by
+                            <code>beginRegistration</code>.
+        @param files Files stored on the storage server.
+        @return The files in this batch that the storage server must delete.
+        @throws IllegalStateException If the registration has not begun, or
+                                      has already ended.
+        @throws NullPointerException If <code>files</code> is
+                                     <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Path[] registerBatch(long registration, Path[] files)
+        throws RMIException;
+
+    /** Ends the registration of a storage server whose files were sent in
+        batches.
+
+        @param registration Identifier returned by
+                            <code>beginRegistration</code>.
+        @throws IllegalStateException If the registration has not begun, or
+                                      has already ended.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void endRegistration(long registration) throws RMIException;
+
+    /** Begins the registration of a storage server that has restarted while
+        the naming server still knows of it.
+
+        <p>
+        Rather than send all its files, the storage server computes a digest
+        of each local directory under which it holds files, using
+        <code>DirectoryDigest</code>. Starting from the root, it sends the
+        digests of directories to <code>compareDigests</code>, which returns
+        the directories whose contents differ from what the naming server
+        expects. For each of those, the storage server sends the files it
+        holds directly in the directory to <code>syncDirectory</code>, and
+        then the digests of its subdirectories to <code>compareDigests</code>.
+        A storage server whose files have not changed therefore sends only
+        its root digest. Once every differing directory has been sent, the
+        registration is ended with <code>endRegistration</code>.
+
+        @param client_stub Storage server client service stub.
+        @param command_stub Storage server command service stub.
+        @return An identifier for the registration.
+        @throws IllegalStateException If the naming server does not know of
+                                      the storage server. The storage server
+                                      must then register all its files.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public long resumeRegistration(Storage client_stub, Command command_stub)
+        throws RMIException;
+
+    /** Compares the digests of directories on a storage server resuming its
+        registration with the files the naming server expects it to hold.
+
+        @param registration Identifier returned by
+                            <code>resumeRegistration</code>.
+        @param directories Directories to compare.
+        @param digests The digest of each directory, or <code>null</code> for
+                       a directory under which the storage server holds no
+                       files.
+        @return The directories whose digests differ.
+        @throws IllegalStateException If the registration has not been
+                                      resumed, or has already ended.
+        @throws IllegalArgumentException If the numbers of directories and of
+                                         digests differ.
+        @throws NullPointerException If either array is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Path[] compareDigests(long registration, Path[] directories,
+                                 byte[][] digests) throws RMIException;
+
+    /** Reports the contents of a directory on a storage server resuming its
+        registration.
+
+        <p>
+        Files the naming server expects the storage server to hold in the
+        directory, or under a subdirectory that is not listed, are taken to be
+        lost. A file whose only copy is lost is removed from the directory
+        tree. The files listed are merged with the directory tree as in
+        <code>register</code>.
+
+        @param registration Identifier returned by
+                            <code>resumeRegistration</code>.
+        @param directory The directory.
+        @param files Files held by the storage server directly in the
+                     directory.
+        @param directories Subdirectories of the directory under which the
+                           storage server holds files.
+        @return The files the storage server must delete.
+        @throws IllegalStateException If the registration has not been
+                                      resumed, or has already ended.
+        @throws IllegalArgumentException If a file or subdirectory listed is
+                                         not directly in the directory.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public Path[] syncDirectory(long registration, Path directory,
+                                Path[] files, Path[] directories)
+        throws RMIException;
+
+    /** Reports the size and modification time of files on a storage server.
+
+        <p>
+        A storage server calls this method each time a write to a file
+        completes, before the write returns to the client, so that the naming
+        server can answer size queries without asking the storage server.
+        Reports about files of which the storage server does not hold the
+        primary copy, and about files that do not exist, are ignored, as are
+        reports of modification times older than the last reported. A
+        storage server that fails to deliver a report should send it again.
+
+        @param client_stub Storage server client service stub.
+        @param files Files written.
+        @param sizes Size of each file in bytes.
+        @param modified Time each file was last modified, in milliseconds
+                        since the epoch.
+        @throws IllegalArgumentException If the arrays differ in length.
+        @throws NullPointerException If any argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void updateAttributes(Storage client_stub, Path[] files,
+                                 long[] sizes, long[] modified)
+        throws RMIException;
+
+    /** Reports that a storage server is alive, with its load and capacity.
+
+        <p>
+        A registered storage server calls this method periodically. Once a
+        storage server has sent a heartbeat, the naming server expects more:
+        a server that falls silent is first considered degraded, and no new
+        files or replicas are placed on it, and then dead, and clients are no
+        longer directed to it while another copy of the file is available. A
+        server that sends a heartbeat again is considered alive again. A
+        storage server that never sends a heartbeat is always considered
+        alive.
+
+        @param client_stub Storage server client service stub, as given when
+                           the server registered.
+        @param load Load and capacity of the storage server.
+        @throws IllegalStateException If the storage server is not
+                                      registered.
+        @throws NullPointerException If either argument is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public void heartbeat(Storage client_stub, StorageLoad load)
+        throws RMIException;
 }
@@ -0,0 +1,55 @@
+package naming;
+
+import java.util.concurrent.TimeUnit;
+
+/** Decides how many replicas a file should have, given its access heat.
+
+    <p>
+    A file earns one replica for each full <code>copy_heat</code> of heat
+    beyond the first: with the default threshold of 20, a file is first
+    replicated once its heat exceeds 20, which for a burst of reads is the
+    twenty-first read. A replica is kept as long as the heat stays above
+    <code>retain_heat</code> per replica. The retention threshold is lower
+    than the copy threshold, so that a file whose heat hovers around a
+    threshold is not repeatedly copied and dropped.
+
+    <p>
+    All settings may be changed at any time; each decision uses the values
+    current when it is made.
+ */
+class ReplicationPolicy
+{
+    /** Half-life of file heat, in nanoseconds. */
+    volatile long   half_life = TimeUnit.SECONDS.toNanos(60);
+    /** Heat needed for each replica to be created. */
+    volatile double copy_heat = 20;
+    /** Heat needed for each replica to be kept. */
+    volatile double retain_heat = 5;
+    /** Largest number of replicas of a single file, besides the original. */
+    volatile int    max_replicas = Integer.MAX_VALUE;
+    /** Interval between sweeps for cold replicas, in milliseconds. */
+    volatile long   sweep_interval = 10000;
+
+    /** Returns the number of replicas a file of the given heat should have. */
+    int replicasToCreate(double heat)
+    {
+        return replicas(heat, copy_heat);
+    }
+
+    /** Returns the number of replicas a file of the given heat may keep. */
+    int replicasToKeep(double heat)
+    {
+        return replicas(heat, retain_heat);
+    }
+
+    /** Counts the replicas earned at the given heat per replica. */
+    private int replicas(double heat, double per_replica)
+    {
+        if(heat <= per_replica)
+            return 0;
+
+        double  earned = Math.ceil(heat / per_replica) - 1;
+
+        return earned >= max_replicas ? max_replicas : (int)earned;
+    }
+}
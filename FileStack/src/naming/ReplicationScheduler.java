@@ -0,0 +1,203 @@
+package naming;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import common.Path;
+
+/** Runs replication work for the naming server in the background.
+
+    <p>
+    Copying a file to a new storage server and deleting invalidated replicas
+    both involve remote calls that can take a long time. The naming server
+    decides what must be done while serving a request, and submits the work to
+    this scheduler, which carries it out on a small pool of daemon threads.
+    The request that made the decision does not wait for it to complete.
+
+    <p>
+    Tasks submitted for the same path are run one at a time, in the order in
+    which they were submitted. A replica that is being deleted can therefore
+    never be overtaken by a later copy of the same file to the same server.
+    Tasks for different paths run in parallel.
+
+    <p>
+    The scheduler also runs periodic maintenance, such as the sweep for cold
+    replicas, on the same threads.
+ */
+class ReplicationScheduler
+{
+    /** Number of threads in the pool. */
+    static final int                                THREADS = 4;
+
+    /** Threads running the tasks. */
+    private final ScheduledExecutorService          executor;
+    /** Pending tasks of each path that has work queued or running. */
+    private final ConcurrentHashMap<Path, PathQueue> queues =
+        new ConcurrentHashMap<Path, PathQueue>();
+
+    /** Tasks for a single path. A queue is retired once it has been drained
+        and removed from <code>queues</code>; later tasks for the path go to a
+        fresh queue. */
+    private static class PathQueue
+    {
+        final ArrayDeque<Runnable>  tasks = new ArrayDeque<Runnable>();
+        boolean                     running = false;
+        boolean                     retired = false;
+    }
+
+    /** Creates the scheduler and its threads. */
+    ReplicationScheduler()
+    {
+        executor = Executors.newScheduledThreadPool(THREADS, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread  thread = new Thread(runnable, "replication");
+
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /** Queues a task behind any other tasks for the same path.
+
+        @param path Path of the file the task works on.
+        @param task The task. Exceptions thrown by the task are reported and
+                    do not prevent later tasks from running.
+     */
+    void submit(Path path, Runnable task)
+    {
+        while(true)
+        {
+            PathQueue   queue = queues.get(path);
+
+            if(queue == null)
+            {
+                PathQueue   fresh = new PathQueue();
+
+                queue = queues.putIfAbsent(path, fresh);
+                if(queue == null)
+                    queue = fresh;
+            }
+
+            synchronized(queue)
+            {
+                if(queue.retired)
+                    continue;
+
+                queue.tasks.addLast(task);
+                if(queue.running)
+                    return;
+
+                queue.running = true;
+            }
+
+            try
+            {
+                executor.execute(drain(path, queue));
+            }
+            catch(RejectedExecutionException e)
+            {
+                // The naming server is stopping. The work is dropped.
+            }
+
+            return;
+        }
+    }
+
+    /** Runs a task repeatedly, with a fixed delay between the end of one run
+        and the start of the next.
+
+        @param task The task. Exceptions thrown by the task are reported and
+                    do not cancel later runs.
+        @param milliseconds Delay before the first run and between runs.
+        @return A handle with which the task may be cancelled, or
+                <code>null</code> if the scheduler has been shut down.
+     */
+    ScheduledFuture<?> schedulePeriodic(final Runnable task, long milliseconds)
+    {
+        try
+        {
+            return executor.scheduleWithFixedDelay(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        task.run();
+                    }
+                    catch(Throwable t)
+                    {
+                        t.printStackTrace();
+                    }
+                }
+            }, milliseconds, milliseconds, TimeUnit.MILLISECONDS);
+        }
+        catch(RejectedExecutionException e)
+        {
+            return null;
+        }
+    }
+
+    /** Stops accepting new work and waits briefly for running tasks. */
+    void shutdown()
+    {
+        executor.shutdownNow();
+
+        try
+        {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Returns a runnable that runs the tasks of a path queue until it is
+        empty, then retires the queue. */
+    private Runnable drain(final Path path, final PathQueue queue)
+    {
+        return new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                while(true)
+                {
+                    Runnable    task;
+
+                    synchronized(queue)
+                    {
+                        task = queue.tasks.pollFirst();
+                        if(task == null)
+                        {
+                            queue.running = false;
+                            queue.retired = true;
+                            queues.remove(path, queue);
+                            return;
+                        }
+                    }
+
+                    try
+                    {
+                        task.run();
+                    }
+                    catch(Throwable t)
+                    {
+                        t.printStackTrace();
+                    }
+                }
+            }
+        };
+    }
+}
@@ -0,0 +1,406 @@
+package naming;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import common.Path;
+import storage.Storage;
+
+/** Restores the copies of files lost with a storage server.
+
+    <p>
+    When a storage server is considered dead, the naming server gives up the
+    copies of replicated files it held, and queues each such file here with
+    the number of copies it had. Files are copied back in order of urgency:
+    those with the fewest copies left come first, and among those, the
+    hottest. Each copy is made by commanding a live storage server, chosen by
+    the placement policy, to copy the file from its primary.
+
+    <p>
+    Copies are planned in rounds, started periodically on the replication
+    scheduler, and handed to threads of their own without waiting for them,
+    so that they hold up neither the deletions clients wait for nor the
+    detection of failed servers. No more than <code>total</code> copies are
+    in progress at once, and no storage server takes part in more than
+    <code>per_server</code> of them, either as source or as target, so that
+    recovery leaves the servers enough capacity for their clients. A round
+    looks at no more than <code>EXAMINED</code> files, so that a large queue
+    of files whose servers are busy is not walked every round.
+
+    <p>
+    A file whose copy fails stays queued, and is attempted again after a
+    delay that doubles with each failure, from <code>FIRST_RETRY</code> up to
+    <code>LAST_RETRY</code>. Until then it waits in a queue of its own,
+    ordered by the time of the next attempt, so that rounds do not look at
+    it.
+ */
+class Rereplicator
+{
+    /** Interval between rounds, in milliseconds. */
+    static final long                   INTERVAL = 100;
+    /** Delay before the first retry of a failed copy, in milliseconds. */
+    static final long                   FIRST_RETRY = 1000;
+    /** Longest delay between retries, in milliseconds. */
+    static final long                   LAST_RETRY = 60000;
+    /** Largest number of files looked at in each round. */
+    static final int                    EXAMINED = 256;
+
+    /** Naming server whose files are copied. */
+    private final NamingServer          server;
+    /** Threads making the copies. */
+    private final FanOut                copiers = new FanOut("recovery");
+    /** Files waiting to be copied, most urgent first. Guarded by this
+        object's monitor, together with the other collections and
+        <code>running</code>. */
+    private final PriorityQueue<Entry>  queue = new PriorityQueue<Entry>();
+    /** Files waiting for the retry of a failed copy, soonest first. */
+    private final PriorityQueue<Entry>  delayed =
+        new PriorityQueue<Entry>(11, new Comparator<Entry>()
+        {
+            @Override
+            public int compare(Entry first, Entry second)
+            {
+                return Long.compare(first.due, second.due);
+            }
+        });
+    /** Entry of each file in either queue. */
+    private final HashMap<Path, Entry>  queued = new HashMap<Path, Entry>();
+    /** Number of copies in progress that each server takes part in. */
+    private final HashMap<Storage, Integer> busy =
+        new HashMap<Storage, Integer>();
+    /** Number of copies in progress. */
+    private int                         running;
+
+    /** Largest number of copies made at once. */
+    private volatile int                total = 8;
+    /** Largest number of copies a single server takes part in at once. */
+    private volatile int                per_server = 2;
+    /** Delay before the first retry of a failed copy, in milliseconds. */
+    private volatile long               first_retry = FIRST_RETRY;
+    /** Longest delay between retries, in milliseconds. */
+    private volatile long               last_retry = LAST_RETRY;
+
+    /** File waiting for copies. */
+    static class Entry implements Comparable<Entry>
+    {
+        /** The file. */
+        final Node                      node;
+        /** Number of copies the file had before it lost one. */
+        final int                       wanted;
+        /** Number of copies the file had left when it was queued. */
+        final int                       copies;
+        /** Heat of the file when it was queued. */
+        final double                    heat;
+        /** Number of failed attempts to copy the file. */
+        final int                       failures;
+        /** Time before which the file is not copied, in milliseconds. */
+        final long                      due;
+
+        /** Creates an entry. */
+        Entry(Node node, int wanted, int copies, double heat, int failures,
+              long due)
+        {
+            this.node = node;
+            this.wanted = wanted;
+            this.copies = copies;
+            this.heat = heat;
+            this.failures = failures;
+            this.due = due;
+        }
+
+        /** Orders entries by the number of copies left, then by decreasing
+            heat. */
+        @Override
+        public int compareTo(Entry other)
+        {
+            if(copies != other.copies)
+                return copies < other.copies ? -1 : 1;
+
+            return Double.compare(other.heat, heat);
+        }
+    }
+
+    /** Copy planned for a round. */
+    private class Copy implements Runnable
+    {
+        /** Queue entry of the file. */
+        final Entry                     entry;
+        /** Version of the file when the copy was planned. */
+        final long                      version;
+        /** Server from which the file is copied. */
+        final Storage                   source;
+        /** Statistics of the server to which the file is copied. */
+        final ServerStats               target;
+
+        /** Creates a copy. */
+        Copy(Entry entry, long version, Storage source, ServerStats target)
+        {
+            this.entry = entry;
+            this.version = version;
+            this.source = source;
+            this.target = target;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean                     copied = false;
+
+            try
+            {
+                copied = server.copyTo(entry.node, version, target);
+            }
+            finally
+            {
+                finish(this, copied);
+            }
+        }
+    }
+
+    /** Creates a rereplicator for the given naming server. */
+    Rereplicator(NamingServer server)
+    {
+        this.server = server;
+    }
+
+    /** Sets the largest number of copies made at once, in total and by a
+        single storage server.
+
+        @throws IllegalArgumentException If either limit is not positive.
+     */
+    void setLimits(int total, int per_server)
+    {
+        if(total < 1 || per_server < 1)
+            throw new IllegalArgumentException("limits must be positive");
+
+        this.total = total;
+        this.per_server = per_server;
+    }
+
+    /** Sets the delay before the first retry of a failed copy, and the
+        longest delay between retries. Tests shorten them.
+
+        @throws IllegalArgumentException If the first delay is not positive,
+                                         or is longer than the last.
+     */
+    void setRetryDelays(long first, long last)
+    {
+        if(first < 1 || last < first)
+            throw new IllegalArgumentException("impossible delays");
+
+        first_retry = first;
+        last_retry = last;
+    }
+
+    /** Queues a file for copies. If the file is already queued, the entry
+        is replaced.
+
+        @param node The file.
+        @param wanted Number of copies the file should have.
+        @param copies Number of copies the file has left.
+        @param heat Current heat of the file.
+     */
+    synchronized void add(Node node, int wanted, int copies, double heat)
+    {
+        add(new Entry(node, wanted, copies, heat, 0, 0));
+    }
+
+    /** Returns the number of files waiting for copies. */
+    synchronized int size()
+    {
+        return queue.size() + delayed.size();
+    }
+
+    /** Returns the paths of the files waiting for copies, most urgent
+        first, followed by those waiting for a retry, soonest first. */
+    synchronized List<Path> pending()
+    {
+        ArrayList<Path>         result = new ArrayList<Path>(size());
+
+        drain(new PriorityQueue<Entry>(queue), result);
+        drain(new PriorityQueue<Entry>(delayed), result);
+        return result;
+    }
+
+    /** Moves the paths of the entries in a queue to a list, in order. */
+    private static void drain(PriorityQueue<Entry> entries, List<Path> paths)
+    {
+        while(!entries.isEmpty())
+            paths.add(entries.poll().node.myPath);
+    }
+
+    /** Plans a round of copies, and starts them on the copying threads
+        without waiting for them. Called periodically on the replication
+        scheduler. */
+    void schedule()
+    {
+        for(Copy copy : plan())
+        {
+            try
+            {
+                copiers.execute(copy);
+            }
+            catch(RejectedExecutionException e)
+            {
+                finish(copy, false);
+            }
+        }
+    }
+
+    /** Accounts for a completed copy, and queues the file again if it still
+        lacks copies. */
+    private synchronized void finish(Copy copy, boolean copied)
+    {
+        Entry                   entry = copy.entry;
+
+        release(copy.source);
+        release(copy.target.storage);
+        --running;
+
+        if(copied)
+            requeue(entry, entry.failures, 0);
+        else
+            requeue(entry, entry.failures + 1, retryTime(entry.failures));
+    }
+
+    /** Returns the time of the next attempt to copy a file, after a number
+        of earlier failures. */
+    private long retryTime(int failures)
+    {
+        long                    delay = first_retry << Math.min(failures, 16);
+
+        return System.currentTimeMillis() + Math.min(delay, last_retry);
+    }
+
+    /** Takes the most urgent files from the queue, as far as the limits
+        allow, and chooses the servers to copy each to. Files whose servers
+        are busy are left in the queue for a later round. */
+    private synchronized List<Copy> plan()
+    {
+        ArrayList<Copy>         round = new ArrayList<Copy>();
+        ArrayList<Entry>        deferred = new ArrayList<Entry>();
+        int                     limit = per_server;
+        int                     examined = 0;
+        long                    now = System.currentTimeMillis();
+
+        // Files whose retry is due rejoin the queue.
+        while(!delayed.isEmpty() && delayed.peek().due <= now)
+            queue.add(delayed.poll());
+
+        while(running < total && examined < EXAMINED && !queue.isEmpty())
+        {
+            Entry               entry = queue.poll();
+            Node                n = entry.node;
+            Storage             source = n.storageStub;
+            Set<Storage>        holders;
+            long                version;
+            boolean             writing;
+
+            ++examined;
+            queued.remove(n.myPath);
+
+            // A file being written is not copied until the writer is done.
+            // A writer taking the lock later makes the copy stale.
+            synchronized(n)
+            {
+                holders = server.replicas.get(n.myPath);
+                version = n.version;
+                writing = n.lock.holders(LockMode.EXCLUSIVE) > 0;
+            }
+
+            // The file may have been deleted, or replicated again, since it
+            // was queued.
+            int                 copies =
+                1 + (holders == null ? 0 : holders.size());
+
+            if(n.unlinked || copies >= entry.wanted)
+                continue;
+
+            if(writing || count(source) >= limit)
+            {
+                deferred.add(entry);
+                continue;
+            }
+
+            ArrayList<ServerStats> eligible = new ArrayList<ServerStats>();
+
+            for(ServerStats stats : server.candidates(source, holders))
+            {
+                if(count(stats.storage) < limit)
+                    eligible.add(stats);
+            }
+
+            if(eligible.isEmpty())
+            {
+                deferred.add(entry);
+                continue;
+            }
+
+            ServerStats         target = server.place(n.myPath, eligible);
+
+            busy.put(source, count(source) + 1);
+            busy.put(target.storage, count(target.storage) + 1);
+            ++running;
+            round.add(new Copy(entry, version, source, target));
+        }
+
+        for(Entry entry : deferred)
+            add(entry);
+
+        return round;
+    }
+
+    /** Queues a file again after its copy, if it still lacks copies. */
+    private synchronized void requeue(Entry entry, int failures, long due)
+    {
+        Node                    n = entry.node;
+        Set<Storage>            holders = server.replicas.get(n.myPath);
+        int                     copies =
+            1 + (holders == null ? 0 : holders.size());
+
+        if(n.unlinked || copies >= entry.wanted || queued.containsKey(n.myPath))
+            return;
+
+        add(new Entry(n, entry.wanted, copies, entry.heat, failures, due));
+    }
+
+    /** Adds an entry to the queue, or to the queue of retries if it is not
+        yet due, replacing any entry of the same file. */
+    private void add(Entry entry)
+    {
+        Entry                   previous = queued.put(entry.node.myPath, entry);
+
+        if(previous != null && !queue.remove(previous))
+            delayed.remove(previous);
+
+        if(entry.due > System.currentTimeMillis())
+            delayed.add(entry);
+        else
+            queue.add(entry);
+    }
+
+    /** Returns the number of copies in progress that a server takes part
+        in. */
+    private int count(Storage storage)
+    {
+        Integer                 count = busy.get(storage);
+
+        return count == null ? 0 : count;
+    }
+
+    /** Accounts for the end of a copy that a server took part in. */
+    private void release(Storage storage)
+    {
+        int                     count = count(storage) - 1;
+
+        if(count > 0)
+            busy.put(storage, count);
+        else
+            busy.remove(storage);
+    }
+}
@@ -0,0 +1,189 @@
+package naming;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import storage.Storage;
+
+/** Live statistics the naming server keeps about a storage server.
+
+    <p>
+    The naming server counts the files it has placed on each storage server,
+    including replicas, and the commands it has issued to the server that
+    have not yet completed. Storage servers that send heartbeats also report
+    the number of bytes in use on their filesystems. Placement policies use
+    these figures to choose where new files and replicas go.
+
+    <p>
+    The naming server also counts the reads it directs to each server through
+    <code>getStorage</code>, both in total and as a rate decaying with a
+    half-life of <code>READ_HALF_LIFE</code>. These counters show how read
+    load is spread over the primaries and replicas, and drive the
+    least-loaded read routing policy.
+
+    <p>
+    A storage server that sends heartbeats reports its capacity, its free
+    space and the number of client requests it has served with each one.
+    The naming server records the time of the last heartbeat, or of the
+    registration of a server that has not yet sent one, from which it judges
+    whether the server is still alive. Once the server is considered
+    dead, the naming server gives up the copies it held, and marks the
+    statistics until the server sends a heartbeat again.
+ */
+public class ServerStats
+{
+    /** Storage server described by these statistics. */
+    public final Storage        storage;
+    /** Identifier assigned to the server when it first registered, which
+        names it in the journal and is kept across restarts. */
+    public final int            id;
+    /** Number of files hosted, counting replicas. */
+    private final AtomicLong    files = new AtomicLong();
+    /** Number of commands issued and not yet completed. */
+    private final AtomicLong    in_flight = new AtomicLong();
+    /** Number of bytes in use, as last reported in a heartbeat, or -1 if
+        never reported. */
+    private volatile long       bytes = -1;
+    /** Number of reads directed to the server. */
+    private final AtomicLong    reads = new AtomicLong();
+    /** Decayed count of reads directed to the server. */
+    private final AccessHeat    read_heat = new AccessHeat();
+    /** Time of the last heartbeat, or of the creation of the statistics if
+        the server has not sent one since, from <code>System.nanoTime</code>.
+        */
+    private volatile long       heard = System.nanoTime();
+    /** Set once the server has sent a heartbeat. */
+    private volatile boolean    beating;
+    /** Load and capacity reported in the last heartbeat, or
+        <code>null</code>. */
+    private volatile StorageLoad load;
+    /** Set while the server is considered dead and its copies have been
+        given up. */
+    private final AtomicBoolean lost = new AtomicBoolean();
+
+    /** Half-life of the recent read count, in nanoseconds. */
+    public static final long    READ_HALF_LIFE = TimeUnit.SECONDS.toNanos(10);
+
+    /** Creates statistics for a newly registered storage server. */
+    ServerStats(Storage storage, int id)
+    {
+        this.storage = storage;
+        this.id = id;
+    }
+
+    /** Returns the number of files hosted by the server, counting
+        replicas. */
+    public long files()
+    {
+        return files.get();
+    }
+
+    /** Returns the number of commands issued to the server and not yet
+        completed. */
+    public long inFlight()
+    {
+        return in_flight.get();
+    }
+
+    /** Returns the number of bytes in use last reported by the server, or -1
+        if the server has not reported its usage. */
+    public long bytesUsed()
+    {
+        return bytes;
+    }
+
+    /** Returns the number of reads directed to the server since it
+        registered. */
+    public long reads()
+    {
+        return reads.get();
+    }
+
+    /** Returns the decayed count of reads recently directed to the server.
+
+        @param now Current time, from <code>System.nanoTime</code>.
+     */
+    public double recentReads(long now)
+    {
+        return read_heat.current(now, READ_HALF_LIFE);
+    }
+
+    /** Returns the load and capacity reported in the last heartbeat, or
+        <code>null</code> if the server has never sent one. */
+    public StorageLoad load()
+    {
+        return load;
+    }
+
+    /** Returns the time since the last heartbeat, in milliseconds. A server
+        that has never sent a heartbeat has been silent since it registered,
+        or since it was restored from the journal.
+
+        @param now Current time, from <code>System.nanoTime</code>.
+     */
+    public long silence(long now)
+    {
+        return TimeUnit.NANOSECONDS.toMillis(now - heard);
+    }
+
+    /** Returns whether the server has sent a heartbeat. */
+    public boolean beating()
+    {
+        return beating;
+    }
+
+    /** Returns whether the server is considered dead, and the copies it held
+        have been given up. */
+    public boolean lost()
+    {
+        return lost.get();
+    }
+
+    /** Marks the server as lost or found again.
+
+        @return <code>true</code> if the mark has changed.
+     */
+    boolean markLost(boolean lost)
+    {
+        return this.lost.compareAndSet(!lost, lost);
+    }
+
+    /** Records a heartbeat, and the space in use it reports, if the server
+        knows the size of its filesystem. */
+    void reportHeartbeat(StorageLoad load)
+    {
+        this.load = load;
+        heard = System.nanoTime();
+        beating = true;
+
+        if(load.capacity() > 0)
+            bytes = load.used();
+    }
+
+    /** Records that a read has been directed to the server. */
+    void countRead()
+    {
+        reads.incrementAndGet();
+        read_heat.record(System.nanoTime(), READ_HALF_LIFE);
+    }
+
+    /** Records a change in the number of files hosted. */
+    void addFiles(long delta)
+    {
+        files.addAndGet(delta);
+    }
+
+    /** Records that a command has been issued. Must be paired with a call
+        to <code>end</code>. */
+    void begin()
+    {
+        in_flight.incrementAndGet();
+    }
+
+    /** Records that a command has completed. */
+    void end()
+    {
+        in_flight.decrementAndGet();
+    }
+}
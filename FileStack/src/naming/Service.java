@@ -160,6 +160,73 @@ public interface Service
     public String[] list(Path directory)
         throws RMIException, FileNotFoundException;
 
+    /** Lists the contents of a directory one page at a time.
+
+        <p>
+        Names are returned in lexicographic order, as given by
+        <code>String.compareTo</code>. Each page holds at most
+        <code>limit</code> names; the naming server may return fewer. A
+        listing is started by passing <code>null</code> as
+        <code>after</code>, and continued by passing the last name of the
+        previous page. The listing is complete when an empty page is returned.
+        No state is kept on the naming server between pages.
+
+        <p>
+        The directory should be locked for shared access before each call is
+        made. The directory may change between calls: a listing returns every
+        name that exists for its whole duration exactly once, and may or may
+        not return names created or deleted while it is in progress.
+
+        @param directory The directory to be listed.
+        @param after Name after which the page starts, or <code>null</code> to
+                     start from the first name. It need not exist.
+        @param limit Largest number of names to return.
+        @return A page of directory entries.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public String[] list(Path directory, String after, int limit)
+        throws RMIException, FileNotFoundException;
+
+    /** Lists the files and directories under a directory, at any depth, one
+        page at a time.
+
+        <p>
+        Entries are listed in the order of their paths, as given by
+        <code>Path.compareTo</code>, so that each directory is followed by
+        the entries under it. Each page holds at most <code>limit</code>
+        entries; the naming server may return fewer. A walk is started by
+        passing <code>null</code> as <code>after</code>, and continued by
+        passing the cursor of the previous page. No state is kept on the
+        naming server between pages.
+
+        <p>
+        The directory should be locked for shared access before each call is
+        made. The tree may change between calls: a walk lists every entry
+        that exists for its whole duration exactly once, and may or may not
+        list entries created or deleted while it is in progress.
+
+        @param directory The directory to be walked.
+        @param after Path after which the page starts, or <code>null</code>
+                     to start from the first entry. This is normally the
+                     cursor of the previous page. It need not exist.
+        @param limit Largest number of entries to return.
+        @return A page of entries.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws IllegalArgumentException If <code>after</code> is not under
+                                         <code>directory</code>, or if
+                                         <code>limit</code> is not positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public WalkPage walk(Path directory, Path after, int limit)
+        throws RMIException, FileNotFoundException;
+
     /** Creates the given file, if it does not exist.
 
         <p>
@@ -222,6 +289,13 @@ public interface Service
         to perform calls to <code>write</code>, it should lock the file for
         exclusive access.
 
+        <p>
+        If the file has been replicated, the naming server may return the
+        storage server holding any up-to-date copy, in order to spread read
+        load. Replicas are invalidated when the file is locked for exclusive
+        access, so a client holding the exclusive lock is always given the
+        server hosting the primary copy.
+
         @param file Path to the file.
         @return A stub for communicating with the storage server.
         @throws FileNotFoundException If the file does not exist.
@@ -230,4 +304,173 @@ public interface Service
      */
     public Storage getStorage(Path file)
         throws RMIException, FileNotFoundException;
+
+    /** Returns every storage server hosting a file, with the file's size and
+        version.
+
+        <p>
+        The file should be locked for shared access before this call is made,
+        and for as long as the returned servers are used. Any of the servers
+        may then be used for calls to <code>read</code> and <code>size</code>,
+        so a client may spread its reads over the copies. The server hosting
+        the primary copy is listed first; it is the only server listed while
+        the file is locked for exclusive access, and the only one to which
+        <code>write</code> calls may be made.
+
+        <p>
+        The size is taken from the naming server's metadata where possible,
+        which spares the client a call to <code>Storage.size</code>. It is
+        given as -1 if the naming server cannot determine it.
+
+        @param file Path to the file.
+        @return The locations and metadata of the file.
+        @throws FileNotFoundException If the file does not exist.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public FileLocations getLocations(Path file)
+        throws RMIException, FileNotFoundException;
+
+    /** Returns the metadata of many paths at once.
+
+        <p>
+        For each path, the naming server reports whether it exists and
+        whether it is a directory, and for files, the size, the modification
+        time, the storage server hosting the primary copy and the number of
+        replicas. A path that does
+        not exist does not cause the call to fail: its entry in the result
+        reports that it does not exist.
+
+        <p>
+        The size is taken from the naming server's metadata where possible,
+        as with <code>getLocations</code>. It is given as -1 if the naming
+        server cannot determine it.
+
+        <p>
+        The paths need not be locked. The metadata of each path is consistent
+        as of some moment during the call, but paths may change between the
+        moments at which they are examined.
+
+        @param paths Paths to be examined.
+        @return The metadata of each path, in the same order as the paths.
+        @throws NullPointerException If <code>paths</code> or any of its
+                                     elements is <code>null</code>.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public PathStat[] stat(Path[] paths) throws RMIException;
+
+    /** Returns the number of files and directories under a directory, and
+        the total size of the files.
+
+        <p>
+        The naming server answers from the sizes it already knows, which
+        storage servers report as files are written. No storage server is
+        contacted, so files whose size the naming server does not know are
+        counted separately.
+
+        <p>
+        The directory should be locked for shared access before this call is
+        made.
+
+        @param directory The directory.
+        @return The usage of the directory.
+        @throws FileNotFoundException If the given path does not refer to a
+                                      directory.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public DirectoryUsage usage(Path directory)
+        throws RMIException, FileNotFoundException;
+
+    /** Returns the mount table of a partitioned namespace.
+
+        <p>
+        When the namespace is split into partitions served by several naming
+        servers, each of them returns the same table, which clients use to
+        send each request to the naming server owning the path concerned.
+        <code>NamingStubs.routedService</code> does this.
+
+        @return The mount table, or <code>null</code> if this naming server
+                holds the whole namespace.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public MountTable getMountTable() throws RMIException;
+
+    /** Returns the mutations of the namespace following the given sequence
+        number, for a follower naming server.
+
+        <p>
+        A follower serves the read-only methods of this interface from a copy
+        of the namespace, which it keeps up to date by calling this method
+        on the leader with the sequence number of the last mutation it has
+        applied. Only mutations that the leader has made durable are
+        returned. A follower that has applied none, or that has fallen
+        further behind than the leader keeps mutations in memory, is sent a
+        checkpoint of the whole namespace instead.
+
+        @param after Sequence number of the last mutation applied, or -1 if
+                     none.
+        @param limit Largest number of mutations returned.
+        @return The page of mutations.
+        @throws IllegalStateException If this naming server does not journal
+                                      its namespace, or is itself a follower.
+        @throws IllegalArgumentException If <code>limit</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public MutationPage mutations(long after, int limit) throws RMIException;
+
+    /** Returns a chunk of a checkpoint written for a follower naming server.
+
+        <p>
+        A page returned by <code>mutations</code> that holds a checkpoint
+        only identifies it. The follower reads the checkpoint by calling this
+        method with successive offsets until it has the whole image. The
+        leader deletes the checkpoint once its last chunk has been read, or
+        once it has gone unread for some time.
+
+        @param transfer Identifier of the checkpoint, from the page.
+        @param offset Position of the first byte of the chunk.
+        @param length Largest number of bytes returned.
+        @return The chunk. It is shorter than <code>length</code> if it is
+                the last, or if the leader limits the size of chunks.
+        @throws IllegalStateException If there is no such checkpoint, or if
+                                      this naming server is itself a
+                                      follower.
+        @throws IllegalArgumentException If <code>offset</code> is negative,
+                                         or <code>length</code> is not
+                                         positive.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public byte[] checkpointChunk(long transfer, long offset, int length)
+        throws RMIException;
+
+    /** Returns how many mutations a follower naming server lags behind its
+        leader.
+
+        @return The number of mutations the leader had made durable, when the
+                follower last polled it, that the follower has not yet
+                applied, or zero if this naming server is not a follower.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public long replicationLag() throws RMIException;
+
+    /** Returns how long ago a follower naming server last had every mutation
+        its leader made durable.
+
+        <p>
+        A follower refuses reads while this time exceeds the staleness it
+        allows.
+
+        @return The time in milliseconds, or zero if this naming server is
+                not a follower.
+        @throws RMIException If the call cannot be completed due to a network
+                             error.
+     */
+    public long staleness() throws RMIException;
 }
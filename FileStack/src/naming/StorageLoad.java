@@ -0,0 +1,70 @@
+package naming;
+
+import java.io.Serializable;
+
+/** Load and capacity of a storage server, as reported in a heartbeat.
+
+    <p>
+    Storage servers send a <code>StorageLoad</code> object to the naming
+    server with each call to <code>Registration.heartbeat</code>. The space
+    figures are those of the local filesystem holding the storage server's
+    directory, so servers sharing a filesystem report the same space.
+ */
+public class StorageLoad implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Total space of the filesystem, in bytes. */
+    private final long          capacity;
+    /** Space available to the storage server, in bytes. */
+    private final long          free;
+    /** Number of client requests served since the previous heartbeat. */
+    private final long          requests;
+
+    /** Creates a <code>StorageLoad</code> object.
+
+        @param capacity Total space of the filesystem holding the storage
+                        server's files, in bytes.
+        @param free Space still available to the storage server, in bytes.
+        @param requests Number of client requests served since the previous
+                        heartbeat.
+        @throws IllegalArgumentException If any figure is negative, or if
+                                         there is more free space than
+                                         capacity.
+     */
+    public StorageLoad(long capacity, long free, long requests)
+    {
+        if(capacity < 0 || free < 0 || requests < 0 || free > capacity)
+            throw new IllegalArgumentException("impossible storage load");
+
+        this.capacity = capacity;
+        this.free = free;
+        this.requests = requests;
+    }
+
+    /** Returns the total space of the filesystem, in bytes. */
+    public long capacity()
+    {
+        return capacity;
+    }
+
+    /** Returns the space still available to the storage server, in
+        bytes. */
+    public long free()
+    {
+        return free;
+    }
+
+    /** Returns the space already in use on the filesystem, in bytes. */
+    public long used()
+    {
+        return capacity - free;
+    }
+
+    /** Returns the number of client requests served since the previous
+        heartbeat. */
+    public long requests()
+    {
+        return requests;
+    }
+}
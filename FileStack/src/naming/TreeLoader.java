@@ -0,0 +1,290 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import common.Path;
+import storage.Storage;
+
+/** Links the files listed by a registering storage server into the tree.
+
+    <p>
+    The paths are sorted first, so that the paths under each directory are
+    adjacent. The loader keeps the chain of directories leading to the
+    previous file, and for each file goes back only to the deepest directory
+    it shares with the previous file, finding or creating the remaining
+    directories from there. Each directory is therefore looked up once per
+    run of files under it rather than once per file, and a <code>Path</code>
+    is only allocated for the directories that are created.
+
+    <p>
+    Large batches are partitioned by parent directory, and runs of
+    partitions are linked in parallel on a fork/join pool. Every directory
+    keeps its children in a concurrent map, and directories are created with
+    <code>putIfAbsent</code>, so runs that share directories may be linked at
+    the same time. Storage servers register their files in batches, each
+    listing a few directories, so the threshold is below the size of a
+    batch.
+ */
+class TreeLoader
+{
+    /** Batches of at least this many paths are linked in parallel. Half the
+        number of paths a storage server sends in each batch. */
+    static final int                    PARALLEL_THRESHOLD = 512;
+    /** Number of paths below which a task is not divided further. */
+    private static final int            TASK_PATHS = 128;
+
+    /** Pool on which large batches are linked. Its threads are daemons. */
+    private static final ForkJoinPool   pool = new ForkJoinPool();
+
+    /** Server into whose tree the files are linked. */
+    private final NamingServer          server;
+    /** Storage server holding the files. */
+    private final Storage               storage;
+    /** Number by which the journal refers to the storage server. */
+    private final int                   id;
+    /** Paths to the files, sorted. */
+    private final Path[]                paths;
+    /** Set for each path that is a duplicate. */
+    private final boolean[]             duplicate;
+    /** Index of the first path of each partition, followed by the number of
+        paths. */
+    private final int[]                 partitions;
+    /** Number of files linked. */
+    private final AtomicInteger         added = new AtomicInteger();
+
+    /** Creates a loader for the given files.
+
+        @param server Server into whose tree the files are to be linked.
+        @param storage Storage server holding the files.
+        @param files Paths to the files, in any order.
+     */
+    TreeLoader(NamingServer server, Storage storage, Path[] files)
+    {
+        this.server = server;
+        this.storage = storage;
+        id = server.storageId(storage);
+        paths = files.clone();
+        Arrays.sort(paths);
+        duplicate = new boolean[paths.length];
+
+        // Paths with the same parent are adjacent once sorted.
+        ArrayList<Integer>  starts = new ArrayList<Integer>();
+        Path                previous = null;
+
+        for(int index = 0; index < paths.length; ++index)
+        {
+            Path            parent =
+                paths[index].isRoot() ? null : paths[index].parent();
+
+            if(index == 0 || parent == null || !parent.equals(previous))
+                starts.add(index);
+
+            previous = parent;
+        }
+
+        starts.add(paths.length);
+        partitions = new int[starts.size()];
+
+        for(int index = 0; index < partitions.length; ++index)
+            partitions[index] = starts.get(index);
+    }
+
+    /** Links the files, in parallel if the batch is large.
+
+        @return Sequence number of the last journal record written, or -1 if
+                none was written.
+     */
+    long load()
+    {
+        return load(paths.length >= PARALLEL_THRESHOLD);
+    }
+
+    /** Links the files.
+
+        @param parallel If <code>true</code>, the partitions are linked on the
+                        fork/join pool. Otherwise, all files are linked on the
+                        calling thread.
+        @return Sequence number of the last journal record written, or -1 if
+                none was written.
+     */
+    long load(boolean parallel)
+    {
+        if(paths.length == 0)
+            return -1;
+
+        if(!parallel)
+            return link(0, paths.length);
+
+        return pool.invoke(new Partitions(0, partitions.length - 1));
+    }
+
+    /** Returns the number of files linked. */
+    int added()
+    {
+        return added.get();
+    }
+
+    /** Returns the paths that could not be linked and are not already
+        hosted by the storage server. */
+    Path[] duplicates()
+    {
+        ArrayList<Path>     result = new ArrayList<Path>();
+
+        for(int index = 0; index < paths.length; ++index)
+        {
+            if(duplicate[index])
+                result.add(paths[index]);
+        }
+
+        return result.toArray(new Path[result.size()]);
+    }
+
+    /** Links a run of the sorted paths on the calling thread.
+
+        @param from Index of the first path.
+        @param to Index after the last path.
+        @return Sequence number of the last journal record written, or -1 if
+                none was written.
+     */
+    private long link(int from, int to)
+    {
+        // chain[depth] is the directory named by the first depth components
+        // of the previous file, and names holds those components.
+        Node[]              chain = new Node[8];
+        String[]            names = new String[8];
+        String[]            components = new String[8];
+        int                 depth = 0;
+        long                sequence = -1;
+        int                 linked = 0;
+
+        chain[0] = server.root;
+
+        for(int index = from; index < to; ++index)
+        {
+            Path            path = paths[index];
+
+            if(path.isRoot())
+                continue;
+
+            int             length = 0;
+
+            for(String component : path)
+            {
+                if(length == components.length)
+                    components = Arrays.copyOf(components, 2 * length);
+
+                components[length++] = component;
+            }
+
+            if(chain.length < length)
+            {
+                chain = Arrays.copyOf(chain, 2 * length);
+                names = Arrays.copyOf(names, 2 * length);
+            }
+
+            // Keep the directories shared with the previous file, unless a
+            // concurrent delete has removed them from the tree.
+            int             shared = 0;
+
+            while(shared < depth && shared < length - 1 &&
+                  names[shared].equals(components[shared]) &&
+                  !chain[shared + 1].unlinked)
+            {
+                ++shared;
+            }
+
+            depth = shared;
+
+            try
+            {
+                Node        parent = chain[depth];
+
+                while(parent != null && depth < length - 1)
+                {
+                    parent = server.makeDirectory(parent, components[depth],
+                                                  storage);
+
+                    if(parent != null)
+                    {
+                        names[depth] = components[depth];
+                        chain[++depth] = parent;
+                    }
+                }
+
+                Node        file = parent == null ? null
+                    : server.linkFile(parent, storage, path);
+
+                if(file != null)
+                {
+                    ++linked;
+                    sequence = Math.max(sequence, server.journalCreation(
+                        file, JournalRecord.CREATE_FILE, id));
+                }
+                else if(!server.hosts(storage, path))
+                    duplicate[index] = true;
+            }
+            catch(Exception e)
+            {
+                duplicate[index] = true;
+            }
+        }
+
+        added.addAndGet(linked);
+        return sequence;
+    }
+
+    /** Task linking a range of partitions. */
+    private class Partitions extends RecursiveTask<Long>
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Index of the first partition. */
+        private final int   first;
+        /** Index after the last partition. */
+        private final int   last;
+
+        /** Creates a task linking partitions <code>first</code> up to but
+            excluding <code>last</code>. */
+        Partitions(int first, int last)
+        {
+            this.first = first;
+            this.last = last;
+        }
+
+        /** Links the partitions, dividing them between two tasks if there
+            are many paths in them.
+
+            @return Sequence number of the last journal record written, or -1
+                    if none was written.
+         */
+        @Override
+        protected Long compute()
+        {
+            int             from = partitions[first];
+            int             to = partitions[last];
+
+            if(last - first == 1 || to - from <= TASK_PATHS)
+                return link(from, to);
+
+            // Split at the partition boundary nearest the middle path.
+            int             split =
+                Arrays.binarySearch(partitions, first + 1, last,
+                                    (from + to) >>> 1);
+
+            if(split < 0)
+                split = -split - 1;
+
+            split = Math.max(first + 1, Math.min(last - 1, split));
+
+            Partitions      left = new Partitions(first, split);
+
+            left.fork();
+
+            long            right = new Partitions(split, last).compute();
+
+            return Math.max(left.join(), right);
+        }
+    }
+}
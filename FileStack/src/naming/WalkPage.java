@@ -0,0 +1,95 @@
+package naming;
+
+import java.io.Serializable;
+
+import common.Path;
+
+/** Page of the entries under a directory, as returned by
+    <code>Service.walk</code>.
+
+    <p>
+    A <code>WalkPage</code> lists files and directories under a directory in
+    the order of their paths, each directory followed by the entries under
+    it. For each entry it gives whether the entry is a directory and, for
+    files, the size if the naming server knows it. Unless the page completes
+    the walk, its cursor is passed to the next call to <code>walk</code> to
+    obtain the following page.
+ */
+public class WalkPage implements Serializable
+{
+    private static final long   serialVersionUID = 1L;
+
+    /** Paths to the entries. */
+    private final Path[]        paths;
+    /** Whether each entry is a directory. */
+    private final boolean[]     directories;
+    /** Size of each entry in bytes, or -1 if not known. */
+    private final long[]        sizes;
+    /** Whether the page holds the last entries under the directory. */
+    private final boolean       complete;
+
+    /** Creates a <code>WalkPage</code> object.
+
+        @param paths Paths to the entries, in order.
+        @param directories Whether each entry is a directory.
+        @param sizes Size of each entry in bytes, or -1 if not known. The size
+                     of a directory is always -1.
+        @param complete <code>true</code> if there are no entries after
+                        those listed.
+        @throws IllegalArgumentException If the arrays differ in length.
+     */
+    public WalkPage(Path[] paths, boolean[] directories, long[] sizes,
+                    boolean complete)
+    {
+        if(paths.length != directories.length || paths.length != sizes.length)
+            throw new IllegalArgumentException("arrays differ in length");
+
+        this.paths = paths.clone();
+        this.directories = directories.clone();
+        this.sizes = sizes.clone();
+        this.complete = complete;
+    }
+
+    /** Returns the number of entries in the page. */
+    public int count()
+    {
+        return paths.length;
+    }
+
+    /** Returns the path to an entry. */
+    public Path path(int index)
+    {
+        return paths[index];
+    }
+
+    /** Returns <code>true</code> if an entry is a directory. */
+    public boolean isDirectory(int index)
+    {
+        return directories[index];
+    }
+
+    /** Returns the size of an entry in bytes, or -1 if the entry is a
+        directory or the naming server does not know its size. */
+    public long size(int index)
+    {
+        return sizes[index];
+    }
+
+    /** Returns <code>true</code> if there are no entries after those in the
+        page. */
+    public boolean complete()
+    {
+        return complete;
+    }
+
+    /** Returns the cursor from which the walk continues, or
+        <code>null</code> if the page completes the walk. The cursor is the
+        path to the last entry in the page. */
+    public Path cursor()
+    {
+        if(complete || paths.length == 0)
+            return null;
+
+        return paths[paths.length - 1];
+    }
+}
@@ -17,7 +17,9 @@
     creation and deletion is synchronized between the naming server and the
     storage servers: for instance, the file creation operation does not complete
     on the naming server until the storage server has confirmed it has created
-    an empty file of the same name.
+    an empty file of the same name. Deletion may instead be made to complete
+    on the naming server at once, leaving <em>tombstones</em> from which the
+    storage servers are told to delete their copies in the background.
 
     <p>
     Upon startup, the storage servers inform the naming server of which files
@@ -32,5 +34,17 @@
     for storage servers, and a <em>registration interface</em>, through which
     storage servers notify the naming server of their existence. Both interfaces
     are RMI skeletons running at well-known ports.
+
+    <p>
+    The namespace may also be split into subtrees served by several naming
+    servers. A <em>mount table</em> maps the mount point of each subtree to the
+    naming server serving it, and clients use it to send each request directly
+    to the naming server owning the path concerned.
+
+    <p>
+    A naming server that journals its namespace may also have read-only
+    <em>followers</em>, which copy its namespace and apply its mutations as
+    it makes them durable. Clients may send reads to followers, and locks and
+    mutations to the leader.
  */
 package naming;
@@ -2,6 +2,17 @@ package storage;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
 
 import common.*;
 import rmi.*;
@@ -21,6 +32,32 @@ public class StorageServer implements Storage, Command
 	Skeleton<Storage> clientSkeleton;
 	Skeleton<Command> commandSkeleton;
 	
+	//Number of files sent to the naming server in each registration batch
+	static final int REGISTRATION_BATCH = 1024;
+	
+	//Naming server with which the server registered, and the stub it was
+	//given, to which the size of each file written is reported
+	private volatile Registration namingServer;
+	private volatile Storage clientStub;
+	
+	//Interval between heartbeats sent to the naming server, in milliseconds
+	static final long HEARTBEAT_INTERVAL = 1000;
+	
+	//Sends the heartbeats once the server has registered
+	private Timer heartbeats;
+	
+	//Number of client requests served since the last heartbeat
+	private final AtomicLong requests = new AtomicLong();
+	
+	//Files written whose attributes have not yet been reported to the naming
+	//server. Reports that cannot be delivered are sent again with the next
+	//heartbeat. Guarded by the storage server's monitor.
+	private final LinkedHashSet<Path> unreported = new LinkedHashSet<Path>();
+	
+	//Held while attributes are sent to the naming server, so that reports
+	//reach it in the order in which the attributes were read
+	private final Object reporting = new Object();
+	
     /** Creates a storage server, given a directory on the local filesystem.
 
         @param root Directory on the local filesystem. The contents of this
@@ -91,11 +128,203 @@ public class StorageServer implements Storage, Command
         
         Storage clientStub = (Storage) Stub.create(Storage.class, clientSkeleton, hostname);
         Command cmmdStub = (Command) Stub.create(Command.class, commandSkeleton, hostname);
+        this.namingServer = naming_server;
+        this.clientStub = clientStub;
+        
+        //A naming server that still knows this storage server from before it
+        //restarted is only sent the directories whose contents have changed
+        long registration = -1;
+        try
+        {
+        	registration =
+        			naming_server.resumeRegistration(clientStub, cmmdStub);
+        }
+        catch(IllegalStateException e) { }
         
-        Path[] files = Path.list(root);
-    	Path[] duplicateFiles = naming_server.register(
-    			clientStub, cmmdStub, files);
+        if(registration >= 0)
+        {
+        	resumeRegistration(naming_server, registration);
+        	naming_server.endRegistration(registration);
+        	startHeartbeats();
+        	return;
+        }
+        
+        //Files are sent in batches as the directory tree is walked, so that
+        //the whole file list is never held in memory
+        registration = naming_server.beginRegistration(clientStub, cmmdStub);
+        ArrayList<Path> batch = new ArrayList<Path>(REGISTRATION_BATCH);
+        registerFiles(naming_server, registration, root, new Path(), batch);
+        sendBatch(naming_server, registration, batch);
+        naming_server.endRegistration(registration);
+        startHeartbeats();
+    }
+    
+    //Starts sending the naming server heartbeats, by which it knows that this
+    //server is alive
+    private void startHeartbeats()
+    {
+    	heartbeats = new Timer("heartbeat", true);
+    	heartbeats.schedule(new TimerTask()
+    	{
+    		@Override
+    		public void run()
+    		{
+    			sendHeartbeat();
+    		}
+    	}, 0, HEARTBEAT_INTERVAL);
+    }
+    
+    //Reports the space on the local filesystem and the number of requests
+    //served to the naming server. A heartbeat that cannot be delivered is
+    //not retried: the next one follows shortly.
+    private void sendHeartbeat()
+    {
+    	reportPending();
+    	long capacity = root.getTotalSpace();
+    	long free = Math.min(root.getUsableSpace(), capacity);
+    	try
+    	{
+    		namingServer.heartbeat(clientStub,
+    				new StorageLoad(capacity, free, requests.getAndSet(0)));
+    	}
+    	catch(RMIException e) { }
+    	catch(IllegalStateException e) { }
+    }
+    
+    //Descends from the root through the directories whose digests differ from
+    //the naming server's, sending the contents of each
+    private void resumeRegistration(Registration naming_server,
+    		long registration) throws RMIException
+    {
+    	HashMap<Path, byte[]> digests = new HashMap<Path, byte[]>();
+    	digest(root, new Path(), digests);
+    	
+    	ArrayDeque<Path> pending = new ArrayDeque<Path>();
+    	pending.add(new Path());
+    	while(!pending.isEmpty())
+    	{
+    		Path[] directories =
+    				new Path[Math.min(pending.size(), REGISTRATION_BATCH)];
+    		byte[][] sent = new byte[directories.length][];
+    		for(int i = 0; i < directories.length; ++i)
+    		{
+    			directories[i] = pending.poll();
+    			sent[i] = digests.get(directories[i]);
+    		}
+    		
+    		for(Path directory : naming_server.compareDigests(
+    				registration, directories, sent))
+    		{
+    			ArrayList<Path> files = new ArrayList<Path>();
+    			ArrayList<Path> subdirectories = new ArrayList<Path>();
+    			String[] names = directory.toFile(root).list();
+    			if(names != null)
+    			{
+    				for(String name : names)
+    				{
+    					Path p = new Path(directory, name);
+    					if(digests.containsKey(p))
+    						subdirectories.add(p);
+    					else if(p.toFile(root).isFile())
+    						files.add(p);
+    				}
+    			}
+    			
+    			deleteDuplicates(naming_server.syncDirectory(registration,
+    					directory, files.toArray(new Path[files.size()]),
+    					subdirectories.toArray(
+    							new Path[subdirectories.size()])));
+    			pending.addAll(subdirectories);
+    		}
+    	}
+    }
+    
+    //Computes the digest of the files under a local directory, recording the
+    //digest of every directory under which there are files. Returns null if
+    //there are no files under the directory.
+    private byte[] digest(File directory, Path path, Map<Path, byte[]> digests)
+    {
+    	String[] names = directory.list();
+    	if(names == null)
+    		return null;
+    	Arrays.sort(names);
+    	
+    	DirectoryDigest digest = new DirectoryDigest();
+    	for(String name : names)
+    	{
+    		File f = new File(directory, name);
+    		if(f.isDirectory())
+    			digest.addDirectory(name,
+    					digest(f, new Path(path, name), digests));
+    		else if(f.isFile())
+    			digest.addFile(name);
+    	}
+    	
+    	byte[] result = digest.finish();
+    	if(result != null)
+    		digests.put(path, result);
+    	return result;
+    }
+    
+    //Walks a local directory, adding its files to the current batch and
+    //sending the batch whenever it is full
+    private void registerFiles(Registration naming_server, long registration,
+    		File directory, Path path, ArrayList<Path> batch) throws RMIException
+    {
+    	DirectoryStream<java.nio.file.Path> entries;
+    	try
+    	{
+    		entries = Files.newDirectoryStream(directory.toPath());
+    	}
+    	catch(IOException e)
+    	{
+    		//A directory pruned after its last duplicate was deleted, or one
+    		//that cannot be read; its files are not offered
+    		return;
+    	}
     	
+    	try
+    	{
+    		for(java.nio.file.Path entry : entries)
+    		{
+    			File f = entry.toFile();
+    			Path p = new Path(path, f.getName());
+    			if(f.isDirectory())
+    				registerFiles(naming_server, registration, f, p, batch);
+    			else if(f.isFile())
+    			{
+    				batch.add(p);
+    				if(batch.size() == REGISTRATION_BATCH)
+    					sendBatch(naming_server, registration, batch);
+    			}
+    		}
+    	}
+    	finally
+    	{
+    		try
+    		{
+    			entries.close();
+    		}
+    		catch(IOException e) { }
+    	}
+    }
+    
+    //Sends a batch of files and deletes the duplicates the naming server
+    //returns
+    private void sendBatch(Registration naming_server, long registration,
+    		ArrayList<Path> batch) throws RMIException
+    {
+    	if(batch.isEmpty())
+    		return;
+    	Path[] duplicateFiles = naming_server.registerBatch(
+    			registration, batch.toArray(new Path[batch.size()]));
+    	batch.clear();
+    	deleteDuplicates(duplicateFiles);
+    }
+    
+    //Deletes the files the naming server has found to be duplicates
+    private void deleteDuplicates(Path[] duplicateFiles)
+    {
     	// delete all duplicate files
     	for(Path p : duplicateFiles)
     	{
@@ -103,7 +332,6 @@ public class StorageServer implements Storage, Command
         	// prune all empty directories
         	deleteEmpty(new File(p.toFile(root).getParent()));
     	}
-        
     }
     
     
@@ -112,7 +340,8 @@ public class StorageServer implements Storage, Command
     	while(!parent.equals(root))
     	{
     		// Delete if the parent does not have any children
-    		if(parent.list().length == 0) {
+    		String[] children = parent.list();
+    		if(children != null && children.length == 0) {
     			parent.delete();
     		} else {
     			break;
@@ -129,6 +358,12 @@ public class StorageServer implements Storage, Command
      */
     public void stop()
     {
+        synchronized(this)
+        {
+            if(heartbeats != null)
+                heartbeats.cancel();
+        }
+
         clientSkeleton.stop();
         commandSkeleton.stop();
         stopped(null);
@@ -147,6 +382,7 @@ public class StorageServer implements Storage, Command
     @Override
     public synchronized long size(Path file) throws FileNotFoundException
     {
+        requests.incrementAndGet();
         File f = file.toFile(root);
         if(!f.exists() || !f.isFile())
         	throw new FileNotFoundException();
@@ -157,6 +393,7 @@ public class StorageServer implements Storage, Command
     public synchronized byte[] read(Path file, long offset, int length)
         throws FileNotFoundException, IOException
     {
+        requests.incrementAndGet();
         File f = file.toFile(root);
 
         //Checks for exceptions
@@ -173,33 +410,100 @@ public class StorageServer implements Storage, Command
     }
 
     @Override
-    public synchronized void write(Path file, long offset, byte[] data)
+    public void write(Path file, long offset, byte[] data)
         throws FileNotFoundException, IOException
     {
+    	requests.incrementAndGet();
     	File f = file.toFile(root);
 
-    	//Checks for exceptions
-        if(!f.exists() || !f.isFile())
-        	throw new FileNotFoundException();
-        
-        if( offset<0 )
-        	throw new IndexOutOfBoundsException();
-        
-        InputStream in = new FileInputStream(f);
-        long len = Math.min(offset, f.length());
-        byte[] offsets = new byte[(int)len];
-        in.read(offsets);
-        
-        FileOutputStream out = new FileOutputStream(f);
-        out.write(offsets, 0 , (int)len);
-        
-        int diff = (int)(offset - f.length());
-        
-        if(diff > 0)
-        	for(int i = 0; i<diff ; i++)
-        		out.write(0);
-        
-        out.write(data);
+    	synchronized(this)
+    	{
+	    	//Checks for exceptions
+	        if(!f.exists() || !f.isFile())
+	        	throw new FileNotFoundException();
+	        
+	        if( offset<0 )
+	        	throw new IndexOutOfBoundsException();
+	        
+	        InputStream in = new FileInputStream(f);
+	        long len = Math.min(offset, f.length());
+	        byte[] offsets = new byte[(int)len];
+	        in.read(offsets);
+	        in.close();
+	        
+	        FileOutputStream out = new FileOutputStream(f);
+	        out.write(offsets, 0 , (int)len);
+	        
+	        int diff = (int)(offset - f.length());
+	        
+	        if(diff > 0)
+	        	for(int i = 0; i<diff ; i++)
+	        		out.write(0);
+	        
+	        out.write(data);
+	        out.close();
+	        unreported.add(file);
+    	}
+    	
+    	//The size is reported before the write returns, but outside the
+    	//monitor, so that other requests do not wait for the naming server
+    	reportPending();
+    }
+    
+    //Sends the naming server the current size and modification time of the
+    //files written since the last report. Files deleted since are left out.
+    //A report that cannot be delivered is sent again with the next
+    //heartbeat, so that the naming server does not keep the size a file had
+    //before it was written.
+    private void reportPending()
+    {
+    	Registration naming_server = namingServer;
+    	if(naming_server == null)
+    		return;
+    	synchronized(reporting)
+    	{
+    		ArrayList<Path> files;
+    		long[] sizes;
+    		long[] modified;
+    		synchronized(this)
+    		{
+    			if(unreported.isEmpty())
+    				return;
+    			files = new ArrayList<Path>(unreported.size());
+    			ArrayList<File> local = new ArrayList<File>(unreported.size());
+    			for(Path file : unreported)
+    			{
+    				File f = file.toFile(root);
+    				if(f.isFile())
+    				{
+    					files.add(file);
+    					local.add(f);
+    				}
+    			}
+    			sizes = new long[files.size()];
+    			modified = new long[files.size()];
+    			for(int i = 0; i < sizes.length; ++i)
+    			{
+    				sizes[i] = local.get(i).length();
+    				modified[i] = local.get(i).lastModified();
+    			}
+    			unreported.clear();
+    		}
+    		if(files.isEmpty())
+    			return;
+    		try
+    		{
+    			naming_server.updateAttributes(clientStub,
+    					files.toArray(new Path[files.size()]), sizes, modified);
+    		}
+    		catch(RMIException e)
+    		{
+    			synchronized(this)
+    			{
+    				unreported.addAll(files);
+    			}
+    		}
+    	}
     }
 
     // The following methods are documented in Command.java.
@@ -0,0 +1,96 @@
+package test;
+
+import java.io.*;
+import java.util.concurrent.atomic.*;
+
+import common.*;
+import storage.*;
+
+/** Storage server that stores nothing.
+
+    <p>
+    Unit tests and benchmarks register instances of this class directly with an
+    in-process naming server, which then talks to them through plain method
+    calls instead of RMI stubs. Every command succeeds immediately, so the
+    naming server can be exercised without any network or disk activity.
+
+    <p>
+    Each instance has a unique name, by which it is compared, like a stub is
+    compared by its address. Instances are serializable, and a deserialized
+    copy is equal to the original, so they can stand in for stubs in the
+    naming server's journal.
+ */
+public class NullStorageServer implements Storage, Command, Serializable
+{
+    private static final long           serialVersionUID = 1L;
+
+    /** Source of instance names. */
+    private static final AtomicInteger  instances = new AtomicInteger();
+
+    /** Name of this instance. */
+    private final String                name =
+        "null-storage-" + instances.incrementAndGet();
+
+    /** Compares two storage servers by name. */
+    @Override
+    public boolean equals(Object other)
+    {
+        return other instanceof NullStorageServer &&
+               ((NullStorageServer)other).name.equals(name);
+    }
+
+    /** Returns the hash code of the name. */
+    @Override
+    public int hashCode()
+    {
+        return name.hashCode();
+    }
+
+    /** Returns the name of the storage server. */
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+
+    /** Returns zero. */
+    @Override
+    public long size(Path file)
+    {
+        return 0;
+    }
+
+    /** Returns an array of zero bytes of the requested length. */
+    @Override
+    public byte[] read(Path file, long offset, int length)
+    {
+        return new byte[length];
+    }
+
+    /** Discards the data. */
+    @Override
+    public void write(Path file, long offset, byte[] data)
+    {
+    }
+
+    /** Returns <code>true</code>. */
+    @Override
+    public boolean create(Path file)
+    {
+        return true;
+    }
+
+    /** Returns <code>true</code>. */
+    @Override
+    public boolean delete(Path path)
+    {
+        return true;
+    }
+
+    /** Returns <code>true</code>. */
+    @Override
+    public boolean copy(Path file, Storage server)
+    {
+        return true;
+    }
+}
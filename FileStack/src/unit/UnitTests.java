@@ -7,6 +7,32 @@ import test.*;
     Tests run are:
     <ul>
     <li>{@link common.SampleUnitTest}</li>
+    <li>{@link naming.PathIndexTest}</li>
+    <li>{@link naming.HierarchicalLockTest}</li>
+    <li>{@link naming.ReplicationSchedulerTest}</li>
+    <li>{@link naming.ReplicationPolicyTest}</li>
+    <li>{@link naming.PlacementPolicyTest}</li>
+    <li>{@link naming.ConsistentHashRingTest}</li>
+    <li>{@link naming.ReadRoutingTest}</li>
+    <li>{@link naming.FileLocationsTest}</li>
+    <li>{@link naming.JournalTest}</li>
+    <li>{@link naming.CheckpointTest}</li>
+    <li>{@link naming.BatchRegistrationTest}</li>
+    <li>{@link naming.DeltaRegistrationTest}</li>
+    <li>{@link naming.BulkLoadTest}</li>
+    <li>{@link naming.WalkTest}</li>
+    <li>{@link naming.PagedListTest}</li>
+    <li>{@link naming.StatTest}</li>
+    <li>{@link naming.AttributeCacheTest}</li>
+    <li>{@link naming.PartitionTest}</li>
+    <li>{@link naming.FollowerTest}</li>
+    <li>{@link naming.DeleteTest}</li>
+    <li>{@link naming.GarbageCollectionTest}</li>
+    <li>{@link naming.HeartbeatTest}</li>
+    <li>{@link naming.RereplicationTest}</li>
+    <li>{@link naming.RecoveryRetryTest}</li>
+    <li>{@link naming.RecoveryProgressTest}</li>
+    <li>{@link naming.RebalanceTest}</li>
     </ul>
  */
 public class UnitTests
@@ -20,7 +46,33 @@ public class UnitTests
         // Create the test list, the series object, and run the test series.
         @SuppressWarnings("unchecked")
         Class<? extends Test>[]     tests =
-            new Class[] {unit.common.SampleUnitTest.class};
+            new Class[] {unit.common.SampleUnitTest.class,
+                         naming.PathIndexTest.class,
+                         naming.HierarchicalLockTest.class,
+                         naming.ReplicationSchedulerTest.class,
+                         naming.ReplicationPolicyTest.class,
+                         naming.PlacementPolicyTest.class,
+                         naming.ConsistentHashRingTest.class,
+                         naming.ReadRoutingTest.class,
+                         naming.FileLocationsTest.class,
+                         naming.JournalTest.class,
+                         naming.CheckpointTest.class,
+                         naming.BatchRegistrationTest.class,
+                         naming.DeltaRegistrationTest.class,
+                         naming.BulkLoadTest.class,
+                         naming.WalkTest.class,
+                         naming.PagedListTest.class,
+                         naming.StatTest.class,
+                         naming.AttributeCacheTest.class,
+                         naming.PartitionTest.class,
+                         naming.FollowerTest.class,
+                         naming.DeleteTest.class,
+                         naming.GarbageCollectionTest.class,
+                         naming.HeartbeatTest.class,
+                         naming.RereplicationTest.class,
+                         naming.RecoveryRetryTest.class,
+                         naming.RecoveryProgressTest.class,
+                         naming.RebalanceTest.class};
         Series                      series = new Series(tests);
         SeriesReport                report = series.run(3, System.out);
 
@@ -0,0 +1,124 @@
+package naming;
+
+import test.*;
+import common.*;
+
+/** Unit test for the naming server's cache of file sizes and modification
+    times.
+
+    <p>
+    The test checks that a newly created file is known to be empty, that
+    sizes and times reported by the primary storage server are served
+    without asking it, that reports from other servers and reports older
+    than the last are ignored, and that a size reported while a file is
+    locked for exclusive access survives the unlock, while a size not
+    reported again is forgotten. It then checks the usage of a directory
+    tree, including a file whose size is not known.
+ */
+public class AttributeCacheTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server file attribute cache";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        final int[]         size_calls = new int[1];
+        NullStorageServer   primary = new NullStorageServer()
+        {
+            @Override
+            public long size(Path file)
+            {
+                ++size_calls[0];
+                return 7;
+            }
+        };
+        NullStorageServer   other = new NullStorageServer();
+        Path                created = new Path("/d/created");
+        Path                written = new Path("/d/e/written");
+        Path                registered = new Path("/d/e/registered");
+
+        try
+        {
+            server.register(primary, primary,
+                            new Path[] {written, registered});
+            server.createFile(created);
+
+            PathStat[]      stats = server.stat(new Path[] {created});
+
+            if(stats[0].size() != 0 || size_calls[0] != 0)
+                throw new TestFailed("new file not known to be empty");
+
+            server.updateAttributes(primary, new Path[] {written},
+                                    new long[] {100}, new long[] {1234});
+            server.updateAttributes(other, new Path[] {written},
+                                    new long[] {5}, new long[] {5});
+            stats = server.stat(new Path[] {written});
+
+            if(stats[0].size() != 100 || stats[0].modified() != 1234 ||
+               size_calls[0] != 0)
+            {
+                throw new TestFailed("reported attributes not served");
+            }
+
+            // A size reported under an exclusive lock survives the unlock.
+            server.lock(written, true);
+            server.updateAttributes(primary, new Path[] {written},
+                                    new long[] {200}, new long[] {2345});
+            server.unlock(written, true);
+
+            if(server.getLocations(written).size() != 200 ||
+               size_calls[0] != 0)
+            {
+                throw new TestFailed("size reported while locked forgotten");
+            }
+
+            // A report of an earlier write arriving late is ignored.
+            server.updateAttributes(primary, new Path[] {written},
+                                    new long[] {150}, new long[] {2000});
+
+            if(server.getLocations(written).size() != 200)
+                throw new TestFailed("late report replaced the size");
+
+            DirectoryUsage  usage = server.usage(new Path("/d"));
+
+            if(usage.files() != 3 || usage.directories() != 1 ||
+               usage.bytes() != 200 || usage.unknown() != 1)
+            {
+                throw new TestFailed("wrong usage of /d");
+            }
+
+            // A size that is not reported again is forgotten.
+            server.lock(written, true);
+            server.unlock(written, true);
+
+            if(server.getLocations(written).size() != 7 ||
+               size_calls[0] != 1)
+            {
+                throw new TestFailed("size not forgotten after write");
+            }
+
+            try
+            {
+                server.usage(written);
+                throw new TestFailed("usage of file computed");
+            }
+            catch(java.io.FileNotFoundException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for batched storage server registration.
+
+    <p>
+    The test registers a storage server in several batches, and checks that
+    the files in each batch are added to the tree as the batch arrives, that
+    each batch returns only its own duplicates, including a file sent twice
+    in different batches and a file already hosted by another server, and
+    that new files are placed on the server only once its registration has
+    ended. It also checks that batches cannot be sent outside a
+    registration.
+ */
+public class BatchRegistrationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server batched registration";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+
+        try
+        {
+            server.register(first, first, new Path[] {new Path("/a/taken")});
+
+            long            registration =
+                server.beginRegistration(second, second);
+            Path[]          duplicates =
+                server.registerBatch(registration,
+                                     new Path[] {new Path("/a/one"),
+                                                 new Path("/a/taken"),
+                                                 new Path("/b/two")});
+
+            if(!Arrays.equals(duplicates, new Path[] {new Path("/a/taken")}))
+                throw new TestFailed("wrong duplicates in first batch");
+
+            if(server.isDirectory(new Path("/a/one")))
+                throw new TestFailed("file in first batch not added");
+
+            duplicates =
+                server.registerBatch(registration,
+                                     new Path[] {new Path("/b/three"),
+                                                 new Path("/a/taken/four"),
+                                                 new Path("/b/two")});
+
+            if(!Arrays.equals(duplicates,
+                              new Path[] {new Path("/a/taken/four")}))
+            {
+                throw new TestFailed("wrong duplicates in second batch");
+            }
+
+            if(!server.getStorage(new Path("/b/three")).equals(second))
+                throw new TestFailed("file added on wrong server");
+
+            server.createFile(new Path("/before"));
+
+            if(!server.getStorage(new Path("/before")).equals(first))
+                throw new TestFailed("file placed on server still " +
+                                     "registering");
+
+            server.endRegistration(registration);
+
+            try
+            {
+                server.registerBatch(registration, new Path[0]);
+                throw new TestFailed("batch accepted after registration " +
+                                     "ended");
+            }
+            catch(IllegalStateException e) { }
+
+            try
+            {
+                server.beginRegistration(second, second);
+                throw new TestFailed("storage server registered twice");
+            }
+            catch(IllegalStateException e) { }
+
+            server.createFile(new Path("/after-1"));
+            server.createFile(new Path("/after-2"));
+
+            if(server.getStorage(new Path("/after-1")).equals(
+                   server.getStorage(new Path("/after-2"))))
+            {
+                throw new TestFailed("file not placed on registered server");
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for the bulk insertion of a registering storage server's files.
+
+    <p>
+    The test registers a storage server listing enough files, in shuffled
+    order, for them to be linked in parallel. Some of the files are already
+    hosted by another server, one is listed twice, and one lies under a path
+    that is already a file. The test checks that every other file is added
+    under its parent directory on the registering server, and that exactly
+    the conflicting files are returned as duplicates.
+ */
+public class BulkLoadTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server bulk insertion of registered files";
+
+    /** Number of top-level directories. */
+    private static final int    DIRECTORIES = 40;
+    /** Number of files under each top-level directory. */
+    private static final int    FILES = 256;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+
+        try
+        {
+            Path            taken = new Path("/d7/s1/f3");
+            Path            blocked = new Path("/d9/s0/f0/under");
+
+            server.register(first, first, new Path[] {taken,
+                                                      new Path("/d9/s0/f0")});
+
+            ArrayList<Path> files = new ArrayList<Path>();
+
+            for(int directory = 0; directory < DIRECTORIES; ++directory)
+            {
+                for(int file = 0; file < FILES; ++file)
+                {
+                    files.add(new Path("/d" + directory + "/s" + (file % 8) +
+                                       "/f" + (file / 8)));
+                }
+            }
+
+            files.add(blocked);
+            files.add(new Path("/d3/s2/f1"));
+            Collections.shuffle(files, new Random(3));
+
+            if(files.size() < TreeLoader.PARALLEL_THRESHOLD)
+                throw new TestFailed("too few files to be linked in parallel");
+
+            Set<Path>       duplicates =
+                new HashSet<Path>(Arrays.asList(server.register(
+                    second, second, files.toArray(new Path[0]))));
+            Set<Path>       expected =
+                new HashSet<Path>(Arrays.asList(taken, new Path("/d9/s0/f0"),
+                                                blocked));
+
+            if(!duplicates.equals(expected))
+                throw new TestFailed("wrong duplicates: " + duplicates);
+
+            for(int directory = 0; directory < DIRECTORIES; ++directory)
+            {
+                Path        top = new Path("/d" + directory);
+
+                if(server.list(top).length != 8)
+                    throw new TestFailed("wrong listing of " + top);
+
+                for(int sub = 0; sub < 8; ++sub)
+                {
+                    Path    parent = new Path(top, "s" + sub);
+
+                    if(server.list(parent).length != FILES / 8)
+                        throw new TestFailed("wrong listing of " + parent);
+                }
+            }
+
+            if(!server.getStorage(new Path("/d3/s2/f1")).equals(second))
+                throw new TestFailed("file added on wrong server");
+
+            if(!server.getStorage(taken).equals(first))
+                throw new TestFailed("duplicate file moved");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for namespace checkpoints.
+
+    <p>
+    The test populates a journaled naming server with enough files to fill
+    several checkpoint sections, with names that share long prefixes and
+    names outside the ASCII range, writes a checkpoint and then makes further
+    mutations. It checks that the checkpoint replaces the older journal
+    segments, and that a second naming server opened on the same metadata
+    directory restores exactly the same tree, storage servers and replicas.
+    It then damages the checkpoint and checks that loading it fails.
+ */
+public class CheckpointTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server namespace checkpoints";
+
+    /** Number of files registered before the checkpoint. */
+    private static final int    FILES = 30000;
+
+    /** Metadata directory. */
+    private File                directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            directory = File.createTempFile("checkpoint", "");
+
+            if(!directory.delete() || !directory.mkdir())
+                throw new TestFailed("unable to create metadata directory");
+
+            testRestore();
+            testDamage();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            if(directory != null)
+            {
+                for(File file : directory.listFiles())
+                    file.delete();
+
+                directory.delete();
+            }
+        }
+    }
+
+    /** Checks that the namespace is restored from a checkpoint and the
+        journal records written after it.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testRestore() throws Throwable
+    {
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+        Path[]              files = new Path[FILES];
+
+        for(int index = 0; index < FILES; ++index)
+        {
+            files[index] = new Path("/directory-" + (index % 500) +
+                                    "/\u00e9t\u00e9-\ud83d\ude00-" +
+                                    Long.toHexString(index *
+                                                     0x9e3779b97f4a7c15L) +
+                                    Long.toHexString(~index *
+                                                     0xc2b2ae3d27d4eb4fL));
+        }
+
+        NamingServer        server = open();
+        Path                replicated = files[7];
+        Path                deleted = files[8];
+        Path                created = new Path("/later/created");
+
+        try
+        {
+            server.register(first, first, files);
+            server.register(second, second, new Path[0]);
+            server.createDirectory(new Path("/empty"));
+            server.publishReplica(server.lookup(replicated), 0, second);
+            server.publishReplica(server.lookup(deleted), 0, second);
+
+            server.checkpoint();
+
+            if(Journal.segments(directory).length != 1)
+                throw new TestFailed("journal segments not removed");
+
+            server.delete(deleted);
+            server.createDirectory(new Path("/later"));
+            server.createFile(created);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+
+        NamingServer        restored = open();
+
+        try
+        {
+            Set<Path>       expected =
+                new HashSet<Path>(server.root.getFilesUnder());
+            Set<Path>       actual =
+                new HashSet<Path>(restored.root.getFilesUnder());
+
+            if(!actual.equals(expected))
+                throw new TestFailed("restored tree differs");
+
+            if(actual.contains(deleted) || !actual.contains(created))
+                throw new TestFailed("journal after checkpoint not replayed");
+
+            if(!restored.isDirectory(new Path("/empty")))
+                throw new TestFailed("empty directory not restored");
+
+            if(!restored.getLocations(files[9]).primary().equals(first))
+                throw new TestFailed("file restored on wrong server");
+
+            if(restored.getLocations(replicated).servers().length != 2)
+                throw new TestFailed("replica not restored");
+
+            if(restored.register(first, first, files).length != 0)
+                throw new TestFailed("restored server did not register " +
+                                     "again");
+        }
+        finally
+        {
+            restored.replication.shutdown();
+        }
+    }
+
+    /** Checks that a damaged checkpoint is not loaded.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testDamage() throws Throwable
+    {
+        RandomAccessFile    file =
+            new RandomAccessFile(Checkpoint.latest(directory), "rw");
+
+        try
+        {
+            file.seek(file.length() / 2);
+
+            int             value = file.read();
+
+            file.seek(file.length() / 2);
+            file.write(value ^ 1);
+        }
+        finally
+        {
+            file.close();
+        }
+
+        try
+        {
+            open();
+            throw new TestFailed("damaged checkpoint loaded");
+        }
+        catch(IOException e) { }
+    }
+
+    /** Creates a naming server keeping its metadata in the test
+        directory. */
+    private NamingServer open() throws IOException
+    {
+        NamingServer        server = new NamingServer();
+
+        server.setMetadataDirectory(directory);
+        return server;
+    }
+}
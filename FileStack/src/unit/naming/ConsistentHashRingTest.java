@@ -0,0 +1,134 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for the consistent-hash ring.
+
+    <p>
+    The test checks that preference lists contain each member once and do not
+    change between lookups, that adding a member only moves keys to that
+    member and removing it moves them back, and that consistent-hash
+    placement takes replica targets from the file's preference list. It
+    then checks that a dead server leaves the ring, and that a server keeps
+    its positions when its statistics are recreated under the same
+    identifier, as after a restart of the naming server.
+ */
+public class ConsistentHashRingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server consistent-hash ring";
+
+    /** Number of keys placed on the ring. */
+    private static final int    KEYS = 10000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ConsistentHashRing<String>  ring = new ConsistentHashRing<String>();
+
+        for(int member = 0; member < 8; ++member)
+            ring.add("server" + member, "server" + member);
+
+        List<String>                list = ring.preferenceList("/file", 10);
+
+        if(list.size() != 8 || new HashSet<String>(list).size() != 8)
+            throw new TestFailed("preference list does not hold each member " +
+                                 "once: " + list);
+
+        if(!list.equals(ring.preferenceList("/file", 8)) ||
+           !list.get(0).equals(ring.primary("/file")))
+        {
+            throw new TestFailed("preference list not stable");
+        }
+
+        String[]                    before = new String[KEYS];
+
+        for(int key = 0; key < KEYS; ++key)
+            before[key] = ring.primary("/f" + key);
+
+        ring.add("server8", "server8");
+
+        int                         moved = 0;
+
+        for(int key = 0; key < KEYS; ++key)
+        {
+            String                  now = ring.primary("/f" + key);
+
+            if(now.equals(before[key]))
+                continue;
+
+            if(!now.equals("server8"))
+                throw new TestFailed("key moved between existing members");
+
+            ++moved;
+        }
+
+        // The new member's fair share is one ninth of the keys.
+        if(moved < KEYS / 18 || moved > KEYS * 2 / 9)
+            throw new TestFailed(moved + " of " + KEYS + " keys moved");
+
+        ring.remove("server8");
+
+        for(int key = 0; key < KEYS; ++key)
+        {
+            if(!ring.primary("/f" + key).equals(before[key]))
+                throw new TestFailed("removal did not restore placement");
+        }
+
+        testPlacement();
+    }
+
+    /** Checks that replica targets follow the preference list. */
+    private void testPlacement() throws TestFailed
+    {
+        PlacementPolicy.ConsistentHash  policy =
+            new PlacementPolicy.ConsistentHash();
+        List<ServerStats>               servers = new ArrayList<ServerStats>();
+        Path                            file = new Path("/file");
+
+        for(int index = 0; index < 5; ++index)
+            servers.add(new ServerStats(new NullStorageServer(), index));
+
+        ServerStats                     primary = policy.select(file, servers);
+        List<ServerStats>               expected =
+            policy.ring().preferenceList(file.toString(), 5);
+
+        if(primary != expected.get(0))
+            throw new TestFailed("file not placed on its first preference");
+
+        // Exclude the primary, as the naming server does for replicas.
+        List<ServerStats>               others =
+            new ArrayList<ServerStats>(servers);
+
+        others.remove(primary);
+
+        if(policy.select(file, others) != expected.get(1))
+            throw new TestFailed("replica not placed on second preference");
+
+        policy.serverLost(primary);
+
+        if(policy.ring().size() != 4 ||
+           policy.ring().primary(file.toString()) != expected.get(1))
+        {
+            throw new TestFailed("dead server left on the ring");
+        }
+
+        // The naming server restarts, and the server registers again under
+        // a new stub.
+        ServerStats                     restarted =
+            new ServerStats(new NullStorageServer(), primary.id);
+
+        servers.set(servers.indexOf(primary), restarted);
+
+        if(policy.select(file, servers) != restarted)
+            throw new TestFailed("server moved on the ring after restart");
+    }
+}
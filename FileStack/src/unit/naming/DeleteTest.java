@@ -0,0 +1,201 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for <code>NamingServer.delete</code>.
+
+    <p>
+    Files under a directory are spread over four slow storage servers, and
+    some of them are replicated. The test deletes a replicated file and then
+    the directory, and checks that every storage server holding a copy of
+    anything under the path is told to delete it exactly once, that the
+    servers are told in parallel rather than one after another, and that the
+    replica sets of the deleted files are dropped while those of other files
+    are kept. It then checks that a holder which can no longer be commanded
+    is left a tombstone, and does not keep the other holders from being told
+    to delete the path.
+ */
+public class DeleteTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking deletion across storage servers";
+
+    /** Time each storage server takes to delete a path, in milliseconds. */
+    private static final long   DELAY = 200;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        SlowStorageServer[] stores = new SlowStorageServer[4];
+        Path                directory = new Path("/directory");
+        Path                kept = new Path("/kept");
+
+        try
+        {
+            for(int index = 0; index < stores.length; ++index)
+            {
+                stores[index] = new SlowStorageServer();
+                server.register(stores[index], stores[index],
+                                new Path[] {new Path(directory,
+                                                     "file" + index)});
+            }
+
+            server.register(new NullStorageServer(), new NullStorageServer(),
+                            new Path[] {kept});
+
+            Path            file = new Path(directory, "file0");
+
+            server.publishReplica(server.lookup(file), 0, stores[1]);
+            server.publishReplica(server.lookup(new Path(directory, "file2")),
+                                  0, stores[3]);
+            server.publishReplica(server.lookup(kept), 0, stores[0]);
+
+            if(!server.delete(file))
+                throw new TestFailed("unable to delete file");
+
+            checkDeleted(stores, file, new boolean[] {true, true, false,
+                                                      false});
+
+            long            start = System.currentTimeMillis();
+
+            if(!server.delete(directory))
+                throw new TestFailed("unable to delete directory");
+
+            long            elapsed = System.currentTimeMillis() - start;
+
+            checkDeleted(stores, directory, new boolean[] {false, true, true,
+                                                           true});
+
+            // Three servers are told to delete the directory. Told one after
+            // another, they would take three times as long as one of them.
+            if(elapsed >= 2 * DELAY)
+            {
+                throw new TestFailed("storage servers told to delete one " +
+                                     "after another: " + elapsed + " ms");
+            }
+
+            if(!server.replicas.headMap(kept).isEmpty())
+                throw new TestFailed("replicas of deleted files kept");
+
+            if(!server.replicas.containsKey(kept))
+                throw new TestFailed("replica of another file dropped");
+
+            try
+            {
+                server.lookup(file);
+                throw new TestFailed("deleted file still in the tree");
+            }
+            catch(java.io.FileNotFoundException e) { }
+
+            checkUncommanded(server, stores);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Checks that a holder of a file without a command stub is left a
+        tombstone, and that the other holder is still told to delete the
+        file. */
+    private void checkUncommanded(NamingServer server,
+                                  SlowStorageServer[] stores) throws Throwable
+    {
+        NullStorageServer   gone = new NullStorageServer();
+        Path                file = new Path("/uncommanded");
+
+        server.register(gone, gone, new Path[] {file});
+        server.publishReplica(server.lookup(file), 0, stores[2]);
+        server.storecommandMap.remove(gone);
+
+        if(server.delete(file))
+            throw new TestFailed("deletion reported complete without holder");
+
+        checkDeleted(stores, file, new boolean[] {false, false, true, false});
+
+        for(GarbageCollector.Tombstone tombstone : server.garbage.tombstones())
+        {
+            if(tombstone.path.equals(file) && tombstone.storage == gone)
+                return;
+        }
+
+        throw new TestFailed("holder without command left no tombstone");
+    }
+
+    /** Checks which storage servers were told to delete a path, and forgets
+        the requests. */
+    private void checkDeleted(SlowStorageServer[] stores, Path path,
+                              boolean[] expected) throws TestFailed
+    {
+        for(int index = 0; index < stores.length; ++index)
+        {
+            List<Path>      deleted = stores[index].take();
+            List<Path>      wanted = expected[index] ?
+                Collections.singletonList(path) : Collections.<Path>emptyList();
+
+            if(!deleted.equals(wanted))
+            {
+                throw new TestFailed("storage server " + index + " told to " +
+                                     "delete " + deleted + ", expected " +
+                                     wanted);
+            }
+        }
+    }
+
+    /** Storage server that takes a while to delete a path, and records the
+        paths it is told to delete. */
+    private static class SlowStorageServer extends NullStorageServer
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Paths this server has been told to delete. */
+        private final List<Path>    deleted = new ArrayList<Path>();
+
+        @Override
+        public boolean delete(Path path)
+        {
+            try
+            {
+                Thread.sleep(DELAY);
+            }
+            catch(InterruptedException e)
+            {
+                return false;
+            }
+
+            synchronized(deleted)
+            {
+                deleted.add(path);
+            }
+
+            return true;
+        }
+
+        /** Returns and forgets the paths this server has been told to
+            delete. */
+        List<Path> take()
+        {
+            synchronized(deleted)
+            {
+                List<Path>  result = new ArrayList<Path>(deleted);
+
+                deleted.clear();
+                return result;
+            }
+        }
+    }
+}
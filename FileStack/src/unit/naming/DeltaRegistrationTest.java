@@ -0,0 +1,213 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for delta re-registration of a restarting storage server.
+
+    <p>
+    The test registers a storage server, gives it a replica of another
+    server's file, and then resumes its registration twice. The first time,
+    the server holds exactly the files the naming server expects, and the
+    test checks that the root digests match so that nothing else need be
+    sent. The second time, the server has lost files, gained a file and lost
+    a replica. The test descends through the differing directories as a
+    storage server would, and checks that only those directories are
+    reported as differing, that a file whose only copy is lost is removed,
+    that a replica takes the place of a lost primary copy, that the lost
+    replica is forgotten and that the new file is added.
+ */
+public class DeltaRegistrationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server delta re-registration";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   storage = new NullStorageServer();
+        NullStorageServer   other = new NullStorageServer();
+        Path                lost_primary = new Path("/a/1");
+        Path                kept = new Path("/a/2");
+        Path                old_file = new Path("/b/c/3");
+        Path                lost_only = new Path("/d/4");
+        Path                lost_replica = new Path("/t/x");
+        Path                added = new Path("/b/c/5");
+
+        try
+        {
+            server.register(storage, storage,
+                            new Path[] {lost_primary, kept, old_file,
+                                        lost_only});
+            server.register(other, other, new Path[] {lost_replica});
+            server.publishReplica(server.lookup(lost_replica), 0, storage);
+            server.publishReplica(server.lookup(lost_primary), 0, other);
+
+            // Unchanged: the root digests match.
+            Set<Path>       held =
+                new HashSet<Path>(Arrays.asList(lost_primary, kept, old_file,
+                                                lost_only, lost_replica));
+            long            registration =
+                server.resumeRegistration(storage, storage);
+            List<Path>      differing = resync(server, registration, held);
+
+            server.endRegistration(registration);
+
+            if(!differing.isEmpty())
+                throw new TestFailed("unchanged server reported " + differing);
+
+            // Changed: files lost and added.
+            held = new HashSet<Path>(Arrays.asList(kept, old_file, added));
+            registration = server.resumeRegistration(storage, storage);
+            differing = resync(server, registration, held);
+            server.endRegistration(registration);
+
+            List<Path>      expected =
+                Arrays.asList(new Path("/"), new Path("/a"), new Path("/b"),
+                              new Path("/b/c"));
+
+            if(!new HashSet<Path>(differing).equals(
+                    new HashSet<Path>(expected)))
+            {
+                throw new TestFailed("wrong directories differ: " +
+                                     differing);
+            }
+
+            try
+            {
+                server.lookup(lost_only);
+                throw new TestFailed("file whose only copy was lost remains");
+            }
+            catch(java.io.FileNotFoundException e) { }
+
+            if(!server.getLocations(lost_primary).primary().equals(other))
+                throw new TestFailed("replica not made primary");
+
+            if(server.getLocations(lost_primary).servers().length != 1)
+                throw new TestFailed("promoted replica still listed");
+
+            if(server.getLocations(lost_replica).servers().length != 1)
+                throw new TestFailed("lost replica still listed");
+
+            if(!server.getStorage(added).equals(storage))
+                throw new TestFailed("added file not registered");
+
+            if(!server.getStorage(kept).equals(storage))
+                throw new TestFailed("kept file not on storage server");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Descends through the directories whose digests differ, as a storage
+        server holding the given files would, and returns those
+        directories. */
+    private List<Path> resync(NamingServer server, long registration,
+                              Set<Path> held)
+    {
+        Map<Path, byte[]>   digests = new HashMap<Path, byte[]>();
+        ArrayList<Path>     differing = new ArrayList<Path>();
+        ArrayDeque<Path>    pending = new ArrayDeque<Path>();
+
+        digest(new Path(), held, digests);
+        pending.add(new Path());
+
+        while(!pending.isEmpty())
+        {
+            Path            directory = pending.poll();
+            Path[]          result =
+                server.compareDigests(registration, new Path[] {directory},
+                                      new byte[][] {digests.get(directory)});
+
+            if(result.length == 0)
+                continue;
+
+            differing.add(directory);
+
+            ArrayList<Path> files = new ArrayList<Path>();
+            ArrayList<Path> directories = new ArrayList<Path>();
+
+            for(Map.Entry<String, Boolean> child :
+                    children(directory, held).entrySet())
+            {
+                Path        path = new Path(directory, child.getKey());
+
+                if(child.getValue())
+                    files.add(path);
+                else
+                    directories.add(path);
+            }
+
+            server.syncDirectory(registration, directory,
+                                 files.toArray(new Path[0]),
+                                 directories.toArray(new Path[0]));
+            pending.addAll(directories);
+        }
+
+        return differing;
+    }
+
+    /** Computes the digests of the directories holding the given files. */
+    private byte[] digest(Path directory, Set<Path> held,
+                          Map<Path, byte[]> digests)
+    {
+        DirectoryDigest     digest = new DirectoryDigest();
+
+        for(Map.Entry<String, Boolean> child :
+                children(directory, held).entrySet())
+        {
+            if(child.getValue())
+                digest.addFile(child.getKey());
+            else
+            {
+                digest.addDirectory(child.getKey(),
+                                    digest(new Path(directory, child.getKey()),
+                                           held, digests));
+            }
+        }
+
+        byte[]              result = digest.finish();
+
+        if(result != null)
+            digests.put(directory, result);
+
+        return result;
+    }
+
+    /** Returns the names of the children of a directory holding the given
+        files, in order, each mapped to <code>true</code> if it is a file. */
+    private SortedMap<String, Boolean> children(Path directory,
+                                                Set<Path> held)
+    {
+        SortedMap<String, Boolean>  children = new TreeMap<String, Boolean>();
+
+        for(Path file : held)
+        {
+            Path            child = file;
+
+            while(!child.isRoot() && !child.parent().equals(directory))
+                child = child.parent();
+
+            if(!child.isRoot())
+                children.put(child.last(), child.equals(file));
+        }
+
+        return children;
+    }
+}
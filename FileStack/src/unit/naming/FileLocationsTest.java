@@ -0,0 +1,95 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for <code>Service.getLocations</code>.
+
+    <p>
+    The test checks that the locations of a replicated file list the primary
+    first followed by the replica, that the file size is fetched from the
+    primary once and then served from the naming server's cache, and that
+    locking the file for exclusive access drops the replica, forgets the size
+    and changes the version.
+ */
+public class FileLocationsTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server getLocations method";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        final int[]         size_calls = new int[1];
+        NullStorageServer   first = new NullStorageServer()
+        {
+            @Override
+            public long size(Path file)
+            {
+                ++size_calls[0];
+                return 42;
+            }
+        };
+        NullStorageServer   second = new NullStorageServer();
+        Path                file = new Path("/file");
+
+        try
+        {
+            server.register(first, first, new Path[] {file});
+            server.register(second, second, new Path[0]);
+            server.publishReplica(server.lookup(file), 0, second);
+
+            FileLocations   before = server.getLocations(file);
+
+            if(!Arrays.equals(before.servers(), new Storage[] {first, second}))
+                throw new TestFailed("locations do not list primary first");
+
+            if(before.size() != 42)
+                throw new TestFailed("wrong size " + before.size());
+
+            server.getLocations(file);
+
+            if(size_calls[0] != 1)
+                throw new TestFailed("size not cached");
+
+            server.lock(file, true);
+            server.unlock(file, true);
+
+            FileLocations   after = server.getLocations(file);
+
+            if(after.servers().length != 1 || after.primary() != first)
+                throw new TestFailed("replica listed after exclusive lock");
+
+            if(size_calls[0] != 2)
+                throw new TestFailed("size not refreshed after exclusive lock");
+
+            if(after.version() == before.version())
+                throw new TestFailed("version unchanged by exclusive lock");
+
+            try
+            {
+                server.getLocations(new Path("/"));
+                throw new TestFailed("locations returned for directory");
+            }
+            catch(java.io.FileNotFoundException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package naming;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for follower naming servers.
+
+    <p>
+    A journaled leader is given some files and directories, and a follower
+    is started from it. The test checks that the follower starts from a
+    checkpoint of the leader's namespace, that it applies later creations
+    and deletions when it polls the leader, that it refuses locks and
+    mutations, and that it reports its lag and refuses reads once it is
+    more stale than allowed. It then checks that
+    <code>FollowerService</code> sends mutations to the leader, and turns to
+    the leader for a file the follower has not yet heard of, and that a
+    follower sent a checkpoint after falling behind the leader's journal
+    replaces its namespace with the checkpoint, read from the leader in
+    several chunks.
+ */
+public class FollowerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking follower naming servers";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        leader = new NamingServer();
+        NamingServer        follower = new NamingServer();
+        File                directory = null;
+
+        try
+        {
+            directory = File.createTempFile("leader", "");
+
+            if(!directory.delete() || !directory.mkdir())
+                throw new TestFailed("unable to create " + directory);
+
+            leader.setMetadataDirectory(directory);
+
+            NullStorageServer   storage = new NullStorageServer();
+
+            leader.register(storage, storage,
+                            new Path[] {new Path("/a/one"),
+                                        new Path("/a/two")});
+            leader.createDirectory(new Path("/b"));
+
+            NamingServer        unjournaled = new NamingServer();
+
+            try
+            {
+                unjournaled.mutations(-1, 10);
+                throw new TestFailed("unjournaled server sent mutations");
+            }
+            catch(IllegalStateException e) { }
+            finally
+            {
+                unjournaled.replication.shutdown();
+            }
+
+            follower.setFollowInterval(60000);
+            follower.follow(leader);
+
+            if(!Arrays.equals(follower.list(new Path("/")),
+                              new String[] {"a", "b"}) ||
+               !Arrays.equals(follower.list(new Path("/a")),
+                              new String[] {"one", "two"}))
+            {
+                throw new TestFailed("follower did not load the namespace");
+            }
+
+            if(!follower.getStorage(new Path("/a/one")).equals(storage))
+                throw new TestFailed("follower has wrong storage server");
+
+            leader.createFile(new Path("/b/three"));
+            leader.delete(new Path("/a/two"));
+
+            follower.pollLeader();
+
+            if(!Arrays.equals(follower.list(new Path("/b")),
+                              new String[] {"three"}) ||
+               !Arrays.equals(follower.list(new Path("/a")),
+                              new String[] {"one"}))
+            {
+                throw new TestFailed("follower did not apply mutations");
+            }
+
+            if(follower.replicationLag() != 0)
+                throw new TestFailed("follower lags after catching up");
+
+            checkReadOnly(follower);
+
+            follower.setMaxStaleness(10);
+            Thread.sleep(50);
+
+            try
+            {
+                follower.list(new Path("/"));
+                throw new TestFailed("stale follower answered a read");
+            }
+            catch(IllegalStateException e) { }
+
+            follower.pollLeader();
+            follower.list(new Path("/"));
+            follower.setMaxStaleness(60000);
+
+            FollowerService     service =
+                new FollowerService(leader, new Service[] {follower});
+
+            if(!service.createFile(new Path("/b/four")))
+                throw new TestFailed("unable to create file");
+
+            if(!service.getStorage(new Path("/b/four")).equals(storage))
+                throw new TestFailed("new file not found at the leader");
+
+            try
+            {
+                follower.lookup(new Path("/b/four"));
+                throw new TestFailed("follower applied mutation unpolled");
+            }
+            catch(FileNotFoundException e) { }
+
+            checkResync(leader);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            leader.replication.shutdown();
+            follower.replication.shutdown();
+
+            try
+            {
+                if(leader.journal != null)
+                    leader.journal.close();
+            }
+            catch(IOException e) { }
+
+            if(directory != null)
+            {
+                File[]      files = directory.listFiles();
+
+                if(files != null)
+                {
+                    for(File file : files)
+                        file.delete();
+                }
+
+                directory.delete();
+            }
+        }
+    }
+
+    /** Checks that a follower that has fallen behind the leader's journal
+        reloads its namespace from a checkpoint. */
+    private void checkResync(final NamingServer leader) throws Throwable
+    {
+        final boolean[]     behind = new boolean[1];
+        final int[]         chunks = new int[1];
+        // The leader keeps too many mutations for the follower to fall
+        // behind them in a test, so it is made to send a checkpoint.
+        Service             proxy = (Service)Proxy.newProxyInstance(
+            Service.class.getClassLoader(), new Class<?>[] {Service.class},
+            new InvocationHandler()
+        {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args)
+                throws Throwable
+            {
+                if(behind[0] && method.getName().equals("mutations"))
+                {
+                    behind[0] = false;
+                    return leader.checkpointPage(leader.journal);
+                }
+
+                if(method.getName().equals("checkpointChunk"))
+                    ++chunks[0];
+
+                try
+                {
+                    return method.invoke(leader, args);
+                }
+                catch(InvocationTargetException e)
+                {
+                    throw e.getCause();
+                }
+            }
+        });
+        NamingServer        follower = new NamingServer();
+
+        try
+        {
+            follower.setFollowInterval(60000);
+            follower.follow(proxy);
+            follower.transferChunk = 64;
+            chunks[0] = 0;
+
+            leader.delete(new Path("/a/one"));
+            leader.createDirectory(new Path("/c"));
+            behind[0] = true;
+            follower.pollLeader();
+
+            if(!Arrays.equals(follower.list(new Path("/")),
+                              new String[] {"a", "b", "c"}) ||
+               follower.list(new Path("/a")).length != 0)
+            {
+                throw new TestFailed("follower did not reload the namespace");
+            }
+
+            if(chunks[0] < 2)
+                throw new TestFailed("checkpoint not sent in chunks");
+
+            if(leader.transfers.size() != 0)
+                throw new TestFailed("leader kept checkpoint after transfer");
+
+            try
+            {
+                follower.lookup(new Path("/a/one"));
+                throw new TestFailed("reloaded follower kept deleted file");
+            }
+            catch(FileNotFoundException e) { }
+
+            leader.createDirectory(new Path("/d"));
+            follower.pollLeader();
+
+            if(!follower.isDirectory(new Path("/d")) ||
+               follower.replicationLag() != 0)
+            {
+                throw new TestFailed("reloaded follower did not catch up");
+            }
+        }
+        finally
+        {
+            follower.replication.shutdown();
+        }
+    }
+
+    /** Checks that a follower refuses locks and mutations. */
+    private void checkReadOnly(NamingServer follower) throws Throwable
+    {
+        try
+        {
+            follower.createFile(new Path("/b/refused"));
+            throw new TestFailed("follower created a file");
+        }
+        catch(IllegalStateException e) { }
+
+        try
+        {
+            follower.delete(new Path("/a/one"));
+            throw new TestFailed("follower deleted a file");
+        }
+        catch(IllegalStateException e) { }
+
+        try
+        {
+            follower.lock(new Path("/a/one"), false);
+            throw new TestFailed("follower took a lock");
+        }
+        catch(IllegalStateException e) { }
+
+        try
+        {
+            follower.mutations(-1, 10);
+            throw new TestFailed("follower sent mutations");
+        }
+        catch(IllegalStateException e) { }
+    }
+}
@@ -0,0 +1,353 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+import rmi.RMIException;
+import storage.*;
+
+/** Unit test for deletion in the background.
+
+    <p>
+    A journaled naming server deleting in the background is given a
+    directory with files on two storage servers, one of which cannot be
+    reached at first. The test checks that <code>delete</code> succeeds
+    regardless, that the reachable server deletes the directory in the
+    background, and that the other is retried until it can be reached. It
+    checks that a tombstone still pending survives a restart of the naming
+    server, and that files a storage server registers under one of its
+    tombstones are returned to it for deletion. It then checks that a path
+    is reclaimed before it is reused on the same server, and that the
+    collector keeps to its rate.
+ */
+public class GarbageCollectionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking background deletion";
+
+    /** Metadata directory. */
+    private File                directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            directory = File.createTempFile("garbage", "");
+
+            if(!directory.delete() || !directory.mkdir())
+                throw new TestFailed("unable to create metadata directory");
+
+            testRetry();
+            testReuse();
+            testRate();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            if(directory != null)
+            {
+                File[]      files = directory.listFiles();
+
+                if(files != null)
+                {
+                    for(File file : files)
+                        file.delete();
+                }
+
+                directory.delete();
+            }
+        }
+    }
+
+    /** Checks that deletion is in the background, that unreachable storage
+        servers are retried, and that tombstones survive a restart.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testRetry() throws Throwable
+    {
+        RecordingStorageServer  first = new RecordingStorageServer();
+        RecordingStorageServer  second = new RecordingStorageServer();
+        Path                    deleted = new Path("/d");
+        NamingServer            server = open();
+
+        try
+        {
+            server.register(first, first, new Path[] {new Path("/d/one")});
+            server.register(second, second, new Path[] {new Path("/d/two")});
+
+            second.reachable = false;
+
+            // Deleting synchronously would fail on the unreachable server.
+            if(!server.delete(deleted))
+                throw new TestFailed("unable to delete directory");
+
+            if(server.garbage.size() == 0)
+                throw new TestFailed("no tombstone left");
+
+            if(!waitFor(first, "delete /d", 2000))
+                throw new TestFailed("storage not reclaimed in background");
+
+            // The unreachable server's tombstone survives a restart.
+            close(server);
+            server = open();
+
+            if(server.garbage.size() != 1)
+                throw new TestFailed("tombstone lost on restart");
+
+            // The restored server is a deserialized copy of the original,
+            // and cannot be reached either.
+            Path[]              duplicates =
+                server.register(second, second,
+                                new Path[] {new Path("/d/two"),
+                                            new Path("/e/three")});
+
+            if(!Arrays.asList(duplicates).equals(
+                    Arrays.asList(new Path("/d/two"))))
+            {
+                throw new TestFailed("file under tombstone not returned for " +
+                                     "deletion");
+            }
+
+            if(Arrays.asList(server.list(new Path("/"))).contains("d"))
+                throw new TestFailed("file under tombstone registered");
+
+            second.reachable = true;
+
+            if(!waitFor(second, "delete /d", GarbageCollector.FIRST_RETRY * 4))
+                throw new TestFailed("unreachable server not retried");
+        }
+        finally
+        {
+            close(server);
+        }
+    }
+
+    /** Checks that a path is reclaimed before it is reused on the same
+        server.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testReuse() throws Throwable
+    {
+        RecordingStorageServer  store = new RecordingStorageServer();
+        Path                    file = new Path("/reused");
+        NamingServer            server = new NamingServer();
+
+        try
+        {
+            server.setBackgroundDeletion(true);
+            server.setDeletionRate(1);
+            server.register(store, store, new Path[] {file});
+
+            if(!server.delete(file) || !server.createFile(file))
+                throw new TestFailed("unable to delete and create file");
+
+            if(!store.events().equals(Arrays.asList("delete /reused",
+                                                    "create /reused")))
+            {
+                throw new TestFailed("path reused before it was reclaimed: " +
+                                     store.events());
+            }
+
+            if(server.garbage.size() != 0)
+                throw new TestFailed("reclaimed tombstone kept");
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Checks that the collector sends no more deletions than its rate.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testRate() throws Throwable
+    {
+        RecordingStorageServer  store = new RecordingStorageServer();
+        NamingServer            server = new NamingServer();
+        Path[]                  files = new Path[20];
+
+        for(int index = 0; index < files.length; ++index)
+            files[index] = new Path("/f" + index);
+
+        try
+        {
+            server.setBackgroundDeletion(true);
+            server.setDeletionRate(10);
+            server.register(store, store, files);
+
+            long                start = System.currentTimeMillis();
+
+            for(Path file : files)
+                server.delete(file);
+
+            Thread.sleep(500);
+
+            int                 sent = store.events().size();
+            long                elapsed = System.currentTimeMillis() - start;
+
+            // Ten deletions a second, with some allowance for scheduling.
+            if(sent > 10 * elapsed / 1000 + 2)
+            {
+                throw new TestFailed(sent + " deletions sent in " + elapsed +
+                                     " ms");
+            }
+
+            long                deadline = System.currentTimeMillis() + 4000;
+
+            while(server.garbage.size() != 0)
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("storage not reclaimed at rate");
+
+                Thread.sleep(20);
+            }
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Waits for a storage server to record an event.
+
+        @return <code>true</code> if the event was recorded in time.
+     */
+    private boolean waitFor(RecordingStorageServer store, String event,
+                            long milliseconds) throws InterruptedException
+    {
+        long                    deadline =
+            System.currentTimeMillis() + milliseconds;
+
+        while(!store.events().contains(event))
+        {
+            if(System.currentTimeMillis() > deadline)
+                return false;
+
+            Thread.sleep(20);
+        }
+
+        return true;
+    }
+
+    /** Creates a naming server deleting in the background and keeping its
+        journal in the metadata directory. */
+    private NamingServer open() throws IOException
+    {
+        NamingServer            server = new NamingServer();
+
+        server.setMetadataDirectory(directory);
+        server.setBackgroundDeletion(true);
+        return server;
+    }
+
+    /** Stops a naming server's background work and closes its journal. */
+    private void close(NamingServer server) throws IOException
+    {
+        server.replication.shutdown();
+
+        if(server.journal != null)
+            server.journal.close();
+    }
+
+    /** Storage server that records the files it is commanded to create and
+        the paths it is commanded to delete, and that may be made
+        unreachable. */
+    private static class RecordingStorageServer
+        implements Storage, Command, Serializable
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Stands in for the stub's address. */
+        private final NullStorageServer address = new NullStorageServer();
+        /** Commands received, in order. */
+        private final List<String>  events = new ArrayList<String>();
+        /** Cleared to make commands fail as if over a broken network. A
+            deserialized copy cannot be reached until this is set. */
+        transient volatile boolean  reachable = true;
+
+        /** Returns a copy of the commands received. */
+        List<String> events()
+        {
+            synchronized(events)
+            {
+                return new ArrayList<String>(events);
+            }
+        }
+
+        @Override
+        public boolean equals(Object other)
+        {
+            return other instanceof RecordingStorageServer &&
+                   ((RecordingStorageServer)other).address.equals(address);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return address.hashCode();
+        }
+
+        @Override
+        public long size(Path file)
+        {
+            return 0;
+        }
+
+        @Override
+        public byte[] read(Path file, long offset, int length)
+        {
+            return new byte[length];
+        }
+
+        @Override
+        public void write(Path file, long offset, byte[] data)
+        {
+        }
+
+        @Override
+        public boolean create(Path file)
+        {
+            synchronized(events)
+            {
+                events.add("create " + file);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean delete(Path path) throws RMIException
+        {
+            if(!reachable)
+                throw new RMIException("unreachable");
+
+            synchronized(events)
+            {
+                events.add("delete " + path);
+            }
+
+            return true;
+        }
+
+        @Override
+        public boolean copy(Path file, Storage server)
+        {
+            return true;
+        }
+    }
+}
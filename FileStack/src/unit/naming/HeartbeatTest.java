@@ -0,0 +1,196 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for storage server heartbeats.
+
+    <p>
+    Three storage servers register with a naming server, two of which send
+    heartbeats. One of those then falls silent. The test checks that the
+    silent server is given no new files once it is suspected, that readers
+    are still sent to it until it is considered dead, and that they are then
+    sent to the other copies of its files. It checks that new files are
+    placed on the server again after another heartbeat, that the server
+    which never sent a heartbeat is considered dead from the time it
+    registered when heartbeats are required, and trusted otherwise, and that
+    heartbeats from unregistered servers are refused.
+ */
+public class HeartbeatTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking storage server heartbeats";
+
+    /** Time without a heartbeat after which a server is suspected. */
+    private static final long   SUSPECT = 200;
+    /** Time without a heartbeat after which a server is considered dead. */
+    private static final long   DEAD = 600;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   steady = new NullStorageServer();
+        NullStorageServer   failing = new NullStorageServer();
+        NullStorageServer   silent = new NullStorageServer();
+        Path                first = new Path("/first");
+        Path                second = new Path("/second");
+        StorageLoad         load = new StorageLoad(1000, 400, 7);
+
+        try
+        {
+            server.setHeartbeatTimeouts(SUSPECT, DEAD);
+            server.setHeartbeatsRequired(true);
+            server.register(steady, steady, new Path[] {first});
+            server.register(failing, failing, new Path[] {second});
+            server.register(silent, silent, new Path[0]);
+            server.publishReplica(server.lookup(first), 0, failing);
+            server.publishReplica(server.lookup(second), 0, steady);
+
+            server.heartbeat(steady, load);
+            server.heartbeat(failing, load);
+
+            if(server.serverStats.get(steady).load() != load)
+                throw new TestFailed("load not recorded");
+
+            Thread.sleep(SUSPECT + 100);
+            server.heartbeat(steady, load);
+
+            for(int index = 0; index < 6; ++index)
+            {
+                Path        file = new Path("/suspected" + index);
+
+                server.createFile(file);
+
+                Storage     placed = server.lookup(file).storageStub;
+
+                if(placed == failing)
+                    throw new TestFailed("file placed on suspected server");
+
+                if(placed == silent)
+                {
+                    throw new TestFailed("file placed on server without " +
+                                         "heartbeats");
+                }
+            }
+
+            if(!routes(server, first, failing))
+                throw new TestFailed("reader not sent to suspected server");
+
+            Thread.sleep(DEAD - SUSPECT);
+            server.heartbeat(steady, load);
+
+            if(routes(server, first, failing))
+                throw new TestFailed("reader sent to dead server");
+
+            if(server.getStorage(second) != steady)
+                throw new TestFailed("reader not sent to remaining copy");
+
+            if(Arrays.asList(server.getLocations(first).servers())
+                    .contains(failing))
+            {
+                throw new TestFailed("dead server listed as holding file");
+            }
+
+            server.heartbeat(failing, load);
+
+            boolean         placed = false;
+
+            for(int index = 0; index < 3 && !placed; ++index)
+            {
+                Path        file = new Path("/recovered" + index);
+
+                server.createFile(file);
+                placed = server.lookup(file).storageStub == failing;
+            }
+
+            if(!placed)
+                throw new TestFailed("no file placed on recovered server");
+
+            server.checkLiveness();
+
+            if(!server.serverStats.get(silent).lost())
+            {
+                throw new TestFailed("server without heartbeats not " +
+                                     "considered dead");
+            }
+
+            server.setHeartbeatsRequired(false);
+            placed = false;
+
+            for(int index = 0; index < 3 && !placed; ++index)
+            {
+                Path        file = new Path("/trusted" + index);
+
+                server.createFile(file);
+                placed = server.lookup(file).storageStub == silent;
+            }
+
+            if(!placed)
+            {
+                throw new TestFailed("server without heartbeats not trusted " +
+                                     "when heartbeats are not required");
+            }
+
+            checkRefused(server, load);
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Returns whether <code>getStorage</code> directs any of several
+        readers of a file to the given server. */
+    private boolean routes(NamingServer server, Path file, Storage storage)
+        throws Throwable
+    {
+        for(int index = 0; index < 4; ++index)
+        {
+            if(server.getStorage(file) == storage)
+                return true;
+        }
+
+        return false;
+    }
+
+    /** Checks that heartbeats from unregistered servers and with missing
+        arguments are refused. */
+    private void checkRefused(NamingServer server, StorageLoad load)
+        throws TestFailed
+    {
+        try
+        {
+            server.heartbeat(new NullStorageServer(), load);
+            throw new TestFailed("heartbeat accepted from unregistered " +
+                                 "server");
+        }
+        catch(IllegalStateException e) { }
+
+        try
+        {
+            server.heartbeat(null, load);
+            throw new TestFailed("heartbeat accepted without server");
+        }
+        catch(NullPointerException e) { }
+
+        try
+        {
+            new StorageLoad(100, 200, 0);
+            throw new TestFailed("more free space than capacity accepted");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+}
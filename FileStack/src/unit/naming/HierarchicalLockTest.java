@@ -0,0 +1,182 @@
+package naming;
+
+import java.util.concurrent.atomic.*;
+
+import test.*;
+
+/** Unit test for the per-node hierarchical lock.
+
+    <p>
+    The test checks the compatibility of the four lock modes, that requests
+    are granted in arrival order so that a waiting exclusive request holds back
+    later shared requests, that a release grants the whole compatible run at
+    the head of the queue, and that an interrupted waiter leaves the lock in a
+    consistent state.
+ */
+public class HierarchicalLockTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking naming server node lock";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testCompatibility();
+            testOrdering();
+            testInterruption();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks that each pair of modes can or cannot be held at once. */
+    private void testCompatibility() throws Throwable
+    {
+        LockMode[]          modes = LockMode.values();
+
+        for(LockMode held : modes)
+        {
+            for(LockMode requested : modes)
+            {
+                HierarchicalLock    lock = new HierarchicalLock();
+
+                lock.acquire(held);
+
+                boolean             granted = lock.tryAcquire(requested);
+                boolean             expected =
+                    held != LockMode.EXCLUSIVE &&
+                    requested != LockMode.EXCLUSIVE &&
+                    (held == requested ||
+                     held == LockMode.INTENTION_SHARED ||
+                     requested == LockMode.INTENTION_SHARED);
+
+                if(granted != expected)
+                {
+                    throw new TestFailed(requested + " " +
+                                         (granted ? "granted" : "refused") +
+                                         " while " + held + " is held");
+                }
+            }
+        }
+    }
+
+    /** Checks that requests are served in arrival order. */
+    private void testOrdering() throws Throwable
+    {
+        HierarchicalLock    lock = new HierarchicalLock();
+
+        lock.acquire(LockMode.SHARED);
+
+        Waiter              exclusive = new Waiter(lock, LockMode.EXCLUSIVE);
+        awaitQueue(lock, 1);
+
+        if(lock.tryAcquire(LockMode.INTENTION_SHARED))
+            throw new TestFailed("request overtook a waiting exclusive user");
+
+        Waiter              shared1 = new Waiter(lock, LockMode.SHARED);
+        awaitQueue(lock, 2);
+        Waiter              shared2 = new Waiter(lock, LockMode.SHARED);
+        awaitQueue(lock, 3);
+
+        lock.release(LockMode.SHARED);
+        exclusive.await();
+
+        if(shared1.acquired.get() || shared2.acquired.get())
+            throw new TestFailed("shared lock granted with exclusive lock");
+
+        // Both shared requests must be granted by the single release.
+        lock.release(LockMode.EXCLUSIVE);
+        shared1.await();
+        shared2.await();
+
+        if(lock.holders(LockMode.SHARED) != 2 || lock.waiting() != 0)
+            throw new TestFailed("shared waiters not granted together");
+    }
+
+    /** Checks that an interrupted waiter does not hold or block the lock. */
+    private void testInterruption() throws Throwable
+    {
+        HierarchicalLock    lock = new HierarchicalLock();
+
+        lock.acquire(LockMode.SHARED);
+
+        Waiter              exclusive = new Waiter(lock, LockMode.EXCLUSIVE);
+        awaitQueue(lock, 1);
+        Waiter              shared = new Waiter(lock, LockMode.SHARED);
+        awaitQueue(lock, 2);
+
+        // Withdrawing the exclusive request lets the shared request in.
+        exclusive.interrupt();
+        shared.await();
+        exclusive.join();
+
+        if(!exclusive.interrupted.get())
+            throw new TestFailed("interrupted waiter not notified");
+
+        if(lock.holders(LockMode.EXCLUSIVE) != 0 || lock.waiting() != 0)
+            throw new TestFailed("interrupted waiter left in lock");
+
+        lock.release(LockMode.SHARED);
+        lock.release(LockMode.SHARED);
+
+        if(!lock.tryAcquire(LockMode.EXCLUSIVE))
+            throw new TestFailed("lock not free after all releases");
+    }
+
+    /** Waits until the given number of requests are queued on a lock. */
+    private static void awaitQueue(HierarchicalLock lock, int count)
+        throws InterruptedException
+    {
+        while(lock.waiting() < count)
+            Thread.sleep(1);
+    }
+
+    /** Thread that takes a lock in a given mode and records the outcome. */
+    private static class Waiter extends Thread
+    {
+        private final HierarchicalLock  lock;
+        private final LockMode          mode;
+        final AtomicBoolean             acquired = new AtomicBoolean();
+        final AtomicBoolean             interrupted = new AtomicBoolean();
+
+        Waiter(HierarchicalLock lock, LockMode mode)
+        {
+            this.lock = lock;
+            this.mode = mode;
+            setDaemon(true);
+            start();
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                lock.acquire(mode);
+                acquired.set(true);
+            }
+            catch(InterruptedException e)
+            {
+                interrupted.set(true);
+            }
+        }
+
+        /** Waits for the thread to obtain the lock. */
+        void await() throws Throwable
+        {
+            join();
+
+            if(!acquired.get())
+                throw new TestFailed(mode + " lock not granted");
+        }
+    }
+}
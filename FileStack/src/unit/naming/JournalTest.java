@@ -0,0 +1,320 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for the naming server's journal.
+
+    <p>
+    The test makes a series of namespace mutations on a naming server that
+    keeps a journal, and checks that a second naming server opened on the
+    same metadata directory restores the directory tree, the storage servers
+    and the replicas. It then checks that a restored storage server may
+    register again without its files being reported as duplicates, and that
+    a record torn at the end of the journal is discarded on replay. Finally,
+    it deletes directories while files and directories are being created in
+    them, and checks that a restart does not bring the deleted directories
+    back.
+ */
+public class JournalTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server journal and replay";
+
+    /** Number of directories deleted while a directory is created in
+        each. */
+    private static final int    RACES = 100;
+
+    /** Metadata directory. */
+    private File                directory;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            directory = File.createTempFile("journal", "");
+
+            if(!directory.delete() || !directory.mkdir())
+                throw new TestFailed("unable to create metadata directory");
+
+            testRestore();
+            testTornRecord();
+            testConcurrentDelete();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            if(directory != null)
+            {
+                for(File file : Journal.segments(directory))
+                    file.delete();
+
+                directory.delete();
+            }
+        }
+    }
+
+    /** Checks that the namespace is restored from the journal.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testRestore() throws Throwable
+    {
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+        Path                registered = new Path("/a/registered");
+        Path                created = new Path("/a/created");
+        Path                deleted = new Path("/b/deleted");
+        NamingServer        server = open();
+
+        try
+        {
+            server.register(first, first, new Path[] {registered});
+            server.register(second, second, new Path[0]);
+            server.createDirectory(new Path("/b"));
+            server.createDirectory(new Path("/c"));
+            server.createFile(created);
+            server.createFile(deleted);
+            server.delete(deleted);
+            server.publishReplica(server.lookup(registered), 0, second);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+
+        NamingServer        restored = open();
+
+        try
+        {
+            if(!restored.isDirectory(new Path("/c")))
+                throw new TestFailed("directory not restored");
+
+            if(restored.isDirectory(created))
+                throw new TestFailed("created file not restored");
+
+            if(!restored.getLocations(registered).primary().equals(first))
+                throw new TestFailed("registered file restored on wrong " +
+                                     "server");
+
+            if(restored.getLocations(registered).servers().length != 2)
+                throw new TestFailed("replica not restored");
+
+            try
+            {
+                restored.isDirectory(deleted);
+                throw new TestFailed("deleted file restored");
+            }
+            catch(FileNotFoundException e) { }
+
+            Path[]          duplicates =
+                restored.register(first, first, new Path[] {registered});
+
+            if(duplicates.length != 0)
+                throw new TestFailed("file hosted by restored server " +
+                                     "reported as duplicate");
+
+            try
+            {
+                restored.register(first, first, new Path[0]);
+                throw new TestFailed("restored server registered twice");
+            }
+            catch(IllegalStateException e) { }
+        }
+        finally
+        {
+            restored.replication.shutdown();
+        }
+    }
+
+    /** Checks that a torn record at the end of the journal is discarded.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testTornRecord() throws Throwable
+    {
+        NamingServer        server = open();
+
+        try
+        {
+            server.createDirectory(new Path("/torn"));
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+
+        File[]              segments = Journal.segments(directory);
+        File                last = segments[segments.length - 1];
+
+        RandomAccessFile    file = new RandomAccessFile(last, "rw");
+        long                length = file.length();
+
+        try
+        {
+            file.setLength(length - 1);
+        }
+        finally
+        {
+            file.close();
+        }
+
+        NamingServer        restored = open();
+
+        try
+        {
+            try
+            {
+                restored.isDirectory(new Path("/torn"));
+                throw new TestFailed("torn record replayed");
+            }
+            catch(FileNotFoundException e) { }
+
+            if(!restored.isDirectory(new Path("/c")))
+                throw new TestFailed("records before torn record lost");
+
+            restored.createDirectory(new Path("/after"));
+        }
+        finally
+        {
+            restored.replication.shutdown();
+        }
+
+        NamingServer        reopened = open();
+
+        try
+        {
+            if(!reopened.isDirectory(new Path("/after")))
+                throw new TestFailed("record appended after torn record " +
+                                     "lost");
+        }
+        finally
+        {
+            reopened.replication.shutdown();
+        }
+    }
+
+    /** Checks that objects created in a directory while it is deleted are
+        not restored.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testConcurrentDelete() throws Throwable
+    {
+        // Start from an empty journal, so that the file is placed on the
+        // deleting storage server.
+        for(File file : Journal.segments(directory))
+            file.delete();
+
+        final NamingServer  server = open();
+        DeletingServer      storage = new DeletingServer();
+        final Path          doomed = new Path("/doomed");
+
+        try
+        {
+            // The storage server deletes the directory while the file is
+            // being created in it.
+            storage.server = server;
+            storage.doomed = doomed;
+            server.register(storage, storage, new Path[0]);
+            server.createDirectory(doomed);
+            server.createFile(new Path(doomed, "file"));
+
+            for(int index = 0; index < RACES; ++index)
+            {
+                final Path  raced = new Path("/raced" + index);
+                Thread      creator = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            server.createDirectory(new Path(raced, "sub"));
+                        }
+                        catch(FileNotFoundException e) { }
+                    }
+                };
+
+                server.createDirectory(raced);
+                creator.start();
+                server.delete(raced);
+                creator.join();
+            }
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+
+        NamingServer        restored = open();
+
+        try
+        {
+            if(restored.index.containsKey(doomed))
+                throw new TestFailed("directory deleted during creation of " +
+                                     "a file restored");
+
+            for(int index = 0; index < RACES; ++index)
+            {
+                if(restored.index.containsKey(new Path("/raced" + index)))
+                {
+                    throw new TestFailed("directory deleted during creation " +
+                                         "of a directory restored");
+                }
+            }
+        }
+        finally
+        {
+            restored.replication.shutdown();
+        }
+    }
+
+    /** Creates a naming server keeping its journal in the metadata
+        directory. */
+    private NamingServer open() throws IOException
+    {
+        NamingServer        server = new NamingServer();
+
+        server.setMetadataDirectory(directory);
+        return server;
+    }
+
+    /** Storage server that deletes a directory from the naming server when
+        it is commanded to create a file. */
+    private static class DeletingServer extends NullStorageServer
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Naming server from which the directory is deleted. */
+        transient NamingServer      server;
+        /** Directory deleted. */
+        transient Path              doomed;
+
+        @Override
+        public boolean create(Path file)
+        {
+            try
+            {
+                server.delete(doomed);
+            }
+            catch(FileNotFoundException e) { }
+
+            return true;
+        }
+    }
+}
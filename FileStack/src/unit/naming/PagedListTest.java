@@ -0,0 +1,110 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for the naming server's paged directory listing.
+
+    <p>
+    The test fills a directory with files and subdirectories under random
+    names, lists it a page at a time, and checks that the pages together
+    return every name exactly once, in lexicographic order. It then checks
+    that a listing can start after a name that does not exist, that pages are
+    no longer than the naming server allows, and that bad arguments are
+    rejected.
+ */
+public class PagedListTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server paged directory listing";
+
+    /** Number of entries in the directory. */
+    private static final int    ENTRIES = 10000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   storage = new NullStorageServer();
+
+        try
+        {
+            Random          random = new Random(41);
+            TreeSet<String> expected = new TreeSet<String>();
+            ArrayList<Path> files = new ArrayList<Path>();
+            Path            directory = new Path("/huge");
+
+            while(expected.size() < ENTRIES)
+            {
+                String      name = Long.toString(random.nextLong(), 36);
+
+                if(expected.add(name))
+                    files.add(new Path(new Path(directory, name), "f"));
+            }
+
+            files.add(new Path("/file"));
+            server.register(storage, storage, files.toArray(new Path[0]));
+
+            ArrayList<String>   listed = new ArrayList<String>();
+            String[]            page = server.list(directory, null, 333);
+
+            while(page.length != 0)
+            {
+                if(page.length > 333)
+                    throw new TestFailed("page longer than limit");
+
+                listed.addAll(Arrays.asList(page));
+                page = server.list(directory, page[page.length - 1], 333);
+            }
+
+            if(!listed.equals(new ArrayList<String>(expected)))
+                throw new TestFailed("pages listed wrong names");
+
+            String          missing = expected.first() + "!";
+
+            page = server.list(directory, missing, 1);
+
+            if(page.length != 1 ||
+               !page[0].equals(expected.higher(missing)))
+            {
+                throw new TestFailed("wrong page after missing name");
+            }
+
+            page = server.list(directory, null, Integer.MAX_VALUE);
+
+            if(page.length != NamingServer.MAX_PAGE)
+                throw new TestFailed("page not limited");
+
+            try
+            {
+                server.list(new Path("/file"), null, 10);
+                throw new TestFailed("file listed");
+            }
+            catch(FileNotFoundException e) { }
+
+            try
+            {
+                server.list(directory, null, 0);
+                throw new TestFailed("empty page requested");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for partitioned namespaces.
+
+    <p>
+    Three in-process naming servers serve the partitions mounted at
+    <code>/</code>, <code>/home</code> and <code>/home/big</code>. A storage
+    server registers through <code>PartitionedRegistration</code>, and the
+    test checks that each file is linked only in the partition owning it.
+    Through <code>PartitionedService</code>, it then checks that requests
+    are routed to the owning partition, that walks, <code>stat</code> and
+    <code>usage</code> combine the partitions, and that mount points and the
+    directories leading to them cannot be deleted. Finally, it checks the
+    parsing of mount table files and longest-prefix ownership.
+ */
+public class PartitionTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking partitioned naming servers";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        ArrayList<MountTable.Mount> mounts =
+            new ArrayList<MountTable.Mount>();
+
+        mounts.add(new MountTable.Mount(new Path("/home/big"), "localhost",
+                                        6004, 6005));
+        mounts.add(new MountTable.Mount(new Path("/"), "localhost",
+                                        6000, 6001));
+        mounts.add(new MountTable.Mount(new Path("/home"), "localhost",
+                                        6002, 6003));
+
+        MountTable          table = new MountTable(mounts);
+        NamingServer[]      servers = new NamingServer[table.size()];
+
+        for(int index = 0; index < servers.length; ++index)
+            servers[index] = new NamingServer();
+
+        try
+        {
+            for(int index = 0; index < servers.length; ++index)
+                servers[index].setPartition(table, table.mount(index).prefix);
+
+            checkOwners(table);
+
+            PartitionedService      service =
+                new PartitionedService(table, servers);
+            PartitionedRegistration registration =
+                new PartitionedRegistration(table, servers);
+            NullStorageServer       storage = new NullStorageServer();
+
+            Path[]          duplicates =
+                registration.register(storage, storage, new Path[]
+                    {new Path("/etc/a"), new Path("/home/u/f"),
+                     new Path("/home/big/x"), new Path("/home/big/y/z")});
+
+            if(duplicates.length != 0)
+                throw new TestFailed("files reported as duplicates");
+
+            checkLinked(servers[0], "/etc/a", "/home/u/f");
+            checkLinked(servers[1], "/home/u/f", "/home/big/x");
+            checkLinked(servers[2], "/home/big/y/z", "/etc/a");
+
+            if(!service.createFile(new Path("/home/big/new")))
+                throw new TestFailed("unable to create file");
+
+            checkLinked(servers[2], "/home/big/new", "/home/u/f");
+
+            if(!Arrays.equals(service.list(new Path("/home")),
+                              new String[] {"big", "u"}))
+            {
+                throw new TestFailed("mount point not listed in its parent");
+            }
+
+            if(!service.isDirectory(new Path("/home/big")))
+                throw new TestFailed("mount point is not a directory");
+
+            checkWalk(service);
+            checkStat(service);
+
+            DirectoryUsage  usage = service.usage(new Path("/"));
+
+            if(usage.files() != 5 || usage.directories() != 5)
+            {
+                throw new TestFailed("usage counts " + usage.files() +
+                                     " files and " + usage.directories() +
+                                     " directories");
+            }
+
+            if(service.delete(new Path("/home")) ||
+               service.delete(new Path("/home/big")))
+            {
+                throw new TestFailed("mount point deleted");
+            }
+
+            if(!service.delete(new Path("/home/u")))
+                throw new TestFailed("unable to delete directory");
+
+            if(service.getMountTable() != table)
+                throw new TestFailed("wrong mount table");
+
+            checkRead();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            for(NamingServer server : servers)
+                server.replication.shutdown();
+        }
+    }
+
+    /** Checks that paths are owned by the partition with the longest mount
+        point leading to them. */
+    private void checkOwners(MountTable table) throws TestFailed
+    {
+        String[]            paths =
+            {"/", "/etc", "/home", "/homes", "/home/u", "/home/big",
+             "/home/big/x/y"};
+        String[]            owners =
+            {"/", "/", "/home", "/", "/home", "/home/big", "/home/big"};
+
+        for(int index = 0; index < paths.length; ++index)
+        {
+            Path            owner =
+                table.mount(table.owner(new Path(paths[index]))).prefix;
+
+            if(!owner.equals(new Path(owners[index])))
+                throw new TestFailed(paths[index] + " owned by " + owner);
+        }
+    }
+
+    /** Checks that a partition holds one file and not another. */
+    private void checkLinked(NamingServer server, String present,
+                             String absent) throws TestFailed
+    {
+        try
+        {
+            server.lookup(new Path(present));
+        }
+        catch(FileNotFoundException e)
+        {
+            throw new TestFailed(present + " not linked in its partition");
+        }
+
+        try
+        {
+            server.lookup(new Path(absent));
+            throw new TestFailed(absent + " linked in the wrong partition");
+        }
+        catch(FileNotFoundException e) { }
+    }
+
+    /** Checks that a walk of the root in small pages lists the entries of
+        every partition once, in order. */
+    private void checkWalk(PartitionedService service) throws Throwable
+    {
+        String[]            expected =
+            {"/etc", "/etc/a", "/home", "/home/big", "/home/big/new",
+             "/home/big/x", "/home/big/y", "/home/big/y/z", "/home/u",
+             "/home/u/f"};
+        List<String>        files =
+            Arrays.asList("a", "f", "x", "z", "new");
+        ArrayList<String>   walked = new ArrayList<String>();
+        Path                cursor = null;
+        WalkPage            page;
+
+        do
+        {
+            page = service.walk(new Path("/"), cursor, 2);
+
+            if(page.count() == 0 || page.count() > 2)
+                throw new TestFailed("page of " + page.count() + " entries");
+
+            for(int index = 0; index < page.count(); ++index)
+            {
+                walked.add(page.path(index).toString());
+
+                if(page.isDirectory(index) ==
+                   files.contains(page.path(index).last()))
+                {
+                    throw new TestFailed("wrong type for " + page.path(index));
+                }
+            }
+
+            cursor = page.cursor();
+        }
+        while(!page.complete());
+
+        if(!walked.equals(Arrays.asList(expected)))
+            throw new TestFailed("walk listed " + walked);
+
+        page = service.walk(new Path("/home"), new Path("/home/big/x"), 100);
+
+        if(!page.complete() || page.count() != 4 ||
+           !page.path(0).equals(new Path("/home/big/y")))
+        {
+            throw new TestFailed("walk resumed at the wrong entry");
+        }
+    }
+
+    /** Checks that <code>stat</code> reports paths of every partition. */
+    private void checkStat(PartitionedService service) throws Throwable
+    {
+        PathStat[]          stats =
+            service.stat(new Path[] {new Path("/home/big/x"),
+                                     new Path("/missing"),
+                                     new Path("/etc/a"),
+                                     new Path("/home/big")});
+
+        if(!stats[0].exists() || stats[0].isDirectory() ||
+           stats[1].exists() || !stats[2].exists() ||
+           !stats[3].isDirectory())
+        {
+            throw new TestFailed("wrong metadata from stat");
+        }
+    }
+
+    /** Checks that mount tables are read from files, and that tables with no
+        root partition are rejected. */
+    private void checkRead() throws Throwable
+    {
+        File                file = File.createTempFile("mounts", ".txt");
+
+        try
+        {
+            PrintWriter     writer = new PrintWriter(file);
+
+            writer.println("# partitions");
+            writer.println("/data   storage2 6002 6003");
+            writer.println();
+            writer.println("/       storage1 6000 6001");
+            writer.close();
+
+            MountTable      table = MountTable.read(file);
+
+            if(table.size() != 2 || !table.mount(0).prefix.isRoot() ||
+               !table.mount(1).hostname.equals("storage2") ||
+               table.mount(1).registration_port != 6003)
+            {
+                throw new TestFailed("mount table read incorrectly");
+            }
+
+            writer = new PrintWriter(file);
+            writer.println("/data storage2 6002 6003");
+            writer.close();
+
+            try
+            {
+                MountTable.read(file);
+                throw new TestFailed("mount table with no root accepted");
+            }
+            catch(IOException e) { }
+        }
+        finally
+        {
+            file.delete();
+        }
+    }
+}
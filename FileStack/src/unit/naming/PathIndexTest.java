@@ -0,0 +1,193 @@
+package naming;
+
+import java.io.*;
+
+import test.*;
+import common.*;
+import rmi.*;
+
+/** Unit test for the naming server path index.
+
+    <p>
+    The test builds a small tree through registration and the creation
+    methods, and checks that every object in the tree can be found through the
+    index, that deleting a directory drops the directory and all of its
+    descendants from the index, and that an object re-created at a deleted
+    path is indexed afresh. It then races the creation of objects in a
+    directory against the deletion of the directory, and checks that no
+    object created in the deleted directory is left in the index.
+ */
+public class PathIndexTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking naming server path index";
+
+    /** Number of times creation is raced against deletion. */
+    private static final int    RACES = 2000;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testDelete();
+            testRace();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks that deleting a directory drops its subtree from the index.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testDelete() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   storage = new NullStorageServer();
+
+        Path                directory = new Path("/directory");
+        Path                subdirectory = new Path("/directory/sub");
+        Path                file = new Path("/directory/sub/file");
+        Path                created = new Path("/directory/created");
+
+        try
+        {
+            server.register(storage, storage, new Path[] {file});
+
+            if(!server.createFile(created))
+                throw new TestFailed("unable to create " + created);
+
+            for(Path path : new Path[] {directory, subdirectory, file, created})
+            {
+                Node    node = server.index.get(path);
+
+                if(node == null)
+                    throw new TestFailed(path + " is not indexed");
+
+                if(node != server.root.getPathNode(path))
+                {
+                    throw new TestFailed("index entry for " + path +
+                                         " differs from tree");
+                }
+            }
+
+            Node    old = server.index.get(file);
+
+            if(!server.delete(directory))
+                throw new TestFailed("unable to delete " + directory);
+
+            for(Path path : new Path[] {directory, subdirectory, file, created})
+            {
+                if(server.index.containsKey(path))
+                {
+                    throw new TestFailed(path + " still indexed after " +
+                                         "deletion");
+                }
+            }
+
+            if(!old.unlinked)
+                throw new TestFailed("deleted node not marked unlinked");
+
+            try
+            {
+                server.lookup(file);
+                throw new TestFailed("lookup found deleted " + file);
+            }
+            catch(FileNotFoundException e) { }
+
+            if(!server.createDirectory(directory))
+                throw new TestFailed("unable to re-create " + directory);
+
+            if(server.lookup(directory) != server.root.getPathNode(directory))
+                throw new TestFailed("re-created directory not indexed");
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Checks that an object created in a directory as the directory is
+        deleted does not outlive the directory.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testRace() throws Throwable
+    {
+        final NamingServer  server = new NamingServer();
+        NullStorageServer   storage = new NullStorageServer();
+        Path                directory = new Path("/directory");
+
+        try
+        {
+            server.register(storage, storage, new Path[0]);
+
+            for(int race = 0; race < RACES; ++race)
+            {
+                final Path  child = new Path(directory, "child" + race);
+                final boolean file = race % 2 == 0;
+                Thread      creator = new Thread()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try
+                        {
+                            if(file)
+                                server.createFile(child);
+                            else
+                                server.createDirectory(child);
+                        }
+                        catch(FileNotFoundException e) { }
+                        catch(RMIException e) { }
+                    }
+                };
+
+                if(!server.createDirectory(directory))
+                    throw new TestFailed("unable to create " + directory);
+
+                creator.start();
+
+                if(!server.delete(directory))
+                    throw new TestFailed("unable to delete " + directory);
+
+                creator.join();
+
+                if(server.index.containsKey(child))
+                {
+                    throw new TestFailed(child + " indexed after its " +
+                                         "directory was deleted");
+                }
+
+                // A stale index entry would be found once the directory
+                // exists again.
+                server.createDirectory(directory);
+
+                try
+                {
+                    server.lookup(child);
+                    throw new TestFailed("lookup found " + child + " in " +
+                                         "re-created directory");
+                }
+                catch(FileNotFoundException e) { }
+
+                server.delete(directory);
+            }
+
+            if(server.serverStats.get(storage).files() != 0)
+                throw new TestFailed("files of deleted directories counted");
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for file placement.
+
+    <p>
+    The test checks the choices made by each placement policy against known
+    server statistics, and that the naming server spreads newly created files
+    over all registered storage servers and keeps its per-server file counts
+    up to date as files are created and deleted. It then checks that the
+    space in use reported in heartbeats steers the least-bytes policy of the
+    naming server.
+ */
+public class PlacementPolicyTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server placement policies";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testPolicies();
+            testCreation();
+            testHeartbeatUsage();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks each policy against fixed statistics. */
+    private void testPolicies() throws TestFailed
+    {
+        Path                file = new Path("/file");
+        List<ServerStats>   servers = new ArrayList<ServerStats>();
+
+        for(int index = 0; index < 3; ++index)
+            servers.add(new ServerStats(new NullStorageServer(), index));
+
+        // Server 0 hosts the most files, server 1 is the busiest and server 2
+        // stores the most bytes.
+        servers.get(0).addFiles(10);
+        servers.get(1).addFiles(5);
+        servers.get(1).begin();
+        servers.get(2).addFiles(1);
+
+        PlacementPolicy     round_robin =
+            PlacementPolicy.forName("round-robin");
+
+        for(int index = 0; index < 6; ++index)
+        {
+            if(round_robin.select(file, servers) != servers.get(index % 3))
+                throw new TestFailed("round-robin skipped a server");
+        }
+
+        PlacementPolicy     least_bytes =
+            PlacementPolicy.forName("least-bytes");
+
+        if(least_bytes.select(file, servers) != servers.get(2))
+            throw new TestFailed("least-bytes ignored file counts");
+
+        servers.get(0).reportHeartbeat(new StorageLoad(1000, 700, 0));
+        servers.get(1).reportHeartbeat(new StorageLoad(1000, 800, 0));
+        servers.get(2).reportHeartbeat(new StorageLoad(1000, 600, 0));
+
+        if(least_bytes.select(file, servers) != servers.get(1))
+            throw new TestFailed("least-bytes ignored reported usage");
+
+        PlacementPolicy     in_flight =
+            PlacementPolicy.forName("least-in-flight");
+
+        if(in_flight.select(file, servers) != servers.get(2))
+            throw new TestFailed("least-in-flight chose wrong server");
+
+        // With only two candidates, both are always sampled.
+        PlacementPolicy     two = PlacementPolicy.forName("two-choices");
+        List<ServerStats>   pair = servers.subList(0, 2);
+
+        for(int index = 0; index < 20; ++index)
+        {
+            if(two.select(file, pair) != servers.get(0))
+                throw new TestFailed("two-choices chose busier server");
+        }
+
+        try
+        {
+            PlacementPolicy.forName("nearest");
+            throw new TestFailed("unknown policy accepted");
+        }
+        catch(IllegalArgumentException e) { }
+    }
+
+    /** Checks that created files are spread and counted. */
+    private void testCreation() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+
+        try
+        {
+            for(int index = 0; index < 4; ++index)
+            {
+                NullStorageServer   storage = new NullStorageServer();
+
+                server.register(storage, storage, new Path[0]);
+            }
+
+            for(int index = 0; index < 40; ++index)
+                server.createFile(new Path("/file" + index));
+
+            for(ServerStats stats : server.serverStatistics())
+            {
+                if(stats.files() != 10)
+                {
+                    throw new TestFailed("server hosts " + stats.files() +
+                                         " of 40 files, expected 10");
+                }
+            }
+
+            for(int index = 0; index < 40; ++index)
+                server.delete(new Path("/file" + index));
+
+            for(ServerStats stats : server.serverStatistics())
+            {
+                if(stats.files() != 0)
+                    throw new TestFailed("deleted files still counted");
+            }
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Checks that least-bytes placement follows the space in use reported
+        in heartbeats. */
+    private void testHeartbeatUsage() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer[] stores = new NullStorageServer[3];
+        long[]              free = {300, 900, 600};
+
+        try
+        {
+            server.setPlacementPolicy(PlacementPolicy.forName("least-bytes"));
+
+            for(int index = 0; index < stores.length; ++index)
+            {
+                stores[index] = new NullStorageServer();
+                server.register(stores[index], stores[index], new Path[0]);
+                server.heartbeat(stores[index],
+                                 new StorageLoad(1000, free[index], 0));
+            }
+
+            // All three servers host no files, and differ only in the space
+            // in use.
+            Path            file = new Path("/placed");
+
+            server.createFile(file);
+
+            if(server.lookup(file).storageStub != stores[1])
+                throw new TestFailed("least-bytes ignored heartbeat usage");
+
+            server.heartbeat(stores[2], new StorageLoad(1000, 950, 0));
+            file = new Path("/moved");
+            server.createFile(file);
+
+            if(server.lookup(file).storageStub != stores[2])
+                throw new TestFailed("least-bytes ignored later heartbeat");
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package naming;
+
+import test.*;
+import common.*;
+
+/** Unit test for replica-aware read routing.
+
+    <p>
+    The test replicates a file to a second storage server and checks that
+    <code>getStorage</code> spreads reads evenly over both copies under the
+    default round-robin routing, sends them to the less loaded server under
+    least-loaded routing, and only to the primary under primary routing, with
+    the per-server read counters matching in each case. It also checks that
+    once the file is locked for exclusive access, only the primary is
+    returned.
+ */
+public class ReadRoutingTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server read routing";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+        Path                file = new Path("/file");
+
+        try
+        {
+            server.register(first, first, new Path[] {file});
+            server.register(second, second, new Path[0]);
+
+            ServerStats     primary = server.serverStats.get(first);
+            ServerStats     replica = server.serverStats.get(second);
+
+            // Without replicas, every read goes to the primary.
+            for(int read = 0; read < 10; ++read)
+            {
+                if(server.getStorage(file) != first)
+                    throw new TestFailed("unreplicated file read elsewhere");
+            }
+
+            if(!server.publishReplica(server.lookup(file), 0, second))
+                throw new TestFailed("unable to publish replica");
+
+            for(int read = 0; read < 100; ++read)
+                server.getStorage(file);
+
+            if(primary.reads() != 60 || replica.reads() != 50)
+            {
+                throw new TestFailed("round-robin sent " + primary.reads() +
+                                     " and " + replica.reads() + " reads, " +
+                                     "expected 60 and 50");
+            }
+
+            // The primary has had ten more reads, so it is busier.
+            server.setReadRouting(ReadRouting.forName("least-loaded"));
+
+            if(server.getStorage(file) != second)
+                throw new TestFailed("least-loaded chose busier server");
+
+            server.setReadRouting(ReadRouting.forName("primary"));
+
+            for(int read = 0; read < 10; ++read)
+            {
+                if(server.getStorage(file) != first)
+                    throw new TestFailed("primary routing used replica");
+            }
+
+            server.setReadRouting(ReadRouting.forName("round-robin"));
+            server.lock(file, true);
+
+            try
+            {
+                for(int read = 0; read < 10; ++read)
+                {
+                    if(server.getStorage(file) != first)
+                        throw new TestFailed("writer directed to replica");
+                }
+            }
+            finally
+            {
+                server.unlock(file, true);
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for the rebalancer.
+
+    <p>
+    One of three storage servers reports its filesystem nearly full, and the
+    other two nearly empty. The test checks that the rebalancer moves files
+    from the full server to the empty ones, switching their primaries and
+    deleting the old copies, until the empty servers reach the average
+    utilization, and that it never moves a file locked for exclusive access.
+    It then checks that the copies of a round are paced to its bandwidth.
+ */
+public class RebalanceTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice = "checking the rebalancer";
+
+    /** Size of each file, in bytes. */
+    private static final long   SIZE = 100;
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testMoves();
+            testBandwidth();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks which files are moved, and where.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testMoves() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        DeletingServer      full = new DeletingServer();
+        DeletingServer[]    empty = {new DeletingServer(),
+                                     new DeletingServer()};
+        Path[]              files = setUp(server, full, empty);
+        Path                written = files[0];
+
+        try
+        {
+            server.setRebalancing(1 << 20, 0.1);
+
+            // The writer reports the size of the file as it writes.
+            server.lock(written, true);
+            server.updateAttributes(full, new Path[] {written},
+                                    new long[] {SIZE}, new long[] {0});
+
+            // The average utilization is 11/30. Each empty server can take
+            // two files before rising above it.
+            int             moved = server.rebalancer.run();
+
+            if(moved != 4)
+                throw new TestFailed(moved + " files moved, expected 4");
+
+            if(server.lookup(written).storageStub != full)
+                throw new TestFailed("file locked for writing moved");
+
+            ArrayList<Path> away = new ArrayList<Path>();
+
+            for(Path file : files)
+            {
+                Storage     primary = server.lookup(file).storageStub;
+
+                if(primary != full)
+                {
+                    away.add(file);
+
+                    if(primary != empty[0] && primary != empty[1])
+                        throw new TestFailed(file + " moved to unknown server");
+                }
+
+                if(server.replicas.containsKey(file))
+                    throw new TestFailed(file + " left with a replica");
+            }
+
+            long            deadline = System.currentTimeMillis() + 2000;
+
+            while(!full.deleted().containsAll(away))
+            {
+                if(System.currentTimeMillis() > deadline)
+                {
+                    throw new TestFailed("old copies not deleted: " +
+                                         full.deleted());
+                }
+
+                Thread.sleep(20);
+            }
+
+            if(server.serverStats.get(full).files() != files.length - 4)
+                throw new TestFailed("moved files still counted on source");
+
+            server.unlock(written, true);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Checks that the copies of a round are paced to the bandwidth.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testBandwidth() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        DeletingServer      full = new DeletingServer();
+        DeletingServer[]    empty = {new DeletingServer(),
+                                     new DeletingServer()};
+
+        setUp(server, full, empty);
+
+        try
+        {
+            // The bucket starts with two files' worth of tokens, and the
+            // other two files wait for half a second each.
+            server.setRebalancing(SIZE * 2, 0.1);
+
+            long            start = System.currentTimeMillis();
+            int             moved = server.rebalancer.run();
+            long            elapsed = System.currentTimeMillis() - start;
+
+            if(moved != 4)
+                throw new TestFailed(moved + " files moved, expected 4");
+
+            if(elapsed < 900)
+            {
+                throw new TestFailed("four files moved in " + elapsed +
+                                     " ms at two a second");
+            }
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Registers ten files of known size on the full server, and reports
+        the servers' space.
+
+        @return The files.
+     */
+    private Path[] setUp(NamingServer server, DeletingServer full,
+                         DeletingServer[] empty) throws Throwable
+    {
+        Path[]              files = new Path[10];
+        long[]              sizes = new long[files.length];
+
+        for(int index = 0; index < files.length; ++index)
+        {
+            files[index] = new Path("/file" + index);
+            sizes[index] = SIZE;
+        }
+
+        server.register(full, full, files);
+        server.updateAttributes(full, files, sizes, new long[files.length]);
+        server.heartbeat(full, new StorageLoad(1000, 100, 0));
+
+        for(DeletingServer store : empty)
+        {
+            server.register(store, store, new Path[0]);
+            server.heartbeat(store, new StorageLoad(1000, 900, 0));
+        }
+
+        return files;
+    }
+
+    /** Storage server that records the paths it is told to delete. */
+    private static class DeletingServer extends NullStorageServer
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Paths this server has been told to delete. */
+        private final List<Path>    deleted = new ArrayList<Path>();
+
+        @Override
+        public boolean delete(Path path)
+        {
+            synchronized(deleted)
+            {
+                deleted.add(path);
+            }
+
+            return true;
+        }
+
+        /** Returns the paths this server has been told to delete. */
+        List<Path> deleted()
+        {
+            synchronized(deleted)
+            {
+                return new ArrayList<Path>(deleted);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package naming;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for the detection of storage servers while files are being
+    recovered.
+
+    <p>
+    A storage server holding a replica of a file stops sending heartbeats,
+    and the only server the file can be copied to takes as long as the test
+    lets it to make the copy. While the copy is in progress, the dead server
+    sends a heartbeat again. The test checks that the naming server notices
+    the server's return without waiting for the copy to complete.
+ */
+public class RecoveryProgressTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking server liveness during recovery copies";
+
+    /** Time without a heartbeat after which a server is considered dead. */
+    private static final long   DEAD = 200;
+
+    /** Counted down once the copy has started. */
+    private final CountDownLatch    started = new CountDownLatch(1);
+    /** Counted down to let the copy complete. */
+    private final CountDownLatch    released = new CountDownLatch(1);
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   live = new NullStorageServer();
+        NullStorageServer   dying = new NullStorageServer();
+        NullStorageServer   slow = new SlowServer();
+        Path                file = new Path("/file");
+
+        try
+        {
+            server.setHeartbeatTimeouts(DEAD / 2, DEAD);
+            server.register(live, live, new Path[] {file});
+            server.register(dying, dying, new Path[0]);
+            server.register(slow, slow, new Path[0]);
+            server.publishReplica(server.lookup(file), 0, dying);
+            server.heartbeat(dying, new StorageLoad(100, 50, 0));
+
+            if(!started.await(DEAD * 5, TimeUnit.MILLISECONDS))
+                throw new TestFailed("file not copied from dead server");
+
+            server.heartbeat(dying, new StorageLoad(100, 50, 0));
+
+            long            deadline = System.currentTimeMillis() + DEAD;
+
+            while(server.serverStats.get(dying).lost())
+            {
+                if(System.currentTimeMillis() > deadline)
+                {
+                    throw new TestFailed("returning server not noticed " +
+                                         "while a copy was in progress");
+                }
+
+                Thread.sleep(20);
+            }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            released.countDown();
+            server.replication.shutdown();
+        }
+    }
+
+    /** Storage server that does not complete a copy until it is released. */
+    private class SlowServer extends NullStorageServer
+    {
+        private static final long   serialVersionUID = 1L;
+
+        @Override
+        public boolean copy(Path file, Storage server)
+        {
+            started.countDown();
+
+            try
+            {
+                released.await();
+            }
+            catch(InterruptedException e)
+            {
+                return false;
+            }
+
+            return true;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for the retries of failed recovery copies.
+
+    <p>
+    A storage server holding a replica of a file stops sending heartbeats,
+    and the only server the file can be copied to fails every copy. The test
+    checks that a failed copy is not retried at once, and that the file stays
+    queued for copies however many attempts fail.
+ */
+public class RecoveryRetryTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking retries of failed recovery copies";
+
+    /** Time without a heartbeat after which a server is considered dead. */
+    private static final long   DEAD = 200;
+    /** Delay before the first retry of a failed copy, in milliseconds. */
+    private static final long   RETRY = 150;
+
+    /** Number of attempts to copy the file. */
+    private final AtomicInteger attempts = new AtomicInteger();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   live = new NullStorageServer();
+        NullStorageServer   dying = new NullStorageServer();
+        NullStorageServer   failing = new FailingServer();
+        Path                file = new Path("/file");
+
+        try
+        {
+            server.setHeartbeatTimeouts(DEAD / 2, DEAD);
+            server.recovery.setRetryDelays(RETRY, RETRY * 2);
+            server.register(live, live, new Path[] {file});
+            server.register(dying, dying, new Path[0]);
+            server.register(failing, failing, new Path[0]);
+            server.publishReplica(server.lookup(file), 0, dying);
+            server.heartbeat(dying, new StorageLoad(100, 50, 0));
+
+            waitFor(1, DEAD * 5);
+
+            // The second attempt waits for the first retry.
+            Thread.sleep(RETRY * 2 / 3);
+
+            if(attempts.get() != 1)
+                throw new TestFailed("failed copy retried at once");
+
+            // The third attempt follows the second after twice the delay.
+            waitFor(3, RETRY * 4);
+            Thread.sleep(Rereplicator.INTERVAL * 2);
+
+            if(!server.recovery.pending().equals(Arrays.asList(file)))
+                throw new TestFailed("file given up after failed copies");
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Waits until the number of attempts reaches a value.
+
+        @throws TestFailed If the number is not reached in time.
+     */
+    private void waitFor(int value, long timeout)
+        throws TestFailed, InterruptedException
+    {
+        long                deadline = System.currentTimeMillis() + timeout;
+
+        while(attempts.get() < value)
+        {
+            if(System.currentTimeMillis() > deadline)
+            {
+                throw new TestFailed("only " + attempts.get() + " attempts " +
+                                     "made to copy file");
+            }
+
+            Thread.sleep(20);
+        }
+    }
+
+    /** Storage server that fails every copy, and counts the attempts. */
+    private class FailingServer extends NullStorageServer
+    {
+        private static final long   serialVersionUID = 1L;
+
+        @Override
+        public boolean copy(Path file, Storage server)
+        {
+            attempts.incrementAndGet();
+            return false;
+        }
+    }
+}
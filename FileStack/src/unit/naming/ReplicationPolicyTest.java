@@ -0,0 +1,130 @@
+package naming;
+
+import test.*;
+import common.*;
+
+/** Unit test for heat-driven replication decisions.
+
+    <p>
+    The test checks that file heat decays with the configured half-life, that
+    the default policy first asks for a replica on the twenty-first read of a
+    burst, and that a sweep drops the replicas of a file that has gone cold
+    while keeping those of a file that is still being read.
+ */
+public class ReplicationPolicyTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server replication policy engine";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testDecay();
+            testThresholds();
+            testSweep();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks that heat halves every half-life. */
+    private void testDecay() throws TestFailed
+    {
+        AccessHeat  heat = new AccessHeat();
+        long        start = System.nanoTime();
+        long        half_life = 1000000000L;
+
+        heat.reset(start);
+
+        for(int read = 0; read < 8; ++read)
+            heat.record(start, half_life);
+
+        double      later = heat.current(start + 2 * half_life, half_life);
+
+        if(Math.abs(later - 2) > 1e-9)
+            throw new TestFailed("heat of 8 is " + later + " after two " +
+                                 "half-lives, expected 2");
+    }
+
+    /** Checks the default replica counts. */
+    private void testThresholds() throws TestFailed
+    {
+        ReplicationPolicy   policy = new ReplicationPolicy();
+
+        if(policy.replicasToCreate(20) != 0)
+            throw new TestFailed("replica requested at heat 20");
+
+        if(policy.replicasToCreate(21) != 1)
+            throw new TestFailed("no replica requested at heat 21");
+
+        if(policy.replicasToCreate(41) != 2)
+            throw new TestFailed("second replica not requested at heat 41");
+
+        if(policy.replicasToKeep(6) != 1 || policy.replicasToKeep(5) != 0)
+            throw new TestFailed("replicas kept at wrong heat");
+
+        policy.max_replicas = 1;
+
+        if(policy.replicasToCreate(1000) != 1)
+            throw new TestFailed("replica limit not applied");
+    }
+
+    /** Checks that a sweep trims cold files only. */
+    private void testSweep() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+        Path                cold = new Path("/cold");
+        Path                hot = new Path("/hot");
+
+        try
+        {
+            server.register(first, first, new Path[] {cold, hot});
+            server.register(second, second, new Path[0]);
+            server.setHeatHalfLife(50);
+
+            Node            cold_node = server.lookup(cold);
+            Node            hot_node = server.lookup(hot);
+
+            for(Node node : new Node[] {cold_node, hot_node})
+            {
+                if(!server.publishReplica(node, node.version, second))
+                    throw new TestFailed("unable to publish replica");
+            }
+
+            // Let the cold file's heat decay to nothing, then heat the other
+            // file up just before the sweep.
+            Thread.sleep(200);
+
+            for(int read = 0; read < 30; ++read)
+                hot_node.heat.record(System.nanoTime(), 50000000L);
+
+            server.sweepColdReplicas();
+
+            if(server.replicas.containsKey(cold))
+                throw new TestFailed("replica of cold file kept");
+
+            if(!server.replicas.containsKey(hot))
+                throw new TestFailed("replica of hot file dropped");
+
+            // The sweep must not leave the cold file locked.
+            server.lock(cold, true);
+            server.unlock(cold, true);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
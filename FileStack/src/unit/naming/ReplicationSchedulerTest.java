@@ -0,0 +1,162 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for background replication.
+
+    <p>
+    The test checks that the replication scheduler runs the tasks of a single
+    path one at a time and in submission order, while tasks of different paths
+    run in parallel, and that a replica copied before its file was locked for
+    exclusive access is never published.
+ */
+public class ReplicationSchedulerTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server replication scheduler";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testOrdering();
+            testStaleCopy();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks per-path ordering and cross-path parallelism. */
+    private void testOrdering() throws Throwable
+    {
+        ReplicationScheduler    scheduler = new ReplicationScheduler();
+        final List<Integer>     order =
+            Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch    blocked = new CountDownLatch(1);
+        final CountDownLatch    other = new CountDownLatch(1);
+        Path                    file = new Path("/file");
+
+        try
+        {
+            // The first task of /file waits until a task of another path has
+            // run, which it can only do if paths are served in parallel.
+            scheduler.submit(file, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        other.await();
+                    }
+                    catch(InterruptedException e) { }
+
+                    order.add(0);
+                    blocked.countDown();
+                }
+            });
+
+            for(int index = 1; index < 100; ++index)
+            {
+                final int   value = index;
+
+                scheduler.submit(file, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        order.add(value);
+                    }
+                });
+            }
+
+            final CountDownLatch    done = new CountDownLatch(1);
+
+            scheduler.submit(new Path("/other"), new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    other.countDown();
+                }
+            });
+
+            scheduler.submit(file, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    done.countDown();
+                }
+            });
+
+            done.await();
+
+            for(int index = 0; index < 100; ++index)
+            {
+                if(order.get(index) != index)
+                    throw new TestFailed("tasks of a path run out of order");
+            }
+        }
+        finally
+        {
+            scheduler.shutdown();
+        }
+    }
+
+    /** Checks that a copy made at an old version is not published. */
+    private void testStaleCopy() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   first = new NullStorageServer();
+        NullStorageServer   second = new NullStorageServer();
+        Path                file = new Path("/file");
+
+        try
+        {
+            server.register(first, first, new Path[] {file});
+            server.register(second, second, new Path[0]);
+
+            Node            node = server.lookup(file);
+            long            version;
+
+            synchronized(node)
+            {
+                version = node.version;
+            }
+
+            server.invalidateReplicas(node);
+
+            if(server.publishReplica(node, version, second))
+                throw new TestFailed("stale replica published");
+
+            synchronized(node)
+            {
+                version = node.version;
+            }
+
+            if(!server.publishReplica(node, version, second))
+                throw new TestFailed("current replica not published");
+
+            if(!server.replicas.get(file).contains(second))
+                throw new TestFailed("published replica not in replica map");
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
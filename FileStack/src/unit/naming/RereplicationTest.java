@@ -0,0 +1,294 @@
+package naming;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import test.*;
+import common.*;
+import storage.*;
+
+/** Unit test for the recovery of files lost with a storage server.
+
+    <p>
+    A storage server holding primaries and replicas of several files stops
+    sending heartbeats. The test checks that once the server is considered
+    dead, its replicas are unpublished, its primaries are replaced by
+    replicas on live servers, and each replicated file is copied back to the
+    number of copies it had, while a file held by the dead server alone is
+    kept. It then checks the order in which queued files are copied, and
+    that the copies keep to the concurrency limits.
+ */
+public class RereplicationTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking recovery of files from dead storage servers";
+
+    /** Time without a heartbeat after which a server is considered dead. */
+    private static final long   DEAD = 200;
+    /** Time a copy takes, in milliseconds. */
+    private static final long   DELAY = 50;
+
+    /** Number of copies completed. */
+    private final AtomicInteger copies = new AtomicInteger();
+    /** Number of copies in progress. */
+    private final AtomicInteger inTotal = new AtomicInteger();
+    /** Largest number of copies made at once to a single server. */
+    private final AtomicInteger most = new AtomicInteger();
+    /** Largest number of copies made at once. */
+    private final AtomicInteger mostInTotal = new AtomicInteger();
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        try
+        {
+            testRecovery();
+            testOrder();
+            testLimits();
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+    }
+
+    /** Checks that the copies held by a dead server are given up and
+        restored elsewhere.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testRecovery() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   live = new NullStorageServer();
+        NullStorageServer   dying = new NullStorageServer();
+        NullStorageServer   spare = new NullStorageServer();
+        Path                replicated = new Path("/replicated");
+        Path                promoted = new Path("/promoted");
+        Path                alone = new Path("/alone");
+
+        try
+        {
+            server.setHeartbeatTimeouts(DEAD / 2, DEAD);
+            server.register(live, live, new Path[] {replicated});
+            server.register(dying, dying, new Path[] {promoted, alone});
+            server.register(spare, spare, new Path[0]);
+            server.publishReplica(server.lookup(replicated), 0, dying);
+            server.publishReplica(server.lookup(promoted), 0, live);
+
+            server.heartbeat(dying, new StorageLoad(100, 50, 0));
+
+            long            deadline = System.currentTimeMillis() + 3000;
+
+            while(!restored(server, replicated, live, spare) ||
+                  !restored(server, promoted, live, spare))
+            {
+                if(System.currentTimeMillis() > deadline)
+                {
+                    throw new TestFailed("files not restored: " +
+                                         server.replicas);
+                }
+
+                Thread.sleep(20);
+            }
+
+            if(!server.serverStats.get(dying).lost())
+                throw new TestFailed("dead server not marked lost");
+
+            if(server.lookup(alone).storageStub != dying)
+                throw new TestFailed("file held by dead server alone lost");
+
+            // The server returns.
+            deadline = System.currentTimeMillis() + 1000;
+
+            while(server.serverStats.get(dying).lost())
+            {
+                if(System.currentTimeMillis() > deadline)
+                    throw new TestFailed("returning server still marked lost");
+
+                server.heartbeat(dying, new StorageLoad(100, 50, 0));
+                Thread.sleep(20);
+            }
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Returns whether a file has its primary on one server and a single
+        replica on another. */
+    private boolean restored(NamingServer server, Path file, Storage primary,
+                             Storage replica) throws Throwable
+    {
+        Set<Storage>        copies = server.replicas.get(file);
+
+        return server.lookup(file).storageStub == primary && copies != null &&
+               copies.equals(Collections.singleton(replica));
+    }
+
+    /** Checks that files with the fewest copies left come first, and among
+        those, the hottest.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testOrder() throws TestFailed
+    {
+        Rereplicator        recovery = new Rereplicator(new NamingServer());
+
+        recovery.add(node("/warm-two"), 3, 2, 5);
+        recovery.add(node("/cold-one"), 2, 1, 1);
+        recovery.add(node("/hot-one"), 2, 1, 9);
+        recovery.add(node("/hot-two"), 3, 2, 9);
+
+        List<Path>          expected =
+            Arrays.asList(new Path("/hot-one"), new Path("/cold-one"),
+                          new Path("/hot-two"), new Path("/warm-two"));
+
+        if(!recovery.pending().equals(expected))
+        {
+            throw new TestFailed("files queued in the wrong order: " +
+                                 recovery.pending());
+        }
+
+        // Queueing a file again replaces its entry.
+        recovery.add(node("/warm-two"), 2, 1, 20);
+
+        if(recovery.size() != 4 ||
+           !recovery.pending().get(0).equals(new Path("/warm-two")))
+        {
+            throw new TestFailed("queued file not replaced");
+        }
+    }
+
+    /** Checks that no more copies are made at once than the limits allow.
+
+        @throws TestFailed If the test fails.
+     */
+    private void testLimits() throws Throwable
+    {
+        NamingServer        server = new NamingServer();
+        CopyingServer[]     stores = new CopyingServer[5];
+        CopyingServer       dying = new CopyingServer();
+        Path[]              files = new Path[12];
+        int                 replicated = 0;
+
+        try
+        {
+            server.setHeartbeatTimeouts(DEAD / 2, DEAD);
+            server.setRecoveryLimits(3, 1);
+
+            for(int index = 0; index < stores.length; ++index)
+            {
+                stores[index] = new CopyingServer();
+                server.register(stores[index], stores[index], new Path[0]);
+            }
+
+            server.register(dying, dying, new Path[0]);
+
+            for(int index = 0; index < files.length; ++index)
+            {
+                files[index] = new Path("/file" + index);
+                server.createFile(files[index]);
+
+                Node        n = server.lookup(files[index]);
+
+                if(n.storageStub != dying)
+                {
+                    server.publishReplica(n, n.version, dying);
+                    ++replicated;
+                }
+            }
+
+            server.heartbeat(dying, new StorageLoad(100, 50, 0));
+
+            long            deadline = System.currentTimeMillis() + 5000;
+
+            while(copies.get() < replicated ||
+                  server.recovery.size() != 0)
+            {
+                if(System.currentTimeMillis() > deadline)
+                {
+                    throw new TestFailed("only " + copies.get() +
+                                         " files restored");
+                }
+
+                Thread.sleep(20);
+            }
+
+            if(most.get() > 1)
+            {
+                throw new TestFailed(most.get() + " copies " +
+                                     "made to one server at once");
+            }
+
+            if(mostInTotal.get() > 3)
+            {
+                throw new TestFailed(mostInTotal.get() +
+                                     " copies made at once");
+            }
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Creates a file node for the ordering test. */
+    private static Node node(String path)
+    {
+        return new Node(true, new Path(path), null);
+    }
+
+    /** Storage server that takes a while to copy a file, and records how
+        many copies are made to it, and to all such servers, at once. */
+    private class CopyingServer extends NullStorageServer
+    {
+        private static final long   serialVersionUID = 1L;
+
+        /** Number of copies in progress to this server. */
+        private final AtomicInteger running = new AtomicInteger();
+
+        @Override
+        public boolean copy(Path file, Storage server)
+        {
+            raise(most, running.incrementAndGet());
+            raise(mostInTotal, inTotal.incrementAndGet());
+
+            try
+            {
+                Thread.sleep(DELAY);
+            }
+            catch(InterruptedException e)
+            {
+                return false;
+            }
+            finally
+            {
+                running.decrementAndGet();
+                inTotal.decrementAndGet();
+            }
+
+            copies.incrementAndGet();
+            return true;
+        }
+    }
+
+    /** Raises a maximum to a value, if the value is greater. */
+    private static void raise(AtomicInteger maximum, int value)
+    {
+        while(true)
+        {
+            int             current = maximum.get();
+
+            if(value <= current || maximum.compareAndSet(current, value))
+                return;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package naming;
+
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for <code>Service.stat</code>.
+
+    <p>
+    The test examines a replicated file, an unreplicated file on another
+    storage server, a directory, a missing path and a path under a file in a
+    single call, and checks the metadata reported for each. It also checks
+    that a batch with a missing element is rejected.
+ */
+public class StatTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server stat method";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   first = new NullStorageServer()
+        {
+            @Override
+            public long size(Path file)
+            {
+                return 42;
+            }
+        };
+        NullStorageServer   second = new NullStorageServer();
+        Path                replicated = new Path("/directory/replicated");
+        Path                other = new Path("/other");
+
+        try
+        {
+            server.register(first, first, new Path[] {replicated});
+            server.register(second, second, new Path[] {other});
+            server.publishReplica(server.lookup(replicated), 0, second);
+
+            PathStat[]      stats =
+                server.stat(new Path[] {replicated, new Path("/directory"),
+                                        new Path("/missing"),
+                                        new Path("/other/under"), other});
+
+            if(stats.length != 5)
+                throw new TestFailed("wrong number of results");
+
+            if(!stats[0].exists() || stats[0].isDirectory() ||
+               stats[0].size() != 42 || !stats[0].primary().equals(first) ||
+               stats[0].replicas() != 1)
+            {
+                throw new TestFailed("wrong metadata for replicated file");
+            }
+
+            if(!stats[1].exists() || !stats[1].isDirectory() ||
+               stats[1].primary() != null)
+            {
+                throw new TestFailed("wrong metadata for directory");
+            }
+
+            if(stats[2].exists() || stats[3].exists())
+                throw new TestFailed("missing path reported to exist");
+
+            if(!stats[4].exists() || stats[4].size() != 0 ||
+               !stats[4].primary().equals(second) || stats[4].replicas() != 0)
+            {
+                throw new TestFailed("wrong metadata for unreplicated file");
+            }
+
+            try
+            {
+                server.stat(new Path[] {replicated, null});
+                throw new TestFailed("null path accepted");
+            }
+            catch(NullPointerException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+}
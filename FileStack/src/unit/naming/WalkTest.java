@@ -0,0 +1,161 @@
+package naming;
+
+import java.io.*;
+import java.util.*;
+
+import test.*;
+import common.*;
+
+/** Unit test for the naming server's paged recursive walk.
+
+    <p>
+    The test builds a tree whose names sort differently as strings and as
+    paths, walks it a page at a time, and checks that the pages
+    together list every entry exactly once, in path order, with the right
+    types. It then checks that a walk resumes correctly from a cursor that has
+    been deleted, that a subdirectory can be walked on its own, that pages are
+    no longer than the naming server allows, and that bad arguments are
+    rejected.
+ */
+public class WalkTest extends Test
+{
+    /** Test notice. */
+    public static final String  notice =
+        "checking naming server recursive walk";
+
+    /** Performs the test.
+
+        @throws TestFailed If the test fails.
+     */
+    @Override
+    protected void perform() throws TestFailed
+    {
+        NamingServer        server = new NamingServer();
+        NullStorageServer   storage = new NullStorageServer();
+
+        try
+        {
+            ArrayList<Path> files = new ArrayList<Path>();
+
+            for(String name : new String[] {"/a/b", "/a/c/d", "/a-b", "/a0/x",
+                                            "/b/c/d/e", "/b/f", "/z"})
+            {
+                files.add(new Path(name));
+            }
+
+            for(int index = 0; index <= NamingServer.MAX_PAGE;
+                ++index)
+            {
+                files.add(new Path("/big/f" + index));
+            }
+
+            server.register(storage, storage, files.toArray(new Path[0]));
+            server.createDirectory(new Path("/empty"));
+
+            // Every file and directory, in path order.
+            TreeSet<Path>   expected = new TreeSet<Path>();
+
+            for(Path file : files)
+            {
+                for(Path path = file; !path.isRoot(); path = path.parent())
+                    expected.add(path);
+            }
+
+            expected.add(new Path("/empty"));
+
+            List<Path>      walked = walk(server, new Path("/"), 97);
+
+            if(!walked.equals(new ArrayList<Path>(expected)))
+                throw new TestFailed("walk listed wrong entries");
+
+            // Resume from a cursor that no longer exists.
+            WalkPage        page = server.walk(new Path("/a"), null, 2);
+
+            if(page.complete() || !page.cursor().equals(new Path("/a/c")) ||
+               page.isDirectory(0) || !page.isDirectory(1) ||
+               page.size(1) != -1)
+            {
+                throw new TestFailed("wrong first page of /a");
+            }
+
+            server.delete(new Path("/a/c"));
+            page = server.walk(new Path("/"), page.cursor(), 2);
+
+            if(!page.path(0).equals(new Path("/a-b")) ||
+               !page.path(1).equals(new Path("/a0")))
+            {
+                throw new TestFailed("walk did not resume after deleted " +
+                                     "cursor");
+            }
+
+            if(!walk(server, new Path("/b"), 1).equals(
+                    Arrays.asList(new Path("/b/c"), new Path("/b/c/d"),
+                                  new Path("/b/c/d/e"), new Path("/b/f"))))
+            {
+                throw new TestFailed("wrong walk of subdirectory");
+            }
+
+            page = server.walk(new Path("/big"), null, Integer.MAX_VALUE);
+
+            if(page.count() != NamingServer.MAX_PAGE || page.complete())
+                throw new TestFailed("page not limited");
+
+            page = server.walk(new Path("/empty"), null, 10);
+
+            if(page.count() != 0 || !page.complete() || page.cursor() != null)
+                throw new TestFailed("wrong walk of empty directory");
+
+            try
+            {
+                server.walk(new Path("/z"), null, 10);
+                throw new TestFailed("file walked");
+            }
+            catch(FileNotFoundException e) { }
+
+            try
+            {
+                server.walk(new Path("/a"), new Path("/b/f"), 10);
+                throw new TestFailed("cursor outside directory accepted");
+            }
+            catch(IllegalArgumentException e) { }
+
+            try
+            {
+                server.walk(new Path("/a"), null, 0);
+                throw new TestFailed("empty page requested");
+            }
+            catch(IllegalArgumentException e) { }
+        }
+        catch(TestFailed e) { throw e; }
+        catch(Throwable t)
+        {
+            throw new TestFailed("unexpected exception", t);
+        }
+        finally
+        {
+            server.replication.shutdown();
+        }
+    }
+
+    /** Walks a directory with pages of the given size and returns the
+        entries listed. */
+    private List<Path> walk(NamingServer server, Path directory, int limit)
+        throws FileNotFoundException
+    {
+        ArrayList<Path>     walked = new ArrayList<Path>();
+        Path                cursor = null;
+
+        do
+        {
+            WalkPage        page = server.walk(directory, cursor, limit);
+
+            for(int index = 0; index < page.count(); ++index)
+                walked.add(page.path(index));
+
+            cursor = page.cursor();
+        }
+        while(cursor != null);
+
+        return walked;
+    }
+}